@@ -78,15 +78,188 @@ public class Config {
         return getInt("tool.stroke_max", 50);
     }
 
+    /**
+     * Sai lệch tối đa (pixel màn hình) khi đơn giản hoá nét bút chì lúc vẽ; 0 = giữ mọi mẫu khác nhau.
+     * Được chia cho mức zoom nên độ chính xác trên màn hình không đổi khi phóng to.
+     */
+    public static double getPencilTolerance() {
+        return getDouble("tool.pencil_tolerance", 1.0);
+    }
+
+    public static boolean isPencilSmoothingEnabled() {
+        return getBoolean("tool.pencil_smoothing", false);
+    }
+
     // Performance Settings
     public static int getThreadPoolSize() {
         return getInt("thread.pool_size", 10);
     }
 
+    /**
+     * PLATFORM hoặc VIRTUAL: loại thread chạy các vòng lặp I/O blocking (xem IoExecutor).
+     */
+    public static String getThreadMode() {
+        return getString("thread.mode", "PLATFORM");
+    }
+
     public static boolean isAntialiasingEnabled() {
         return getBoolean("render.antialiasing", true);
     }
 
+    /**
+     * Bật cache raster dạng tile cho các layer (DrawingCanvas chỉ vẽ lại tile bị thay đổi).
+     */
+    public static boolean isTileCacheEnabled() {
+        return getBoolean("render.tile_cache", true);
+    }
+
+    /**
+     * Số tile 256x256 có ảnh tối thiểu giữ trong cache (LRU), mỗi tile ~256KB. Cache nới ra để
+     * chứa đủ mọi tile một frame cần (viewport x số layer); tile trống được nhớ riêng.
+     */
+    public static int getTileCacheMaxTiles() {
+        return getInt("render.tile_cache_max_tiles", 192);
+    }
+
+    /**
+     * Khoảng cách tối thiểu (ms) giữa hai frame thay đổi remote gửi sang EDT (xem RemoteScene).
+     */
+    public static int getRemoteFrameInterval() {
+        return getInt("render.remote_frame_interval_ms", 16);
+    }
+
+    /**
+     * Số shape remote tối đa áp dụng lên canvas trong một frame; phần dư dời sang frame sau.
+     */
+    public static int getRemoteShapesPerFrame() {
+        return getInt("render.remote_shapes_per_frame", 500);
+    }
+
+    public static int getMessageBatchSize() {
+        return getInt("network.message_batch_size", 50);
+    }
+
+    /**
+     * Thời gian tối đa (ms) writer chờ gom thêm message vào một lô trước khi flush.
+     */
+    public static int getBatchLatencyMs() {
+        return getInt("network.batch_latency_ms", 8);
+    }
+
+    /**
+     * Transport cho kết nối peer: STREAM (ObjectStream, 2 thread/peer) hoặc NIO
+     * (một selector thread dùng chung). Hai transport nói chuyện được với nhau qua frame
+     * FrameCodec; peer cũ (protocol 0, chỉ có ObjectStream) cần STREAM.
+     */
+    public static String getTransportMode() {
+        return getString("network.transport", "STREAM");
+    }
+
+    /**
+     * Topology mặc định khi tạo phòng: MESH (kết nối tới mọi peer), GOSSIP (số hàng xóm giới hạn,
+     * message bảng/chat được relay qua từng hop) hoặc STAR (mọi peer chỉ kết nối tới host, host relay).
+     * Peer join phòng dùng topology mà phòng quảng bá.
+     */
+    public static String getOverlayMode() {
+        return getString("network.overlay", "MESH");
+    }
+
+    /**
+     * GOSSIP: số hàng xóm mỗi peer chủ động kết nối; kết nối tới được nhận tối đa gấp đôi.
+     */
+    public static int getGossipFanout() {
+        return getInt("gossip.fanout", 5);
+    }
+
+    /**
+     * GOSSIP: số hop tối đa một message được relay.
+     */
+    public static int getGossipTtl() {
+        return getInt("gossip.ttl", 6);
+    }
+
+    /**
+     * Hàng đợi ghi của một peer dài quá ngần này thì bản xem trước nét vẽ (STROKE_BEGIN/APPEND)
+     * bị bỏ; shape hoàn chỉnh vẫn tới qua BOARD_OPS.
+     */
+    public static int getQueuePreviewLimit() {
+        return getInt("network.queue_preview_limit", 200);
+    }
+
+    /**
+     * Hàng đợi ghi của một peer dài quá ngần này thì peer bị coi là tụt quá xa: bỏ các thay đổi
+     * bảng đang chờ và đồng bộ lại peer. CLEAR/UNDO/CHAT và op xoá shape không bao giờ bị bỏ.
+     */
+    public static int getQueueResyncLimit() {
+        return getInt("network.queue_resync_limit", 2000);
+    }
+
+    /**
+     * Hàng đợi ghi của một peer vẫn dài tới ngần này khi chỉ còn message không được bỏ (CLEAR,
+     * xoá shape, CHAT, SYNC_*...) thì peer coi như không còn đọc và kết nối bị đóng.
+     */
+    public static int getQueueEssentialLimit() {
+        return getInt("network.queue_essential_limit", 20000);
+    }
+
+    /**
+     * Số op tối đa trong một SYNC_RESPONSE khi đồng bộ lúc kết nối.
+     */
+    public static int getSyncChunkOps() {
+        return getInt("sync.chunk_ops", 200);
+    }
+
+    /**
+     * Kích thước ước tính tối đa (byte) của một SYNC_RESPONSE; nét vẽ dài chiếm nhiều chỗ hơn.
+     */
+    public static int getSyncChunkBytes() {
+        return getInt("sync.chunk_bytes", 65536);
+    }
+
+    /**
+     * Số SYNC_RESPONSE tối đa đã gửi mà bên nhận chưa ACK.
+     */
+    public static int getSyncWindowChunks() {
+        return getInt("sync.window_chunks", 4);
+    }
+
+    /**
+     * Payload frame từ ngần này byte trở lên được nén Deflater; 0 = không nén.
+     * Payload dưới 5 byte không bao giờ được nén, kể cả khi ngưỡng nhỏ hơn.
+     */
+    public static int getCompressThreshold() {
+        return getInt("network.compress_threshold", 4096);
+    }
+
+    /**
+     * Chu kỳ (giây) in snapshot của NetworkMetrics ra log; 0 = không in định kỳ.
+     */
+    public static int getMetricsDumpInterval() {
+        return getInt("metrics.dump_interval_s", 60);
+    }
+
+    /**
+     * Đăng ký NetworkMetrics với platform MBeanServer (xem bằng jconsole / VisualVM).
+     */
+    public static boolean isMetricsJmxEnabled() {
+        return getBoolean("metrics.jmx", true);
+    }
+
+    /**
+     * Gắn trace độ trễ cho 1 trong N message nét vẽ realtime; 0 = tắt.
+     */
+    public static int getTraceSampleInterval() {
+        return getInt("metrics.trace_every", 10);
+    }
+
+    public static int getInputBufferSize() {
+        return getInt("buffer.input_size", 16384);
+    }
+
+    public static int getOutputBufferSize() {
+        return getInt("buffer.output_size", 16384);
+    }
+
     public static int getDiscoveryInterval() {
         return getInt("discovery.interval", 3000);
     }
@@ -100,13 +273,34 @@ public class Config {
         return getBoolean("log.console", true);
     }
 
+    public static boolean isFileLogging() {
+        return getBoolean("log.file", false);
+    }
+
+    public static String getLogFilePath() {
+        return getString("log.filepath", "logs/whiteboard.log");
+    }
+
+    /**
+     * Số dòng log tối đa chờ writer nền của {@link Log}; đầy thì dòng mới bị bỏ.
+     */
+    public static int getLogBufferSize() {
+        return getInt("log.buffer_size", 8192);
+    }
+
     // Helper methods
+    // System property cùng tên (-Dthread.mode=VIRTUAL) ghi đè giá trị trong config.properties
+    private static String lookup(String key) {
+        return System.getProperty(key, properties.getProperty(key));
+    }
+
     private static String getString(String key, String defaultValue) {
-        return properties.getProperty(key, defaultValue);
+        String value = lookup(key);
+        return value != null ? value : defaultValue;
     }
 
     private static int getInt(String key, int defaultValue) {
-        String value = properties.getProperty(key);
+        String value = lookup(key);
         if (value != null) {
             try {
                 return Integer.parseInt(value);
@@ -117,8 +311,20 @@ public class Config {
         return defaultValue;
     }
 
+    private static double getDouble(String key, double defaultValue) {
+        String value = lookup(key);
+        if (value != null) {
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid number value for " + key + ": " + value);
+            }
+        }
+        return defaultValue;
+    }
+
     private static boolean getBoolean(String key, boolean defaultValue) {
-        String value = properties.getProperty(key);
+        String value = lookup(key);
         if (value != null) {
             return Boolean.parseBoolean(value);
         }
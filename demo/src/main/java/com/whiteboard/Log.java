@@ -0,0 +1,250 @@
+package com.whiteboard;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Log bất đồng bộ cho các đường nóng (EDT, thread I/O mạng) thay cho System.out.println.
+ *
+ * Thread gọi chỉ so level rồi đưa dòng log vào ring buffer cố định (không khoá, không chặn);
+ * một thread nền "LogWriter" in ra console và/hoặc file theo log.console / log.file. Dòng
+ * trên console giữ định dạng "[Tag] message" như trước, WARNING/SEVERE ra System.err.
+ * Ring đầy thì dòng mới bị bỏ và được đếm; các dòng còn chờ được ghi nốt khi JVM tắt.
+ *
+ * Level lấy từ log.level. Với log ở level FINE trở xuống trên đường nóng, kiểm tra
+ * {@link #isEnabled(Level)} trước khi nối chuỗi để không tốn gì khi level bị tắt.
+ */
+public final class Log {
+    public enum Level {
+        SEVERE, WARNING, INFO, FINE, FINER, FINEST
+    }
+
+    private static final long IDLE_PARK_NANOS = 5_000_000;
+    private static final Level THRESHOLD = parseLevel(Config.getLogLevel());
+    private static final boolean CONSOLE = Config.isConsoleLogging();
+    // Chỉ dùng trong drain() (giữ khoá class)
+    private static final SimpleDateFormat TIME_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+    /**
+     * Một ô của ring. sequence == vị trí + 1 khi ô đã có dữ liệu cho consumer, == vị trí +
+     * capacity khi consumer đã đọc xong và ô sẵn sàng cho vòng tiếp theo.
+     */
+    private static final class Entry {
+        volatile long sequence;
+        Level level;
+        String tag;
+        String message;
+        Throwable error;
+        long time;
+    }
+
+    private static final Entry[] ring;
+    private static final int mask;
+    private static final AtomicLong tail = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+    // Chỉ writer (hoặc flush khi tắt, dưới khoá class) đọc
+    private static long head;
+    private static long droppedReported;
+    private static BufferedWriter fileWriter;
+
+    static {
+        int capacity = Integer.highestOneBit(Math.max(64, Config.getLogBufferSize()) - 1) << 1;
+        ring = new Entry[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Entry();
+            ring[i].sequence = i;
+        }
+        mask = capacity - 1;
+        if (Config.isFileLogging()) {
+            fileWriter = openFile(Config.getLogFilePath());
+        }
+        Thread writer = new Thread(Log::writeLoop, "LogWriter");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "LogFlush"));
+    }
+
+    private Log() {
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.ordinal() <= THRESHOLD.ordinal();
+    }
+
+    public static void severe(String tag, String message) {
+        log(Level.SEVERE, tag, message, null);
+    }
+
+    public static void severe(String tag, String message, Throwable error) {
+        log(Level.SEVERE, tag, message, error);
+    }
+
+    public static void warning(String tag, String message) {
+        log(Level.WARNING, tag, message, null);
+    }
+
+    public static void info(String tag, String message) {
+        log(Level.INFO, tag, message, null);
+    }
+
+    public static void fine(String tag, String message) {
+        log(Level.FINE, tag, message, null);
+    }
+
+    public static void finer(String tag, String message) {
+        log(Level.FINER, tag, message, null);
+    }
+
+    public static void log(Level level, String tag, String message, Throwable error) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        long position = tail.get();
+        Entry entry;
+        while (true) {
+            entry = ring[(int) position & mask];
+            long available = entry.sequence - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (available < 0) {
+                dropped.incrementAndGet(); // ring đầy: không chặn thread gọi
+                return;
+            } else {
+                position = tail.get();
+            }
+        }
+        entry.level = level;
+        entry.tag = tag;
+        entry.message = message;
+        entry.error = error;
+        entry.time = System.currentTimeMillis();
+        entry.sequence = position + 1;
+    }
+
+    /**
+     * Ghi hết các dòng đang chờ (gọi khi tắt ứng dụng; writer nền vẫn tự ghi bình thường).
+     */
+    public static synchronized void flush() {
+        drain();
+    }
+
+    private static void writeLoop() {
+        while (true) {
+            boolean wrote;
+            synchronized (Log.class) {
+                wrote = drain();
+            }
+            if (!wrote) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Lấy mọi dòng đã sẵn sàng, ghi console theo lô (một lần print cho mỗi stream).
+     */
+    private static boolean drain() {
+        StringBuilder out = new StringBuilder();
+        StringBuilder err = new StringBuilder();
+        StringBuilder file = fileWriter != null ? new StringBuilder() : null;
+        int count = 0;
+        while (true) {
+            Entry entry = ring[(int) head & mask];
+            if (entry.sequence != head + 1) {
+                break;
+            }
+            String line = "[" + entry.tag + "] " + entry.message;
+            String trace = entry.error != null ? stackTrace(entry.error) : null;
+            boolean isError = entry.level.ordinal() <= Level.WARNING.ordinal();
+            if (CONSOLE) {
+                StringBuilder target = isError ? err : out;
+                target.append(line).append('\n');
+                if (trace != null) {
+                    target.append(trace);
+                }
+            }
+            if (file != null) {
+                file.append(formatTime(entry.time)).append(' ').append(entry.level).append(' ')
+                        .append(line).append('\n');
+                if (trace != null) {
+                    file.append(trace);
+                }
+            }
+            entry.tag = null;
+            entry.message = null;
+            entry.error = null;
+            entry.sequence = head + ring.length;
+            head++;
+            count++;
+        }
+        long droppedNow = dropped.get();
+        if (droppedNow > droppedReported) {
+            String line = "[Log] Dropped " + (droppedNow - droppedReported) + " line(s), log buffer full\n";
+            err.append(line);
+            if (file != null) {
+                file.append(formatTime(System.currentTimeMillis())).append(" WARNING ").append(line);
+            }
+            droppedReported = droppedNow;
+        }
+        if (out.length() > 0) {
+            System.out.print(out);
+        }
+        if (err.length() > 0 && CONSOLE) {
+            System.err.print(err);
+        }
+        if (file != null && file.length() > 0) {
+            try {
+                fileWriter.write(file.toString());
+                fileWriter.flush();
+            } catch (IOException e) {
+                System.err.println("[Log] Failed to write log file: " + e.getMessage());
+                fileWriter = null;
+            }
+        }
+        return count > 0;
+    }
+
+    private static Level parseLevel(String value) {
+        try {
+            return Level.valueOf(value.trim().toUpperCase());
+        } catch (RuntimeException e) {
+            System.err.println("[Log] Unknown log.level " + value + ", using INFO");
+            return Level.INFO;
+        }
+    }
+
+    private static BufferedWriter openFile(String path) {
+        try {
+            File file = new File(path);
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
+            return new BufferedWriter(new FileWriter(file, true));
+        } catch (IOException e) {
+            System.err.println("[Log] Cannot open log file " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static String formatTime(long time) {
+        return TIME_FORMAT.format(new Date(time));
+    }
+
+    private static String stackTrace(Throwable error) {
+        StringWriter writer = new StringWriter();
+        error.printStackTrace(new PrintWriter(writer));
+        return writer.toString();
+    }
+}
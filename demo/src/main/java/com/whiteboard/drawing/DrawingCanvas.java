@@ -9,6 +9,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import com.whiteboard.Log;
 import javax.swing.Timer;
 
 public class DrawingCanvas extends JPanel {
@@ -22,17 +24,45 @@ public class DrawingCanvas extends JPanel {
     private BufferedImage canvas;
     private Graphics2D g2d;
     private Shape currentShape;
-    private List<Point> freeDrawPoints;
+    // Điểm của nét đang vẽ; currentShape dùng chung buffer này (không copy mỗi lần kéo chuột)
+    private PointBuffer freeDrawPoints;
     private String peerId;
     private Consumer<Shape> onShapeDrawn;
     private Consumer<Shape> onShapeClicked;
+    private Consumer<List<Shape>> onShapesDeleted;
+    // Cấp Shape.id cho shape local lúc bắt đầu nét / commit (StateManager qua MessageHandler)
+    private LongSupplier idSource;
+    private StrokeListener strokeListener;
     private boolean isDrawing;
-    private int freeDrawPointsSinceBroadcast;
+    // Lọc điểm của nét bút chì trước khi nối vào freeDrawPoints (và broadcast)
+    private StrokeSimplifier strokeSimplifier;
+    // Tổng số mẫu chuột / số điểm giữ lại của các nét đã vẽ, để báo tỉ lệ giảm
+    private long rawStrokeSamples;
+    private long keptStrokePoints;
+    // Số điểm của nét PENCIL hiện tại đã stream cho peers (0 = chưa gửi STROKE_BEGIN)
+    private int streamedPointCount;
     private int lastMouseX, lastMouseY;
-    private final Map<String, Shape> remoteStrokeMap = new HashMap<>();
+    // nanoTime lúc bắt đầu xử lý sự kiện kéo chuột gần nhất (mốc trace độ trễ của StrokeListener)
+    private long lastInputNanos;
+    // Nét / shape remote theo Shape.id (nét của peer cũ: id đổi từ (peerId, timestamp))
+    private final Map<Long, Shape> remoteStrokeMap = new HashMap<>();
     // Debounce repaint cho remote updates để giảm lag
     private Timer repaintTimer;
     private volatile boolean pendingRepaint = false;
+    // Hợp các vùng (toạ độ canvas) bị thay đổi bởi remote update kể từ lần repaint trước
+    private final Object dirtyLock = new Object();
+    private Rectangle pendingDirty;
+    // Vùng dirty phủ quá tỉ lệ này của viewport thì repaint toàn bộ
+    private static final double FULL_REPAINT_RATIO = 0.6;
+    // Callback chạy sau lần paintComponent kế tiếp (chỉ dùng trên EDT); giới hạn số lượng
+    // phòng khi canvas không được vẽ lại trong thời gian dài
+    private final List<Runnable> afterPaintCallbacks = new ArrayList<>();
+    private static final int MAX_AFTER_PAINT_CALLBACKS = 256;
+    // Thống kê culling của frame vẽ gần nhất
+    private volatile int lastFrameDrawnShapes;
+    private volatile int lastFrameCulledShapes;
+    // Cache raster các layer đã commit; null nếu tắt trong config
+    private TileCache tileCache;
     // Background image (imported image)
     private BufferedImage backgroundImage;
     private int backgroundImageX, backgroundImageY;
@@ -47,6 +77,21 @@ public class DrawingCanvas extends JPanel {
     private java.util.LinkedList<ImageState> imageHistory = new java.util.LinkedList<>();
     private java.util.LinkedList<ImageState> imageRedoHistory = new java.util.LinkedList<>();
     
+    /**
+     * Nhận các sự kiện stream nét vẽ tự do (PENCIL) để gửi realtime cho peers.
+     * Các callback chạy trên EDT.
+     */
+    public interface StrokeListener {
+        /** Nét bắt đầu được stream; stroke là bản clone tại thời điểm này. */
+        void strokeBegan(Shape stroke);
+
+        /** Có thêm điểm mới từ fromIndex; stroke là shape đang vẽ (không clone). */
+        void strokeExtended(Shape stroke, int fromIndex);
+
+        /** Nét đã hoàn tất; stroke là bản clone hoàn chỉnh. */
+        void strokeEnded(Shape stroke);
+    }
+
     /**
      * Class để lưu trạng thái image cho undo/redo
      */
@@ -84,12 +129,14 @@ public class DrawingCanvas extends JPanel {
         this.tool = new DrawingTool();
         this.textManager = new TextManager();
         this.layerManager = new LayerManager();
-        this.selectionManager = new SelectionManager();
+        this.selectionManager = new SelectionManager(layerManager);
         this.zoomManager = new ZoomManager();
         this.gridManager = new GridManager();
-        this.freeDrawPoints = new ArrayList<>();
+        this.freeDrawPoints = new PointBuffer();
+        if (com.whiteboard.Config.isTileCacheEnabled()) {
+            this.tileCache = new TileCache(this::drawShape, com.whiteboard.Config.getTileCacheMaxTiles());
+        }
         this.isDrawing = false;
-        this.freeDrawPointsSinceBroadcast = 0;
 
         // cho phép canvas lớn hơn vùng nhìn, phục vụ scrollbar
         setPreferredSize(new Dimension(3000, 2000));
@@ -219,7 +266,7 @@ public class DrawingCanvas extends JPanel {
         repaintTimer = new Timer(16, e -> { // ~60fps
             if (pendingRepaint) {
                 pendingRepaint = false;
-                repaint();
+                repaintDirtyRegion();
             }
         });
         repaintTimer.setRepeats(false);
@@ -303,7 +350,7 @@ public class DrawingCanvas extends JPanel {
                 int handle = getResizeHandleAt(canvasX, canvasY, imgX, imgY, imgW, imgH);
                 if (handle >= 0) {
                     // Click vào resize handle
-                    System.out.println("[DrawingCanvas] Image resize handle clicked: " + handle);
+                    Log.fine("DrawingCanvas", "Image resize handle clicked: " + handle);
                     imageSelected = true;
                     imageResizing = true;
                     resizeHandle = handle;
@@ -314,13 +361,15 @@ public class DrawingCanvas extends JPanel {
                     resizeStartHeight = backgroundImageHeight > 0 ? backgroundImageHeight : backgroundImage.getHeight();
                     imageDragStartX = canvasX; // Vị trí click ban đầu
                     imageDragStartY = canvasY;
-                    System.out.println("[DrawingCanvas] Resize start - pos: (" + resizeStartX + "," + resizeStartY + 
-                            "), size: " + resizeStartWidth + "x" + resizeStartHeight);
+                    if (Log.isEnabled(Log.Level.FINE)) {
+                        Log.fine("DrawingCanvas", "Resize start - pos: (" + resizeStartX + "," + resizeStartY + 
+                                "), size: " + resizeStartWidth + "x" + resizeStartHeight);
+                    }
                     repaint();
                     return;
                 } else {
                     // Click vào image - start moving
-                    System.out.println("[DrawingCanvas] Image move started");
+                    Log.fine("DrawingCanvas", "Image move started");
                     imageSelected = true;
                     imageResizing = false;
                     imageDragStartX = canvasX - imgX;
@@ -371,6 +420,7 @@ public class DrawingCanvas extends JPanel {
                         case RIGHT -> textShape.textAlign = 2;
                         default -> textShape.textAlign = 0;
                     }
+                    assignId(textShape);
                     layerManager.addShapeToActiveLayer(textShape);
                     history.addShape(textShape);
                     if (onShapeDrawn != null) {
@@ -382,9 +432,14 @@ public class DrawingCanvas extends JPanel {
             }
 
             isDrawing = true;
-            freeDrawPoints.clear();
-            freeDrawPointsSinceBroadcast = 0;
-            freeDrawPoints.add(new Point(canvasX, canvasY));
+            // buffer mới cho mỗi nét: buffer cũ đã thuộc về shape vừa commit
+            freeDrawPoints = new PointBuffer();
+            streamedPointCount = 0;
+            // tolerance tính theo pixel màn hình nên đổi sang toạ độ canvas theo zoom hiện tại
+            strokeSimplifier = new StrokeSimplifier(freeDrawPoints,
+                    com.whiteboard.Config.getPencilTolerance() / zoomManager.getZoom(),
+                    com.whiteboard.Config.isPencilSmoothingEnabled());
+            strokeSimplifier.begin(canvasX, canvasY);
 
             currentShape = new Shape(tool.getShapeType(), canvasX, canvasY, canvasX, canvasY,
                 tool.getCurrentColor(), tool.getStrokeWidth(), peerId);
@@ -392,11 +447,16 @@ public class DrawingCanvas extends JPanel {
             currentShape.fillColor = tool.getFillColor();
             currentShape.useGradient = tool.isUseGradient();
             currentShape.gradientTo = tool.getGradientTo();
+            if (tool.getCurrentTool() == DrawingTool.Tool.PENCIL ||
+                    tool.getCurrentTool() == DrawingTool.Tool.ERASER) {
+                currentShape.freeDrawPoints = freeDrawPoints;
+            }
         }
     }
 
     private void updateDrawing(MouseEvent e) {
         if (!isDrawing) return;
+        lastInputNanos = System.nanoTime();
 
         // Pan tool: kéo để di chuyển vùng nhìn
         if (tool.getCurrentTool() == DrawingTool.Tool.PAN) {
@@ -421,20 +481,23 @@ public class DrawingCanvas extends JPanel {
 
         if (tool.getCurrentTool() == DrawingTool.Tool.PENCIL ||
                 tool.getCurrentTool() == DrawingTool.Tool.ERASER) {
-            freeDrawPoints.add(new Point(canvasX, canvasY));
+            // currentShape dùng chung buffer nên thấy điểm mới ngay, không cần copy.
+            // Mẫu đi qua bộ lọc: điểm thẳng hàng/trùng không được nối vào buffer
+            strokeSimplifier.add(canvasX, canvasY);
             currentShape.setEndX(canvasX);
             currentShape.setEndY(canvasY);
-            // cập nhật đường vẽ tự do để hiển thị realtime trên canvas local
-            currentShape.freeDrawPoints = new ArrayList<>(freeDrawPoints);
-
-            // PENCIL: gửi realtime nhưng được "throttle" để tránh spam mạng và lag bên peer
-            if (tool.getCurrentTool() == DrawingTool.Tool.PENCIL && onShapeDrawn != null) {
-                freeDrawPointsSinceBroadcast++;
-                // Giảm threshold xuống 2 điểm để mượt hơn khi remote xem
-                if (freeDrawPointsSinceBroadcast >= 2) {
-                    onShapeDrawn.accept(currentShape.clone());
-                    freeDrawPointsSinceBroadcast = 0;
+
+            // PENCIL: stream realtime theo lô 2 điểm đã lọc; chỉ gửi các điểm mới, không gửi lại cả nét
+            if (tool.getCurrentTool() == DrawingTool.Tool.PENCIL && strokeListener != null
+                    && freeDrawPoints.size() - streamedPointCount >= 2) {
+                if (streamedPointCount == 0) {
+                    // id có từ lúc bắt đầu để peer ghép bản xem trước với shape hoàn chỉnh
+                    assignId(currentShape);
+                    strokeListener.strokeBegan(currentShape.clone());
+                } else {
+                    strokeListener.strokeExtended(currentShape, streamedPointCount);
                 }
+                streamedPointCount = freeDrawPoints.size();
             }
         } else {
             // Các tool khác (LINE, RECT, CIRCLE, v.v.) chỉ cập nhật local preview,
@@ -460,25 +523,37 @@ public class DrawingCanvas extends JPanel {
 
         isDrawing = false;
 
+        if (currentShape.freeDrawPoints == freeDrawPoints && strokeSimplifier != null) {
+            strokeSimplifier.finish();
+            rawStrokeSamples += strokeSimplifier.getRawCount();
+            keptStrokePoints += freeDrawPoints.size();
+            if (Log.isEnabled(Log.Level.FINE)) {
+                Log.fine("DrawingCanvas", "Stroke simplified: " + strokeSimplifier.getRawCount()
+                        + " samples -> " + freeDrawPoints.size() + " points ("
+                        + Math.round(strokeSimplifier.getReductionRatio() * 100) + "% fewer)");
+            }
+        }
+        strokeSimplifier = null;
+
         int w = Math.abs(currentShape.x2 - currentShape.x1);
         int h = Math.abs(currentShape.y2 - currentShape.y1);
-        
-        if (w > 2 || h > 2) {
-            if (tool.getCurrentTool() == DrawingTool.Tool.PENCIL ||
-                    tool.getCurrentTool() == DrawingTool.Tool.ERASER) {
-                currentShape.freeDrawPoints = new ArrayList<>(freeDrawPoints);
-            }
 
+        // Nét đã stream luôn được commit: peer đang hiện bản xem trước của nó, và nét tự do
+        // kết thúc gần điểm đầu (vòng tròn, dấu chấm đậm) vẫn là một nét thật
+        if (streamedPointCount > 0 || w > 2 || h > 2) {
+            assignId(currentShape);
             layerManager.addShapeToActiveLayer(currentShape);
             history.addShape(currentShape);
 
             // gửi phát cuối cùng sau khi mouseReleased để peer nhận được toàn bộ nét vẽ
-            if (onShapeDrawn != null) {
+            if (streamedPointCount > 0 && strokeListener != null) {
+                strokeListener.strokeEnded(currentShape.clone());
+            } else if (onShapeDrawn != null) {
                 onShapeDrawn.accept(currentShape.clone());
             }
         }
 
-        freeDrawPoints.clear();
+        streamedPointCount = 0;
         currentShape = null;
         repaint();
     }
@@ -493,6 +568,18 @@ public class DrawingCanvas extends JPanel {
             drawGrid(g2);
         }
 
+        // Vùng canvas đang nhìn thấy = clip (toạ độ màn hình) ∩ component, đổi qua pan/zoom
+        Rectangle screenArea = new Rectangle(0, 0, getWidth(), getHeight());
+        Rectangle clip = g2.getClipBounds();
+        if (clip != null) {
+            screenArea = screenArea.intersection(clip);
+        }
+        Rectangle visible = zoomManager.screenToCanvas(screenArea);
+        // Tile cache raster ở 1 pixel/đơn vị màn hình; màn hình HiDPI (transform có scale) thì vẽ trực tiếp
+        java.awt.geom.AffineTransform screenTransform = g2.getTransform();
+        boolean useTiles = tileCache != null
+                && (screenTransform.getType() & java.awt.geom.AffineTransform.TYPE_MASK_SCALE) == 0;
+
         g2.translate(zoomManager.getPanX(), zoomManager.getPanY());
         g2.scale(zoomManager.getZoom(), zoomManager.getZoom());
 
@@ -514,24 +601,72 @@ public class DrawingCanvas extends JPanel {
             }
         }
 
+        // Chỉ vẽ các shape có bounds giao với vùng nhìn thấy (lọc qua chỉ mục không gian).
+        // Với tile cache, "drawn" là số shape phải raster hoá lại vào tile trong frame này.
+        int drawn = 0, culled = 0;
+        java.awt.geom.AffineTransform canvasTransform = g2.getTransform();
+        if (useTiles) {
+            g2.setTransform(screenTransform);
+            tileCache.beginFrame();
+        }
         for (LayerManager.Layer layer : layerManager.getAllLayers()) {
             if (!layer.visible) continue;
 
-            float alpha = layer.opacity;
-            for (Shape shape : layer.shapes) {
-                drawShape(g2, shape, alpha);
+            int visibleCount;
+            if (useTiles) {
+                drawn += tileCache.paintLayer(g2, layer, screenArea, zoomManager);
+                visibleCount = layer.getIndex().count(visible);
+            } else {
+                float alpha = layer.opacity;
+                List<Shape> shapes = layer.getIndex().query(visible);
+                for (Shape shape : shapes) {
+                    drawShape(g2, shape, alpha);
+                }
+                visibleCount = shapes.size();
+                drawn += visibleCount;
             }
+            culled += layer.getIndex().size() - visibleCount;
         }
+        if (useTiles) {
+            g2.setTransform(canvasTransform);
+        }
+        lastFrameDrawnShapes = drawn;
+        lastFrameCulledShapes = Math.max(0, culled);
 
         if (currentShape != null) {
             // chỉ vẽ nét hiện tại, KHÔNG vẽ label peer để tránh rối và giảm lag
             drawShape(g2, currentShape, 1.0f);
+            // Đoạn từ điểm đã giữ cuối cùng tới mẫu chưa quyết định, để nét bám theo con trỏ
+            PointBuffer points = currentShape.freeDrawPoints;
+            if (strokeSimplifier != null && strokeSimplifier.hasPending()
+                    && points == freeDrawPoints && !points.isEmpty()) {
+                g2.drawLine(points.getX(points.size() - 1), points.getY(points.size() - 1),
+                        strokeSimplifier.getPendingX(), strokeSimplifier.getPendingY());
+            }
         }
 
         SelectionManager.SelectionBounds bounds = selectionManager.getBounds();
         if (bounds != null) {
             bounds.draw(g2);
         }
+
+        if (!afterPaintCallbacks.isEmpty()) {
+            List<Runnable> callbacks = new ArrayList<>(afterPaintCallbacks);
+            afterPaintCallbacks.clear();
+            for (Runnable callback : callbacks) {
+                callback.run();
+            }
+        }
+    }
+
+    /**
+     * Chạy callback (trên EDT) ngay sau khi canvas vẽ xong frame kế tiếp, ví dụ để đo độ trễ
+     * tới lúc nét remote hiện lên màn hình. Quá MAX_AFTER_PAINT_CALLBACKS callback chờ thì bỏ.
+     */
+    public void runAfterNextPaint(Runnable callback) {
+        if (afterPaintCallbacks.size() < MAX_AFTER_PAINT_CALLBACKS) {
+            afterPaintCallbacks.add(callback);
+        }
     }
 
     private void drawGrid(Graphics2D g2) {
@@ -582,10 +717,23 @@ public class DrawingCanvas extends JPanel {
     }
 
     public void selectAll() {
-        selectionManager.deselectAll();
-        for (Shape shape : getAllShapes()) {
-            selectionManager.selectShape(shape, true);
-        }
+        selectionManager.selectShapes(getAllShapes(), false);
+        repaint();
+    }
+
+    /**
+     * Rubber-band selection theo vùng (toạ độ canvas).
+     */
+    public void selectInRect(Rectangle area, boolean addToSelection) {
+        selectionManager.selectInRect(area, addToSelection);
+        repaint();
+    }
+
+    /**
+     * Báo canvas các shape vừa bị sửa toạ độ từ bên ngoài (align, distribute...).
+     */
+    public void shapesChanged(java.util.Collection<Shape> shapes) {
+        layerManager.shapesChanged(shapes);
         repaint();
     }
 
@@ -597,11 +745,15 @@ public class DrawingCanvas extends JPanel {
         }
         
         // Xóa các shapes được select
-        for (Shape shape : selectionManager.getSelectedShapes()) {
-            layerManager.removeShapeFromActiveLayer(shape);
+        List<Shape> deleted = new ArrayList<>(selectionManager.getSelectedShapes());
+        for (Shape shape : deleted) {
+            layerManager.removeShape(shape);
         }
         selectionManager.deleteSelection();
         repaint();
+        if (!deleted.isEmpty() && onShapesDeleted != null) {
+            onShapesDeleted.accept(deleted);
+        }
     }
 
     public void undo() {
@@ -627,9 +779,10 @@ public class DrawingCanvas extends JPanel {
 
     /**
      * Undo theo peer: xoá nét vẽ gần nhất của peerId (dùng cho sync mạng).
+     * Trả về shape đã xoá, null nếu peer không còn shape nào.
      */
-    public void undoForPeer(String targetPeerId) {
-        if (targetPeerId == null) return;
+    public Shape undoForPeer(String targetPeerId) {
+        if (targetPeerId == null) return null;
         java.util.List<LayerManager.Layer> layers = layerManager.getAllLayers();
         for (int li = layers.size() - 1; li >= 0; li--) {
             LayerManager.Layer layer = layers.get(li);
@@ -637,12 +790,13 @@ public class DrawingCanvas extends JPanel {
             for (int si = shapes.size() - 1; si >= 0; si--) {
                 Shape s = shapes.get(si);
                 if (s != null && targetPeerId.equals(s.peerId)) {
-                    shapes.remove(si);
+                    layer.removeShape(s);
                     repaint();
-                    return;
+                    return s;
                 }
             }
         }
+        return null;
     }
 
     public void redo() {
@@ -707,33 +861,240 @@ public class DrawingCanvas extends JPanel {
 
     public void drawRemoteShape(Shape shape) {
         if (shape == null) return;
-        // Mỗi stroke từ 1 peer (peerId + timestamp) chỉ giữ 1 shape
-        String peer = shape.peerId == null ? "" : shape.peerId;
-        String key = peer + ":" + shape.timestamp;
-
-        Shape existing = remoteStrokeMap.get(key);
+        Shape existing = findRemoteStroke(shape);
         if (existing == null) {
             // lần đầu nhận stroke này: thêm vào layer và map
             layerManager.addShapeToActiveLayer(shape);
-            remoteStrokeMap.put(key, shape);
+            remoteStrokeMap.put(shape.id, shape);
+            markRemoteDirty(shape.getBounds());
         } else {
-            // cập nhật in-place để tránh thêm/xoá khỏi layer liên tục (giảm giật lag)
+            updateRemoteStroke(existing, shape);
+        }
+
+        scheduleRemoteRepaint();
+    }
+
+    /**
+     * Áp dụng một frame thay đổi remote đã gộp sẵn (xem {@link RemoteScene}): xoá, sửa rồi thêm,
+     * shape mới được thêm vào layer một lần và vùng bẩn của chúng lấy từ frame.
+     */
+    public void applyRemoteFrame(RemoteScene.Frame frame) {
+        if (!frame.removed.isEmpty()) {
+            removeShapes(frame.removed);
+        }
+        if (!frame.updated.isEmpty()) {
+            updateShapes(frame.updated);
+        }
+        List<Shape> fresh = new ArrayList<>(frame.added.size());
+        for (Shape shape : frame.added) {
+            Shape existing = findRemoteStroke(shape);
+            if (existing == null) {
+                fresh.add(shape);
+                remoteStrokeMap.put(shape.id, shape);
+            } else {
+                updateRemoteStroke(existing, shape);
+            }
+        }
+        if (!fresh.isEmpty()) {
+            layerManager.addShapesToActiveLayer(fresh);
+        }
+        if (frame.dirty != null) {
+            markRemoteDirty(frame.dirty);
+        }
+        // frame đã được giãn theo render.remote_frame_interval_ms nên vẽ luôn, không qua repaintTimer
+        pendingRepaint = false;
+        repaintDirtyRegion();
+    }
+
+    /** Shape đang có trên canvas cho stroke này (mỗi stroke, theo Shape.id, chỉ giữ 1 shape). */
+    private Shape findRemoteStroke(Shape shape) {
+        return remoteStrokeMap.get(shape.id);
+    }
+
+    private void updateRemoteStroke(Shape existing, Shape shape) {
+        // vùng cũ cũng phải vẽ lại (shape có thể bị dời/thu nhỏ)
+        markRemoteDirty(existing.getBounds());
+        // cập nhật in-place để tránh thêm/xoá khỏi layer liên tục (giảm giật lag)
+        existing.x1 = shape.x1;
+        existing.y1 = shape.y1;
+        existing.x2 = shape.x2;
+        existing.y2 = shape.y2;
+        existing.strokeWidth = shape.strokeWidth;
+        existing.color = shape.color;
+        existing.type = shape.type;
+        existing.text = shape.text;
+        // shape nhận từ mạng là bản riêng (vừa deserialize) nên dùng luôn, không copy
+        existing.freeDrawPoints = shape.freeDrawPoints;
+        existing.fillColor = shape.fillColor;
+        existing.useGradient = shape.useGradient;
+        existing.gradientTo = shape.gradientTo;
+        // bản xem trước của peer cũ mang id tạm, nhận id thật từ ADD
+        existing.id = shape.id;
+        layerManager.shapeChanged(existing);
+        markRemoteDirty(existing.getBounds());
+    }
+
+    /**
+     * Ghi đè thuộc tính các shape (theo Shape.id) bằng trạng thái đã gộp từ StateManager.
+     */
+    public void updateShapes(java.util.Collection<Shape> shapes) {
+        Map<Long, Shape> byId = indexById(shapes);
+        for (Shape existing : shapesInAllLayers()) {
+            Shape shape = byId.get(existing.id);
+            if (shape == null) {
+                continue;
+            }
+            markRemoteDirty(existing.getBounds());
+            existing.type = shape.type;
             existing.x1 = shape.x1;
             existing.y1 = shape.y1;
             existing.x2 = shape.x2;
             existing.y2 = shape.y2;
-            existing.strokeWidth = shape.strokeWidth;
+            existing.freeDrawPoints = shape.freeDrawPoints;
+            existing.polyX = shape.polyX;
+            existing.polyY = shape.polyY;
+            existing.polySides = shape.polySides;
+            existing.rotation = shape.rotation;
             existing.color = shape.color;
-            existing.type = shape.type;
-            existing.text = shape.text;
-            existing.freeDrawPoints = shape.freeDrawPoints == null
-                    ? null
-                    : new ArrayList<>(shape.freeDrawPoints);
+            existing.strokeWidth = shape.strokeWidth;
             existing.fillColor = shape.fillColor;
             existing.useGradient = shape.useGradient;
             existing.gradientTo = shape.gradientTo;
+            existing.text = shape.text;
+            existing.fontName = shape.fontName;
+            existing.fontSize = shape.fontSize;
+            existing.fontStyle = shape.fontStyle;
+            existing.textAlign = shape.textAlign;
+            layerManager.shapeChanged(existing);
+            markRemoteDirty(existing.getBounds());
+        }
+        scheduleRemoteRepaint();
+    }
+
+    /**
+     * Xoá các shape (theo Shape.id) đã bị xoá/clear ở peer khác.
+     */
+    public void removeShapes(java.util.Collection<Shape> shapes) {
+        Map<Long, Shape> byId = indexById(shapes);
+        List<Shape> toRemove = new ArrayList<>();
+        for (Shape existing : shapesInAllLayers()) {
+            if (byId.containsKey(existing.id)) {
+                toRemove.add(existing);
+            }
+        }
+        for (Shape existing : toRemove) {
+            markRemoteDirty(existing.getBounds());
+            layerManager.removeShape(existing);
+            remoteStrokeMap.remove(existing.id);
+        }
+        if (!toRemove.isEmpty()) {
+            for (Shape existing : toRemove) {
+                selectionManager.deselectShape(existing);
+            }
+            scheduleRemoteRepaint();
+        }
+    }
+
+    /** Shape của mọi layer, kể cả layer đang ẩn (getAllShapes chỉ lấy layer hiển thị). */
+    private List<Shape> shapesInAllLayers() {
+        List<Shape> shapes = new ArrayList<>();
+        for (LayerManager.Layer layer : layerManager.getAllLayers()) {
+            shapes.addAll(layer.shapes);
+        }
+        return shapes;
+    }
+
+    private static Map<Long, Shape> indexById(java.util.Collection<Shape> shapes) {
+        Map<Long, Shape> byId = new HashMap<>(shapes.size() * 2);
+        for (Shape shape : shapes) {
+            byId.put(shape.id, shape);
+        }
+        return byId;
+    }
+
+    private void assignId(Shape shape) {
+        if (shape.id == 0 && idSource != null) {
+            shape.id = idSource.getAsLong();
+        }
+    }
+
+    /**
+     * Nối các điểm mới (delta-encoded) vào nét remote đang vẽ, cập nhật in-place.
+     * Nếu baseIndex không khớp (mất gói, vào phòng giữa chừng) thì bỏ qua;
+     * shape hoàn chỉnh (BOARD_OPS) tới khi nét kết thúc sẽ sửa lại.
+     */
+    public void appendRemoteStroke(long strokeId, int baseIndex, int[] deltas) {
+        if (deltas == null || deltas.length < 2) return;
+        Shape existing = remoteStrokeMap.get(strokeId);
+        if (existing == null || existing.freeDrawPoints == null
+                || existing.freeDrawPoints.size() != baseIndex) {
+            return;
+        }
+
+        PointBuffer points = existing.freeDrawPoints;
+        int px = 0, py = 0;
+        if (baseIndex > 0) {
+            px = points.getX(baseIndex - 1);
+            py = points.getY(baseIndex - 1);
+        }
+        // Vùng thay đổi = đoạn nối từ điểm cuối cũ tới các điểm mới
+        Rectangle changed = new Rectangle(px, py, 0, 0);
+        for (int i = 0; i + 1 < deltas.length; i += 2) {
+            px += deltas[i];
+            py += deltas[i + 1];
+            points.add(px, py);
+            existing.includeInBounds(px, py);
+            changed.add(px, py);
+        }
+        existing.x2 = px;
+        existing.y2 = py;
+        int pad = Math.max(1, existing.strokeWidth) + 2;
+        changed.grow(pad, pad);
+        layerManager.shapeExtended(existing, changed);
+        markRemoteDirty(changed);
+
+        scheduleRemoteRepaint();
+    }
+
+    private void markRemoteDirty(Rectangle canvasRegion) {
+        synchronized (dirtyLock) {
+            if (pendingDirty == null) {
+                pendingDirty = new Rectangle(canvasRegion);
+            } else {
+                pendingDirty.add(canvasRegion);
+            }
+        }
+    }
+
+    /**
+     * Chỉ repaint vùng màn hình chứa các thay đổi remote; vùng quá lớn thì repaint toàn bộ.
+     */
+    private void repaintDirtyRegion() {
+        Rectangle dirty;
+        synchronized (dirtyLock) {
+            dirty = pendingDirty;
+            pendingDirty = null;
+        }
+        Rectangle viewport = getVisibleRect();
+        if (dirty == null || viewport.isEmpty()) {
+            repaint();
+            return;
         }
+        Rectangle screen = zoomManager.canvasToScreen(dirty);
+        screen.grow(1, 1);
+        Rectangle region = screen.intersection(viewport);
+        if (region.isEmpty()) {
+            return; // thay đổi nằm ngoài vùng nhìn thấy
+        }
+        double viewportArea = (double) viewport.width * viewport.height;
+        if ((double) region.width * region.height >= viewportArea * FULL_REPAINT_RATIO) {
+            repaint();
+        } else {
+            repaint(region);
+        }
+    }
 
+    private void scheduleRemoteRepaint() {
         // Debounce repaint để tránh repaint quá nhiều lần khi nhận nhiều updates liên tiếp
         pendingRepaint = true;
         if (!repaintTimer.isRunning()) {
@@ -745,6 +1106,29 @@ public class DrawingCanvas extends JPanel {
         return layerManager.getAllShapes();
     }
 
+    /**
+     * Số shape được vẽ ở frame gần nhất (sau culling). Khi bật tile cache đây là số lần
+     * raster hoá shape vào tile (shape nằm trên nhiều tile được đếm nhiều lần), 0 nếu mọi tile đều có sẵn.
+     */
+    public int getLastFrameDrawnShapes() {
+        return lastFrameDrawnShapes;
+    }
+
+    /**
+     * Tỉ lệ mẫu chuột bị bỏ bởi bộ lọc nét bút chì, cộng dồn qua các nét đã vẽ (0..1).
+     */
+    public double getStrokeReductionRatio() {
+        if (rawStrokeSamples == 0) {
+            return 0;
+        }
+        return 1.0 - (double) keptStrokePoints / rawStrokeSamples;
+    }
+
+    /** Số shape bị bỏ qua ở frame gần nhất vì nằm ngoài vùng nhìn thấy. */
+    public int getLastFrameCulledShapes() {
+        return lastFrameCulledShapes;
+    }
+
     public DrawingTool getDrawingTool() {
         return tool;
     }
@@ -777,6 +1161,28 @@ public class DrawingCanvas extends JPanel {
         this.onShapeClicked = callback;
     }
 
+    /**
+     * Gọi sau khi user xoá các shape đang chọn (danh sách shape đã xoá).
+     */
+    public void setOnShapesDeleted(Consumer<List<Shape>> callback) {
+        this.onShapesDeleted = callback;
+    }
+
+    public void setIdSource(LongSupplier idSource) {
+        this.idSource = idSource;
+    }
+
+    /**
+     * nanoTime lúc xử lý sự kiện chuột đã sinh ra callback StrokeListener hiện tại.
+     */
+    public long getLastInputNanos() {
+        return lastInputNanos;
+    }
+
+    public void setStrokeListener(StrokeListener listener) {
+        this.strokeListener = listener;
+    }
+
     /**
      * Render tất cả shapes vào BufferedImage để export PNG.
      * Tạo image mới với kích thước canvas và render tất cả shapes.
@@ -828,7 +1234,7 @@ public class DrawingCanvas extends JPanel {
      */
     public void importImage(BufferedImage image, int x, int y) {
         if (image == null) {
-            System.err.println("Cannot import null image");
+            Log.warning("DrawingCanvas", "Cannot import null image");
             return;
         }
         
@@ -850,7 +1256,7 @@ public class DrawingCanvas extends JPanel {
         // Repaint để hiển thị image
         repaint();
         
-        System.out.println("[DrawingCanvas] Image imported: " + image.getWidth() + "x" + image.getHeight() 
+        Log.info("DrawingCanvas", "Image imported: " + image.getWidth() + "x" + image.getHeight() 
                 + " at (" + backgroundImageX + ", " + backgroundImageY + ")");
     }
     
@@ -872,7 +1278,7 @@ public class DrawingCanvas extends JPanel {
         
         repaint();
         
-        System.out.println("[DrawingCanvas] Image deleted");
+        Log.info("DrawingCanvas", "Image deleted");
     }
     
     /**
@@ -885,37 +1291,39 @@ public class DrawingCanvas extends JPanel {
         
         // Corner handles - kiểm tra trước để ưu tiên
         if (Math.abs(x - imgX) <= halfHandle && Math.abs(y - imgY) <= halfHandle) {
-            System.out.println("[DrawingCanvas] Handle NW detected at (" + x + "," + y + ")");
+            if (Log.isEnabled(Log.Level.FINE)) {
+                Log.fine("DrawingCanvas", "Handle NW detected at (" + x + "," + y + ")");
+            }
             return 0; // NW
         }
         if (Math.abs(x - (imgX + imgW)) <= halfHandle && Math.abs(y - imgY) <= halfHandle) {
-            System.out.println("[DrawingCanvas] Handle NE detected");
+            Log.fine("DrawingCanvas", "Handle NE detected");
             return 1; // NE
         }
         if (Math.abs(x - imgX) <= halfHandle && Math.abs(y - (imgY + imgH)) <= halfHandle) {
-            System.out.println("[DrawingCanvas] Handle SW detected");
+            Log.fine("DrawingCanvas", "Handle SW detected");
             return 2; // SW
         }
         if (Math.abs(x - (imgX + imgW)) <= halfHandle && Math.abs(y - (imgY + imgH)) <= halfHandle) {
-            System.out.println("[DrawingCanvas] Handle SE detected");
+            Log.fine("DrawingCanvas", "Handle SE detected");
             return 3; // SE
         }
         
         // Edge handles
         if (Math.abs(x - (imgX + imgW / 2)) <= halfHandle && Math.abs(y - imgY) <= halfHandle) {
-            System.out.println("[DrawingCanvas] Handle N detected");
+            Log.fine("DrawingCanvas", "Handle N detected");
             return 4; // N
         }
         if (Math.abs(x - (imgX + imgW / 2)) <= halfHandle && Math.abs(y - (imgY + imgH)) <= halfHandle) {
-            System.out.println("[DrawingCanvas] Handle S detected");
+            Log.fine("DrawingCanvas", "Handle S detected");
             return 5; // S
         }
         if (Math.abs(x - imgX) <= halfHandle && Math.abs(y - (imgY + imgH / 2)) <= halfHandle) {
-            System.out.println("[DrawingCanvas] Handle W detected");
+            Log.fine("DrawingCanvas", "Handle W detected");
             return 6; // W
         }
         if (Math.abs(x - (imgX + imgW)) <= halfHandle && Math.abs(y - (imgY + imgH / 2)) <= halfHandle) {
-            System.out.println("[DrawingCanvas] Handle E detected");
+            Log.fine("DrawingCanvas", "Handle E detected");
             return 7; // E
         }
         
@@ -993,7 +1401,7 @@ public class DrawingCanvas extends JPanel {
      */
     private void resizeImage(int newX, int newY) {
         if (backgroundImage == null || resizeHandle < 0) {
-            System.err.println("[DrawingCanvas] Cannot resize: image=" + (backgroundImage != null) + 
+            Log.warning("DrawingCanvas", "Cannot resize: image=" + (backgroundImage != null) + 
                     ", handle=" + resizeHandle);
             return;
         }
@@ -1100,19 +1508,7 @@ public class DrawingCanvas extends JPanel {
     }
 
     private Shape findShapeAt(int x, int y) {
-        // duyệt từ layer cuối cùng để ưu tiên shape trên cùng
-        List<LayerManager.Layer> layers = layerManager.getAllLayers();
-        for (int i = layers.size() - 1; i >= 0; i--) {
-            LayerManager.Layer layer = layers.get(i);
-            if (!layer.visible) continue;
-            List<Shape> shapes = layer.shapes;
-            for (int j = shapes.size() - 1; j >= 0; j--) {
-                Shape s = shapes.get(j);
-                if (s != null && s.contains(x, y)) {
-                    return s;
-                }
-            }
-        }
-        return null;
+        // ưu tiên shape trên cùng; chỉ kiểm tra các shape có bounds chứa điểm (qua chỉ mục)
+        return layerManager.findShapeAt(x, y);
     }
 }
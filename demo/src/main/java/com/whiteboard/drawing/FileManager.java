@@ -1,5 +1,7 @@
 package com.whiteboard.drawing;
 
+import com.whiteboard.Log;
+
 import java.io.*;
 import java.util.List;
 import javax.imageio.ImageIO;
@@ -42,22 +44,22 @@ public class FileManager {
      * Lưu dự án thành file JSON (text format thật)
      */
     public static boolean saveProjectAsJSON(String filePath, ProjectData projectData) {
-        System.out.println("[FileManager] Saving project to: " + filePath);
-        System.out.println("[FileManager] Project data - shapes: " + 
+        Log.info("FileManager", "Saving project to: " + filePath);
+        Log.fine("FileManager", "Project data - shapes: " + 
                 (projectData.shapes != null ? projectData.shapes.size() : 0) + 
                 ", layers: " + (projectData.layers != null ? projectData.layers.size() : 0));
         
         // Đảm bảo file path có extension .json
         if (!filePath.toLowerCase().endsWith(".json")) {
             filePath = filePath + ".json";
-            System.out.println("[FileManager] Added .json extension, new path: " + filePath);
+            Log.fine("FileManager", "Added .json extension, new path: " + filePath);
         }
         
         File file = new File(filePath);
         File parentDir = file.getParentFile();
         if (parentDir != null && !parentDir.exists()) {
             parentDir.mkdirs();
-            System.out.println("[FileManager] Created directory: " + parentDir.getAbsolutePath());
+            Log.fine("FileManager", "Created directory: " + parentDir.getAbsolutePath());
         }
         
         try (PrintWriter writer = new PrintWriter(new FileWriter(filePath))) {
@@ -74,7 +76,7 @@ public class FileManager {
             // Save shapes as JSON array
             writer.println("  \"shapes\": [");
             if (projectData.shapes != null && !projectData.shapes.isEmpty()) {
-                System.out.println("[FileManager] Writing " + projectData.shapes.size() + " shapes...");
+                Log.fine("FileManager", "Writing " + projectData.shapes.size() + " shapes...");
                 for (int i = 0; i < projectData.shapes.size(); i++) {
                     Shape shape = projectData.shapes.get(i);
                     writer.print("    " + shapeToJson(shape));
@@ -85,18 +87,17 @@ public class FileManager {
                     }
                 }
             } else {
-                System.out.println("[FileManager] Warning: No shapes to save!");
+                Log.warning("FileManager", "No shapes to save!");
             }
             writer.println("  ]");
             writer.println("}");
             
             writer.flush();
-            System.out.println("[FileManager] File saved successfully. File exists: " + file.exists() + 
+            Log.info("FileManager", "File saved successfully. File exists: " + file.exists() + 
                     ", size: " + file.length() + " bytes");
             return true;
         } catch (IOException e) {
-            System.err.println("[FileManager] Error saving JSON: " + e.getMessage());
-            e.printStackTrace();
+            Log.severe("FileManager", "Error saving JSON: " + e.getMessage(), e);
             return false;
         }
     }
@@ -105,30 +106,30 @@ public class FileManager {
      * Tải dự án từ file JSON (text format hoặc binary format)
      */
     public static ProjectData loadProjectFromJSON(String filePath) {
-        System.out.println("[FileManager] Loading project from: " + filePath);
+        Log.info("FileManager", "Loading project from: " + filePath);
         File file = new File(filePath);
         
         if (!file.exists()) {
-            System.err.println("[FileManager] File does not exist: " + filePath);
+            Log.warning("FileManager", "File does not exist: " + filePath);
             return null;
         }
         
-        System.out.println("[FileManager] File exists, size: " + file.length() + " bytes");
+        Log.fine("FileManager", "File exists, size: " + file.length() + " bytes");
         
         // Thử load binary format trước (backward compatibility)
         try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filePath))) {
             Object obj = ois.readObject();
             if (obj instanceof ProjectData) {
                 ProjectData data = (ProjectData) obj;
-                System.out.println("[FileManager] Loaded binary format project");
-                System.out.println("[FileManager] Shapes count: " + 
+                Log.fine("FileManager", "Loaded binary format project");
+                Log.fine("FileManager", "Shapes count: " + 
                         (data.shapes != null ? data.shapes.size() : 0));
                 return data;
             }
         } catch (Exception e) {
             // Không phải binary format, thử parse JSON text
-            System.out.println("[FileManager] Not binary format, parsing JSON text...");
-            System.out.println("[FileManager] Binary parse error: " + e.getMessage());
+            Log.fine("FileManager", "Not binary format, parsing JSON text...");
+            Log.fine("FileManager", "Binary parse error: " + e.getMessage());
         }
         
         // Parse JSON text format
@@ -140,21 +141,20 @@ public class FileManager {
                 json.append(line).append("\n");
                 lineCount++;
             }
-            System.out.println("[FileManager] Read " + lineCount + " lines from JSON file");
-            System.out.println("[FileManager] JSON length: " + json.length() + " characters");
+            Log.fine("FileManager", "Read " + lineCount + " lines from JSON file");
+            Log.fine("FileManager", "JSON length: " + json.length() + " characters");
             
             ProjectData data = parseJSON(json.toString());
             if (data != null) {
-                System.out.println("[FileManager] Parsed JSON successfully");
-                System.out.println("[FileManager] Shapes count: " + 
+                Log.fine("FileManager", "Parsed JSON successfully");
+                Log.fine("FileManager", "Shapes count: " + 
                         (data.shapes != null ? data.shapes.size() : 0));
             } else {
-                System.err.println("[FileManager] Failed to parse JSON");
+                Log.warning("FileManager", "Failed to parse JSON");
             }
             return data;
         } catch (IOException e) {
-            System.err.println("[FileManager] Error reading JSON file: " + e.getMessage());
-            e.printStackTrace();
+            Log.severe("FileManager", "Error reading JSON file: " + e.getMessage(), e);
             return null;
         }
     }
@@ -195,7 +195,7 @@ public class FileManager {
             for (String pattern : patterns) {
                 shapesStart = json.indexOf(pattern);
                 if (shapesStart != -1) {
-                    System.out.println("[FileManager] Found shapes array with pattern: " + pattern);
+                    Log.fine("FileManager", "Found shapes array with pattern: " + pattern);
                     break;
                 }
             }
@@ -206,20 +206,20 @@ public class FileManager {
                 java.util.regex.Matcher shapesMatcher = shapesPattern.matcher(json);
                 if (shapesMatcher.find()) {
                     shapesStart = shapesMatcher.start();
-                    System.out.println("[FileManager] Found shapes array using regex");
+                    Log.fine("FileManager", "Found shapes array using regex");
                 }
             }
             
             if (shapesStart == -1) {
-                System.err.println("[FileManager] No shapes array found in JSON");
-                System.err.println("[FileManager] JSON preview: " + json.substring(0, Math.min(200, json.length())));
+                Log.warning("FileManager", "No shapes array found in JSON");
+                Log.warning("FileManager", "JSON preview: " + json.substring(0, Math.min(200, json.length())));
                 return data;
             }
             
             int bracketCount = 0;
             int arrayStart = json.indexOf('[', shapesStart);
             if (arrayStart == -1) {
-                System.err.println("[FileManager] No opening bracket found after shapes");
+                Log.warning("FileManager", "No opening bracket found after shapes");
                 return data;
             }
             int arrayEnd = arrayStart;
@@ -238,7 +238,7 @@ public class FileManager {
             }
             
             String shapesJson = json.substring(arrayStart + 1, arrayEnd);
-            System.out.println("[FileManager] Shapes JSON substring length: " + shapesJson.length());
+            Log.fine("FileManager", "Shapes JSON substring length: " + shapesJson.length());
             
             // Parse từng shape object bằng cách tìm matching braces
             int pos = 0;
@@ -275,29 +275,32 @@ public class FileManager {
                 
                 if (endPos > startPos) {
                     String shapeJson = shapesJson.substring(startPos, endPos);
-                    System.out.println("[FileManager] Parsing shape " + (data.shapes.size() + 1) + 
-                            ": " + shapeJson.substring(0, Math.min(50, shapeJson.length())) + "...");
+                    if (Log.isEnabled(Log.Level.FINER)) {
+                        Log.finer("FileManager", "Parsing shape " + (data.shapes.size() + 1) + 
+                                ": " + shapeJson.substring(0, Math.min(50, shapeJson.length())) + "...");
+                    }
                     Shape shape = parseShape(shapeJson);
                     if (shape != null) {
                         data.shapes.add(shape);
-                        System.out.println("[FileManager] Successfully parsed shape type: " + shape.type + 
-                                " (total: " + data.shapes.size() + ")");
+                        if (Log.isEnabled(Log.Level.FINER)) {
+                            Log.finer("FileManager", "Successfully parsed shape type: " + shape.type + 
+                                    " (total: " + data.shapes.size() + ")");
+                        }
                     } else {
-                        System.err.println("[FileManager] Failed to parse shape: " + shapeJson.substring(0, Math.min(100, shapeJson.length())));
+                        Log.warning("FileManager", "Failed to parse shape: " + shapeJson.substring(0, Math.min(100, shapeJson.length())));
                     }
                     pos = endPos;
                 } else {
-                    System.err.println("[FileManager] No closing brace found for shape starting at position " + startPos);
+                    Log.warning("FileManager", "No closing brace found for shape starting at position " + startPos);
                     break; // Không tìm thấy closing brace
                 }
             }
             
-            System.out.println("[FileManager] Parsed " + data.shapes.size() + " shapes from JSON");
+            Log.info("FileManager", "Parsed " + data.shapes.size() + " shapes from JSON");
             return data;
             
         } catch (Exception e) {
-            System.err.println("Error parsing JSON: " + e.getMessage());
-            e.printStackTrace();
+            Log.severe("FileManager", "Error parsing JSON: " + e.getMessage(), e);
             return null;
         }
     }
@@ -307,23 +310,27 @@ public class FileManager {
      */
     private static Shape parseShape(String shapeJson) {
         try {
-            System.out.println("[FileManager] parseShape called with: " + shapeJson.substring(0, Math.min(100, shapeJson.length())));
+            if (Log.isEnabled(Log.Level.FINER)) {
+                Log.finer("FileManager", "parseShape called with: " + shapeJson.substring(0, Math.min(100, shapeJson.length())));
+            }
             
             // Extract type
             java.util.regex.Pattern typePattern = java.util.regex.Pattern.compile("\"type\"\\s*:\\s*\"([^\"]+)\"");
             java.util.regex.Matcher typeMatcher = typePattern.matcher(shapeJson);
             if (!typeMatcher.find()) {
-                System.err.println("[FileManager] No type field found in shape JSON");
+                Log.warning("FileManager", "No type field found in shape JSON");
                 return null;
             }
             
             String typeStr = typeMatcher.group(1);
-            System.out.println("[FileManager] Found shape type: " + typeStr);
+            if (Log.isEnabled(Log.Level.FINER)) {
+                Log.finer("FileManager", "Found shape type: " + typeStr);
+            }
             Shape.ShapeType type;
             try {
                 type = Shape.ShapeType.valueOf(typeStr);
             } catch (IllegalArgumentException e) {
-                System.err.println("[FileManager] Unknown shape type: " + typeStr);
+                Log.warning("FileManager", "Unknown shape type: " + typeStr);
                 return null;
             }
             
@@ -332,21 +339,29 @@ public class FileManager {
             int y1 = extractInt(shapeJson, "y1");
             int x2 = extractInt(shapeJson, "x2");
             int y2 = extractInt(shapeJson, "y2");
-            System.out.println("[FileManager] Coordinates: (" + x1 + "," + y1 + ") to (" + x2 + "," + y2 + ")");
+            if (Log.isEnabled(Log.Level.FINER)) {
+                Log.finer("FileManager", "Coordinates: (" + x1 + "," + y1 + ") to (" + x2 + "," + y2 + ")");
+            }
             
             // Extract color - handle negative RGB values (like -16777216 for black)
             int colorRGB = extractInt(shapeJson, "color");
             Color color = new Color(colorRGB, true); // Support alpha channel
-            System.out.println("[FileManager] Color RGB: " + colorRGB);
+            if (Log.isEnabled(Log.Level.FINER)) {
+                Log.finer("FileManager", "Color RGB: " + colorRGB);
+            }
             
             // Extract strokeWidth
             int strokeWidth = extractInt(shapeJson, "strokeWidth");
             if (strokeWidth == 0) strokeWidth = 2; // Default
-            System.out.println("[FileManager] Stroke width: " + strokeWidth);
+            if (Log.isEnabled(Log.Level.FINER)) {
+                Log.finer("FileManager", "Stroke width: " + strokeWidth);
+            }
             
             // Extract peerId
             String peerId = extractString(shapeJson, "peerId");
-            System.out.println("[FileManager] Peer ID: " + peerId);
+            if (Log.isEnabled(Log.Level.FINER)) {
+                Log.finer("FileManager", "Peer ID: " + peerId);
+            }
             
             // Create shape
             Shape shape = new Shape(type, x1, y1, x2, y2, color, strokeWidth, peerId != null ? peerId : "");
@@ -363,19 +378,24 @@ public class FileManager {
                 shape.text = text;
             }
             
-            // For FREE_DRAW, create freeDrawPoints from x1,y1 to x2,y2
-            if (type == Shape.ShapeType.FREE_DRAW) {
-                shape.freeDrawPoints = new java.util.ArrayList<>();
-                shape.freeDrawPoints.add(new java.awt.Point(x1, y1));
-                shape.freeDrawPoints.add(new java.awt.Point(x2, y2));
+            // Điểm của nét vẽ tự do: "points":[x0,y0,x1,y1,...]
+            PointBuffer points = extractPoints(shapeJson);
+            if (points != null) {
+                shape.freeDrawPoints = points;
+            } else if (type == Shape.ShapeType.FREE_DRAW) {
+                // File cũ không lưu điểm: dựng lại từ x1,y1 tới x2,y2
+                shape.freeDrawPoints = new PointBuffer(2);
+                shape.freeDrawPoints.add(x1, y1);
+                shape.freeDrawPoints.add(x2, y2);
             }
             
-            System.out.println("[FileManager] Successfully created shape: " + type);
+            if (Log.isEnabled(Log.Level.FINER)) {
+                Log.finer("FileManager", "Successfully created shape: " + type);
+            }
             return shape;
             
         } catch (Exception e) {
-            System.err.println("[FileManager] Error parsing shape: " + e.getMessage());
-            e.printStackTrace();
+            Log.severe("FileManager", "Error parsing shape: " + e.getMessage(), e);
             return null;
         }
     }
@@ -398,6 +418,20 @@ public class FileManager {
         return 0;
     }
     
+    private static PointBuffer extractPoints(String json) {
+        java.util.regex.Pattern pattern = java.util.regex.Pattern.compile("\"points\"\\s*:\\s*\\[([^\\]]*)\\]");
+        java.util.regex.Matcher matcher = pattern.matcher(json);
+        if (!matcher.find()) {
+            return null;
+        }
+        String[] values = matcher.group(1).split(",");
+        PointBuffer points = new PointBuffer(values.length / 2);
+        for (int i = 0; i + 1 < values.length; i += 2) {
+            points.add(Integer.parseInt(values[i].trim()), Integer.parseInt(values[i + 1].trim()));
+        }
+        return points;
+    }
+
     private static String extractString(String json, String key) {
         java.util.regex.Pattern pattern = java.util.regex.Pattern.compile("\"" + key + "\"\\s*:\\s*\"([^\"]*)\"");
         java.util.regex.Matcher matcher = pattern.matcher(json);
@@ -442,6 +476,15 @@ public class FileManager {
         if (shape.text != null) {
             sb.append(",\"text\":\"").append(escapeJson(shape.text)).append("\"");
         }
+        if (shape.freeDrawPoints != null && !shape.freeDrawPoints.isEmpty()) {
+            // Ghi thẳng mảng int phẳng từ PointBuffer, không tạo Point trung gian
+            sb.append(",\"points\":[");
+            for (int i = 0; i < shape.freeDrawPoints.size(); i++) {
+                if (i > 0) sb.append(",");
+                sb.append(shape.freeDrawPoints.getX(i)).append(",").append(shape.freeDrawPoints.getY(i));
+            }
+            sb.append("]");
+        }
         sb.append("}");
         return sb.toString();
     }
@@ -450,40 +493,39 @@ public class FileManager {
      * Xuất canvas thành PNG
      */
     public static boolean exportAsPNG(String filePath, BufferedImage image) {
-        System.out.println("[FileManager] Exporting PNG to: " + filePath);
+        Log.info("FileManager", "Exporting PNG to: " + filePath);
         
         if (image == null) {
-            System.err.println("[FileManager] Error: Image is null, cannot export PNG");
+            Log.warning("FileManager", "Error: Image is null, cannot export PNG");
             return false;
         }
         
-        System.out.println("[FileManager] Image size: " + image.getWidth() + "x" + image.getHeight());
+        Log.fine("FileManager", "Image size: " + image.getWidth() + "x" + image.getHeight());
         
         // Đảm bảo file path có extension .png
         if (!filePath.toLowerCase().endsWith(".png")) {
             filePath = filePath + ".png";
-            System.out.println("[FileManager] Added .png extension, new path: " + filePath);
+            Log.fine("FileManager", "Added .png extension, new path: " + filePath);
         }
         
         File file = new File(filePath);
         File parentDir = file.getParentFile();
         if (parentDir != null && !parentDir.exists()) {
             parentDir.mkdirs();
-            System.out.println("[FileManager] Created directory: " + parentDir.getAbsolutePath());
+            Log.fine("FileManager", "Created directory: " + parentDir.getAbsolutePath());
         }
         
         try {
             boolean success = ImageIO.write(image, "PNG", file);
             if (success) {
-                System.out.println("[FileManager] PNG exported successfully. File exists: " + 
+                Log.info("FileManager", "PNG exported successfully. File exists: " + 
                         file.exists() + ", size: " + file.length() + " bytes");
             } else {
-                System.err.println("[FileManager] ImageIO.write returned false - no writer found");
+                Log.warning("FileManager", "ImageIO.write returned false - no writer found");
             }
             return success;
         } catch (IOException e) {
-            System.err.println("[FileManager] Error exporting PNG: " + e.getMessage());
-            e.printStackTrace();
+            Log.severe("FileManager", "Error exporting PNG: " + e.getMessage(), e);
             return false;
         }
     }
@@ -492,21 +534,21 @@ public class FileManager {
      * Xuất canvas thành SVG với đầy đủ shape types
      */
     public static boolean exportAsSVG(String filePath, List<Shape> shapes, int width, int height) {
-        System.out.println("[FileManager] Exporting SVG to: " + filePath);
-        System.out.println("[FileManager] Shapes count: " + (shapes != null ? shapes.size() : 0));
-        System.out.println("[FileManager] Canvas size: " + width + "x" + height);
+        Log.info("FileManager", "Exporting SVG to: " + filePath);
+        Log.fine("FileManager", "Shapes count: " + (shapes != null ? shapes.size() : 0));
+        Log.fine("FileManager", "Canvas size: " + width + "x" + height);
         
         // Đảm bảo file path có extension .svg
         if (!filePath.toLowerCase().endsWith(".svg")) {
             filePath = filePath + ".svg";
-            System.out.println("[FileManager] Added .svg extension, new path: " + filePath);
+            Log.fine("FileManager", "Added .svg extension, new path: " + filePath);
         }
         
         File file = new File(filePath);
         File parentDir = file.getParentFile();
         if (parentDir != null && !parentDir.exists()) {
             parentDir.mkdirs();
-            System.out.println("[FileManager] Created directory: " + parentDir.getAbsolutePath());
+            Log.fine("FileManager", "Created directory: " + parentDir.getAbsolutePath());
         }
         
         try (PrintWriter writer = new PrintWriter(new FileWriter(filePath))) {
@@ -530,12 +572,11 @@ public class FileManager {
             writer.println("</svg>");
             writer.flush();
             
-            System.out.println("[FileManager] SVG exported successfully. Exported " + exportedCount + 
+            Log.info("FileManager", "SVG exported successfully. Exported " + exportedCount + 
                     " shapes. File exists: " + file.exists() + ", size: " + file.length() + " bytes");
             return true;
         } catch (IOException e) {
-            System.err.println("[FileManager] Error exporting SVG: " + e.getMessage());
-            e.printStackTrace();
+            Log.severe("FileManager", "Error exporting SVG: " + e.getMessage(), e);
             return false;
         }
     }
@@ -593,8 +634,7 @@ public class FileManager {
                 StringBuilder path = new StringBuilder();
                 path.append("<path d=\"M ");
                 for (int i = 0; i < shape.freeDrawPoints.size(); i++) {
-                    java.awt.Point p = shape.freeDrawPoints.get(i);
-                    path.append(p.x).append(" ").append(p.y);
+                    path.append(shape.freeDrawPoints.getX(i)).append(" ").append(shape.freeDrawPoints.getY(i));
                     if (i < shape.freeDrawPoints.size() - 1) {
                         path.append(" L ");
                     }
@@ -676,13 +716,12 @@ public class FileManager {
         try {
             BufferedImage image = ImageIO.read(new File(filePath));
             if (image == null) {
-                System.err.println("Failed to read image: " + filePath);
+                Log.warning("FileManager", "Failed to read image: " + filePath);
                 return null;
             }
             return image;
         } catch (IOException e) {
-            System.err.println("Error importing image: " + e.getMessage());
-            e.printStackTrace();
+            Log.severe("FileManager", "Error importing image: " + e.getMessage(), e);
             return null;
         }
     }
@@ -1,5 +1,6 @@
 package com.whiteboard.drawing;
 
+import java.awt.Rectangle;
 import java.io.Serializable;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -18,6 +19,9 @@ public class LayerManager implements Serializable {
         public boolean visible = true;
         public float opacity = 1.0f; // 0.0-1.0
         public long createdTime;
+        // Chỉ mục không gian cho hit-test/culling, dựng lại khi cần (không serialize)
+        private transient SpatialIndex index;
+        private transient int indexedSize;
 
         public Layer(String name) {
             this.id = UUID.randomUUID().toString().substring(0, 8);
@@ -31,11 +35,58 @@ public class LayerManager implements Serializable {
             try {
                 Layer clone = (Layer) super.clone();
                 clone.shapes = new CopyOnWriteArrayList<>(this.shapes);
+                clone.index = null;
                 return clone;
             } catch (CloneNotSupportedException e) {
                 throw new RuntimeException(e);
             }
         }
+
+        /**
+         * Chỉ mục không gian của layer. Nếu shapes bị thêm/xoá trực tiếp (không qua
+         * addShape/removeShape) thì chỉ mục được dựng lại từ đầu.
+         */
+        public synchronized SpatialIndex getIndex() {
+            if (index == null || indexedSize != shapes.size()) {
+                SpatialIndex rebuilt = new SpatialIndex();
+                for (Shape shape : shapes) {
+                    rebuilt.insert(shape);
+                }
+                index = rebuilt;
+                indexedSize = shapes.size();
+            }
+            return index;
+        }
+
+        public synchronized void addShape(Shape shape) {
+            shapes.add(shape);
+            if (index != null) {
+                index.insert(shape);
+                indexedSize++;
+            }
+        }
+
+        /**
+         * Thêm nhiều shape một lần: shapes là CopyOnWriteArrayList nên addAll chỉ chép mảng một lần.
+         */
+        public synchronized void addShapes(Collection<Shape> added) {
+            shapes.addAll(added);
+            if (index != null) {
+                for (Shape shape : added) {
+                    index.insert(shape);
+                }
+                indexedSize += added.size();
+            }
+        }
+
+        public synchronized boolean removeShape(Shape shape) {
+            boolean removed = shapes.remove(shape);
+            if (removed && index != null) {
+                index.remove(shape);
+                indexedSize--;
+            }
+            return removed;
+        }
     }
 
     private List<Layer> layers = new CopyOnWriteArrayList<>();
@@ -96,16 +147,100 @@ public class LayerManager implements Serializable {
 
     public void addShapeToActiveLayer(Shape shape) {
         if (activeLayerIndex >= 0 && activeLayerIndex < layers.size()) {
-            layers.get(activeLayerIndex).shapes.add(shape);
+            layers.get(activeLayerIndex).addShape(shape);
+        }
+    }
+
+    public void addShapesToActiveLayer(Collection<Shape> shapes) {
+        if (activeLayerIndex >= 0 && activeLayerIndex < layers.size()) {
+            layers.get(activeLayerIndex).addShapes(shapes);
         }
     }
 
     public void removeShapeFromActiveLayer(Shape shape) {
         if (activeLayerIndex >= 0 && activeLayerIndex < layers.size()) {
-            layers.get(activeLayerIndex).shapes.remove(shape);
+            layers.get(activeLayerIndex).removeShape(shape);
+        }
+    }
+
+    /**
+     * Xoá shape khỏi layer đang chứa nó (không nhất thiết là layer active).
+     */
+    public boolean removeShape(Shape shape) {
+        for (Layer layer : layers) {
+            if (layer.removeShape(shape)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gọi sau khi toạ độ/điểm của shape bị sửa: tính lại bounds và vị trí trong chỉ mục.
+     */
+    public void shapeChanged(Shape shape) {
+        shape.invalidateBounds();
+        for (Layer layer : layers) {
+            SpatialIndex index = layer.getIndex();
+            if (index.contains(shape)) {
+                index.update(shape);
+                return;
+            }
+        }
+    }
+
+    public void shapesChanged(Collection<Shape> shapes) {
+        for (Shape shape : shapes) {
+            shapeChanged(shape);
         }
     }
 
+    /**
+     * Gọi sau khi nối thêm điểm vào shape (bounds đã được mở rộng bằng
+     * {@link Shape#includeInBounds}); chỉ changedRegion bị coi là thay đổi.
+     */
+    public void shapeExtended(Shape shape, Rectangle changedRegion) {
+        for (Layer layer : layers) {
+            SpatialIndex index = layer.getIndex();
+            if (index.contains(shape)) {
+                index.update(shape, changedRegion);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Shape trên cùng (layer sau, shape vẽ sau) chứa điểm (x, y) trong các layer đang hiện.
+     */
+    public Shape findShapeAt(int x, int y) {
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            Layer layer = layers.get(i);
+            if (!layer.visible) continue;
+            List<Shape> candidates = layer.getIndex().query(x, y);
+            for (int j = candidates.size() - 1; j >= 0; j--) {
+                Shape shape = candidates.get(j);
+                if (shape != null && shape.contains(x, y)) {
+                    return shape;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Các shape thuộc layer đang hiện có bounds giao với vùng (toạ độ canvas),
+     * theo thứ tự vẽ.
+     */
+    public List<Shape> queryShapes(Rectangle area) {
+        List<Shape> result = new ArrayList<>();
+        for (Layer layer : layers) {
+            if (layer.visible) {
+                result.addAll(layer.getIndex().query(area));
+            }
+        }
+        return result;
+    }
+
     public Layer getActiveLayer() {
         if (activeLayerIndex >= 0 && activeLayerIndex < layers.size()) {
             return layers.get(activeLayerIndex);
@@ -154,7 +289,9 @@ public class LayerManager implements Serializable {
         
         Layer mergedLayer = new Layer("Merged");
         for (Layer layer : layers) {
-            mergedLayer.shapes.addAll(layer.shapes);
+            for (Shape shape : layer.shapes) {
+                mergedLayer.addShape(shape);
+            }
         }
         layers.clear();
         layers.add(mergedLayer);
@@ -0,0 +1,111 @@
+package com.whiteboard.drawing;
+
+import java.awt.Point;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Danh sách điểm của nét vẽ tự do, lưu packed trong một mảng int [x0, y0, x1, y1, ...]
+ * thay cho List&lt;Point&gt; (mỗi điểm một object).
+ *
+ * Buffer chỉ nối thêm ở cuối nên nét đang vẽ và shape đã commit có thể dùng chung
+ * một buffer mà không phải copy; muốn giữ bản riêng thì dùng {@link #copy()}.
+ * Không thread-safe: chỉ một thread ghi (EDT khi vẽ local).
+ */
+public final class PointBuffer implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] coords;
+    private int size;
+
+    public PointBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public PointBuffer(int capacity) {
+        coords = new int[Math.max(1, capacity) * 2];
+    }
+
+    public static PointBuffer of(List<Point> points) {
+        PointBuffer buffer = new PointBuffer(points.size());
+        for (Point p : points) {
+            buffer.add(p.x, p.y);
+        }
+        return buffer;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void add(int x, int y) {
+        int i = size * 2;
+        if (i + 2 > coords.length) {
+            coords = Arrays.copyOf(coords, Math.max(coords.length * 2, i + 2));
+        }
+        coords[i] = x;
+        coords[i + 1] = y;
+        size++;
+    }
+
+    public int getX(int index) {
+        checkIndex(index);
+        return coords[index * 2];
+    }
+
+    public int getY(int index) {
+        checkIndex(index);
+        return coords[index * 2 + 1];
+    }
+
+    public void set(int index, int x, int y) {
+        checkIndex(index);
+        coords[index * 2] = x;
+        coords[index * 2 + 1] = y;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public PointBuffer copy() {
+        PointBuffer copy = new PointBuffer(size);
+        System.arraycopy(coords, 0, copy.coords, 0, size * 2);
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * Chuyển sang List&lt;Point&gt; (chỉ dùng cho code/định dạng cũ).
+     */
+    public List<Point> toPointList() {
+        List<Point> points = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            points.add(new Point(coords[i * 2], coords[i * 2 + 1]));
+        }
+        return points;
+    }
+
+    /**
+     * Java serialization ghi ra List&lt;Point&gt; như trước để peer cũ (protocol 0) và file
+     * project nhị phân cũ vẫn đọc được; Shape.readObject nhận cả hai dạng.
+     * Đường truyền chính (WireCodec) ghi trực tiếp mảng int.
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        return toPointList();
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.whiteboard.drawing;
+
+import com.whiteboard.Config;
+
+import javax.swing.SwingUtilities;
+import java.awt.Rectangle;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Gộp các thay đổi shape từ peer (thêm / sửa / xoá) trên thread "RemoteScene" thay vì trên EDT.
+ *
+ * Thread mạng chỉ đẩy lô shape vào hàng đợi rồi trả về. Worker gộp theo Shape.id (trạng thái mới
+ * nhất thắng, giữ thứ tự lần đầu xuất hiện để không đổi thứ tự vẽ), tính sẵn bounds và vùng bẩn,
+ * rồi gửi sang EDT một {@link Frame} cho mỗi render.remote_frame_interval_ms. Mỗi frame mang tối đa
+ * render.remote_shapes_per_frame shape; phần còn lại đi ở frame sau nên lô lớn (bản dump lúc vào
+ * phòng) không làm đứng UI. Frame kế tiếp chỉ được gửi khi EDT đã áp dụng xong frame trước.
+ */
+public final class RemoteScene {
+    private static final Object WAKE = new Object();
+
+    /**
+     * Những gì EDT cần áp dụng trong một frame. Shape trong removed bị xoá trước, sau đó tới
+     * updated và added (theo thứ tự nhận).
+     */
+    public static final class Frame {
+        public final List<Shape> removed = new ArrayList<>();
+        public final List<Shape> updated = new ArrayList<>();
+        public final List<Shape> added = new ArrayList<>();
+        // Hợp bounds (toạ độ canvas) của các shape mới, null nếu không có
+        public Rectangle dirty;
+        // Peer có shape trong frame, theo thứ tự nhận; lastPeerId là peer gần nhất
+        public final Set<String> peerIds = new LinkedHashSet<>();
+        public String lastPeerId;
+        final List<Runnable> afterApplied = new ArrayList<>();
+
+        public boolean isEmpty() {
+            return removed.isEmpty() && updated.isEmpty() && added.isEmpty();
+        }
+    }
+
+    private enum Kind {
+        ADD, UPDATE, REMOVE
+    }
+
+    private static final class Change {
+        final Kind kind;
+        final Collection<Shape> shapes;
+        final Runnable callback;
+
+        Change(Kind kind, Collection<Shape> shapes, Runnable callback) {
+            this.kind = kind;
+            this.shapes = shapes;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Trạng thái chờ của một shape. removed != null: phải xoá bản đang có trên canvas trước;
+     * shape == null nghĩa là chỉ xoá.
+     */
+    private static final class Pending {
+        // Số thứ tự của thay đổi đầu tiên tạo ra entry (xem changeSeq)
+        final long seq;
+        Shape removed;
+        Kind kind;
+        Shape shape;
+
+        Pending(long seq) {
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * Callback chờ chạy; seq là số thay đổi đã gộp trước nó.
+     */
+    private static final class PendingCallback {
+        final long seq;
+        final Runnable callback;
+
+        PendingCallback(long seq, Runnable callback) {
+            this.seq = seq;
+            this.callback = callback;
+        }
+    }
+
+    private final Consumer<Frame> onFrame;
+    private final long frameIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Config.getRemoteFrameInterval());
+    private final int shapesPerFrame = Math.max(1, Config.getRemoteShapesPerFrame());
+    private final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+
+    // Chỉ worker đọc/ghi
+    private final LinkedHashMap<Long, Pending> pending = new LinkedHashMap<>();
+    private final ArrayDeque<PendingCallback> pendingCallbacks = new ArrayDeque<>();
+    // Đếm số thay đổi đã gộp, để biết callback phải chờ những entry nào
+    private long changeSeq;
+    // Worker đặt frameInFlight khi gửi frame; EDT xoá cờ và hẹn frame kế tiếp sau khi áp dụng xong
+    private volatile boolean frameInFlight;
+    private volatile long nextFrameNanos = System.nanoTime();
+    private volatile boolean running = true;
+
+    /**
+     * @param onFrame chạy trên EDT, nhận từng frame đã gộp
+     */
+    public RemoteScene(Consumer<Frame> onFrame) {
+        this.onFrame = onFrame;
+        Thread worker = new Thread(this::run, "RemoteScene");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public void shapesAdded(Collection<Shape> shapes) {
+        queue.offer(new Change(Kind.ADD, shapes, null));
+    }
+
+    public void shapesUpdated(Collection<Shape> shapes) {
+        queue.offer(new Change(Kind.UPDATE, shapes, null));
+    }
+
+    public void shapesRemoved(Collection<Shape> shapes) {
+        queue.offer(new Change(Kind.REMOVE, shapes, null));
+    }
+
+    /**
+     * Chạy callback trên EDT sau khi mọi thay đổi đã đưa vào trước nó được áp dụng lên canvas
+     * (vd. ACK từng phần SYNC_RESPONSE, để peer gửi không dồn dữ liệu nhanh hơn UI vẽ).
+     */
+    public void runAfterApplied(Runnable callback) {
+        queue.offer(new Change(null, null, callback));
+    }
+
+    public void stop() {
+        running = false;
+        queue.offer(WAKE);
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                Object item;
+                if (pending.isEmpty() && pendingCallbacks.isEmpty()) {
+                    item = queue.take();
+                } else {
+                    // Còn thay đổi chờ: ngủ tới lượt frame kế tiếp (hoặc tới khi có thêm thay đổi)
+                    long wait = frameInFlight ? Long.MAX_VALUE : nextFrameNanos - System.nanoTime();
+                    item = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                }
+                while (item != null) {
+                    if (item != WAKE) {
+                        merge((Change) item);
+                    }
+                    item = queue.poll();
+                }
+                if (!frameInFlight && System.nanoTime() - nextFrameNanos >= 0
+                        && (!pending.isEmpty() || !pendingCallbacks.isEmpty())) {
+                    postFrame(buildFrame());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void merge(Change change) {
+        if (change.callback != null) {
+            pendingCallbacks.add(new PendingCallback(changeSeq, change.callback));
+            return;
+        }
+        changeSeq++;
+        for (Shape shape : change.shapes) {
+            Pending entry = pending.get(shape.id);
+            if (entry == null) {
+                entry = new Pending(changeSeq);
+                pending.put(shape.id, entry);
+            }
+            switch (change.kind) {
+                case ADD:
+                    entry.kind = entry.kind == Kind.UPDATE ? Kind.UPDATE : Kind.ADD;
+                    entry.shape = shape;
+                    break;
+                case UPDATE:
+                    if (entry.kind == null) {
+                        entry.kind = Kind.UPDATE;
+                    }
+                    if (entry.kind != Kind.REMOVE) {
+                        entry.shape = shape;
+                    }
+                    break;
+                case REMOVE:
+                    // có thể đã có trên canvas (bản xem trước nét vẽ) dù ADD còn đang chờ
+                    entry.kind = Kind.REMOVE;
+                    entry.shape = null;
+                    entry.removed = shape;
+                    break;
+                default:
+                    break;
+            }
+            if (entry.shape != null) {
+                entry.shape.getBounds(); // tính sẵn, EDT dùng bản đã cache
+            }
+        }
+    }
+
+    private Frame buildFrame() {
+        Frame frame = new Frame();
+        int count = 0;
+        Iterator<Map.Entry<Long, Pending>> it = pending.entrySet().iterator();
+        while (it.hasNext() && count < shapesPerFrame) {
+            Pending entry = it.next().getValue();
+            it.remove();
+            count++;
+            if (entry.removed != null) {
+                frame.removed.add(entry.removed);
+            }
+            Shape shape = entry.shape;
+            if (shape == null) {
+                continue;
+            }
+            if (entry.kind == Kind.UPDATE) {
+                frame.updated.add(shape);
+            } else {
+                frame.added.add(shape);
+                if (frame.dirty == null) {
+                    frame.dirty = new Rectangle(shape.getBounds());
+                } else {
+                    frame.dirty.add(shape.getBounds());
+                }
+            }
+            if (shape.peerId != null) {
+                frame.peerIds.add(shape.peerId);
+                frame.lastPeerId = shape.peerId;
+            }
+        }
+        // pending giữ thứ tự lần đầu xuất hiện nên entry đầu có seq nhỏ nhất: callback được chạy khi
+        // mọi entry còn lại đều tới sau nó (thay đổi tới sau gộp vào entry cũ vẫn giữ seq cũ)
+        long oldest = pending.isEmpty() ? Long.MAX_VALUE : pending.values().iterator().next().seq;
+        while (!pendingCallbacks.isEmpty() && pendingCallbacks.peek().seq < oldest) {
+            frame.afterApplied.add(pendingCallbacks.poll().callback);
+        }
+        return frame;
+    }
+
+    private void postFrame(Frame frame) {
+        frameInFlight = true;
+        SwingUtilities.invokeLater(() -> {
+            try {
+                if (!frame.isEmpty()) {
+                    onFrame.accept(frame);
+                }
+                for (Runnable callback : frame.afterApplied) {
+                    callback.run();
+                }
+            } finally {
+                nextFrameNanos = System.nanoTime() + frameIntervalNanos;
+                frameInFlight = false;
+                queue.offer(WAKE);
+            }
+        });
+    }
+}
@@ -9,6 +9,8 @@ import java.util.List;
  * Hỗ trợ: select, move, resize, rotate, delete, copy/paste
  */
 public class SelectionManager {
+    // Dùng để truy vấn rubber-band và cập nhật chỉ mục khi shape bị di chuyển (có thể null)
+    private final LayerManager layerManager;
     private Set<Shape> selectedShapes = new HashSet<>();
     private Shape primarySelection = null;
     private SelectionBounds bounds = null;
@@ -66,6 +68,14 @@ public class SelectionManager {
         }
     }
 
+    public SelectionManager() {
+        this(null);
+    }
+
+    public SelectionManager(LayerManager layerManager) {
+        this.layerManager = layerManager;
+    }
+
     public void selectShape(Shape shape, boolean addToSelection) {
         if (!addToSelection) {
             selectedShapes.clear();
@@ -75,6 +85,32 @@ public class SelectionManager {
         updateBounds();
     }
 
+    public void selectShapes(Collection<Shape> shapes, boolean addToSelection) {
+        if (!addToSelection) {
+            selectedShapes.clear();
+            primarySelection = null;
+        }
+        for (Shape shape : shapes) {
+            selectedShapes.add(shape);
+            primarySelection = shape;
+        }
+        updateBounds();
+    }
+
+    /**
+     * Rubber-band: chọn các shape nằm trọn trong vùng (toạ độ canvas) của các layer đang hiện.
+     */
+    public void selectInRect(Rectangle area, boolean addToSelection) {
+        if (layerManager == null) return;
+        List<Shape> inside = new ArrayList<>();
+        for (Shape shape : layerManager.queryShapes(area)) {
+            if (area.contains(shape.getBounds())) {
+                inside.add(shape);
+            }
+        }
+        selectShapes(inside, addToSelection);
+    }
+
     public void deselectShape(Shape shape) {
         selectedShapes.remove(shape);
         if (primarySelection == shape) {
@@ -131,6 +167,7 @@ public class SelectionManager {
             shape.x2 += deltaX;
             shape.y2 += deltaY;
         }
+        notifyShapesChanged();
         updateBounds();
     }
 
@@ -199,6 +236,7 @@ public class SelectionManager {
             shape.y2 = (int) (x2 * sin + y2 * cos) + centerY;
         }
 
+        notifyShapesChanged();
         updateBounds();
     }
 
@@ -221,6 +259,17 @@ public class SelectionManager {
             shape.x2 = bounds.x + bounds.width;
             shape.y2 = bounds.y + bounds.height;
         }
+        notifyShapesChanged();
+    }
+
+    private void notifyShapesChanged() {
+        if (layerManager != null) {
+            layerManager.shapesChanged(selectedShapes);
+        } else {
+            for (Shape shape : selectedShapes) {
+                shape.invalidateBounds();
+            }
+        }
     }
 
     private void updateBounds() {
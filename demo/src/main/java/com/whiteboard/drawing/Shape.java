@@ -1,8 +1,10 @@
 package com.whiteboard.drawing;
 
 import java.awt.*;
+import java.awt.geom.Path2D;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
 
 public class Shape implements Serializable, Cloneable {
@@ -18,7 +20,8 @@ public class Shape implements Serializable, Cloneable {
     public Color color;
     public int strokeWidth;
     public String text;
-    public List<Point> freeDrawPoints;
+    // Điểm của FREE_DRAW/CURVE, packed int (xem PointBuffer)
+    public PointBuffer freeDrawPoints;
     public int[] polyX, polyY;
     public int polySides;
     public float rotation;
@@ -31,12 +34,24 @@ public class Shape implements Serializable, Cloneable {
     public ShapeType type;
     public long timestamp;
     public String peerId;
+    // Id 64 bit (peer, counter) do HybridLogicalClock cấp, là khoá của shape trong StateManager.
+    // 0 = chưa được gán (shape cũ hoặc chưa commit)
+    public long id;
     // Text styling info (dùng cho TEXT shapes)
     public String fontName;
     public int fontSize;      // px
     public int fontStyle;     // Font.PLAIN/BOLD/ITALIC...
     // 0=LEFT, 1=CENTER, 2=RIGHT
     public int textAlign = 0;
+    // Bounding box đã tính (gồm độ dày nét); null = cần tính lại sau khi shape thay đổi
+    private transient Rectangle cachedBounds;
+    // Path dựng sẵn cho FREE_DRAW/CURVE/POLYGON/STAR để vẽ bằng một lần draw(path).
+    // cachedPathSource/cachedPathCount/cachedPathKey cho biết path được dựng từ dữ liệu nào.
+    private transient Path2D.Float cachedPath;
+    private transient Object cachedPathSource;
+    private transient int cachedPathCount;
+    private transient int[] cachedPathKey;
+    private transient BasicStroke cachedStroke;
 
     public Shape(ShapeType type, int startX, int startY, int endX, int endY,
             Color color, int strokeWidth, String peerId) {
@@ -49,7 +64,7 @@ public class Shape implements Serializable, Cloneable {
         this.strokeWidth = strokeWidth;
         this.timestamp = System.currentTimeMillis();
         this.peerId = peerId;
-        this.freeDrawPoints = new ArrayList<>();
+        this.freeDrawPoints = new PointBuffer();
         this.rotation = 0;
     }
 
@@ -142,7 +157,121 @@ public class Shape implements Serializable, Cloneable {
         this.peerId = peerId;
     }
 
+    /**
+     * Bounding box (toạ độ canvas) bao cả độ dày nét và vùng hit-test của contains().
+     * Kết quả được cache; ai sửa toạ độ/điểm của shape phải gọi {@link #invalidateBounds()}.
+     * Không sửa Rectangle trả về.
+     */
+    public Rectangle getBounds() {
+        Rectangle bounds = cachedBounds;
+        if (bounds == null) {
+            bounds = computeBounds();
+            cachedBounds = bounds;
+        }
+        return bounds;
+    }
+
+    /**
+     * Bỏ bounds và path đã cache. Nối thêm điểm vào freeDrawPoints thì path tự nối theo,
+     * nhưng sửa điểm có sẵn (PointBuffer.set) thì phải gọi hàm này.
+     */
+    public void invalidateBounds() {
+        cachedBounds = null;
+        cachedPath = null;
+    }
+
+    /**
+     * Mở rộng bounds đã cache khi nối thêm điểm (x, y) vào nét, tránh tính lại cả nét.
+     */
+    public void includeInBounds(int x, int y) {
+        Rectangle bounds = cachedBounds;
+        if (bounds == null) {
+            return;
+        }
+        int pad = boundsPadding();
+        Rectangle grown = new Rectangle(bounds);
+        grown.add(new Rectangle(x - pad, y - pad, 2 * pad, 2 * pad));
+        cachedBounds = grown;
+    }
+
+    private int boundsPadding() {
+        // contains() chấp nhận sai lệch tới strokeWidth + 2
+        return Math.max(1, strokeWidth) + 2;
+    }
+
+    private Rectangle computeBounds() {
+        int minX, minY, maxX, maxY;
+        switch (type == null ? ShapeType.POINT : type) {
+            case FREE_DRAW:
+            case CURVE:
+                if (freeDrawPoints != null && !freeDrawPoints.isEmpty()) {
+                    minX = minY = Integer.MAX_VALUE;
+                    maxX = maxY = Integer.MIN_VALUE;
+                    for (int i = 0; i < freeDrawPoints.size(); i++) {
+                        int x = freeDrawPoints.getX(i), y = freeDrawPoints.getY(i);
+                        minX = Math.min(minX, x);
+                        minY = Math.min(minY, y);
+                        maxX = Math.max(maxX, x);
+                        maxY = Math.max(maxY, y);
+                    }
+                } else {
+                    minX = sx(); minY = sy(); maxX = ex(); maxY = ey();
+                }
+                break;
+            case CIRCLE: {
+                int r = Math.abs(x2 - x1);
+                minX = x1 - r; minY = y1 - r; maxX = x1 + r; maxY = y1 + r;
+                break;
+            }
+            case POLYGON:
+                if (polyX != null && polyY != null && polyX.length > 0) {
+                    minX = minY = Integer.MAX_VALUE;
+                    maxX = maxY = Integer.MIN_VALUE;
+                    for (int i = 0; i < polyX.length && i < polyY.length; i++) {
+                        minX = Math.min(minX, polyX[i]);
+                        minY = Math.min(minY, polyY[i]);
+                        maxX = Math.max(maxX, polyX[i]);
+                        maxY = Math.max(maxY, polyY[i]);
+                    }
+                } else {
+                    minX = sx(); minY = sy(); maxX = ex(); maxY = ey();
+                }
+                break;
+            case STAR: {
+                int cx = (x1 + x2) / 2;
+                int cy = (y1 + y2) / 2;
+                int r = Math.max(1, Math.abs(x2 - x1) / 2);
+                minX = cx - r; minY = cy - r; maxX = cx + r; maxY = cy + r;
+                break;
+            }
+            case ARROW: {
+                int ah = Math.max(6, strokeWidth * 3);
+                minX = sx() - ah; minY = sy() - ah; maxX = ex() + ah; maxY = ey() + ah;
+                break;
+            }
+            case TEXT: {
+                // Ước lượng rộng rãi vì không có FontMetrics ở đây; gồm cả vùng ±50/±20 của contains()
+                int fSize = (fontSize > 0) ? fontSize : Math.max(12, strokeWidth * 3);
+                int textWidth = text == null ? 0 : text.length() * fSize;
+                minX = x1 - Math.max(50, textWidth);
+                maxX = x1 + Math.max(50, textWidth);
+                minY = y1 - Math.max(20, fSize);
+                maxY = y1 + Math.max(20, fSize / 2);
+                break;
+            }
+            default:
+                minX = sx(); minY = sy(); maxX = ex(); maxY = ey();
+                break;
+        }
+        int pad = boundsPadding();
+        return new Rectangle(minX - pad, minY - pad, maxX - minX + 2 * pad, maxY - minY + 2 * pad);
+    }
+
     public boolean contains(int px, int py) {
+        if (type == ShapeType.FREE_DRAW && !getBounds().contains(px, py)) {
+            // loại nhanh trước khi duyệt từng đoạn của nét
+            return false;
+        }
         switch (type) {
             case POINT:
                 return Math.hypot(px - x1, py - y1) <= strokeWidth;
@@ -154,9 +283,8 @@ public class Shape implements Serializable, Cloneable {
                 }
                 double maxDist = strokeWidth + 2;
                 for (int i = 1; i < freeDrawPoints.size(); i++) {
-                    Point p1 = freeDrawPoints.get(i - 1);
-                    Point p2 = freeDrawPoints.get(i);
-                    if (distanceToSegment(px, py, p1.x, p1.y, p2.x, p2.y) <= maxDist) {
+                    if (distanceToSegment(px, py, freeDrawPoints.getX(i - 1), freeDrawPoints.getY(i - 1),
+                            freeDrawPoints.getX(i), freeDrawPoints.getY(i)) <= maxDist) {
                         return true;
                     }
                 }
@@ -200,7 +328,7 @@ public class Shape implements Serializable, Cloneable {
 
     public void draw(Graphics2D g, Color drawColor, int width) {
         g.setColor(drawColor);
-        g.setStroke(new BasicStroke(width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        g.setStroke(strokeFor(width));
 
         switch (type) {
             case POINT:
@@ -229,11 +357,7 @@ public class Shape implements Serializable, Cloneable {
                 break;
             case FREE_DRAW:
                 if (freeDrawPoints != null && freeDrawPoints.size() > 1) {
-                    for (int i = 1; i < freeDrawPoints.size(); i++) {
-                        Point p1 = freeDrawPoints.get(i-1);
-                        Point p2 = freeDrawPoints.get(i);
-                        g.drawLine(p1.x, p1.y, p2.x, p2.y);
-                    }
+                    g.draw(pointsPath());
                 }
                 break;
             case TEXT:
@@ -255,62 +379,19 @@ public class Shape implements Serializable, Cloneable {
                     g.drawString(text, drawX, baselineY);
                 }
                 break;
-            case POLYGON: {
-                // Polygon: if polyX/polyY provided, draw; otherwise create regular polygon from center and sides
-                if (polyX != null && polyY != null && polyX.length > 2) {
-                    if (fillColor != null || useGradient) {
-                        Paint prev = g.getPaint();
-                        applyFillPaint(g, sx(), sy(), ex(), ey());
-                        g.fillPolygon(polyX, polyY, polyX.length);
-                        g.setPaint(prev);
-                    }
-                    g.drawPolygon(polyX, polyY, polyX.length);
-                } else if (polySides > 2) {
-                    int cx = (x1 + x2) / 2;
-                    int cy = (y1 + y2) / 2;
-                    int rx = Math.abs(x2 - x1) / 2;
-                    int ry = Math.abs(y2 - y1) / 2;
-                    int n = polySides;
-                    int[] px = new int[n];
-                    int[] py = new int[n];
-                    for (int i = 0; i < n; i++) {
-                        double angle = rotation + 2 * Math.PI * i / n;
-                        px[i] = cx + (int) (rx * Math.cos(angle));
-                        py[i] = cy + (int) (ry * Math.sin(angle));
-                    }
+            case POLYGON:
+            case STAR: {
+                // Polygon: polyX/polyY nếu có, không thì đa giác đều theo polySides; Star: đỉnh trong/ngoài xen kẽ
+                Path2D.Float path = polygonPath();
+                if (path != null) {
                     if (fillColor != null || useGradient) {
                         Paint prev = g.getPaint();
                         applyFillPaint(g, sx(), sy(), ex(), ey());
-                        g.fillPolygon(px, py, n);
+                        g.fill(path);
                         g.setPaint(prev);
                     }
-                    g.drawPolygon(px, py, n);
-                }
-                break;
-            }
-            case STAR: {
-                // Star: 5-point star by default, alternate outer/inner radii
-                int points = Math.max(5, polySides == 0 ? 5 : polySides);
-                int cx = (x1 + x2) / 2;
-                int cy = (y1 + y2) / 2;
-                int outerR = Math.max(1, Math.abs(x2 - x1) / 2);
-                int innerR = Math.max(1, outerR / 2);
-                int n = points * 2;
-                int[] px = new int[n];
-                int[] py = new int[n];
-                for (int i = 0; i < n; i++) {
-                    double a = rotation + Math.PI * i / points;
-                    int rad = (i % 2 == 0) ? outerR : innerR;
-                    px[i] = cx + (int) (rad * Math.cos(a));
-                    py[i] = cy + (int) (rad * Math.sin(a));
-                }
-                if (fillColor != null || useGradient) {
-                    Paint prev = g.getPaint();
-                    applyFillPaint(g, sx(), sy(), ex(), ey());
-                    g.fillPolygon(px, py, n);
-                    g.setPaint(prev);
+                    g.draw(path);
                 }
-                g.drawPolygon(px, py, n);
                 break;
             }
             case ARROW: {
@@ -338,13 +419,7 @@ public class Shape implements Serializable, Cloneable {
             case CURVE: {
                 // Curve: draw smooth path through freeDrawPoints or use quadratic/cubic
                 if (freeDrawPoints != null && freeDrawPoints.size() > 1) {
-                    java.awt.geom.Path2D path = new java.awt.geom.Path2D.Double();
-                    Point p0 = freeDrawPoints.get(0);
-                    path.moveTo(p0.x, p0.y);
-                    for (int i = 1; i < freeDrawPoints.size(); i++) {
-                        Point p = freeDrawPoints.get(i);
-                        path.lineTo(p.x, p.y);
-                    }
+                    Path2D.Float path = pointsPath();
                     if (fillColor != null || useGradient) {
                         Paint prev = g.getPaint();
                         applyFillPaint(g, sx(), sy(), ex(), ey());
@@ -387,8 +462,10 @@ public class Shape implements Serializable, Cloneable {
     public Shape clone() {
         try {
             Shape clone = (Shape) super.clone();
+            clone.cachedBounds = null;
+            clone.cachedPath = null;
             if (freeDrawPoints != null) {
-                clone.freeDrawPoints = new ArrayList<>(freeDrawPoints);
+                clone.freeDrawPoints = freeDrawPoints.copy();
             }
             return clone;
         } catch (CloneNotSupportedException e) {
@@ -396,6 +473,138 @@ public class Shape implements Serializable, Cloneable {
         }
     }
 
+    /**
+     * freeDrawPoints được serialize thành List&lt;Point&gt; (PointBuffer.writeReplace) để tương thích
+     * peer cũ và file nhị phân cũ, nên phải đọc từng field rồi đổi lại sang PointBuffer.
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        x1 = fields.get("x1", 0);
+        y1 = fields.get("y1", 0);
+        x2 = fields.get("x2", 0);
+        y2 = fields.get("y2", 0);
+        color = (Color) fields.get("color", null);
+        strokeWidth = fields.get("strokeWidth", 0);
+        text = (String) fields.get("text", null);
+        Object points = fields.get("freeDrawPoints", null);
+        if (points instanceof PointBuffer) {
+            freeDrawPoints = (PointBuffer) points;
+        } else if (points instanceof List) {
+            freeDrawPoints = PointBuffer.of((List<Point>) points);
+        } else {
+            freeDrawPoints = null;
+        }
+        polyX = (int[]) fields.get("polyX", null);
+        polyY = (int[]) fields.get("polyY", null);
+        polySides = fields.get("polySides", 0);
+        rotation = fields.get("rotation", 0f);
+        fillColor = (Color) fields.get("fillColor", null);
+        useGradient = fields.get("useGradient", false);
+        gradientTo = (Color) fields.get("gradientTo", null);
+        type = (ShapeType) fields.get("type", null);
+        timestamp = fields.get("timestamp", 0L);
+        peerId = (String) fields.get("peerId", null);
+        id = fields.get("id", 0L);
+        fontName = (String) fields.get("fontName", null);
+        fontSize = fields.get("fontSize", 0);
+        fontStyle = fields.get("fontStyle", 0);
+        textAlign = fields.get("textAlign", 0);
+    }
+
+    private BasicStroke strokeFor(int width) {
+        BasicStroke stroke = cachedStroke;
+        if (stroke == null || stroke.getLineWidth() != width) {
+            stroke = new BasicStroke(width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+            cachedStroke = stroke;
+        }
+        return stroke;
+    }
+
+    /**
+     * Path qua các điểm của freeDrawPoints (cần ít nhất 1 điểm). Buffer chỉ nối thêm
+     * nên khi nét dài ra chỉ lineTo các điểm mới thay vì dựng lại cả path.
+     */
+    private Path2D.Float pointsPath() {
+        PointBuffer points = freeDrawPoints;
+        Path2D.Float path = cachedPath;
+        if (path == null || cachedPathSource != points || cachedPathCount > points.size()) {
+            path = new Path2D.Float(Path2D.WIND_NON_ZERO, Math.max(2, points.size()));
+            path.moveTo(points.getX(0), points.getY(0));
+            cachedPath = path;
+            cachedPathSource = points;
+            cachedPathCount = 1;
+        }
+        for (int i = cachedPathCount; i < points.size(); i++) {
+            path.lineTo(points.getX(i), points.getY(i));
+        }
+        cachedPathCount = points.size();
+        return path;
+    }
+
+    /**
+     * Path khép kín của POLYGON/STAR; dựng lại khi toạ độ, số cạnh, góc xoay hoặc polyX/polyY đổi.
+     * Trả về null nếu không đủ dữ liệu để vẽ.
+     */
+    private Path2D.Float polygonPath() {
+        boolean explicit = type == ShapeType.POLYGON && polyX != null && polyY != null && polyX.length > 2;
+        if (type == ShapeType.POLYGON && !explicit && polySides <= 2) {
+            return null;
+        }
+        int[] key = {type.ordinal(), x1, y1, x2, y2, polySides, Float.floatToIntBits(rotation)};
+        Object source = explicit ? polyX : null;
+        if (cachedPath != null && cachedPathSource == source && java.util.Arrays.equals(cachedPathKey, key)) {
+            return cachedPath;
+        }
+
+        int[] px, py;
+        if (explicit) {
+            px = polyX;
+            py = polyY;
+        } else if (type == ShapeType.POLYGON) {
+            int cx = (x1 + x2) / 2;
+            int cy = (y1 + y2) / 2;
+            int rx = Math.abs(x2 - x1) / 2;
+            int ry = Math.abs(y2 - y1) / 2;
+            int n = polySides;
+            px = new int[n];
+            py = new int[n];
+            for (int i = 0; i < n; i++) {
+                double angle = rotation + 2 * Math.PI * i / n;
+                px[i] = cx + (int) (rx * Math.cos(angle));
+                py[i] = cy + (int) (ry * Math.sin(angle));
+            }
+        } else {
+            // Star: 5-point star by default, alternate outer/inner radii
+            int points = Math.max(5, polySides == 0 ? 5 : polySides);
+            int cx = (x1 + x2) / 2;
+            int cy = (y1 + y2) / 2;
+            int outerR = Math.max(1, Math.abs(x2 - x1) / 2);
+            int innerR = Math.max(1, outerR / 2);
+            int n = points * 2;
+            px = new int[n];
+            py = new int[n];
+            for (int i = 0; i < n; i++) {
+                double a = rotation + Math.PI * i / points;
+                int rad = (i % 2 == 0) ? outerR : innerR;
+                px[i] = cx + (int) (rad * Math.cos(a));
+                py[i] = cy + (int) (rad * Math.sin(a));
+            }
+        }
+
+        int n = Math.min(px.length, py.length);
+        Path2D.Float path = new Path2D.Float(Path2D.WIND_EVEN_ODD, n + 1);
+        path.moveTo(px[0], py[0]);
+        for (int i = 1; i < n; i++) {
+            path.lineTo(px[i], py[i]);
+        }
+        path.closePath();
+        cachedPath = path;
+        cachedPathSource = source;
+        cachedPathKey = key;
+        return path;
+    }
+
     // Helper methods
     private int sx() { return Math.min(x1, x2); }
     private int sy() { return Math.min(y1, y2); }
@@ -0,0 +1,260 @@
+package com.whiteboard.drawing;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lưới đều (uniform grid) đánh chỉ mục shape theo bounding box đã cache ({@link Shape#getBounds()}).
+ * Mỗi shape được đăng ký vào mọi ô mà bounds của nó phủ; shape quá lớn (phủ quá nhiều ô)
+ * nằm trong danh sách riêng và luôn là ứng viên của mọi truy vấn.
+ *
+ * Truy vấn trả về ứng viên theo thứ tự thêm vào (gần với thứ tự vẽ trong layer),
+ * người gọi vẫn phải kiểm tra chính xác bằng {@link Shape#contains(int, int)} nếu cần.
+ *
+ * Index cũng ghi lại các vùng bị thay đổi (dirty region) để cache raster (TileCache)
+ * chỉ vẽ lại phần cần thiết. Quá nhiều vùng thì gộp thành "toàn bộ dirty".
+ */
+public class SpatialIndex {
+    public static final int CELL_SIZE = 256;
+    // Shape phủ nhiều ô hơn mức này thì không chia vào lưới
+    private static final int MAX_CELLS_PER_SHAPE = 64;
+    private static final int MAX_DIRTY_REGIONS = 256;
+
+    private static final class Entry {
+        final Shape shape;
+        final long seq;
+        Rectangle bounds;
+        boolean oversized;
+        // dùng để loại trùng khi một shape nằm ở nhiều ô
+        int queryMark;
+
+        Entry(Shape shape, long seq) {
+            this.shape = shape;
+            this.seq = seq;
+        }
+    }
+
+    private final Map<Long, List<Entry>> cells = new HashMap<>();
+    private final Map<Shape, Entry> entries = new IdentityHashMap<>();
+    private final List<Entry> oversized = new ArrayList<>();
+    private long nextSeq;
+    private int queryCounter;
+    private final List<Rectangle> dirtyRegions = new ArrayList<>();
+    private boolean allDirty;
+
+    public synchronized void insert(Shape shape) {
+        if (shape == null || entries.containsKey(shape)) {
+            return;
+        }
+        Entry entry = new Entry(shape, nextSeq++);
+        entries.put(shape, entry);
+        place(entry, shape.getBounds());
+        markDirty(entry.bounds);
+    }
+
+    public synchronized void remove(Shape shape) {
+        Entry entry = entries.remove(shape);
+        if (entry != null) {
+            unplace(entry);
+            markDirty(entry.bounds);
+        }
+    }
+
+    /**
+     * Cập nhật vị trí sau khi shape bị thay đổi (giữ nguyên thứ tự). Cả vùng cũ và
+     * mới đều dirty vì màu/kiểu có thể đổi dù bounds giữ nguyên.
+     */
+    public synchronized void update(Shape shape) {
+        Entry entry = entries.get(shape);
+        if (entry == null) {
+            return;
+        }
+        markDirty(entry.bounds);
+        Rectangle bounds = shape.getBounds();
+        if (!bounds.equals(entry.bounds)) {
+            unplace(entry);
+            place(entry, bounds);
+            markDirty(entry.bounds);
+        }
+    }
+
+    /**
+     * Như {@link #update(Shape)} nhưng chỉ đánh dấu dirty vùng thực sự thay đổi
+     * (vd. đoạn vừa nối thêm vào nét đang vẽ), không phải toàn bộ shape.
+     */
+    public synchronized void update(Shape shape, Rectangle changedRegion) {
+        Entry entry = entries.get(shape);
+        if (entry == null) {
+            return;
+        }
+        Rectangle bounds = shape.getBounds();
+        if (!bounds.equals(entry.bounds)) {
+            unplace(entry);
+            place(entry, bounds);
+        }
+        markDirty(changedRegion);
+    }
+
+    public synchronized boolean contains(Shape shape) {
+        return entries.containsKey(shape);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        cells.clear();
+        entries.clear();
+        oversized.clear();
+        dirtyRegions.clear();
+        allDirty = true;
+    }
+
+    /**
+     * Lấy và xoá các vùng dirty từ lần gọi trước. Trả về false nếu cần coi toàn bộ
+     * là dirty (out không được dùng).
+     */
+    public synchronized boolean drainDirtyRegions(List<Rectangle> out) {
+        if (allDirty) {
+            allDirty = false;
+            dirtyRegions.clear();
+            return false;
+        }
+        out.addAll(dirtyRegions);
+        dirtyRegions.clear();
+        return true;
+    }
+
+    private void markDirty(Rectangle region) {
+        if (allDirty || region == null) {
+            return;
+        }
+        if (dirtyRegions.size() >= MAX_DIRTY_REGIONS) {
+            allDirty = true;
+            dirtyRegions.clear();
+            return;
+        }
+        dirtyRegions.add(new Rectangle(region));
+    }
+
+    /**
+     * Các shape có bounds giao với vùng (toạ độ canvas), theo thứ tự thêm vào.
+     */
+    public synchronized List<Shape> query(Rectangle area) {
+        int mark = ++queryCounter;
+        List<Entry> hits = new ArrayList<>();
+        for (Entry entry : oversized) {
+            if (entry.bounds.intersects(area)) {
+                entry.queryMark = mark;
+                hits.add(entry);
+            }
+        }
+        int cx0 = cell(area.x), cy0 = cell(area.y);
+        int cx1 = cell(area.x + area.width), cy1 = cell(area.y + area.height);
+        for (int cx = cx0; cx <= cx1; cx++) {
+            for (int cy = cy0; cy <= cy1; cy++) {
+                List<Entry> bucket = cells.get(key(cx, cy));
+                if (bucket == null) continue;
+                for (Entry entry : bucket) {
+                    if (entry.queryMark != mark && entry.bounds.intersects(area)) {
+                        entry.queryMark = mark;
+                        hits.add(entry);
+                    }
+                }
+            }
+        }
+        hits.sort((a, b) -> Long.compare(a.seq, b.seq));
+        List<Shape> result = new ArrayList<>(hits.size());
+        for (Entry entry : hits) {
+            result.add(entry.shape);
+        }
+        return result;
+    }
+
+    /**
+     * Số shape có bounds giao với vùng, như query(area).size() nhưng không dựng danh sách.
+     */
+    public synchronized int count(Rectangle area) {
+        int mark = ++queryCounter;
+        int count = 0;
+        for (Entry entry : oversized) {
+            if (entry.bounds.intersects(area)) {
+                entry.queryMark = mark;
+                count++;
+            }
+        }
+        int cx0 = cell(area.x), cy0 = cell(area.y);
+        int cx1 = cell(area.x + area.width), cy1 = cell(area.y + area.height);
+        for (int cx = cx0; cx <= cx1; cx++) {
+            for (int cy = cy0; cy <= cy1; cy++) {
+                List<Entry> bucket = cells.get(key(cx, cy));
+                if (bucket == null) continue;
+                for (Entry entry : bucket) {
+                    if (entry.queryMark != mark && entry.bounds.intersects(area)) {
+                        entry.queryMark = mark;
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Các shape có bounds chứa điểm (x, y), theo thứ tự thêm vào.
+     */
+    public List<Shape> query(int x, int y) {
+        return query(new Rectangle(x, y, 1, 1));
+    }
+
+    private void place(Entry entry, Rectangle bounds) {
+        entry.bounds = new Rectangle(bounds);
+        int cx0 = cell(bounds.x), cy0 = cell(bounds.y);
+        int cx1 = cell(bounds.x + bounds.width), cy1 = cell(bounds.y + bounds.height);
+        long cellCount = (long) (cx1 - cx0 + 1) * (cy1 - cy0 + 1);
+        entry.oversized = cellCount > MAX_CELLS_PER_SHAPE;
+        if (entry.oversized) {
+            oversized.add(entry);
+            return;
+        }
+        for (int cx = cx0; cx <= cx1; cx++) {
+            for (int cy = cy0; cy <= cy1; cy++) {
+                cells.computeIfAbsent(key(cx, cy), k -> new ArrayList<>()).add(entry);
+            }
+        }
+    }
+
+    private void unplace(Entry entry) {
+        if (entry.oversized) {
+            oversized.remove(entry);
+            return;
+        }
+        Rectangle bounds = entry.bounds;
+        int cx0 = cell(bounds.x), cy0 = cell(bounds.y);
+        int cx1 = cell(bounds.x + bounds.width), cy1 = cell(bounds.y + bounds.height);
+        for (int cx = cx0; cx <= cx1; cx++) {
+            for (int cy = cy0; cy <= cy1; cy++) {
+                Long key = key(cx, cy);
+                List<Entry> bucket = cells.get(key);
+                if (bucket == null) continue;
+                bucket.remove(entry);
+                if (bucket.isEmpty()) {
+                    cells.remove(key);
+                }
+            }
+        }
+    }
+
+    private static int cell(int coord) {
+        return Math.floorDiv(coord, CELL_SIZE);
+    }
+
+    private static Long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+}
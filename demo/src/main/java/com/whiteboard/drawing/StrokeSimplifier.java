@@ -0,0 +1,212 @@
+package com.whiteboard.drawing;
+
+/**
+ * Đơn giản hoá nét vẽ tự do ngay lúc bắt chuột, trước khi điểm được nối vào PointBuffer
+ * (và được broadcast). Điểm trùng/gần nhau hơn tolerance bị bỏ; các điểm gần thẳng hàng
+ * được gộp: một điểm chỉ được giữ khi có điểm trung gian lệch khỏi đoạn thẳng nối từ điểm
+ * giữ trước đó tới mẫu mới quá tolerance (RDP tăng dần trên cửa sổ giới hạn).
+ *
+ * Tuỳ chọn làm mượt Catmull-Rom: chèn điểm nội suy giữa các điểm giữ lại, trễ một điểm
+ * (cần điểm kế tiếp để tính tiếp tuyến).
+ *
+ * Mẫu mới nhất chưa được giữ là "pending"; DrawingCanvas vẽ thêm đoạn tới đó để nét
+ * không bị trễ so với con trỏ. {@link #finish()} nối nốt phần còn lại khi thả chuột.
+ */
+public class StrokeSimplifier {
+    // Số mẫu thô tối đa kiểm tra lại cho mỗi đoạn; vượt quá thì giữ điểm luôn
+    private static final int MAX_WINDOW = 64;
+    private static final int MAX_SMOOTH_STEPS = 8;
+
+    private final PointBuffer out;
+    private final double tolerance;
+    private final boolean smoothing;
+
+    // Điểm giữ gần nhất (đầu đoạn đang xét)
+    private int anchorX, anchorY;
+    // Các mẫu thô kể từ anchor, chưa quyết định
+    private final int[] windowX = new int[MAX_WINDOW];
+    private final int[] windowY = new int[MAX_WINDOW];
+    private int windowSize;
+
+    // Catmull-Rom: đoạn start -> key chỉ nối ra out khi đã có điểm giữ kế tiếp;
+    // prev là điểm trước start (dùng tính tiếp tuyến)
+    private int prevX, prevY, startX, startY, keyX, keyY;
+    private boolean hasKey;
+
+    private int rawCount;
+
+    /**
+     * @param out       buffer nhận điểm đã đơn giản hoá
+     * @param tolerance sai lệch cho phép (toạ độ canvas); &lt;= 0 thì giữ mọi điểm khác nhau
+     * @param smoothing chèn điểm Catmull-Rom giữa các điểm giữ lại
+     */
+    public StrokeSimplifier(PointBuffer out, double tolerance, boolean smoothing) {
+        this.out = out;
+        this.tolerance = Math.max(0, tolerance);
+        this.smoothing = smoothing;
+    }
+
+    public void begin(int x, int y) {
+        rawCount = 1;
+        windowSize = 0;
+        hasKey = false;
+        prevX = startX = x;
+        prevY = startY = y;
+        anchorX = x;
+        anchorY = y;
+        keep(x, y);
+    }
+
+    public void add(int x, int y) {
+        rawCount++;
+        if (windowSize == 0 && x == anchorX && y == anchorY) {
+            return;
+        }
+        if (windowSize > 0 && x == windowX[windowSize - 1] && y == windowY[windowSize - 1]) {
+            return;
+        }
+        // Mẫu nằm trong bán kính tolerance quanh anchor không thể lệch khỏi đoạn nào bắt đầu
+        // từ anchor, nên chỉ cần giữ mẫu mới nhất trong số đó làm pending
+        boolean close = isClose(x, y);
+        if (close && windowSize > 0 && isClose(windowX[windowSize - 1], windowY[windowSize - 1])) {
+            windowX[windowSize - 1] = x;
+            windowY[windowSize - 1] = y;
+            return;
+        }
+        if (windowSize == MAX_WINDOW || (!close && deviates(x, y))) {
+            // Mẫu trước đó là điểm cuối cùng còn nằm trong tolerance: giữ nó làm anchor mới
+            int keepX = windowX[windowSize - 1];
+            int keepY = windowY[windowSize - 1];
+            anchorX = keepX;
+            anchorY = keepY;
+            windowSize = 0;
+            keep(keepX, keepY);
+        }
+        push(x, y);
+    }
+
+    /**
+     * Nối mẫu cuối cùng (nếu chưa giữ) và phần làm mượt còn lại.
+     */
+    public void finish() {
+        if (windowSize > 0) {
+            int x = windowX[windowSize - 1];
+            int y = windowY[windowSize - 1];
+            windowSize = 0;
+            if (x != anchorX || y != anchorY) {
+                anchorX = x;
+                anchorY = y;
+                keep(x, y);
+            }
+        }
+        if (smoothing && hasKey) {
+            // Đoạn cuối: lặp điểm cuối làm điểm kế tiếp
+            emitSpan(keyX, keyY);
+            hasKey = false;
+        }
+    }
+
+    public boolean hasPending() {
+        return windowSize > 0;
+    }
+
+    public int getPendingX() {
+        return windowX[windowSize - 1];
+    }
+
+    public int getPendingY() {
+        return windowY[windowSize - 1];
+    }
+
+    /** Số mẫu chuột đã nhận cho nét hiện tại. */
+    public int getRawCount() {
+        return rawCount;
+    }
+
+    /** Tỉ lệ điểm bị bỏ so với số mẫu thô (0 = không giảm). */
+    public double getReductionRatio() {
+        if (rawCount == 0) {
+            return 0;
+        }
+        return Math.max(0, 1.0 - (double) out.size() / rawCount);
+    }
+
+    private boolean isClose(int x, int y) {
+        return Math.hypot(x - anchorX, y - anchorY) <= tolerance;
+    }
+
+    private void push(int x, int y) {
+        windowX[windowSize] = x;
+        windowY[windowSize] = y;
+        windowSize++;
+    }
+
+    /**
+     * Có mẫu nào trong cửa sổ lệch khỏi đoạn anchor -> (x, y) quá tolerance không.
+     */
+    private boolean deviates(int x, int y) {
+        double dx = x - anchorX;
+        double dy = y - anchorY;
+        double lengthSq = dx * dx + dy * dy;
+        double limitSq = tolerance * tolerance;
+        for (int i = 0; i < windowSize; i++) {
+            double px = windowX[i] - anchorX;
+            double py = windowY[i] - anchorY;
+            double t = Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSq));
+            double ex = px - t * dx;
+            double ey = py - t * dy;
+            if (ex * ex + ey * ey > limitSq) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void keep(int x, int y) {
+        if (!smoothing || out.isEmpty()) {
+            out.add(x, y);
+            return;
+        }
+        if (!hasKey) {
+            keyX = x;
+            keyY = y;
+            hasKey = true;
+            return;
+        }
+        // Đã biết điểm sau key nên nối được đoạn start -> key
+        emitSpan(x, y);
+        prevX = startX;
+        prevY = startY;
+        startX = keyX;
+        startY = keyY;
+        keyX = x;
+        keyY = y;
+    }
+
+    /**
+     * Nối các điểm Catmull-Rom của đoạn start -> key (không gồm start, gồm key).
+     */
+    private void emitSpan(int nextX, int nextY) {
+        double x0 = prevX, y0 = prevY;
+        double x1 = startX, y1 = startY;
+        double x2 = keyX, y2 = keyY;
+        double x3 = nextX, y3 = nextY;
+        double length = Math.hypot(x2 - x1, y2 - y1);
+        int steps = (int) Math.min(MAX_SMOOTH_STEPS, Math.max(1, length / Math.max(2, tolerance * 4)));
+        for (int s = 1; s < steps; s++) {
+            double t = (double) s / steps;
+            double t2 = t * t;
+            double t3 = t2 * t;
+            double px = 0.5 * (2 * x1 + (-x0 + x2) * t + (2 * x0 - 5 * x1 + 4 * x2 - x3) * t2
+                    + (-x0 + 3 * x1 - 3 * x2 + x3) * t3);
+            double py = 0.5 * (2 * y1 + (-y0 + y2) * t + (2 * y0 - 5 * y1 + 4 * y2 - y3) * t2
+                    + (-y0 + 3 * y1 - 3 * y2 + y3) * t3);
+            int ix = (int) Math.round(px);
+            int iy = (int) Math.round(py);
+            if (ix != out.getX(out.size() - 1) || iy != out.getY(out.size() - 1)) {
+                out.add(ix, iy);
+            }
+        }
+        out.add(keyX, keyY);
+    }
+}
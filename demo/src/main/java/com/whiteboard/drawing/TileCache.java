@@ -0,0 +1,290 @@
+package com.whiteboard.drawing;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Cache raster dạng tile cho các layer đã commit. Tile có kích thước cố định theo pixel
+ * ở một mức zoom (toạ độ canvas * zoom), nên pan chỉ là dịch chuyển khi blit. Key của tile
+ * có mức zoom: đổi zoom không bỏ cache, tile của mức zoom cũ thành tile ít dùng nhất và bị
+ * LRU loại trước, zoom về mức cũ thì dùng lại được.
+ *
+ * Tile chỉ bị vẽ lại khi vùng dirty từ {@link SpatialIndex} của layer chạm vào nó.
+ * LRU của tile có ảnh giữ ít nhất maxTiles tile, và luôn đủ chỗ cho mọi tile mà một frame cần
+ * (viewport x số layer), nên viewport lớn nhiều layer không tự loại tile của chính nó; ảnh của
+ * tile bị loại được tái sử dụng. Tile trống (không có shape) chỉ nhớ key trong LRU riêng, không
+ * chiếm chỗ của tile có ảnh.
+ */
+public class TileCache {
+    public static final int TILE_SIZE = 256;
+    private static final int MAX_SPARE_IMAGES = 16;
+    // Số tile trống được nhớ cho mỗi tile có ảnh (key nhỏ, không có ảnh)
+    private static final int EMPTY_TILES_PER_TILE = 16;
+
+    /**
+     * Vẽ một shape của layer với độ mờ của layer (DrawingCanvas.drawShape).
+     */
+    public interface Renderer {
+        void draw(Graphics2D g, Shape shape, float alpha);
+    }
+
+    private record TileKey(LayerManager.Layer layer, float zoom, int tx, int ty) {
+    }
+
+    private static final class LayerState {
+        SpatialIndex index;
+        float opacity;
+    }
+
+    private final Renderer renderer;
+    private final int maxTiles;
+    private final int maxEmptyTiles;
+    private final ArrayDeque<BufferedImage> spareImages = new ArrayDeque<>();
+    // LRU theo lần blit gần nhất
+    private final LinkedHashMap<TileKey, BufferedImage> tiles = new LinkedHashMap<>(64, 0.75f, true);
+    private final LinkedHashMap<TileKey, Boolean> emptyTiles = new LinkedHashMap<>(64, 0.75f, true);
+    // Số tile (có ảnh hoặc trống) đang giữ ở mỗi mức zoom, để vùng dirty chỉ xét các mức có tile
+    private final Map<Float, Integer> zoomLevels = new HashMap<>();
+    private final Map<LayerManager.Layer, LayerState> layerStates = new WeakHashMap<>();
+    private final List<Rectangle> dirtyScratch = new ArrayList<>();
+    // Số tile có ảnh đã blit trong frame hiện tại / frame trước (mọi layer)
+    private int frameTiles;
+    private int lastFrameTiles;
+    // Số shape đã raster hoá vào tile trong lần paintLayer gần nhất
+    private int shapesRendered;
+
+    public TileCache(Renderer renderer, int maxTiles) {
+        this.renderer = renderer;
+        this.maxTiles = Math.max(16, maxTiles);
+        this.maxEmptyTiles = this.maxTiles * EMPTY_TILES_PER_TILE;
+    }
+
+    /**
+     * Gọi trước khi vẽ các layer của một frame.
+     */
+    public void beginFrame() {
+        lastFrameTiles = frameTiles;
+        frameTiles = 0;
+    }
+
+    /**
+     * Blit các tile của layer phủ vùng màn hình screenArea. g phải ở toạ độ màn hình
+     * của component (chưa pan/zoom). Trả về số shape phải raster hoá lại.
+     */
+    public int paintLayer(Graphics2D g, LayerManager.Layer layer, Rectangle screenArea, ZoomManager zoomManager) {
+        float zoom = zoomManager.getZoom();
+        syncLayer(layer);
+
+        int panX = zoomManager.getPanX();
+        int panY = zoomManager.getPanY();
+        int tx0 = Math.floorDiv(screenArea.x - panX, TILE_SIZE);
+        int ty0 = Math.floorDiv(screenArea.y - panY, TILE_SIZE);
+        int tx1 = Math.floorDiv(screenArea.x + screenArea.width - 1 - panX, TILE_SIZE);
+        int ty1 = Math.floorDiv(screenArea.y + screenArea.height - 1 - panY, TILE_SIZE);
+
+        shapesRendered = 0;
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                TileKey key = new TileKey(layer, zoom, tx, ty);
+                BufferedImage image = tiles.get(key);
+                if (image == null) {
+                    if (emptyTiles.get(key) != null) {
+                        continue;
+                    }
+                    image = renderTile(layer, zoom, tx, ty);
+                    if (image == null) {
+                        put(emptyTiles, key, Boolean.TRUE);
+                        trim(emptyTiles, maxEmptyTiles);
+                        continue;
+                    }
+                    put(tiles, key, image);
+                }
+                frameTiles++;
+                // Tile của frame này vừa được dùng nên không bao giờ là tile bị loại
+                trim(tiles, Math.max(maxTiles, Math.max(frameTiles, lastFrameTiles)));
+                g.drawImage(image, panX + tx * TILE_SIZE, panY + ty * TILE_SIZE, null);
+            }
+        }
+        return shapesRendered;
+    }
+
+    public void invalidateAll() {
+        for (BufferedImage image : tiles.values()) {
+            recycle(image);
+        }
+        tiles.clear();
+        emptyTiles.clear();
+        zoomLevels.clear();
+        layerStates.clear();
+    }
+
+    public int getTileCount() {
+        return tiles.size();
+    }
+
+    public int getEmptyTileCount() {
+        return emptyTiles.size();
+    }
+
+    /**
+     * Áp dụng các vùng dirty mới của layer; index bị dựng lại hoặc opacity đổi thì bỏ hết tile của layer.
+     */
+    private void syncLayer(LayerManager.Layer layer) {
+        SpatialIndex index = layer.getIndex();
+        LayerState state = layerStates.get(layer);
+        if (state == null || state.index != index || state.opacity != layer.opacity) {
+            if (state == null) {
+                state = new LayerState();
+                layerStates.put(layer, state);
+            }
+            state.index = index;
+            state.opacity = layer.opacity;
+            index.drainDirtyRegions(dirtyScratch);
+            dirtyScratch.clear();
+            invalidateLayer(layer);
+            return;
+        }
+
+        dirtyScratch.clear();
+        if (!index.drainDirtyRegions(dirtyScratch)) {
+            invalidateLayer(layer);
+            return;
+        }
+        for (Rectangle region : dirtyScratch) {
+            invalidateRegion(layer, region);
+        }
+        dirtyScratch.clear();
+    }
+
+    private void invalidateLayer(LayerManager.Layer layer) {
+        removeIf(tiles, key -> key.layer() == layer);
+        removeIf(emptyTiles, key -> key.layer() == layer);
+    }
+
+    /**
+     * Bỏ các tile của layer giao với vùng (toạ độ canvas), ở mọi mức zoom đang có tile.
+     */
+    private void invalidateRegion(LayerManager.Layer layer, Rectangle region) {
+        for (Float zoom : new ArrayList<>(zoomLevels.keySet())) {
+            int tx0 = (int) Math.floor(region.x * zoom / TILE_SIZE);
+            int ty0 = (int) Math.floor(region.y * zoom / TILE_SIZE);
+            int tx1 = (int) Math.floor((region.x + region.width) * zoom / TILE_SIZE);
+            int ty1 = (int) Math.floor((region.y + region.height) * zoom / TILE_SIZE);
+            long count = (long) (tx1 - tx0 + 1) * (ty1 - ty0 + 1);
+            if (count > zoomLevels.getOrDefault(zoom, 0)) {
+                // vùng lớn hơn số tile đang giữ ở mức zoom này: duyệt tile thay vì duyệt vùng
+                Predicate<TileKey> hit = key -> key.layer() == layer && key.zoom() == zoom
+                        && key.tx() >= tx0 && key.tx() <= tx1 && key.ty() >= ty0 && key.ty() <= ty1;
+                removeIf(tiles, hit);
+                removeIf(emptyTiles, hit);
+                continue;
+            }
+            for (int ty = ty0; ty <= ty1; ty++) {
+                for (int tx = tx0; tx <= tx1; tx++) {
+                    TileKey key = new TileKey(layer, zoom, tx, ty);
+                    BufferedImage image = tiles.remove(key);
+                    if (image != null) {
+                        forget(key, image);
+                    } else if (emptyTiles.remove(key) != null) {
+                        forget(key, null);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Raster hoá tile; null nếu tile không có shape nào.
+     */
+    private BufferedImage renderTile(LayerManager.Layer layer, float zoom, int tx, int ty) {
+        // Vùng canvas mà tile phủ (làm tròn ra ngoài)
+        int cx0 = (int) Math.floor(tx * TILE_SIZE / zoom) - 1;
+        int cy0 = (int) Math.floor(ty * TILE_SIZE / zoom) - 1;
+        int cx1 = (int) Math.ceil((tx + 1) * TILE_SIZE / zoom) + 1;
+        int cy1 = (int) Math.ceil((ty + 1) * TILE_SIZE / zoom) + 1;
+        List<Shape> shapes = layer.getIndex().query(new Rectangle(cx0, cy0, cx1 - cx0, cy1 - cy0));
+        if (shapes.isEmpty()) {
+            return null;
+        }
+
+        BufferedImage image = spareImages.poll();
+        if (image == null) {
+            image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setComposite(AlphaComposite.Clear);
+            g.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+            g.setComposite(AlphaComposite.SrcOver);
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.translate(-tx * TILE_SIZE, -ty * TILE_SIZE);
+            g.scale(zoom, zoom);
+            for (Shape shape : shapes) {
+                renderer.draw(g, shape, layer.opacity);
+            }
+        } finally {
+            g.dispose();
+        }
+        shapesRendered += shapes.size();
+        return image;
+    }
+
+    private <V> void put(LinkedHashMap<TileKey, V> map, TileKey key, V value) {
+        map.put(key, value);
+        zoomLevels.merge(key.zoom(), 1, Integer::sum);
+    }
+
+    /**
+     * Loại tile ít dùng nhất tới khi map còn không quá limit phần tử.
+     */
+    private <V> void trim(LinkedHashMap<TileKey, V> map, int limit) {
+        if (map.size() <= limit) {
+            return;
+        }
+        Iterator<Map.Entry<TileKey, V>> it = map.entrySet().iterator();
+        while (map.size() > limit && it.hasNext()) {
+            Map.Entry<TileKey, V> eldest = it.next();
+            it.remove();
+            forget(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private <V> void removeIf(LinkedHashMap<TileKey, V> map, Predicate<TileKey> filter) {
+        Iterator<Map.Entry<TileKey, V>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<TileKey, V> entry = it.next();
+            if (filter.test(entry.getKey())) {
+                it.remove();
+                forget(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Tile vừa bị bỏ khỏi cache: cập nhật số tile theo zoom, giữ lại ảnh để tái sử dụng.
+     */
+    private void forget(TileKey key, Object value) {
+        zoomLevels.computeIfPresent(key.zoom(), (zoom, count) -> count > 1 ? count - 1 : null);
+        if (value instanceof BufferedImage image) {
+            recycle(image);
+        }
+    }
+
+    private void recycle(BufferedImage image) {
+        if (image != null && spareImages.size() < MAX_SPARE_IMAGES) {
+            spareImages.push(image);
+        }
+    }
+}
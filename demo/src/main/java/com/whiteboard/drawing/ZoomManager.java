@@ -1,5 +1,7 @@
 package com.whiteboard.drawing;
 
+import java.awt.Rectangle;
+
 /**
  * Quản lý zoom và pan (cuộn) trên canvas
  * Hỗ trợ: phóng to, thu nhỏ, fit to window, fit to selection
@@ -96,4 +98,26 @@ public class ZoomManager {
     public int canvasToScreenY(int canvasY) {
         return (int) (canvasY * zoomLevel + panY);
     }
+
+    /**
+     * Đổi vùng màn hình sang toạ độ canvas, làm tròn ra ngoài để không hụt mép.
+     */
+    public Rectangle screenToCanvas(Rectangle screen) {
+        int x0 = (int) Math.floor((screen.x - panX) / zoomLevel);
+        int y0 = (int) Math.floor((screen.y - panY) / zoomLevel);
+        int x1 = (int) Math.ceil((screen.x + screen.width - panX) / zoomLevel);
+        int y1 = (int) Math.ceil((screen.y + screen.height - panY) / zoomLevel);
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    /**
+     * Đổi vùng canvas sang toạ độ màn hình, làm tròn ra ngoài.
+     */
+    public Rectangle canvasToScreen(Rectangle canvas) {
+        int x0 = (int) Math.floor(canvas.x * zoomLevel + panX);
+        int y0 = (int) Math.floor(canvas.y * zoomLevel + panY);
+        int x1 = (int) Math.ceil((canvas.x + canvas.width) * zoomLevel + panX);
+        int y1 = (int) Math.ceil((canvas.y + canvas.height) * zoomLevel + panY);
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
 }
@@ -0,0 +1,42 @@
+package com.whiteboard.network;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool direct ByteBuffer kích thước cố định cho transport NIO, tránh cấp phát
+ * buffer mới cho mỗi lần đọc/ghi. Số buffer giữ lại có giới hạn; buffer thừa
+ * được bỏ cho GC.
+ */
+final class BufferPool {
+    static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED = 64;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Trả buffer về pool. Buffer không phải của pool (heap, khác kích thước) bị bỏ qua.
+     */
+    void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != BUFFER_SIZE) {
+            return;
+        }
+        if (pooled.incrementAndGet() > MAX_POOLED) {
+            pooled.decrementAndGet();
+            return;
+        }
+        buffers.offer(buffer);
+    }
+}
@@ -0,0 +1,190 @@
+package com.whiteboard.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Đóng khung message: [int length][byte type][payload], length tính cả byte type.
+ * Dùng cho transport NIO và cho stream transport khi hai bên cùng hỗ trợ (không phải peer cũ).
+ * Payload là WireCodec nếu message mã hoá được, ngược lại là Message serialize bằng Java
+ * (mỗi frame một stream độc lập, nên không có bảng handle sống suốt kết nối).
+ *
+ * Payload lớn (snapshot, ảnh...) được nén Deflater khi vượt ngưỡng: type có thêm bit
+ * FLAG_DEFLATE và payload là [int độ dài gốc][dữ liệu nén]. Bên nhận bỏ qua frame có type
+ * không biết mà không ngắt kết nối.
+ */
+final class FrameCodec {
+    static final int LENGTH_SIZE = 4;
+    static final int HEADER_SIZE = LENGTH_SIZE + 1;
+    static final byte TYPE_WIRE = 1;
+    static final byte TYPE_SERIALIZED = 2;
+    static final byte FLAG_DEFLATE = 0x40;
+    // Mỗi bên ghi đầu kết nối (= new ObjectOutputStream(out) rồi reset() hai lần): peer cũ đọc
+    // như ObjectStream bình thường, peer mới thấy thì chuyển sang frame
+    static final byte[] FRAMED_PREAMBLE = {(byte) 0xAC, (byte) 0xED, 0x00, 0x05, 0x79, 0x79};
+    // Chặn length rác làm cấp phát buffer khổng lồ
+    static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    // Deflater/Inflater giữ bộ nhớ native: mỗi thread ghi/đọc dùng lại một cái
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private FrameCodec() {
+    }
+
+    static final class Frame {
+        final byte type;
+        final byte[] payload;
+
+        Frame(byte type, byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+
+        int size() {
+            return HEADER_SIZE + payload.length;
+        }
+    }
+
+    static Frame encode(NetworkProtocol.Message message) throws IOException {
+        return encode(message, 0);
+    }
+
+    /**
+     * @param compressThreshold payload từ ngần này byte trở lên được nén; 0 = không nén
+     */
+    static Frame encode(NetworkProtocol.Message message, int compressThreshold) throws IOException {
+        Frame frame = encodePlain(message);
+        // Payload không dài hơn 4 byte độ dài gốc thì nén không bao giờ nhỏ hơn
+        if (compressThreshold > 0 && frame.payload.length >= Math.max(compressThreshold, LENGTH_SIZE + 1)) {
+            return deflate(frame);
+        }
+        return frame;
+    }
+
+    private static Frame encodePlain(NetworkProtocol.Message message) throws IOException {
+        byte[] wire = WireCodec.encode(message);
+        if (wire != null) {
+            return new Frame(TYPE_WIRE, wire);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        return new Frame(TYPE_SERIALIZED, bytes.toByteArray());
+    }
+
+    /**
+     * Nén payload; giữ frame gốc nếu nén không nhỏ hơn (dữ liệu đã nén sẵn như ảnh PNG).
+     */
+    private static Frame deflate(Frame frame) {
+        if (frame.payload.length <= LENGTH_SIZE) {
+            return frame;
+        }
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(frame.payload);
+        deflater.finish();
+        // Chỉ dùng bản nén nếu (kể cả 4 byte độ dài gốc) nhỏ hơn payload gốc
+        byte[] out = new byte[frame.payload.length - 1];
+        ByteBuffer.wrap(out).putInt(frame.payload.length);
+        int size = LENGTH_SIZE;
+        while (!deflater.finished() && size < out.length) {
+            size += deflater.deflate(out, size, out.length - size);
+        }
+        if (!deflater.finished()) {
+            return frame;
+        }
+        return new Frame((byte) (frame.type | FLAG_DEFLATE), Arrays.copyOf(out, size));
+    }
+
+    private static byte[] inflate(byte[] payload) throws IOException {
+        if (payload.length < LENGTH_SIZE) {
+            throw new IOException("Truncated compressed frame");
+        }
+        int length = ByteBuffer.wrap(payload).getInt();
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid uncompressed length " + length);
+        }
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(payload, LENGTH_SIZE, payload.length - LENGTH_SIZE);
+        byte[] out = new byte[length];
+        try {
+            int size = 0;
+            while (size < length && !inflater.finished()) {
+                int n = inflater.inflate(out, size, length - size);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += n;
+            }
+            if (size != length) {
+                throw new IOException("Compressed frame inflated to " + size + " of " + length + " bytes");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed frame: " + e.getMessage(), e);
+        }
+        return out;
+    }
+
+    static void put(ByteBuffer dst, Frame frame) {
+        dst.putInt(1 + frame.payload.length);
+        dst.put(frame.type);
+        dst.put(frame.payload);
+    }
+
+    static void write(DataOutputStream out, Frame frame) throws IOException {
+        out.writeInt(1 + frame.payload.length);
+        out.writeByte(frame.type);
+        out.write(frame.payload);
+    }
+
+    /**
+     * Đọc một frame từ stream (type, payload). Length sai thì không thể tìm lại ranh giới
+     * frame kế tiếp nên ném IOException để ngắt kết nối.
+     */
+    static Frame read(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 1 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        byte type = in.readByte();
+        byte[] payload = new byte[length - 1];
+        in.readFully(payload);
+        return new Frame(type, payload);
+    }
+
+    /**
+     * Giải mã payload; trả về null nếu type không biết (frame bị bỏ qua).
+     */
+    static NetworkProtocol.Message decode(byte type, byte[] payload) throws IOException {
+        if ((type & FLAG_DEFLATE) != 0) {
+            return decode((byte) (type & ~FLAG_DEFLATE), inflate(payload));
+        }
+        switch (type) {
+            case TYPE_WIRE:
+                return WireCodec.decode(payload);
+            case TYPE_SERIALIZED:
+                // readObject không chạy constructor của Message: id giữ nguyên như lúc gửi
+                try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+                    Object obj = in.readObject();
+                    return obj instanceof NetworkProtocol.Message m ? m : null;
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Unknown class in frame: " + e.getMessage(), e);
+                }
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.whiteboard.network;
+
+import com.whiteboard.Config;
+import com.whiteboard.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor dùng chung cho các vòng lặp I/O blocking (đọc/ghi của StreamPeerConnection,
+ * acceptConnections, connectToPeer, JoinRoomValidator) thay cho new Thread(...).
+ *
+ * Chế độ chọn qua thread.mode trong config.properties:
+ * - PLATFORM: pool thread daemon, giữ sẵn thread.pool_size thread. Vòng lặp đọc/ghi chạy
+ *   suốt vòng đời kết nối nên pool vẫn được nở thêm khi cần, tránh treo khi nhiều peer.
+ * - VIRTUAL: mỗi task một virtual thread (cần Java 21+; JVM cũ hơn sẽ lùi về PLATFORM).
+ */
+public final class IoExecutor {
+    private static IoExecutor instance;
+
+    private final ExecutorService executor;
+    private final boolean virtual;
+
+    private IoExecutor() {
+        ExecutorService virtualExecutor = null;
+        if ("VIRTUAL".equalsIgnoreCase(Config.getThreadMode())) {
+            virtualExecutor = newVirtualThreadExecutor();
+        }
+        this.virtual = virtualExecutor != null;
+        this.executor = virtual ? virtualExecutor : newPlatformExecutor(Config.getThreadPoolSize());
+        Log.info("IoExecutor", "Using " + (virtual ? "virtual" : "platform") + " threads");
+    }
+
+    public static synchronized IoExecutor get() {
+        if (instance == null) {
+            instance = new IoExecutor();
+        }
+        return instance;
+    }
+
+    /**
+     * Chạy task trên executor; thread được đặt tên theo task trong lúc chạy để
+     * dump thread vẫn đọc được (Read-peerId, Write-peerId...).
+     */
+    public Future<?> submit(String name, Runnable task) {
+        return executor.submit(() -> {
+            Thread current = Thread.currentThread();
+            String previousName = current.getName();
+            current.setName(name);
+            try {
+                task.run();
+            } finally {
+                current.setName(previousName);
+            }
+        });
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    private static ExecutorService newPlatformExecutor(int poolSize) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "Io-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(Math.max(1, poolSize), Integer.MAX_VALUE,
+                60, TimeUnit.SECONDS, new SynchronousQueue<>(), factory);
+        pool.prestartAllCoreThreads();
+        return pool;
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() qua reflection để vẫn build được trên Java 17.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) java.util.concurrent.Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            Log.warning("IoExecutor", "Virtual threads not available on Java "
+                    + Runtime.version().feature() + ", falling back to platform threads");
+            return null;
+        }
+    }
+}
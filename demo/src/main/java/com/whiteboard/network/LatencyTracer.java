@@ -0,0 +1,117 @@
+package com.whiteboard.network;
+
+import com.whiteboard.Config;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Trace độ trễ của nét vẽ realtime theo từng chặng, cho 1 trong metrics.trace_every message
+ * STROKE_BEGIN / STROKE_APPEND. Trace đi kèm message ({@link NetworkProtocol.Trace}) nên bên
+ * nhận tính được các chặng phía bên gửi; giá trị (micro giây) ghi vào {@link NetworkMetrics}.
+ *
+ * Chặng bên gửi ghi theo peer nhận, chặng bên nhận ghi theo peer tạo ra nét. WIRE và TOTAL
+ * so wall clock của hai máy nên lệch theo độ lệch đồng hồ; các chặng khác chỉ dùng nanoTime
+ * của một máy.
+ */
+public final class LatencyTracer {
+    public enum Stage {
+        // Sự kiện chuột (DrawingCanvas.updateDrawing) -> vào hàng đợi ghi của PeerConnection
+        INPUT("input"),
+        // Hàng đợi ghi -> writer encode message
+        QUEUE("queue"),
+        // Writer encode -> bên nhận giải mã xong (kể cả thời gian qua host / relay)
+        WIRE("wire"),
+        // Giải mã xong -> callback nét vẽ chạy trên EDT
+        DISPATCH("dispatch"),
+        // Callback trên EDT -> canvas vẽ xong frame chứa nét
+        PAINT("paint"),
+        // Sự kiện chuột -> canvas bên nhận vẽ xong
+        TOTAL("total");
+
+        public final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final int SAMPLE_EVERY = Config.getTraceSampleInterval();
+    private static final AtomicLong strokeMessages = new AtomicLong();
+
+    private LatencyTracer() {
+    }
+
+    /**
+     * Trace mới cho message nét vẽ nếu đến lượt lấy mẫu, ngược lại null.
+     *
+     * @param inputNanos nanoTime lúc xử lý sự kiện chuột sinh ra các điểm trong message
+     */
+    public static NetworkProtocol.Trace sample(long traceId, long inputNanos) {
+        if (SAMPLE_EVERY <= 0 || strokeMessages.getAndIncrement() % SAMPLE_EVERY != 0) {
+            return null;
+        }
+        long elapsedMillis = (System.nanoTime() - inputNanos) / 1_000_000;
+        return new NetworkProtocol.Trace(traceId, System.currentTimeMillis() - elapsedMillis, inputNanos);
+    }
+
+    /**
+     * PeerConnection.sendMessage: message có trace do peer này tạo được thay bằng bản sao mang
+     * mốc enqueue của riêng kết nối. Trace nhận từ peer khác (relay) giữ nguyên.
+     */
+    static NetworkProtocol.Message enqueued(String peerId, NetworkProtocol.Message message) {
+        NetworkProtocol.Trace trace = message.trace;
+        if (trace == null || trace.originNanos == 0) {
+            return message;
+        }
+        NetworkProtocol.Trace own = trace.copy();
+        own.enqueueMicros = micros(System.nanoTime() - own.originNanos);
+        NetworkMetrics.get().recordStage(peerId, Stage.INPUT, own.enqueueMicros);
+        return message.withTrace(own);
+    }
+
+    /**
+     * Writer của kết nối tới peerId sắp encode message mang trace.
+     */
+    static void written(String peerId, NetworkProtocol.Trace trace, long nowNanos) {
+        if (trace.originNanos == 0) {
+            return;
+        }
+        trace.writeMicros = micros(nowNanos - trace.originNanos);
+        NetworkMetrics.get().recordStage(peerId, Stage.QUEUE, trace.writeMicros - trace.enqueueMicros);
+    }
+
+    /**
+     * Reader vừa giải mã message mang trace.
+     */
+    static void received(NetworkProtocol.Message message) {
+        NetworkProtocol.Trace trace = message.trace;
+        trace.readNanos = System.nanoTime();
+        trace.readMillis = System.currentTimeMillis();
+        long wire = (trace.readMillis - trace.originMillis) * 1000 - trace.writeMicros;
+        NetworkMetrics.get().recordStage(message.senderId, Stage.WIRE, wire);
+    }
+
+    /**
+     * Callback nét vẽ bắt đầu chạy trên EDT. Trả về nanoTime để truyền cho {@link #painted}.
+     */
+    public static long dispatched(String peerId, NetworkProtocol.Trace trace) {
+        long now = System.nanoTime();
+        if (trace.readNanos != 0) {
+            NetworkMetrics.get().recordStage(peerId, Stage.DISPATCH, micros(now - trace.readNanos));
+        }
+        return now;
+    }
+
+    /**
+     * Canvas đã vẽ xong frame chứa nét (gọi từ DrawingCanvas.runAfterNextPaint).
+     */
+    public static void painted(String peerId, NetworkProtocol.Trace trace, long dispatchedNanos) {
+        NetworkMetrics metrics = NetworkMetrics.get();
+        metrics.recordStage(peerId, Stage.PAINT, micros(System.nanoTime() - dispatchedNanos));
+        metrics.recordStage(peerId, Stage.TOTAL, (System.currentTimeMillis() - trace.originMillis) * 1000);
+    }
+
+    private static int micros(long nanos) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, nanos / 1000));
+    }
+}
@@ -0,0 +1,147 @@
+package com.whiteboard.network;
+
+import com.whiteboard.drawing.Shape;
+import com.whiteboard.sync.HybridLogicalClock;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Gộp các cập nhật nét vẽ bị "ghi đè" trong một lô message trước khi ghi ra socket.
+ * Khóa của nét vẽ là strokeId (Shape.id) với STROKE_*, và (peerId, timestamp) theo
+ * {@link HybridLogicalClock#id(String, long)} với SHAPES. Một kết nối chỉ nhận một trong hai
+ * loại (peer mới nhận STROKE_*, peer cũ nhận SHAPES) nên hai loại khóa không cần khớp nhau.
+ *
+ * Quy tắc (chỉ áp dụng trong đoạn không có message "rào chắn" như CLEAR/UNDO/CHAT...):
+ * - SHAPES một shape mang shape hoàn chỉnh nên thay thế mọi SHAPES trước đó của cùng nét.
+ * - Các STROKE_APPEND liên tiếp của cùng nét được nối thành một.
+ *
+ * Message có thể được dùng chung giữa nhiều PeerConnection nên không bao giờ sửa
+ * message gốc, chỉ tạo message mới khi cần nối.
+ */
+final class MessageBatcher {
+    static final long NO_KEY = 0;
+
+    private MessageBatcher() {
+    }
+
+    /**
+     * Gộp batch tại chỗ, giữ nguyên thứ tự. Trả về số message đã bị loại bỏ.
+     */
+    static int coalesce(List<NetworkProtocol.Message> batch) {
+        if (batch.size() < 2) {
+            return 0;
+        }
+        int before = batch.size();
+        int segmentStart = 0;
+        for (int i = 0; i <= batch.size(); i++) {
+            if (i == batch.size() || strokeKey(batch.get(i)) == NO_KEY) {
+                if (i - segmentStart > 1) {
+                    i -= coalesceSegment(batch, segmentStart, i);
+                }
+                segmentStart = i + 1;
+            }
+        }
+        return before - batch.size();
+    }
+
+    /**
+     * Xử lý đoạn [from, to) chỉ gồm cập nhật nét vẽ. Trả về số phần tử đã xoá.
+     */
+    private static int coalesceSegment(List<NetworkProtocol.Message> batch, int from, int to) {
+        int removed = 0;
+        // Duyệt ngược: nét nào đã có shape hoàn chỉnh phía sau thì bỏ các cập nhật trước đó
+        Set<Long> superseded = new HashSet<>();
+        for (int i = to - 1; i >= from; i--) {
+            NetworkProtocol.Message m = batch.get(i);
+            long key = strokeKey(m);
+            if (superseded.contains(key)) {
+                batch.remove(i);
+                removed++;
+                continue;
+            }
+            if (isFullState(m)) {
+                superseded.add(key);
+            }
+        }
+
+        // Duyệt xuôi: nối các STROKE_APPEND liên tiếp của cùng nét vào vị trí sau cùng
+        int end = to - removed;
+        Map<Long, Integer> lastAppend = new HashMap<>();
+        for (int i = from; i < end; i++) {
+            NetworkProtocol.Message m = batch.get(i);
+            if (m.type != NetworkProtocol.MessageType.STROKE_APPEND) {
+                continue;
+            }
+            long key = strokeKey(m);
+            Integer prevIndex = lastAppend.get(key);
+            if (prevIndex != null) {
+                NetworkProtocol.Message merged = mergeAppends(batch.get(prevIndex), m);
+                if (merged != null) {
+                    batch.remove((int) prevIndex);
+                    removed++;
+                    end--;
+                    i--;
+                    batch.set(i, merged);
+                    // vị trí các append khác dịch lên 1
+                    for (Map.Entry<Long, Integer> e : lastAppend.entrySet()) {
+                        if (e.getValue() > prevIndex) {
+                            e.setValue(e.getValue() - 1);
+                        }
+                    }
+                }
+            }
+            lastAppend.put(key, i);
+        }
+        return removed;
+    }
+
+    private static NetworkProtocol.Message mergeAppends(NetworkProtocol.Message first, NetworkProtocol.Message second) {
+        NetworkProtocol.StrokeData a = (NetworkProtocol.StrokeData) first.data;
+        NetworkProtocol.StrokeData b = (NetworkProtocol.StrokeData) second.data;
+        if (a.deltas == null || b.deltas == null || a.baseIndex + a.getPointCount() != b.baseIndex) {
+            return null;
+        }
+        int[] deltas = new int[a.deltas.length + b.deltas.length];
+        System.arraycopy(a.deltas, 0, deltas, 0, a.deltas.length);
+        System.arraycopy(b.deltas, 0, deltas, a.deltas.length, b.deltas.length);
+        // giữ id/ttl của phần sau để bên nhận vẫn lọc trùng và relay được như message gốc
+        NetworkProtocol.Message merged = new NetworkProtocol.Message(second.type, second.senderId,
+                second.timestamp, second.id,
+                new NetworkProtocol.StrokeData(b.peerId, b.strokeId, a.baseIndex, deltas, null));
+        merged.ttl = second.ttl;
+        // Trace của phần trước đo điểm cũ nhất trong message gộp
+        merged.trace = first.trace != null ? first.trace : second.trace;
+        return merged;
+    }
+
+    private static boolean isFullState(NetworkProtocol.Message m) {
+        return m.type == NetworkProtocol.MessageType.SHAPES;
+    }
+
+    /**
+     * Khóa nét vẽ của message, hoặc NO_KEY nếu message không phải cập nhật nét vẽ (rào chắn).
+     */
+    static long strokeKey(NetworkProtocol.Message m) {
+        switch (m.type) {
+            case SHAPES:
+                if (m.data instanceof NetworkProtocol.ShapeData data
+                        && data.shapes != null && data.shapes.size() == 1) {
+                    Shape shape = data.shapes.get(0);
+                    return HybridLogicalClock.id(shape.peerId, shape.timestamp);
+                }
+                return NO_KEY;
+            case STROKE_BEGIN:
+            case STROKE_APPEND:
+                if (m.data instanceof NetworkProtocol.StrokeData stroke) {
+                    return stroke.strokeId;
+                }
+                return NO_KEY;
+            default:
+                return NO_KEY;
+        }
+    }
+}
@@ -1,43 +1,134 @@
 package com.whiteboard.network;
 
+import com.whiteboard.Config;
+import com.whiteboard.Log;
+import com.whiteboard.drawing.PointBuffer;
 import com.whiteboard.drawing.Shape;
+import com.whiteboard.sync.StateManager;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+/**
+ * Nhận/gửi message giữa các peer. Trạng thái bảng đi qua StateManager (CRDT): peer mới
+ * trao đổi BOARD_OPS, message của peer cũ (SHAPES, UNDO, CLEAR) được đổi thành op tương
+ * ứng. Callback chỉ nhận phần thay đổi thực sự sau khi gộp.
+ *
+ * Ở overlay GOSSIP (network.overlay), mỗi peer chỉ nối với vài hàng xóm; message bảng/chat
+ * mang ttl và được relay tiếp cho các hàng xóm khác, mỗi Message.id chỉ xử lý một lần.
+ */
 public class MessageHandler {
     private final Map<String, PeerConnection> connections;
+    private final String localPeerId;
+    private final StateManager stateManager;
     private Consumer<NetworkProtocol.ShapeData> onShapesReceived;
-    private Consumer<String> onClearReceived;
-    private Consumer<String> onUndoReceived;
+    private Consumer<List<Shape>> onShapesUpdated;
+    private Consumer<List<Shape>> onShapesRemoved;
     private Consumer<List<NetworkProtocol.PeerInfo>> onPeerListReceived;
     private Consumer<String> onDisconnectReceived;
     private Consumer<NetworkProtocol.ChatMessage> onChatReceived;
+    private BiConsumer<NetworkProtocol.MessageType, NetworkProtocol.StrokeData> onStrokeReceived;
+    private SyncProgressListener onSyncProgress;
+    // Nơi chạy các việc phải đợi UI áp dụng xong (ACK của SYNC_RESPONSE); MainFrame đặt là EDT
+    private Executor uiExecutor = Runnable::run;
+    // Snapshot đang gửi cho từng peer (để nhận ACK / huỷ khi mất kết nối)
+    private final Map<String, SnapshotStream> snapshotStreams = new ConcurrentHashMap<>();
+    // Version vector mà peer chắc chắn đã có: vector trong SYNC_REQUEST lúc kết nối, nâng lên mỗi
+    // khi một lượt SYNC_RESPONSE gửi xong phần cuối. Mốc để đồng bộ lại khi peer tụt xa
+    private final Map<String, Map<String, Long>> peerVectors = new ConcurrentHashMap<>();
+    // Kết nối đang được resync -> đã có thêm yêu cầu resync trong lúc gửi (chạy lại một lần khi xong)
+    private final Map<PeerConnection, Boolean> resyncs = new ConcurrentHashMap<>();
+    // Topology của phòng; MainFrame đặt theo phòng vừa tạo / join
+    private volatile NetworkProtocol.Topology topology = NetworkProtocol.Topology.MESH;
+    // STAR: peer này là host, chuyển tiếp message của mỗi client cho các client còn lại
+    private volatile boolean relayHost;
+    // GOSSIP: message đã nhận (theo Message.id), để không xử lý / relay lại bản tới qua hàng xóm khác
+    private final MessageIdFilter seenMessageIds = new MessageIdFilter();
+    // Giữ các vòng gửi cho nhiều kết nối không xen nhau: host STAR relay từ nhiều connection
+    // thread cùng lúc, mọi client phải nhận message theo cùng một thứ tự
+    private final Object sendOrder = new Object();
 
-    public MessageHandler() {
+    // Các message được relay trong overlay GOSSIP / bởi host STAR; HELLO/ACK/SYNC_* chỉ có nghĩa
+    // giữa hai đầu kết nối
+    private static final Set<NetworkProtocol.MessageType> RELAYED_TYPES = EnumSet.of(
+            NetworkProtocol.MessageType.SHAPES, NetworkProtocol.MessageType.BOARD_OPS,
+            NetworkProtocol.MessageType.CHAT, NetworkProtocol.MessageType.CLEAR, NetworkProtocol.MessageType.UNDO,
+            NetworkProtocol.MessageType.STROKE_BEGIN, NetworkProtocol.MessageType.STROKE_APPEND);
+
+    /**
+     * Tiến độ nhận trạng thái bảng từ một peer: done/total op. Gọi từ connection thread.
+     */
+    public interface SyncProgressListener {
+        void onSyncProgress(String peerId, int done, int total);
+    }
+
+    public MessageHandler(String localPeerId) {
         this.connections = new ConcurrentHashMap<>();
+        this.localPeerId = localPeerId;
+        this.stateManager = new StateManager(localPeerId);
+    }
+
+    public void setTopology(NetworkProtocol.Topology topology) {
+        this.topology = topology == null ? NetworkProtocol.Topology.MESH : topology;
+    }
+
+    public NetworkProtocol.Topology getTopology() {
+        return topology;
+    }
+
+    public void setRelayHost(boolean relayHost) {
+        this.relayHost = relayHost;
     }
 
     public void addConnection(PeerConnection connection) {
         connections.put(connection.getPeerId(), connection);
-        connection.setMessageHandler(this::handleMessage);
+        connection.setMessageHandler(message -> handleMessage(connection, message));
+        connection.setResyncHandler(peerId -> requestResync(connection));
     }
 
     public void removeConnection(String peerId) {
         PeerConnection conn = connections.remove(peerId);
+        peerVectors.remove(peerId);
+        if (conn != null) {
+            resyncs.remove(conn);
+        }
+        SnapshotStream stream = snapshotStreams.remove(peerId);
+        if (stream != null) {
+            stream.cancel();
+        }
         if (conn != null) {
             conn.disconnect();
         }
     }
 
-    private void handleMessage(NetworkProtocol.Message message) {
+    @SuppressWarnings("unchecked")
+    private void handleMessage(PeerConnection connection, NetworkProtocol.Message message) {
+        if (RELAYED_TYPES.contains(message.type)) {
+            if (topology == NetworkProtocol.Topology.GOSSIP) {
+                if (localPeerId.equals(message.senderId)
+                        || !seenMessageIds.markSent(message.id, System.currentTimeMillis())) {
+                    return; // message của chính mình quay lại, hoặc đã nhận qua hàng xóm khác
+                }
+                relay(connection, message);
+            } else if (topology == NetworkProtocol.Topology.STAR && relayHost) {
+                fanOut(connection, message);
+            }
+        }
         switch (message.type) {
             case HELLO:
-                handleHello(message);
+                handleHello(connection, message);
                 break;
             case SHAPES:
-                if (onShapesReceived != null && message.data instanceof NetworkProtocol.ShapeData) {
-                    onShapesReceived.accept((NetworkProtocol.ShapeData) message.data);
+                if (message.data instanceof NetworkProtocol.ShapeData shapeData && shapeData.shapes != null) {
+                    applyRemote(() -> stateManager.applyLegacyShapes(shapeData.shapes, message.senderId));
+                }
+                break;
+            case BOARD_OPS:
+                if (message.data instanceof NetworkProtocol.BoardOpData opData && opData.ops != null) {
+                    applyRemote(() -> stateManager.apply(opData.ops));
                 }
                 break;
             case CHAT:
@@ -46,122 +137,548 @@ public class MessageHandler {
                 }
                 break;
             case CLEAR:
-                if (onClearReceived != null) {
-                    onClearReceived.accept(message.senderId);
-                }
+                applyRemote(() -> stateManager.applyLegacyClear(message.senderId));
                 break;
             case UNDO:
-                if (onUndoReceived != null) {
-                    onUndoReceived.accept(message.senderId);
-                }
+                applyRemote(() -> stateManager.applyLegacyUndo(message.senderId));
                 break;
             case PEER_LIST:
                 if (onPeerListReceived != null && message.data instanceof List) {
                     onPeerListReceived.accept((List<NetworkProtocol.PeerInfo>) message.data);
                 }
                 break;
+            case STROKE_BEGIN:
+            case STROKE_APPEND:
+                // Bản xem trước nét đang vẽ, chưa thuộc trạng thái bảng
+                if (onStrokeReceived != null && message.data instanceof NetworkProtocol.StrokeData stroke) {
+                    stroke.sentAt = message.timestamp;
+                    stroke.trace = message.trace;
+                    onStrokeReceived.accept(message.type, stroke);
+                }
+                break;
             case ACK:
-                // Handle acknowledgment if needed
+                // ACK mang index phần SYNC_RESPONSE đã áp dụng xong
+                if (message.data instanceof Integer index) {
+                    SnapshotStream stream = snapshotStreams.get(connection.getPeerId());
+                    if (stream != null) {
+                        stream.acknowledge(index);
+                    }
+                }
                 break;
             case SYNC_REQUEST:
-                // Handle sync request
+                if (message.data instanceof NetworkProtocol.SyncRequest request) {
+                    Map<String, Long> vector = request.versionVector == null ? Map.of() : request.versionVector;
+                    peerVectors.put(connection.getPeerId(), vector);
+                    streamDelta(connection, vector, null);
+                }
                 break;
             case SYNC_RESPONSE:
-                // Handle sync response
+                if (message.data instanceof NetworkProtocol.SyncChunk chunk) {
+                    handleSyncChunk(connection, chunk, message.senderId);
+                }
                 break;
             case DISCONNECT:
                 if (onDisconnectReceived != null) {
                     String reason = (message.data instanceof String) ? (String) message.data : "";
-                    System.out.println("[MessageHandler] Received DISCONNECT message from " 
+                    Log.info("MessageHandler", "Received DISCONNECT message from " 
                             + message.senderId + " with reason: " + reason);
                     onDisconnectReceived.accept(reason);
                 } else {
-                    System.err.println("[MessageHandler] DISCONNECT received but no callback registered!");
+                    Log.warning("MessageHandler", "DISCONNECT received but no callback registered!");
                 }
                 break;
         }
     }
 
-    public void broadcastChat(String text, String senderId, String senderName) throws Exception {
-        NetworkProtocol.ChatMessage chat = new NetworkProtocol.ChatMessage(senderId, senderName, text);
-        NetworkProtocol.Message message = new NetworkProtocol.Message(
-                NetworkProtocol.MessageType.CHAT, senderId, chat);
-
+    /**
+     * Chuyển tiếp message cho các hàng xóm (trừ peer vừa gửi tới và peer tạo ra message) khi còn ttl.
+     * Peer cũ không hiểu ttl; chúng nằm trong mesh nên đã nhận trực tiếp.
+     */
+    private void relay(PeerConnection from, NetworkProtocol.Message message) {
+        if (message.ttl <= 1) {
+            return;
+        }
+        message.ttl--;
         for (PeerConnection connection : connections.values()) {
-            if (!connection.getPeerId().equals(senderId)) {
+            if (connection == from || connection.getPeerId().equals(message.senderId)
+                    || connection.isLegacyPeer()) {
+                continue;
+            }
+            try {
+                connection.sendMessage(message);
+            } catch (Exception e) {
+                Log.warning("MessageHandler", "Failed to relay " + message.type + " to " + connection.getPeerId());
+            }
+        }
+    }
+
+    /**
+     * STAR: host chuyển tiếp message của một client cho mọi client khác theo đúng thứ tự nhận,
+     * nên mọi client thấy cùng một thứ tự (thứ tự của host). Mỗi client có hàng đợi ghi riêng
+     * (OutboundQueue) và sendMessage không chặn, nên client nhận chậm không làm chậm client khác.
+     */
+    private void fanOut(PeerConnection from, NetworkProtocol.Message message) {
+        synchronized (sendOrder) {
+            for (PeerConnection connection : connections.values()) {
+                if (connection == from || connection.isLegacyPeer()) {
+                    continue;
+                }
                 try {
                     connection.sendMessage(message);
                 } catch (Exception e) {
-                    System.err.println("Failed to send chat to " + connection.getPeerId());
+                    Log.warning("MessageHandler", "Failed to relay " + message.type + " to " + connection.getPeerId());
                 }
             }
         }
     }
 
-    private void handleHello(NetworkProtocol.Message message) {
-        System.out.println("[MessageHandler] Peer connected: " + message.senderId);
+    /**
+     * Message do peer này tạo ra: ở overlay GOSSIP gắn ttl để hàng xóm relay tiếp.
+     */
+    private NetworkProtocol.Message originate(NetworkProtocol.Message message) {
+        if (topology == NetworkProtocol.Topology.GOSSIP) {
+            message.ttl = Config.getGossipTtl();
+        }
+        return message;
+    }
+
+    public void broadcastChat(String text, String senderId, String senderName) throws Exception {
+        NetworkProtocol.ChatMessage chat = new NetworkProtocol.ChatMessage(senderId, senderName, text);
+        NetworkProtocol.Message message = originate(new NetworkProtocol.Message(
+                NetworkProtocol.MessageType.CHAT, senderId, chat));
+
+        synchronized (sendOrder) {
+            for (PeerConnection connection : connections.values()) {
+                if (!connection.getPeerId().equals(senderId)) {
+                    try {
+                        connection.sendMessage(message);
+                    } catch (Exception e) {
+                        Log.warning("MessageHandler", "Failed to send chat to " + connection.getPeerId());
+                    }
+                }
+            }
+        }
+    }
+
+    private void handleHello(PeerConnection connection, NetworkProtocol.Message message) {
+        Log.info("MessageHandler", "Peer connected: " + message.senderId
+                + " (protocol " + (message.data instanceof Integer ? message.data : 0) + ")");
         // Khi nhận HELLO, có thể cập nhật peerId nếu cần (hiện tại đã match từ UDP discovery)
+        sendState(connection);
+    }
+
+    /**
+     * Đồng bộ với peer vừa kết nối. Peer mới được gửi SYNC_REQUEST kèm version vector local
+     * và trả lời bằng phần delta còn thiếu (hai bên cùng hỏi nên gộp hai chiều). Peer cũ nhận
+     * danh sách shape qua SHAPES.
+     */
+    private void sendState(PeerConnection connection) {
+        if (!connection.isLegacyPeer()) {
+            try {
+                connection.sendMessage(new NetworkProtocol.Message(NetworkProtocol.MessageType.SYNC_REQUEST,
+                        localPeerId, new NetworkProtocol.SyncRequest(stateManager.getVersionVector())));
+            } catch (Exception e) {
+                Log.warning("MessageHandler", "Failed to send sync request to " + connection.getPeerId());
+            }
+            return;
+        }
+        streamSnapshot(connection, null);
+    }
+
+    /**
+     * Snapshot cho peer cũ: danh sách shape qua SHAPES. onDone (có thể null) chạy khi đã gửi
+     * xong hoặc dừng giữa chừng.
+     */
+    private void streamSnapshot(PeerConnection connection, Runnable onDone) {
+        List<NetworkProtocol.BoardOp> plan = stateManager.snapshot();
+        if (plan.isEmpty()) {
+            if (onDone != null) {
+                onDone.run();
+            }
+            return;
+        }
+        // Peer cũ chỉ hiểu shape: ADD đã mang giá trị gộp nên bỏ qua UPDATE/DELETE/CLEAR
+        SnapshotStream.ChunkFactory factory = (ops, index, last, done, total) -> {
+            List<Shape> shapes = new ArrayList<>(ops.size());
+            for (NetworkProtocol.BoardOp op : ops) {
+                if (op.kind == NetworkProtocol.BoardOp.Kind.ADD) {
+                    shapes.add(op.shape);
+                }
+            }
+            return shapes.isEmpty() ? null
+                    : new NetworkProtocol.Message(NetworkProtocol.MessageType.SHAPES, localPeerId,
+                            new NetworkProtocol.ShapeData(shapes, stateManager.getCurrentVersion()));
+        };
+        // Peer cũ không gửi ACK: chỉ giãn theo hàng đợi ghi
+        startStream(connection, plan, factory, 0, onDone);
+    }
+
+    /**
+     * Hàng đợi ghi của peer đã bỏ các thay đổi bảng đang chờ (gọi trên thread đang gửi). Mỗi kết
+     * nối chỉ có một lần resync chạy trên IoExecutor; hàng đợi tràn tiếp trong lúc đang gửi lại
+     * (kể cả vì chính các phần snapshot) chỉ được ghi nhận, gộp thành một lần resync nữa khi xong.
+     */
+    private void requestResync(PeerConnection connection) {
+        if (!resyncs.compute(connection, (key, running) -> running != null)) {
+            IoExecutor.get().submit("Resync-" + connection.getPeerId(), () -> resync(connection));
+        }
+    }
+
+    /**
+     * Gửi lại phần peer có thể thiếu. Peer mới nhận delta kể từ lượt đồng bộ gần nhất đã gửi
+     * xong (peerVectors; áp dụng lại op đã có không sao), peer cũ nhận lại snapshot như lúc
+     * kết nối.
+     */
+    private void resync(PeerConnection connection) {
+        if (!connection.isConnected() || connections.get(connection.getPeerId()) != connection) {
+            resyncs.remove(connection);
+            return;
+        }
+        Runnable done = () -> resyncDone(connection);
+        if (!connection.isLegacyPeer()) {
+            streamDelta(connection, peerVectors.getOrDefault(connection.getPeerId(), Map.of()), done);
+        } else {
+            streamSnapshot(connection, done);
+        }
+    }
+
+    private void resyncDone(PeerConnection connection) {
+        if (resyncs.computeIfPresent(connection, (key, again) -> again ? Boolean.FALSE : null) != null) {
+            resync(connection);
+        }
+    }
+
+    /**
+     * Trả lời SYNC_REQUEST: các op peer chưa có (theo version vector của peer) thành nhiều
+     * SYNC_RESPONSE, giữ tối đa sync.window_chunks phần chưa được ACK. Luôn có ít nhất một phần (last).
+     * Phần cuối mang version vector local lấy cùng lúc với delta. Khi phần cuối đã vào hàng đợi
+     * ghi, peer sẽ có mọi op vector đó bao phủ (SYNC_* không bao giờ bị bỏ và tới theo thứ tự),
+     * nên vector được gộp vào peerVectors: lần resync sau chỉ gửi phần từ đó trở đi.
+     */
+    private void streamDelta(PeerConnection connection, Map<String, Long> remoteVector, Runnable onDone) {
+        List<NetworkProtocol.BoardOp> plan;
+        Map<String, Long> vector;
+        synchronized (stateManager) {
+            plan = stateManager.deltaSince(remoteVector);
+            vector = stateManager.getVersionVector();
+        }
+        boolean[] lastSent = new boolean[1];
+        startStream(connection, plan, (ops, index, last, done, total) -> {
+            NetworkProtocol.SyncChunk chunk = new NetworkProtocol.SyncChunk(ops, index, last, done, total);
+            if (last) {
+                chunk.versionVector = vector;
+                lastSent[0] = true;
+            }
+            return new NetworkProtocol.Message(NetworkProtocol.MessageType.SYNC_RESPONSE, localPeerId, chunk);
+        }, com.whiteboard.Config.getSyncWindowChunks(), () -> {
+            // sendMessage của phần cuối lỗi thì kết nối đã đóng
+            if (lastSent[0] && connection.isConnected()) {
+                peerVectors.computeIfPresent(connection.getPeerId(), (peerId, known) -> merge(known, vector));
+            }
+            if (onDone != null) {
+                onDone.run();
+            }
+        });
+    }
+
+    /**
+     * Vector lớn nhất theo từng origin: peer có mọi op tới stamp đó ở cả hai vector.
+     */
+    private static Map<String, Long> merge(Map<String, Long> known, Map<String, Long> synced) {
+        Map<String, Long> merged = new HashMap<>(known);
+        synced.forEach((origin, stamp) -> merged.merge(origin, stamp, Math::max));
+        return merged;
+    }
+
+    private void startStream(PeerConnection connection, List<NetworkProtocol.BoardOp> plan,
+            SnapshotStream.ChunkFactory factory, int window, Runnable onDone) {
+        SnapshotStream stream = new SnapshotStream(connection, stateManager, plan, factory, window,
+                com.whiteboard.Config.getSyncChunkOps(), com.whiteboard.Config.getSyncChunkBytes());
+        SnapshotStream previous = snapshotStreams.put(connection.getPeerId(), stream);
+        if (previous != null) {
+            previous.cancel();
+        }
+        IoExecutor.get().submit("Snapshot-" + connection.getPeerId(), () -> {
+            try {
+                stream.run();
+            } finally {
+                snapshotStreams.remove(connection.getPeerId(), stream);
+                if (onDone != null) {
+                    onDone.run();
+                }
+            }
+        });
     }
 
+    /**
+     * Một phần SYNC_RESPONSE đã tới: áp dụng, báo tiến độ, rồi ACK sau khi UI đã xử lý xong
+     * các thay đổi của phần này (uiExecutor chạy sau các callback đã xếp hàng trước đó).
+     */
+    private void handleSyncChunk(PeerConnection connection, NetworkProtocol.SyncChunk chunk, String senderId) {
+        if (chunk.ops != null && !chunk.ops.isEmpty()) {
+            applyRemote(() -> stateManager.apply(chunk.ops));
+        }
+        if (onSyncProgress != null) {
+            onSyncProgress.onSyncProgress(senderId, chunk.done, chunk.total);
+        }
+        if (chunk.last) {
+            if (chunk.versionVector != null) {
+                stateManager.markSynced(chunk.versionVector);
+            }
+            Log.info("MessageHandler", "Sync from " + senderId + " complete (" + chunk.total
+                    + " op(s), " + (chunk.index + 1) + " chunk(s))");
+            return;
+        }
+        int index = chunk.index;
+        uiExecutor.execute(() -> {
+            try {
+                connection.sendMessage(new NetworkProtocol.Message(
+                        NetworkProtocol.MessageType.ACK, localPeerId, index));
+            } catch (Exception e) {
+                Log.warning("MessageHandler", "Failed to ack sync chunk to " + connection.getPeerId());
+            }
+        });
+    }
+
+    /**
+     * Áp dụng thay đổi từ peer và báo callback. Giữ lock của StateManager trong lúc báo để
+     * các connection thread không đảo thứ tự effect (vd. update tới canvas trước add).
+     */
+    private void applyRemote(Supplier<StateManager.Effect> change) {
+        synchronized (stateManager) {
+            StateManager.Effect effect = change.get();
+            if (!effect.added.isEmpty() && onShapesReceived != null) {
+                onShapesReceived.accept(new NetworkProtocol.ShapeData(effect.added, stateManager.getCurrentVersion()));
+            }
+            if (!effect.updated.isEmpty() && onShapesUpdated != null) {
+                onShapesUpdated.accept(effect.updated);
+            }
+            if (!effect.removed.isEmpty() && onShapesRemoved != null) {
+                onShapesRemoved.accept(effect.removed);
+            }
+        }
+    }
+
+    /**
+     * Id cho shape local mới (DrawingCanvas gán vào Shape.id lúc bắt đầu nét / commit).
+     */
+    public long nextShapeId() {
+        return stateManager.nextShapeId();
+    }
+
+    /**
+     * Shape mới vẽ local. Shape chưa có id sẽ được gán tại đây, nên truyền shape
+     * của canvas (không phải bản clone) nếu muốn canvas giữ được id.
+     */
     public void broadcastShapes(List<Shape> shapes, String senderId) throws Exception {
         // Sao chép sang ArrayList để tránh gửi trực tiếp subList (ArrayList$SubList
         // không tuần tự hoá được, gây NotSerializableException)
         List<Shape> payload = new ArrayList<>(shapes);
-        NetworkProtocol.ShapeData data = new NetworkProtocol.ShapeData(payload, System.currentTimeMillis());
-        NetworkProtocol.Message message = new NetworkProtocol.Message(
-                NetworkProtocol.MessageType.SHAPES, senderId, data);
+        List<NetworkProtocol.BoardOp> ops = new ArrayList<>(payload.size());
+        for (Shape shape : payload) {
+            ops.add(stateManager.localAdd(shape));
+        }
+        broadcastOps(ops, senderId, () -> new NetworkProtocol.Message(
+                NetworkProtocol.MessageType.SHAPES, senderId,
+                new NetworkProtocol.ShapeData(payload, System.currentTimeMillis())));
+    }
 
-        for (PeerConnection connection : connections.values()) {
-            if (!connection.getPeerId().equals(senderId)) {
-                try {
-                    connection.sendMessage(message);
-                } catch (Exception e) {
-                    System.err.println("Failed to send shapes to " + connection.getPeerId());
-                }
-            }
+    /**
+     * Shape local bị sửa (align, distribute...): chỉ các nhóm thuộc tính trong properties
+     * (StateManager.Property mask) được ghi đè ở peer.
+     */
+    public void broadcastUpdate(Collection<Shape> shapes, int properties, String senderId) {
+        List<Shape> payload = new ArrayList<>(shapes.size());
+        List<NetworkProtocol.BoardOp> ops = new ArrayList<>(shapes.size());
+        for (Shape shape : shapes) {
+            payload.add(shape.clone());
+            ops.add(stateManager.localUpdate(shape, properties));
+        }
+        if (ops.isEmpty()) {
+            return;
         }
+        // Peer cũ cập nhật shape cùng (peerId, timestamp) tại chỗ khi nhận lại qua SHAPES
+        broadcastOps(ops, senderId, () -> new NetworkProtocol.Message(
+                NetworkProtocol.MessageType.SHAPES, senderId,
+                new NetworkProtocol.ShapeData(payload, System.currentTimeMillis())));
     }
 
-    public void broadcastClear(String senderId) throws Exception {
-        NetworkProtocol.Message message = new NetworkProtocol.Message(
-                NetworkProtocol.MessageType.CLEAR, senderId, null);
+    /**
+     * Shape local bị xoá (delete selection). Peer cũ không có message xoá theo shape nên không nhận được.
+     */
+    public void broadcastDelete(Collection<Shape> shapes, String senderId) {
+        List<NetworkProtocol.BoardOp> ops = new ArrayList<>(shapes.size());
+        for (Shape shape : shapes) {
+            ops.add(stateManager.localDelete(shape));
+        }
+        if (!ops.isEmpty()) {
+            broadcastOps(ops, senderId, null);
+        }
+    }
 
-        for (PeerConnection connection : connections.values()) {
-            if (!connection.getPeerId().equals(senderId)) {
+    /**
+     * Gửi op cho peer mới; peer cũ nhận message do legacyMessage tạo (null = không gửi),
+     * tạo một lần cho mọi peer cũ.
+     */
+    private void broadcastOps(List<NetworkProtocol.BoardOp> ops, String senderId,
+            Supplier<NetworkProtocol.Message> legacyMessage) {
+        NetworkProtocol.Message message = originate(new NetworkProtocol.Message(
+                NetworkProtocol.MessageType.BOARD_OPS, senderId, new NetworkProtocol.BoardOpData(ops)));
+        NetworkProtocol.Message legacy = null;
+
+        synchronized (sendOrder) {
+            for (PeerConnection connection : connections.values()) {
+                if (connection.getPeerId().equals(senderId)) {
+                    continue;
+                }
                 try {
-                    connection.sendMessage(message);
+                    if (!connection.isLegacyPeer()) {
+                        connection.sendMessage(message);
+                    } else if (legacyMessage != null) {
+                        if (legacy == null) {
+                            legacy = legacyMessage.get();
+                        }
+                        connection.sendMessage(legacy);
+                    }
                 } catch (Exception e) {
-                    System.err.println("Failed to send clear to " + connection.getPeerId());
+                    Log.warning("MessageHandler", "Failed to send board ops to " + connection.getPeerId());
                 }
             }
         }
     }
 
-    public void broadcastUndo(String senderId) throws Exception {
-        NetworkProtocol.Message message = new NetworkProtocol.Message(
-                NetworkProtocol.MessageType.UNDO, senderId, null);
+    /**
+     * Bắt đầu stream một nét vẽ tự do. Shape gửi đi là header (bản clone tại thời điểm bắt đầu,
+     * đã có Shape.id).
+     */
+    public void broadcastStrokeBegin(Shape stroke, String senderId) {
+        broadcastStrokeBegin(stroke, senderId, System.nanoTime());
+    }
 
-        for (PeerConnection connection : connections.values()) {
-            if (!connection.getPeerId().equals(senderId)) {
+    /**
+     * @param inputNanos nanoTime của sự kiện chuột sinh ra nét, làm mốc cho LatencyTracer
+     */
+    public void broadcastStrokeBegin(Shape stroke, String senderId, long inputNanos) {
+        broadcastStroke(NetworkProtocol.MessageType.STROKE_BEGIN, stroke, 0, null, stroke, senderId, inputNanos);
+    }
+
+    public void broadcastStrokeAppend(Shape stroke, int fromIndex, String senderId) {
+        broadcastStrokeAppend(stroke, fromIndex, senderId, System.nanoTime());
+    }
+
+    /**
+     * Gửi các điểm từ fromIndex trở đi của nét vẽ, delta-encoded so với điểm liền trước.
+     *
+     * @param inputNanos nanoTime của sự kiện chuột sinh ra các điểm mới, làm mốc cho LatencyTracer
+     */
+    public void broadcastStrokeAppend(Shape stroke, int fromIndex, String senderId, long inputNanos) {
+        PointBuffer points = stroke.freeDrawPoints;
+        int count = points.size() - fromIndex;
+        if (count <= 0) {
+            return;
+        }
+        int[] deltas = new int[count * 2];
+        int px = 0, py = 0;
+        if (fromIndex > 0) {
+            px = points.getX(fromIndex - 1);
+            py = points.getY(fromIndex - 1);
+        }
+        for (int i = 0; i < count; i++) {
+            int x = points.getX(fromIndex + i);
+            int y = points.getY(fromIndex + i);
+            deltas[i * 2] = x - px;
+            deltas[i * 2 + 1] = y - py;
+            px = x;
+            py = y;
+        }
+        broadcastStroke(NetworkProtocol.MessageType.STROKE_APPEND, stroke, fromIndex, deltas, null, senderId,
+                inputNanos);
+    }
+
+    /**
+     * Kết thúc nét vẽ: peer mới nhận ADD (shape hoàn chỉnh thay bản xem trước), peer cũ nhận SHAPES.
+     */
+    public void broadcastStrokeEnd(Shape stroke, String senderId) {
+        NetworkProtocol.BoardOp op = stateManager.localAdd(stroke);
+        broadcastOps(Collections.singletonList(op), senderId, () -> {
+            List<Shape> payload = new ArrayList<>();
+            payload.add(stroke.clone());
+            return new NetworkProtocol.Message(NetworkProtocol.MessageType.SHAPES, senderId,
+                    new NetworkProtocol.ShapeData(payload, System.currentTimeMillis()));
+        });
+    }
+
+    /**
+     * Peer mới nhận STROKE_* (strokeId = Shape.id, kèm trace nếu được lấy mẫu); peer cũ không
+     * hiểu STROKE_* nên nhận lại toàn bộ shape qua SHAPES như trước.
+     */
+    private void broadcastStroke(NetworkProtocol.MessageType type, Shape stroke, int baseIndex, int[] deltas,
+            Shape header, String senderId, long inputNanos) {
+        NetworkProtocol.Message message = originate(new NetworkProtocol.Message(type, senderId,
+                new NetworkProtocol.StrokeData(stroke.peerId, stroke.id, baseIndex, deltas, header)));
+        message.trace = LatencyTracer.sample(message.id, inputNanos);
+        NetworkProtocol.Message legacyMessage = null;
+
+        synchronized (sendOrder) {
+            for (PeerConnection connection : connections.values()) {
+                if (connection.getPeerId().equals(senderId)) {
+                    continue;
+                }
                 try {
-                    connection.sendMessage(message);
+                    if (!connection.isLegacyPeer()) {
+                        connection.sendMessage(message);
+                    } else {
+                        if (legacyMessage == null) {
+                            List<Shape> payload = new ArrayList<>();
+                            payload.add(stroke.clone());
+                            legacyMessage = new NetworkProtocol.Message(NetworkProtocol.MessageType.SHAPES, senderId,
+                                    new NetworkProtocol.ShapeData(payload, System.currentTimeMillis()));
+                        }
+                        connection.sendMessage(legacyMessage);
+                    }
                 } catch (Exception e) {
-                    System.err.println("Failed to send undo to " + connection.getPeerId());
+                    Log.warning("MessageHandler", "Failed to send stroke to " + connection.getPeerId());
                 }
             }
         }
     }
 
+    public void broadcastClear(String senderId) throws Exception {
+        NetworkProtocol.BoardOp op = stateManager.localClear();
+        broadcastOps(Collections.singletonList(op), senderId,
+                () -> new NetworkProtocol.Message(NetworkProtocol.MessageType.CLEAR, senderId, null));
+    }
+
+    /**
+     * Undo local đã xoá shape removed khỏi canvas (null nếu không còn gì để undo).
+     */
+    public void broadcastUndo(String senderId, Shape removed) throws Exception {
+        if (removed == null) {
+            return;
+        }
+        NetworkProtocol.BoardOp op = stateManager.localDelete(removed);
+        broadcastOps(Collections.singletonList(op), senderId,
+                () -> new NetworkProtocol.Message(NetworkProtocol.MessageType.UNDO, senderId, null));
+    }
+
     public void setOnShapesReceived(Consumer<NetworkProtocol.ShapeData> callback) {
         this.onShapesReceived = callback;
     }
 
-    public void setOnClearReceived(Consumer<String> callback) {
-        this.onClearReceived = callback;
+    public void setOnSyncProgress(SyncProgressListener listener) {
+        this.onSyncProgress = listener;
+    }
+
+    public void setUiExecutor(Executor uiExecutor) {
+        this.uiExecutor = uiExecutor;
     }
 
-    public void setOnUndoReceived(Consumer<String> callback) {
-        this.onUndoReceived = callback;
+    public void setOnShapesUpdated(Consumer<List<Shape>> callback) {
+        this.onShapesUpdated = callback;
+    }
+
+    public void setOnShapesRemoved(Consumer<List<Shape>> callback) {
+        this.onShapesRemoved = callback;
     }
 
     public void setOnPeerListReceived(Consumer<List<NetworkProtocol.PeerInfo>> callback) {
@@ -172,6 +689,10 @@ public class MessageHandler {
         this.onChatReceived = callback;
     }
 
+    public void setOnStrokeReceived(BiConsumer<NetworkProtocol.MessageType, NetworkProtocol.StrokeData> callback) {
+        this.onStrokeReceived = callback;
+    }
+
     public void setOnDisconnectReceived(Consumer<String> callback) {
         this.onDisconnectReceived = callback;
     }
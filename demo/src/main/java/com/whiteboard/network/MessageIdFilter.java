@@ -0,0 +1,101 @@
+package com.whiteboard.network;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bộ lọc Message.id đã gửi, kích thước cố định, không khoá và không cấp phát khi dùng.
+ *
+ * Thời gian chia thành các bucket BUCKET_MS; mỗi bucket là một bảng băm open-addressing
+ * các id (long), vòng BUCKETS bucket phủ cửa sổ BUCKETS * BUCKET_MS. Khi vòng quay tới bucket
+ * cũ thì bucket đó được xoá, nên id hết hạn mà không cần quét hay dọn dẹp riêng.
+ *
+ * Là lưới an toàn chống gửi trùng nên chấp nhận sai số: bucket đầy thì id mới không được
+ * ghi nhớ, và id chèn đúng lúc bucket đang bị xoá có thể bị quên. Id 0 (message cũ) không lọc.
+ */
+final class MessageIdFilter {
+    private static final long BUCKET_MS = 10_000;
+    private static final int BUCKETS = 6;
+    // Mỗi bucket giữ tối đa SLOTS id (luỹ thừa 2), đủ cho vài trăm message/giây
+    private static final int SLOTS = 4096;
+    private static final int MAX_PROBES = 16;
+    private static final long EMPTY = 0;
+
+    // BUCKETS bảng SLOTS phần tử nối liền nhau
+    private final AtomicLongArray slots = new AtomicLongArray(BUCKETS * SLOTS);
+    // Epoch (thời gian / BUCKET_MS) mà mỗi bucket đang giữ
+    private final AtomicLongArray epochs = new AtomicLongArray(BUCKETS);
+
+    MessageIdFilter() {
+        for (int i = 0; i < BUCKETS; i++) {
+            epochs.set(i, -1);
+        }
+    }
+
+    /**
+     * Ghi nhận id vừa gửi. Trả về false nếu id đã được gửi trong cửa sổ thời gian.
+     */
+    boolean markSent(long id, long nowMillis) {
+        if (id == EMPTY) {
+            return true;
+        }
+        long epoch = nowMillis / BUCKET_MS;
+        int current = (int) (epoch % BUCKETS);
+        rotate(current, epoch);
+
+        int start = index(id);
+        for (int b = 0; b < BUCKETS; b++) {
+            if (b != current && epoch - epochs.get(b) < BUCKETS && contains(b, id, start)) {
+                return false;
+            }
+        }
+        int base = current * SLOTS;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int slot = base + ((start + probe) & (SLOTS - 1));
+            long value = slots.get(slot);
+            if (value == id) {
+                return false;
+            }
+            if (value == EMPTY) {
+                if (slots.compareAndSet(slot, EMPTY, id)) {
+                    return true;
+                }
+                if (slots.get(slot) == id) {
+                    return false; // thread khác vừa ghi cùng id
+                }
+            }
+        }
+        return true; // bucket đầy quanh vị trí này: không nhớ được, coi như chưa gửi
+    }
+
+    /**
+     * Bucket chuyển sang epoch mới thì xoá dữ liệu của epoch cũ; chỉ thread thắng CAS xoá.
+     */
+    private void rotate(int bucket, long epoch) {
+        long held = epochs.get(bucket);
+        if (held < epoch && epochs.compareAndSet(bucket, held, epoch)) {
+            int base = bucket * SLOTS;
+            for (int i = 0; i < SLOTS; i++) {
+                slots.lazySet(base + i, EMPTY);
+            }
+        }
+    }
+
+    private boolean contains(int bucket, long id, int start) {
+        int base = bucket * SLOTS;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            long value = slots.get(base + ((start + probe) & (SLOTS - 1)));
+            if (value == id) {
+                return true;
+            }
+            if (value == EMPTY) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static int index(long id) {
+        // id có tag peer ở 32 bit cao và counter tăng dần ở 32 bit thấp: trộn trước khi lấy slot
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 52) & (SLOTS - 1);
+    }
+}
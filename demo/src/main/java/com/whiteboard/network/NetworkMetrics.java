@@ -0,0 +1,381 @@
+package com.whiteboard.network;
+
+import com.whiteboard.Config;
+import com.whiteboard.Log;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Số liệu mạng theo peer và theo MessageType: số message / byte vào ra, độ sâu hàng đợi ghi,
+ * thời gian encode/decode, độ trễ nét vẽ từ lúc peer gửi tới lúc canvas bên này vẽ xong và
+ * độ trễ từng chặng của các nét được trace ({@link LatencyTracer}).
+ *
+ * Đường ghi chỉ dùng LongAdder và {@link LatencyHistogram} nên không khoá: mỗi PeerConnection
+ * giữ sẵn PeerStats của mình, không tra map khi gửi/nhận. Độ sâu hàng đợi là gauge, chỉ đọc
+ * từ kết nối lúc lấy snapshot. Snapshot được in định kỳ (metrics.dump_interval_s) và xem qua
+ * JMX ({@link NetworkMetricsMBean}).
+ */
+public final class NetworkMetrics implements NetworkMetricsMBean {
+    public static final String OBJECT_NAME = "com.whiteboard:type=NetworkMetrics";
+    private static final NetworkProtocol.MessageType[] TYPES = NetworkProtocol.MessageType.values();
+    private static final LatencyTracer.Stage[] STAGES = LatencyTracer.Stage.values();
+    private static final NetworkMetrics INSTANCE = new NetworkMetrics();
+
+    private final Map<String, PeerStats> peers = new ConcurrentHashMap<>();
+    // Thời gian encode / decode (ns) theo MessageType, chung cho mọi peer
+    private final LatencyHistogram[] encodeNanos = newHistograms(TYPES.length);
+    private final LatencyHistogram[] decodeNanos = newHistograms(TYPES.length);
+    private final LatencyHistogram strokeLatency = new LatencyHistogram();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final long startedAt = System.currentTimeMillis();
+
+    private NetworkMetrics() {
+    }
+
+    public static NetworkMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Số liệu của một peer (theo peerId, cộng dồn qua các lần kết nối lại).
+     */
+    public static final class PeerStats {
+        private final String peerId;
+        private final LongAdder[] messagesOut = newAdders();
+        private final LongAdder[] bytesOut = newAdders();
+        private final LongAdder[] messagesIn = newAdders();
+        private final LongAdder[] bytesIn = newAdders();
+        private final LatencyHistogram strokeLatency = new LatencyHistogram();
+        // Độ trễ (µs) theo LatencyTracer.Stage
+        private final LatencyHistogram[] stages = newHistograms(STAGES.length);
+        private volatile PeerConnection connection;
+
+        private PeerStats(String peerId) {
+            this.peerId = peerId;
+        }
+
+        void sent(NetworkProtocol.MessageType type, int bytes) {
+            messagesOut[type.ordinal()].increment();
+            bytesOut[type.ordinal()].add(bytes);
+        }
+
+        void received(NetworkProtocol.MessageType type, int bytes) {
+            messagesIn[type.ordinal()].increment();
+            bytesIn[type.ordinal()].add(bytes);
+        }
+
+        void detach(PeerConnection closed) {
+            if (connection == closed) {
+                connection = null;
+            }
+        }
+
+        public String getPeerId() {
+            return peerId;
+        }
+
+        public boolean isConnected() {
+            PeerConnection current = connection;
+            return current != null && current.isConnected();
+        }
+
+        public int getQueueDepth() {
+            PeerConnection current = connection;
+            return current == null ? 0 : current.getQueuedMessageCount();
+        }
+
+        public long getMessagesSent() {
+            return sum(messagesOut);
+        }
+
+        public long getMessagesReceived() {
+            return sum(messagesIn);
+        }
+
+        public long getBytesSent() {
+            return sum(bytesOut);
+        }
+
+        public long getBytesReceived() {
+            return sum(bytesIn);
+        }
+
+        public long getMessagesSent(NetworkProtocol.MessageType type) {
+            return messagesOut[type.ordinal()].sum();
+        }
+
+        public long getMessagesReceived(NetworkProtocol.MessageType type) {
+            return messagesIn[type.ordinal()].sum();
+        }
+
+        /**
+         * Độ trễ (ms) từ Message.timestamp của nét vẽ peer này gửi tới lúc canvas vẽ xong.
+         */
+        public LatencyHistogram getStrokeLatency() {
+            return strokeLatency;
+        }
+
+        /**
+         * Độ trễ (µs) của một chặng trace; chặng bên gửi tính cho nét gửi tới peer này,
+         * chặng bên nhận cho nét peer này vẽ.
+         */
+        public LatencyHistogram getStage(LatencyTracer.Stage stage) {
+            return stages[stage.ordinal()];
+        }
+
+        public boolean hasTraces() {
+            for (LatencyHistogram histogram : stages) {
+                if (histogram.getCount() > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Gắn kết nối mới với PeerStats của peer; kết nối giữ lại kết quả để ghi số liệu.
+     */
+    PeerStats attach(String peerId, PeerConnection connection) {
+        PeerStats stats = peers.computeIfAbsent(peerId, PeerStats::new);
+        stats.connection = connection;
+        return stats;
+    }
+
+    void recordEncode(NetworkProtocol.MessageType type, long nanos) {
+        encodeNanos[type.ordinal()].record(nanos);
+    }
+
+    void recordDecode(NetworkProtocol.MessageType type, long nanos) {
+        decodeNanos[type.ordinal()].record(nanos);
+    }
+
+    /**
+     * Ghi độ trễ end-to-end của nét vẽ từ peerId. Hai máy lệch đồng hồ thì giá trị lệch theo;
+     * giá trị âm được tính là 0.
+     */
+    public void recordStrokeLatency(String peerId, long millis) {
+        strokeLatency.record(millis);
+        if (peerId != null) {
+            peers.computeIfAbsent(peerId, PeerStats::new).strokeLatency.record(millis);
+        }
+    }
+
+    void recordStage(String peerId, LatencyTracer.Stage stage, long micros) {
+        if (peerId != null) {
+            peers.computeIfAbsent(peerId, PeerStats::new).stages[stage.ordinal()].record(micros);
+        }
+    }
+
+    public PeerStats getPeer(String peerId) {
+        return peers.get(peerId);
+    }
+
+    public List<PeerStats> getPeers() {
+        return new ArrayList<>(peers.values());
+    }
+
+    /**
+     * Đăng ký MBean và bắt đầu in snapshot định kỳ theo Config; gọi nhiều lần chỉ có tác dụng một lần.
+     */
+    public void start() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        if (Config.isMetricsJmxEnabled()) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(OBJECT_NAME);
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(this, name);
+                }
+                Log.info("NetworkMetrics", "Registered JMX bean " + OBJECT_NAME);
+            } catch (JMException e) {
+                Log.warning("NetworkMetrics", "Failed to register JMX bean: " + e.getMessage());
+            }
+        }
+        int interval = Config.getMetricsDumpInterval();
+        if (interval > 0) {
+            IoExecutor.get().submit("MetricsDump", () -> {
+                try {
+                    while (true) {
+                        Thread.sleep(interval * 1000L);
+                        dump();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+    }
+
+    /**
+     * In snapshot ra log, mỗi dòng một peer / một nhóm số liệu.
+     */
+    public void dump() {
+        for (String line : snapshot().split("\n")) {
+            Log.info("NetworkMetrics", line);
+        }
+    }
+
+    @Override
+    public String getSnapshot() {
+        return snapshot();
+    }
+
+    private String snapshot() {
+        StringBuilder out = new StringBuilder();
+        List<PeerStats> all = getPeers();
+        out.append("Snapshot after ").append((System.currentTimeMillis() - startedAt) / 1000).append(" s, ")
+                .append(getConnectedPeerCount()).append("/").append(all.size()).append(" peer(s) connected");
+        for (PeerStats stats : all) {
+            PeerConnection connection = stats.connection;
+            out.append("\n  peer ").append(stats.peerId)
+                    .append(stats.isConnected() ? "" : " (disconnected)")
+                    .append(": out ").append(stats.getMessagesSent()).append(" msg / ").append(formatBytes(stats.getBytesSent()))
+                    .append(", in ").append(stats.getMessagesReceived()).append(" msg / ").append(formatBytes(stats.getBytesReceived()))
+                    .append(", queue ").append(stats.getQueueDepth());
+            if (connection != null) {
+                out.append(" (max ").append(connection.getMaxQueueDepth())
+                        .append(", droppedPreviews ").append(connection.getDroppedPreviews())
+                        .append(", resyncs ").append(connection.getResyncCount()).append(")");
+            }
+            if (stats.strokeLatency.getCount() > 0) {
+                out.append("\n    stroke latency ms: ").append(formatHistogram(stats.strokeLatency, 1));
+            }
+            if (stats.hasTraces()) {
+                StringBuilder line = new StringBuilder();
+                for (LatencyTracer.Stage stage : STAGES) {
+                    LatencyHistogram histogram = stats.stages[stage.ordinal()];
+                    if (histogram.getCount() > 0) {
+                        line.append(line.length() == 0 ? "" : "; ").append(stage.label).append(' ')
+                                .append(formatHistogram(histogram, 1000));
+                    }
+                }
+                out.append("\n    trace ms: ").append(line);
+            }
+            appendByType(out, "    out: ", stats.messagesOut, stats.bytesOut);
+            appendByType(out, "    in:  ", stats.messagesIn, stats.bytesIn);
+        }
+        appendTiming(out, "  encode us: ", encodeNanos);
+        appendTiming(out, "  decode us: ", decodeNanos);
+        return out.toString();
+    }
+
+    private static void appendByType(StringBuilder out, String label, LongAdder[] messages, LongAdder[] bytes) {
+        StringBuilder line = new StringBuilder();
+        for (NetworkProtocol.MessageType type : TYPES) {
+            long count = messages[type.ordinal()].sum();
+            if (count > 0) {
+                line.append(line.length() == 0 ? "" : ", ").append(type).append(' ').append(count)
+                        .append(" / ").append(formatBytes(bytes[type.ordinal()].sum()));
+            }
+        }
+        if (line.length() > 0) {
+            out.append('\n').append(label).append(line);
+        }
+    }
+
+    private static void appendTiming(StringBuilder out, String label, LatencyHistogram[] histograms) {
+        StringBuilder line = new StringBuilder();
+        for (NetworkProtocol.MessageType type : TYPES) {
+            LatencyHistogram histogram = histograms[type.ordinal()];
+            if (histogram.getCount() > 0) {
+                line.append(line.length() == 0 ? "" : "; ").append(type).append(' ')
+                        .append(formatHistogram(histogram, 1000));
+            }
+        }
+        if (line.length() > 0) {
+            out.append('\n').append(label).append(line);
+        }
+    }
+
+    private static String formatHistogram(LatencyHistogram histogram, double divisor) {
+        return String.format("n=%d p50=%.1f p99=%.1f max=%.1f", histogram.getCount(),
+                histogram.percentile(50) / divisor, histogram.percentile(99) / divisor,
+                histogram.getMax() / divisor);
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        return String.format("%.1f MB", bytes / (1024.0 * 1024));
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return getPeers().stream().mapToLong(PeerStats::getMessagesSent).sum();
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return getPeers().stream().mapToLong(PeerStats::getMessagesReceived).sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return getPeers().stream().mapToLong(PeerStats::getBytesSent).sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return getPeers().stream().mapToLong(PeerStats::getBytesReceived).sum();
+    }
+
+    @Override
+    public int getConnectedPeerCount() {
+        return (int) getPeers().stream().filter(PeerStats::isConnected).count();
+    }
+
+    @Override
+    public int getQueuedMessages() {
+        return getPeers().stream().mapToInt(PeerStats::getQueueDepth).sum();
+    }
+
+    @Override
+    public long getStrokeLatencyP50Millis() {
+        return strokeLatency.percentile(50);
+    }
+
+    @Override
+    public long getStrokeLatencyP99Millis() {
+        return strokeLatency.percentile(99);
+    }
+
+    private static LongAdder[] newAdders() {
+        LongAdder[] adders = new LongAdder[TYPES.length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    private static long sum(LongAdder[] adders) {
+        long total = 0;
+        for (LongAdder adder : adders) {
+            total += adder.sum();
+        }
+        return total;
+    }
+
+    private static LatencyHistogram[] newHistograms(int count) {
+        LatencyHistogram[] histograms = new LatencyHistogram[count];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+}
@@ -0,0 +1,31 @@
+package com.whiteboard.network;
+
+/**
+ * Giao diện JMX (standard MBean) của {@link NetworkMetrics}, đăng ký dưới tên
+ * {@link NetworkMetrics#OBJECT_NAME}.
+ */
+public interface NetworkMetricsMBean {
+    long getMessagesSent();
+
+    long getMessagesReceived();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    int getConnectedPeerCount();
+
+    /**
+     * Tổng số message đang chờ trong hàng đợi ghi của mọi peer đang kết nối.
+     */
+    int getQueuedMessages();
+
+    long getStrokeLatencyP50Millis();
+
+    long getStrokeLatencyP99Millis();
+
+    /**
+     * Snapshot đầy đủ theo peer và theo MessageType, cùng định dạng với bản in ra log.
+     */
+    String getSnapshot();
+}
@@ -2,9 +2,23 @@ package com.whiteboard.network;
 
 import java.io.Serializable;
 import java.util.List;
+import java.util.Map;
 import com.whiteboard.drawing.Shape;
+import com.whiteboard.sync.HybridLogicalClock;
 
 public class NetworkProtocol {
+    /**
+     * Phiên bản giao thức gửi kèm trong HELLO (data là Integer).
+     * Chỉ có hai loại peer:
+     * - Version 0: peer cũ, gửi HELLO với data null. Chỉ Java serialization trên ObjectStream,
+     *   trạng thái bảng chỉ đi qua SHAPES / CLEAR / UNDO.
+     * - Version 1: frame FrameCodec (nhận biết qua preamble lúc kết nối, payload lớn nén Deflater)
+     *   chứa WireCodec; STROKE_BEGIN / STROKE_APPEND, BOARD_OPS (thao tác CRDT của StateManager),
+     *   đồng bộ bằng SYNC_REQUEST / SYNC_RESPONSE, id 64 bit (HybridLogicalClock), Message.ttl
+     *   cho overlay GOSSIP, Message.trace.
+     */
+    public static final int PROTOCOL_VERSION = 1;
+
     public enum MessageType {
         HELLO, // Initial connection
         SHAPES, // Drawing data
@@ -15,26 +29,88 @@ public class NetworkProtocol {
         CLEAR, // Clear canvas
         UNDO, // Undo action
         PEER_LIST, // List of connected peers
-        DISCONNECT // Peer disconnecting
+        DISCONNECT, // Peer disconnecting
+        STROKE_BEGIN, // Bắt đầu nét vẽ tự do (kèm shape header)
+        STROKE_APPEND, // Các điểm mới của nét vẽ, delta-encoded
+        BOARD_OPS // Các thao tác CRDT trên bảng (thêm/sửa/xoá/clear)
+    }
+
+    /**
+     * Topology của phòng, do người tạo phòng chọn và quảng bá trong beacon của PeerDiscovery.
+     * MESH: kết nối tới mọi peer. GOSSIP: số hàng xóm giới hạn, relay theo ttl.
+     * STAR: mọi peer chỉ kết nối tới host; host sắp thứ tự và relay cho các peer còn lại.
+     */
+    public enum Topology {
+        MESH, GOSSIP, STAR;
+
+        public static Topology parse(String value) {
+            if (value == null) {
+                return MESH;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                return MESH;
+            }
+        }
     }
 
     public static class Message implements Serializable {
+        // Giữ nguyên UID của bản trước khi thêm id để peer dùng Java serialization vẫn đọc được
+        private static final long serialVersionUID = -9029899020485508078L;
+
         public MessageType type;
         public String senderId;
         public long timestamp;
+        // Id (senderId, counter) duy nhất của message; 0 nếu nhận từ peer cũ
+        public long id;
+        // Số hop còn được relay trong overlay GOSSIP (0 = không relay)
+        public int ttl;
         public Object data;
+        // Trace độ trễ nếu message được lấy mẫu (xem LatencyTracer); chỉ gửi qua WireCodec
+        public transient Trace trace;
 
         public Message(MessageType type, String senderId, Object data) {
             this.type = type;
             this.senderId = senderId;
             this.timestamp = System.currentTimeMillis();
+            this.id = HybridLogicalClock.nextId(senderId);
+            this.data = data;
+        }
+
+        /**
+         * Message đã có id (giải mã từ bytes, hoặc gộp từ message khác): giữ id đó, không lấy id
+         * mới từ HybridLogicalClock.
+         */
+        Message(MessageType type, String senderId, long timestamp, long id, Object data) {
+            this.type = type;
+            this.senderId = senderId;
+            this.timestamp = timestamp;
+            this.id = id;
             this.data = data;
         }
 
+        private Message(Message source, Trace trace) {
+            this.type = source.type;
+            this.senderId = source.senderId;
+            this.timestamp = source.timestamp;
+            this.id = source.id;
+            this.ttl = source.ttl;
+            this.data = source.data;
+            this.trace = trace;
+        }
+
+        /**
+         * Bản sao nông (cùng id, cùng data) mang trace khác, để mỗi kết nối giữ mốc thời gian riêng.
+         */
+        public Message withTrace(Trace trace) {
+            return new Message(this, trace);
+        }
+
         @Override
         public String toString() {
-            return String.format("Message{type=%s, sender=%s, timestamp=%d}",
-                    type, senderId, timestamp);
+            return String.format("Message{type=%s, sender=%s, id=%x, timestamp=%d}",
+                    type, senderId, id, timestamp);
         }
     }
 
@@ -48,7 +124,162 @@ public class NetworkProtocol {
         }
     }
 
+    /**
+     * Dữ liệu cho nhóm message STROKE_*. Nét vẽ được xác định bởi strokeId, chính là Shape.id
+     * của nét.
+     * deltas = [dx0, dy0, dx1, dy1, ...], điểm đầu tiên tính delta so với điểm
+     * baseIndex - 1 của nét (hoặc so với (0,0) nếu baseIndex = 0).
+     */
+    public static class StrokeData implements Serializable {
+        public String peerId;
+        public long strokeId;
+        public int baseIndex;
+        public int[] deltas;
+        public Shape shape; // STROKE_BEGIN: header
+        // Message.timestamp / Message.trace của message chứa nét, MessageHandler điền khi nhận
+        public transient long sentAt;
+        public transient Trace trace;
+
+        public StrokeData(String peerId, long strokeId, int baseIndex, int[] deltas, Shape shape) {
+            this.peerId = peerId;
+            this.strokeId = strokeId;
+            this.baseIndex = baseIndex;
+            this.deltas = deltas;
+            this.shape = shape;
+        }
+
+        public int getPointCount() {
+            return deltas == null ? 0 : deltas.length / 2;
+        }
+    }
+
+    /**
+     * Các mốc thời gian của một message nét vẽ được lấy mẫu, từ sự kiện chuột bên gửi tới lúc
+     * canvas bên nhận vẽ xong. originMillis là wall clock lúc sự kiện chuột; các offset (micro
+     * giây, tính từ sự kiện chuột) đo bằng nanoTime bên gửi. Field transient chỉ dùng cục bộ.
+     */
+    public static class Trace implements Serializable {
+        public long traceId;
+        public long originMillis;
+        // Bên gửi: sự kiện chuột -> vào hàng đợi ghi / -> writer encode, của kết nối mang trace này
+        public int enqueueMicros;
+        public int writeMicros;
+        // Bên gửi: nanoTime lúc sự kiện chuột (0 với trace nhận được từ peer khác)
+        public transient long originNanos;
+        // Bên nhận: lúc giải mã xong (wall clock và nanoTime)
+        public transient long readMillis;
+        public transient long readNanos;
+
+        public Trace(long traceId, long originMillis, long originNanos) {
+            this.traceId = traceId;
+            this.originMillis = originMillis;
+            this.originNanos = originNanos;
+        }
+
+        public Trace copy() {
+            Trace copy = new Trace(traceId, originMillis, originNanos);
+            copy.enqueueMicros = enqueueMicros;
+            copy.writeMicros = writeMicros;
+            return copy;
+        }
+    }
+
+    /**
+     * Một thao tác CRDT trên bảng. Shape được xác định bởi shapeId (Shape.id); shapePeerId
+     * có thể null với op nhận qua codec mới. (stamp, origin) là stamp HLC của chính thao tác,
+     * dùng cho last-writer-wins.
+     * ADD/UPDATE mang shape (UPDATE chỉ có ý nghĩa với các nhóm thuộc tính trong properties),
+     * DELETE/CLEAR không mang shape.
+     */
+    public static class BoardOp implements Serializable {
+        public enum Kind {
+            ADD, UPDATE, DELETE, CLEAR
+        }
+
+        public Kind kind;
+        public String shapePeerId;
+        public long shapeId;
+        public int properties;
+        public Shape shape;
+        public long stamp;
+        public String origin;
+        // Stamp của op ngay trước đó cùng origin (0 với op đầu tiên); -1 nếu op không nằm trong
+        // chuỗi của origin (op dựng lại từ trạng thái)
+        public long prev;
+
+        public BoardOp(Kind kind, String shapePeerId, long shapeId, int properties,
+                Shape shape, long stamp, String origin) {
+            this(kind, shapePeerId, shapeId, properties, shape, stamp, origin, -1);
+        }
+
+        public BoardOp(Kind kind, String shapePeerId, long shapeId, int properties,
+                Shape shape, long stamp, String origin, long prev) {
+            this.kind = kind;
+            this.shapePeerId = shapePeerId;
+            this.shapeId = shapeId;
+            this.properties = properties;
+            this.shape = shape;
+            this.stamp = stamp;
+            this.origin = origin;
+            this.prev = prev;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("BoardOp{%s, shape=%x, stamp=%d@%s}",
+                    kind, shapeId, stamp, origin);
+        }
+    }
+
+    public static class BoardOpData implements Serializable {
+        public List<BoardOp> ops;
+
+        public BoardOpData(List<BoardOp> ops) {
+            this.ops = ops;
+        }
+    }
+
+    /**
+     * SYNC_REQUEST: version vector của bên hỏi (origin -> stamp mà mọi op cũ hơn của origin đó
+     * đều đã có).
+     */
+    public static class SyncRequest implements Serializable {
+        public Map<String, Long> versionVector;
+
+        public SyncRequest(Map<String, Long> versionVector) {
+            this.versionVector = versionVector;
+        }
+    }
+
+    /**
+     * SYNC_RESPONSE: một phần của delta, các op theo thứ tự stamp tăng dần.
+     * last = true ở phần cuối (kể cả khi delta rỗng). done/total là tiến độ theo số op;
+     * bên nhận trả ACK (data = index) cho mỗi phần không phải phần cuối.
+     * Phần cuối mang version vector của bên gửi lúc lập delta: nhận đủ delta thì bên nhận cũng
+     * đã có mọi op mà vector đó bao phủ.
+     */
+    public static class SyncChunk implements Serializable {
+        public List<BoardOp> ops;
+        public int index;
+        public boolean last;
+        public int done;
+        public int total;
+        // Chỉ ở phần cuối, null nếu bên gửi không có
+        public Map<String, Long> versionVector;
+
+        public SyncChunk(List<BoardOp> ops, int index, boolean last, int done, int total) {
+            this.ops = ops;
+            this.index = index;
+            this.last = last;
+            this.done = done;
+            this.total = total;
+        }
+    }
+
     public static class PeerInfo implements Serializable {
+        // Giữ nguyên UID của bản trước khi thêm topology/isHost cho PEER_LIST qua Java serialization
+        private static final long serialVersionUID = 1940592846235870568L;
+
         public String peerId;
         public String name;
         public String ipAddress;
@@ -57,6 +288,10 @@ public class NetworkProtocol {
         public long lastSeen;
         public boolean isActive;
         public int port;
+        // Topology phòng mà peer quảng bá qua discovery (null với peer cũ)
+        public Topology topology;
+        // Peer đang là host (sequencer) của phòng STAR
+        public boolean isHost;
 
         public PeerInfo(String peerId, String name, String ipAddress) {
             this(peerId, name, ipAddress, null, 0);
@@ -0,0 +1,301 @@
+package com.whiteboard.network;
+
+import com.whiteboard.Config;
+import com.whiteboard.Log;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Kết nối non-blocking chạy trên selector thread của {@link NioTransport}.
+ * Message được đóng khung bằng {@link FrameCodec}, mở đầu bằng FrameCodec.FRAMED_PREAMBLE như
+ * {@link StreamPeerConnection}, nên nói chuyện được với mọi peer mới, dù dùng transport NIO hay STREAM.
+ * Peer không gửi preamble (object stream của bản cũ) chỉ dùng được transport STREAM: kết nối
+ * bị đóng ngay khi nhận ra.
+ *
+ * Các field buffer/batch chỉ được selector thread đụng tới; thread khác chỉ
+ * đưa message vào outbound và yêu cầu ghi.
+ *
+ * Frame giải mã xong được xử lý tuần tự theo thứ tự nhận trên IoExecutor, không trên selector
+ * thread (handler chậm như merge của StateManager không chặn I/O của các peer khác). Khi quá
+ * MAX_INBOUND frame chờ xử lý thì ngừng đọc kết nối này cho tới khi hàng chờ vơi xuống.
+ */
+class NioPeerConnection extends PeerConnection {
+    private static final int MAX_INBOUND = 1024;
+    private static final int RESUME_INBOUND = MAX_INBOUND / 2;
+
+    private final SocketChannel channel;
+    private final NioTransport transport;
+    private final BufferPool bufferPool;
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+    private final List<NetworkProtocol.Message> batch = new ArrayList<>();
+    private final int maxBatch = Math.max(1, Config.getMessageBatchSize());
+    private final ConcurrentLinkedQueue<NetworkProtocol.Message> inbound = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inboundCount = new AtomicInteger();
+    private final AtomicBoolean dispatching = new AtomicBoolean();
+    private final AtomicBoolean readPaused = new AtomicBoolean();
+    private volatile SelectionKey key;
+    private ByteBuffer readBuffer;
+    // Đã đọc và kiểm tra preamble của peer
+    private boolean preambleRead;
+    // Lô frame đang ghi dở; null khi không còn gì chờ ghi
+    private ByteBuffer writeBuffer;
+
+    NioPeerConnection(Socket socket, String peerId) throws IOException {
+        super(socket, peerId);
+        this.channel = socket.getChannel();
+        // Channel còn blocking: ghi preamble trước mọi frame, socket buffer đang rỗng nên không phải chờ
+        ByteBuffer preamble = ByteBuffer.wrap(FrameCodec.FRAMED_PREAMBLE);
+        while (preamble.hasRemaining()) {
+            channel.write(preamble);
+        }
+        this.channel.configureBlocking(false);
+        this.transport = NioTransport.get();
+        this.bufferPool = transport.getBufferPool();
+        this.readBuffer = bufferPool.acquire();
+        transport.register(this);
+    }
+
+    SocketChannel channel() {
+        return channel;
+    }
+
+    SelectionKey key() {
+        return key;
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    boolean hasPendingWrites() {
+        return !outbound.isEmpty();
+    }
+
+    @Override
+    protected void wakeWriter() {
+        if (writeScheduled.compareAndSet(false, true)) {
+            transport.requestWrite(this);
+        }
+    }
+
+    @Override
+    public void flush() {
+        // Selector thread ghi ngay khi có message; chỉ cần nhắc nó nếu còn hàng chờ
+        if (!outbound.isEmpty() && writeScheduled.compareAndSet(false, true)) {
+            transport.requestWrite(this);
+        }
+    }
+
+    @Override
+    protected void closeTransport() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.warning("PeerConnection", "Error closing connection: " + e.getMessage());
+        }
+        // Buffer chỉ được trả về pool trên selector thread (có thể nó đang đọc/ghi dở)
+        transport.requestClose(this);
+    }
+
+    /**
+     * Selector thread: trả buffer đọc/ghi về pool. Gọi được nhiều lần.
+     */
+    void releaseBuffers() {
+        bufferPool.release(readBuffer);
+        readBuffer = null;
+        bufferPool.release(writeBuffer);
+        writeBuffer = null;
+    }
+
+    /**
+     * Selector thread: hàng chờ xử lý đã vơi, đọc tiếp nếu trước đó đã ngừng.
+     */
+    boolean shouldResumeRead() {
+        return readPaused.get() && inboundCount.get() <= RESUME_INBOUND && readPaused.compareAndSet(true, false);
+    }
+
+    /**
+     * Selector thread: đọc hết dữ liệu có sẵn và dispatch các frame hoàn chỉnh.
+     */
+    void onReadable() throws IOException {
+        if (readBuffer == null) {
+            return; // đã đóng
+        }
+        int read = channel.read(readBuffer);
+        if (read < 0) {
+            throw new EOFException("Peer closed connection");
+        }
+        readBuffer.flip();
+        if (!preambleRead && !readPreamble()) {
+            readBuffer.compact();
+            return;
+        }
+        while (readBuffer.remaining() >= FrameCodec.LENGTH_SIZE) {
+            int length = readBuffer.getInt(readBuffer.position());
+            if (length < 1 || length > FrameCodec.MAX_FRAME_SIZE) {
+                throw new IOException("Invalid frame length " + length);
+            }
+            if (readBuffer.remaining() < FrameCodec.LENGTH_SIZE + length) {
+                if (FrameCodec.LENGTH_SIZE + length > readBuffer.capacity()) {
+                    growReadBuffer(FrameCodec.LENGTH_SIZE + length);
+                }
+                break;
+            }
+            readBuffer.getInt();
+            byte type = readBuffer.get();
+            byte[] payload = new byte[length - 1];
+            readBuffer.get(payload);
+            long start = System.nanoTime();
+            try {
+                NetworkProtocol.Message message = FrameCodec.decode(type, payload);
+                if (message != null) {
+                    recordReceived(message, FrameCodec.LENGTH_SIZE + length, System.nanoTime() - start);
+                    enqueueInbound(message);
+                }
+            } catch (IOException e) {
+                Log.warning("PeerConnection", "Malformed frame from peer " + peerId
+                        + ": " + e.getMessage() + " - skipping message");
+            }
+        }
+        readBuffer.compact();
+        // Frame lớn đã đọc xong: quay lại dùng buffer của pool
+        if (!readBuffer.isDirect() && readBuffer.position() == 0) {
+            readBuffer = bufferPool.acquire();
+        }
+        if (inboundCount.get() >= MAX_INBOUND && readPaused.compareAndSet(false, true)) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    private void enqueueInbound(NetworkProtocol.Message message) {
+        inbound.offer(message);
+        inboundCount.incrementAndGet();
+        if (dispatching.compareAndSet(false, true)) {
+            IoExecutor.get().submit("Dispatch-" + peerId, this::drainInbound);
+        }
+    }
+
+    /**
+     * IoExecutor: xử lý các frame đã nhận theo đúng thứ tự, mỗi lúc chỉ một task cho kết nối này.
+     */
+    private void drainInbound() {
+        while (true) {
+            NetworkProtocol.Message message;
+            while ((message = inbound.poll()) != null) {
+                if (inboundCount.decrementAndGet() <= RESUME_INBOUND && readPaused.get()) {
+                    transport.requestRead(this);
+                }
+                try {
+                    dispatch(message);
+                } catch (RuntimeException e) {
+                    Log.severe("PeerConnection", "Error handling " + message.type + " from peer " + peerId, e);
+                }
+            }
+            dispatching.set(false);
+            if (inbound.isEmpty() || !dispatching.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Bỏ qua preamble ở đầu readBuffer (chế độ đọc). Trả về false nếu chưa đủ byte.
+     */
+    private boolean readPreamble() throws IOException {
+        byte[] preamble = FrameCodec.FRAMED_PREAMBLE;
+        if (readBuffer.remaining() < preamble.length) {
+            return false;
+        }
+        for (byte b : preamble) {
+            if (readBuffer.get() != b) {
+                throw new IOException("Peer " + peerId + " does not use frames (legacy object stream), "
+                        + "use network.transport=STREAM");
+            }
+        }
+        preambleRead = true;
+        return true;
+    }
+
+    /**
+     * readBuffer đang ở chế độ đọc; buffer mới giữ phần chưa xử lý và cũng ở chế độ đọc.
+     */
+    private void growReadBuffer(int capacity) {
+        ByteBuffer bigger = ByteBuffer.allocate(capacity);
+        bigger.put(readBuffer);
+        bigger.flip();
+        bufferPool.release(readBuffer);
+        readBuffer = bigger;
+    }
+
+    /**
+     * Selector thread: ghi lô hiện tại và gom lô mới từ outbound.
+     * Trả về true nếu socket buffer đầy và còn dữ liệu chờ ghi (cần OP_WRITE).
+     */
+    boolean onWritable() throws IOException {
+        writeScheduled.set(false);
+        while (true) {
+            if (writeBuffer != null) {
+                channel.write(writeBuffer);
+                if (writeBuffer.hasRemaining()) {
+                    return true;
+                }
+                bufferPool.release(writeBuffer);
+                writeBuffer = null;
+            }
+            if (outbound.isEmpty()) {
+                return false;
+            }
+            fillWriteBuffer();
+        }
+    }
+
+    private void fillWriteBuffer() throws IOException {
+        NetworkProtocol.Message message;
+        while (batch.size() < maxBatch && (message = outbound.poll()) != null) {
+            batch.add(message);
+        }
+        int coalesced = MessageBatcher.coalesce(batch);
+
+        List<FrameCodec.Frame> frames = new ArrayList<>(batch.size());
+        int total = 0;
+        int threshold = Config.getCompressThreshold();
+        for (NetworkProtocol.Message m : batch) {
+            long start = beginEncode(m);
+            FrameCodec.Frame frame = FrameCodec.encode(m, threshold);
+            recordSent(m, frame.size(), System.nanoTime() - start);
+            frames.add(frame);
+            total += frame.size();
+        }
+        ByteBuffer buffer = total <= BufferPool.BUFFER_SIZE
+                ? bufferPool.acquire()
+                : ByteBuffer.allocate(total);
+        for (FrameCodec.Frame frame : frames) {
+            FrameCodec.put(buffer, frame);
+        }
+        buffer.flip();
+        writeBuffer = buffer;
+        recordBatch(batch.size(), coalesced);
+        batch.clear();
+    }
+
+    /**
+     * Selector thread: lỗi I/O hoặc peer đóng kết nối.
+     */
+    void onFailure(Exception e) {
+        if (isConnected && !(e instanceof EOFException)) {
+            Log.warning("PeerConnection", "NIO error for peer " + peerId + ": " + e.getMessage());
+        }
+        releaseBuffers();
+        disconnect();
+    }
+}
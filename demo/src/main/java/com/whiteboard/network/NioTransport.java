@@ -0,0 +1,158 @@
+package com.whiteboard.network;
+
+import com.whiteboard.Log;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Một selector thread phục vụ mọi {@link NioPeerConnection}: thay cho 2 thread
+ * đọc/ghi mỗi peer của transport stream.
+ *
+ * Thread khác không đụng trực tiếp vào SelectionKey; đăng ký channel và yêu cầu ghi
+ * được đưa vào hàng đợi rồi wakeup() selector.
+ */
+final class NioTransport implements Runnable {
+    private static NioTransport instance;
+
+    private final Selector selector;
+    private final BufferPool bufferPool = new BufferPool();
+    private final ConcurrentLinkedQueue<NioPeerConnection> pendingRegistrations = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<NioPeerConnection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<NioPeerConnection> pendingReads = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<NioPeerConnection> pendingCloses = new ConcurrentLinkedQueue<>();
+
+    private NioTransport() throws IOException {
+        this.selector = Selector.open();
+        Thread thread = new Thread(this, "Nio-Selector");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    static synchronized NioTransport get() throws IOException {
+        if (instance == null) {
+            instance = new NioTransport();
+        }
+        return instance;
+    }
+
+    BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    void register(NioPeerConnection connection) {
+        pendingRegistrations.offer(connection);
+        selector.wakeup();
+    }
+
+    void requestWrite(NioPeerConnection connection) {
+        pendingWrites.offer(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Kết nối đã ngừng đọc vì hàng chờ xử lý đầy; đăng ký lại OP_READ nếu hàng chờ đã vơi.
+     */
+    void requestRead(NioPeerConnection connection) {
+        pendingReads.offer(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Kết nối đã đóng channel; selector thread trả buffer của nó về pool.
+     */
+    void requestClose(NioPeerConnection connection) {
+        pendingCloses.offer(connection);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (selector.isOpen()) {
+            try {
+                selector.select();
+                processRegistrations();
+                processCloses();
+                processReads();
+                processWrites();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    NioPeerConnection connection = (NioPeerConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable() && !connection.onWritable()) {
+                            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                        }
+                    } catch (IOException | CancelledKeyException e) {
+                        key.cancel();
+                        connection.onFailure(e);
+                    }
+                }
+            } catch (IOException e) {
+                Log.warning("NioTransport", "Selector error: " + e.getMessage());
+            } catch (RuntimeException e) {
+                // Lỗi trong callback không được giết selector thread dùng chung
+                Log.warning("NioTransport", "Unexpected error: " + e);
+            }
+        }
+    }
+
+    private void processRegistrations() {
+        NioPeerConnection connection;
+        while ((connection = pendingRegistrations.poll()) != null) {
+            try {
+                // Message gửi trước khi đăng ký xong (vd. HELLO) được ghi khi channel writable
+                int ops = SelectionKey.OP_READ | (connection.hasPendingWrites() ? SelectionKey.OP_WRITE : 0);
+                connection.attach(connection.channel().register(selector, ops, connection));
+            } catch (ClosedChannelException e) {
+                connection.onFailure(e);
+            }
+        }
+    }
+
+    private void processCloses() {
+        NioPeerConnection connection;
+        while ((connection = pendingCloses.poll()) != null) {
+            connection.releaseBuffers();
+        }
+    }
+
+    private void processReads() {
+        NioPeerConnection connection;
+        while ((connection = pendingReads.poll()) != null) {
+            SelectionKey key = connection.key();
+            if (key != null && key.isValid() && connection.shouldResumeRead()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    private void processWrites() {
+        NioPeerConnection connection;
+        while ((connection = pendingWrites.poll()) != null) {
+            SelectionKey key = connection.key();
+            if (key == null || !key.isValid()) {
+                continue;
+            }
+            try {
+                // Thử ghi ngay; chỉ chờ OP_WRITE khi socket buffer đầy
+                if (connection.onWritable()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            } catch (IOException | CancelledKeyException e) {
+                key.cancel();
+                connection.onFailure(e);
+            }
+        }
+    }
+}
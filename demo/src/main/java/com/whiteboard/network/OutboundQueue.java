@@ -0,0 +1,245 @@
+package com.whiteboard.network;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hàng đợi ghi của một peer, có giới hạn theo loại message thay vì một con số chung:
+ * - PREVIEW (STROKE_BEGIN/APPEND): bản xem trước nét đang vẽ. Khi hàng đợi dài quá previewLimit,
+ *   các preview đang chờ bị bỏ và preview mới không được nhận nữa; nét hoàn chỉnh vẫn tới qua
+ *   BOARD_OPS.
+ * - STATE (BOARD_OPS chỉ có ADD/UPDATE, SHAPES): thay đổi trạng thái bảng. Khi hàng
+ *   đợi dài quá resyncLimit, peer bị coi là tụt quá xa: các STATE đang chờ bị bỏ và offer trả về
+ *   true để bên gửi đồng bộ lại peer từ StateManager (CRDT nên gửi lại không sao).
+ * - ESSENTIAL (BOARD_OPS có DELETE/CLEAR, CLEAR, UNDO, CHAT, HELLO, ACK, SYNC_*, ...): không bao
+ *   giờ bị bỏ. Hàng đợi vẫn dài tới essentialLimit thì peer không còn đọc: offer ném IOException
+ *   để kết nối bị đóng thay vì giữ bộ nhớ mãi.
+ *
+ * Nhiều thread gửi, một writer lấy ra (thread ghi của stream transport hoặc selector thread).
+ */
+final class OutboundQueue {
+    enum Policy {
+        PREVIEW, STATE, ESSENTIAL
+    }
+
+    private final ArrayDeque<NetworkProtocol.Message> queue = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final int previewLimit;
+    private final int resyncLimit;
+    private final int essentialLimit;
+    // Số PREVIEW / STATE đang chờ, để chỉ quét hàng đợi khi thực sự có gì để bỏ
+    private int previewCount;
+    private int stateCount;
+
+    // Thống kê (ghi trong lock, đọc từ thread bất kỳ)
+    private volatile int maxDepth;
+    private volatile long droppedPreviews;
+    private volatile long discardedState;
+    private volatile long resyncs;
+
+    OutboundQueue(int previewLimit, int resyncLimit, int essentialLimit) {
+        this.previewLimit = Math.max(1, previewLimit);
+        this.resyncLimit = Math.max(this.previewLimit, resyncLimit);
+        this.essentialLimit = Math.max(this.resyncLimit, essentialLimit);
+    }
+
+    static Policy policyOf(NetworkProtocol.Message message) {
+        switch (message.type) {
+            case STROKE_BEGIN:
+            case STROKE_APPEND:
+                return Policy.PREVIEW;
+            case BOARD_OPS:
+                // Xoá / clear không bị bỏ: peer thấy shape biến mất đúng lúc, không phải chờ resync
+                return removesShapes(message) ? Policy.ESSENTIAL : Policy.STATE;
+            case SHAPES:
+                return Policy.STATE;
+            default:
+                return Policy.ESSENTIAL;
+        }
+    }
+
+    private static boolean removesShapes(NetworkProtocol.Message message) {
+        if (message.data instanceof NetworkProtocol.BoardOpData data && data.ops != null) {
+            for (NetworkProtocol.BoardOp op : data.ops) {
+                if (op.kind == NetworkProtocol.BoardOp.Kind.DELETE || op.kind == NetworkProtocol.BoardOp.Kind.CLEAR) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Thêm message theo chính sách của message. Trả về true nếu peer vừa bị coi là tụt
+     * quá xa (các thay đổi trạng thái đang chờ đã bị bỏ), bên gửi cần đồng bộ lại peer.
+     *
+     * @throws IOException hàng đợi đã tới essentialLimit (chỉ còn message không được bỏ):
+     *                     message không được thêm, bên gửi cần đóng kết nối
+     */
+    boolean offer(NetworkProtocol.Message message) throws IOException {
+        Policy policy = policyOf(message);
+        lock.lock();
+        try {
+            if (policy == Policy.ESSENTIAL && queue.size() >= essentialLimit) {
+                throw new IOException("Write queue full (" + queue.size() + " messages pending)");
+            }
+            boolean resync = false;
+            int depth = queue.size();
+            if (depth >= previewLimit) {
+                if (policy == Policy.PREVIEW) {
+                    droppedPreviews++;
+                    return false;
+                }
+                if (previewCount > 0) {
+                    discard(Policy.PREVIEW);
+                }
+            }
+            if (queue.size() >= resyncLimit && policy != Policy.ESSENTIAL && stateCount > 0) {
+                discard(Policy.STATE);
+                resyncs++;
+                resync = true;
+            }
+            if (resync && policy == Policy.STATE) {
+                // Op này đã có trong StateManager nên lần đồng bộ lại sẽ mang theo
+                discardedState++;
+                return true;
+            }
+            queue.addLast(message);
+            count(policy, 1);
+            if (queue.size() > maxDepth) {
+                maxDepth = queue.size();
+            }
+            notEmpty.signal();
+            return resync;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    NetworkProtocol.Message poll() {
+        lock.lock();
+        try {
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    NetworkProtocol.Message poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (queue.isEmpty()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    NetworkProtocol.Message take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queue.isEmpty()) {
+                notEmpty.await();
+            }
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lấy tối đa max message vào batch. Trả về số message đã lấy.
+     */
+    int drainTo(List<NetworkProtocol.Message> batch, int max) {
+        lock.lock();
+        try {
+            int drained = 0;
+            while (drained < max && !queue.isEmpty()) {
+                batch.add(removeFirst());
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    int getMaxDepth() {
+        return maxDepth;
+    }
+
+    long getDroppedPreviews() {
+        return droppedPreviews;
+    }
+
+    long getDiscardedState() {
+        return discardedState;
+    }
+
+    long getResyncs() {
+        return resyncs;
+    }
+
+    private NetworkProtocol.Message removeFirst() {
+        NetworkProtocol.Message message = queue.pollFirst();
+        if (message != null) {
+            count(policyOf(message), -1);
+        }
+        return message;
+    }
+
+    private void count(Policy policy, int delta) {
+        if (policy == Policy.PREVIEW) {
+            previewCount += delta;
+        } else if (policy == Policy.STATE) {
+            stateCount += delta;
+        }
+    }
+
+    /**
+     * Bỏ mọi message đang chờ thuộc policy (PREVIEW hoặc STATE), giữ thứ tự phần còn lại.
+     */
+    private void discard(Policy policy) {
+        Iterator<NetworkProtocol.Message> it = queue.iterator();
+        while (it.hasNext()) {
+            if (policyOf(it.next()) == policy) {
+                it.remove();
+                if (policy == Policy.PREVIEW) {
+                    droppedPreviews++;
+                } else {
+                    discardedState++;
+                }
+            }
+        }
+        if (policy == Policy.PREVIEW) {
+            previewCount = 0;
+        } else {
+            stateCount = 0;
+        }
+    }
+}
@@ -1,179 +1,212 @@
 package com.whiteboard.network;
 
-import java.io.*;
+import com.whiteboard.Config;
+import com.whiteboard.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.net.Socket;
-import java.net.SocketException;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.function.Consumer;
 
-public class PeerConnection {
-    private final Socket socket;
-    private final String peerId;
-    private final BlockingQueue<NetworkProtocol.Message> messageQueue;
-    private final Set<String> sentMessageIds = Collections.synchronizedSet(new HashSet<>());
-    private ObjectInputStream objectInputStream;
-    private ObjectOutputStream objectOutputStream;
-    private boolean isConnected;
+/**
+ * Kết nối tới một peer. Phần chung (dedup, negotiate HELLO, thống kê batching, callback)
+ * nằm ở đây; cách đọc/ghi socket do transport cụ thể quyết định:
+ * - {@link StreamPeerConnection}: socket blocking, 2 thread đọc/ghi mỗi peer (mặc định);
+ *   frame của {@link FrameCodec} nếu hai bên cùng hỗ trợ, ObjectStream với peer cũ
+ * - {@link NioPeerConnection}: một selector thread dùng chung cho mọi peer
+ *
+ * Transport chọn qua network.transport trong config.properties (STREAM | NIO).
+ */
+public abstract class PeerConnection {
+    protected final Socket socket;
+    protected final String peerId;
+    // Message.id đã gửi trong khoảng một phút gần nhất
+    private final MessageIdFilter sentMessageIds = new MessageIdFilter();
+    // Hàng đợi ghi có giới hạn theo loại message; writer của transport lấy ra
+    protected final OutboundQueue outbound = new OutboundQueue(
+            Config.getQueuePreviewLimit(), Config.getQueueResyncLimit(), Config.getQueueEssentialLimit());
+    protected volatile boolean isConnected;
     private Consumer<NetworkProtocol.Message> messageHandler;
     private Consumer<String> disconnectHandler;
-    private Thread readThread;
-    private Thread writeThread;
-    private long lastCleanup = System.currentTimeMillis();
+    private Consumer<String> resyncHandler;
+    // Version giao thức của peer bên kia, biết được sau khi nhận HELLO (0 = peer cũ)
+    private volatile int remoteProtocolVersion = 0;
+    // Thống kê batching của writer (chỉ writer ghi)
+    private volatile long batchesWritten;
+    private volatile long messagesWritten;
+    private volatile long messagesCoalesced;
+    private volatile int maxBatchSize;
+    // Số liệu vào/ra của peer trong NetworkMetrics (giữ sẵn để không tra map khi gửi)
+    private final NetworkMetrics.PeerStats metrics;
 
-    public PeerConnection(Socket socket, String peerId) throws IOException {
+    protected PeerConnection(Socket socket, String peerId) {
         this.socket = socket;
         this.peerId = peerId;
-        this.messageQueue = new LinkedBlockingQueue<>();
         this.isConnected = true;
+        this.metrics = NetworkMetrics.get().attach(peerId, this);
+    }
 
-        initializeStreams();
-        startThreads();
-    }
-
-    private void initializeStreams() throws IOException {
-        objectOutputStream = new ObjectOutputStream(socket.getOutputStream());
-        objectOutputStream.flush();
-        objectInputStream = new ObjectInputStream(socket.getInputStream());
-    }
-
-    private void startThreads() {
-        readThread = new Thread(this::readMessages);
-        readThread.setDaemon(true);
-        readThread.setName("Read-" + peerId);
-        readThread.start();
-
-        writeThread = new Thread(this::writeMessages);
-        writeThread.setDaemon(true);
-        writeThread.setName("Write-" + peerId);
-        writeThread.start();
-    }
-
-    private void cleanupOldMessageIds() {
-        // Dọn dẹp các message ID cũ (trong vòng 1 phút trở lại đây)
-        long oneMinuteAgo = System.currentTimeMillis() - 60000;
-        sentMessageIds.removeIf(id -> {
-            try {
-                // ID có dạng: senderId_timestamp_hash
-                String[] parts = id.split("_");
-                if (parts.length >= 2) {
-                    long timestamp = Long.parseLong(parts[1]);
-                    return timestamp < oneMinuteAgo;
-                }
-            } catch (NumberFormatException e) {
-                // Nếu không parse được timestamp thì xóa luôn
-                return true;
-            }
-            return true;
-        });
-    }
-    
-    private void readMessages() {
-        // Dọn dẹp message ID cũ mỗi phút
-        long lastCleanup = System.currentTimeMillis();
-        final long CLEANUP_INTERVAL = 60000; // 1 phút
-        
-        try {
-            while (isConnected) {
-                try {
-                    Object obj = objectInputStream.readObject();
-                    if (obj instanceof NetworkProtocol.Message message) {
-                        if (messageHandler != null) {
-                            messageHandler.accept(message);
-                        }
-                    }
-                } catch (java.io.InvalidClassException e) {
-                    // Lỗi serialVersionUID không khớp - không disconnect, chỉ log và skip message này
-                    System.err.println("[PeerConnection] InvalidClassException from peer " + peerId
-                            + ": " + e.getMessage() + " - skipping message. "
-                            + "Có thể do version code khác nhau giữa 2 máy.");
-                    // Tiếp tục đọc message tiếp theo thay vì disconnect
-                    continue;
-                } catch (EOFException e) {
-                    // End of stream - connection đóng bình thường
-                    break;
-                } catch (ClassNotFoundException e) {
-                    System.err.println("[PeerConnection] ClassNotFoundException from peer " + peerId
-                            + ": " + e.getMessage() + " - skipping message");
-                    continue; // Skip message này, tiếp tục đọc
-                }
-            }
-        } catch (SocketException e) {
-            // Connection closed bình thường
-            System.out.println("[PeerConnection] Socket closed for peer " + peerId);
-        } catch (IOException e) {
-            if (isConnected) {
-                System.err.println("[PeerConnection] IOException reading from peer " + peerId + ": " + e.getMessage());
-            }
-        } finally {
-            disconnect();
+    /**
+     * Tạo kết nối theo transport trong Config. Socket tạo bởi {@link #openServerSocket()}
+     * hoặc {@link #connect(String, int)} ở chế độ NIO có channel đi kèm; socket thường
+     * luôn dùng stream transport.
+     */
+    public static PeerConnection open(Socket socket, String peerId) throws IOException {
+        if (isNioTransport() && socket.getChannel() != null) {
+            return new NioPeerConnection(socket, peerId);
         }
+        return new StreamPeerConnection(socket, peerId);
     }
 
-    private void writeMessages() {
-        try {
-            while (isConnected) {
-                try {
-                    NetworkProtocol.Message message = messageQueue.take();
-                    synchronized (objectOutputStream) {
-                        objectOutputStream.writeObject(message);
-                        objectOutputStream.flush();
-                    }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
-                }
-            }
-        } catch (IOException e) {
-            System.err.println("Error writing to peer " + peerId + ": " + e.getMessage());
-        } finally {
-            disconnect();
+    public static boolean isNioTransport() {
+        return "NIO".equalsIgnoreCase(Config.getTransportMode());
+    }
+
+    /**
+     * Server socket lắng nghe ở port ngẫu nhiên. Ở chế độ NIO, socket được tạo từ
+     * ServerSocketChannel để accept() trả về socket có channel.
+     */
+    public static ServerSocket openServerSocket() throws IOException {
+        if (isNioTransport()) {
+            return ServerSocketChannel.open().bind(new InetSocketAddress(0)).socket();
+        }
+        return new ServerSocket(0);
+    }
+
+    public static Socket connect(String host, int port) throws IOException {
+        if (isNioTransport()) {
+            return SocketChannel.open(new InetSocketAddress(host, port)).socket();
+        }
+        return new Socket(host, port);
+    }
+
+    /**
+     * Có message mới trong outbound: transport nào không chờ trên hàng đợi thì đánh thức writer.
+     */
+    protected void wakeWriter() {
+    }
+
+    /**
+     * Đóng stream/channel của transport. Gọi đúng một lần từ {@link #disconnect()}.
+     */
+    protected abstract void closeTransport();
+
+    /**
+     * Force flush để đảm bảo message được gửi ngay lập tức.
+     * Dùng cho các message quan trọng như DISCONNECT.
+     */
+    public abstract void flush();
+
+    /**
+     * Số message đang chờ trong hàng đợi ghi (chưa được writer lấy ra).
+     */
+    public int getQueuedMessageCount() {
+        return outbound.size();
+    }
+
+    /**
+     * Chuyển message đã giải mã cho handler; HELLO được dùng để chọn định dạng gửi.
+     */
+    protected void dispatch(NetworkProtocol.Message message) {
+        if (message.type == NetworkProtocol.MessageType.HELLO) {
+            negotiate(message);
+        }
+        if (messageHandler != null) {
+            messageHandler.accept(message);
+        }
+    }
+
+    /**
+     * Writer sắp encode message: ghi mốc của trace (nếu có), trả về nanoTime để đo thời gian encode.
+     */
+    protected long beginEncode(NetworkProtocol.Message message) {
+        long now = System.nanoTime();
+        if (message.trace != null) {
+            LatencyTracer.written(peerId, message.trace, now);
+        }
+        return now;
+    }
+
+    /**
+     * Writer ghi xong message ra transport. bytes = 0 nếu không biết kích thước (Java
+     * serialization), encodeNanos < 0 nếu không đo được thời gian encode.
+     */
+    protected void recordSent(NetworkProtocol.Message message, int bytes, long encodeNanos) {
+        metrics.sent(message.type, bytes);
+        if (encodeNanos >= 0) {
+            NetworkMetrics.get().recordEncode(message.type, encodeNanos);
+        }
+    }
+
+    /**
+     * Reader giải mã xong message, gọi trước {@link #dispatch}; quy ước như {@link #recordSent}.
+     */
+    protected void recordReceived(NetworkProtocol.Message message, int bytes, long decodeNanos) {
+        metrics.received(message.type, bytes);
+        if (decodeNanos >= 0) {
+            NetworkMetrics.get().recordDecode(message.type, decodeNanos);
+        }
+        if (message.trace != null) {
+            LatencyTracer.received(message);
+        }
+    }
+
+    protected void recordBatch(int written, int coalesced) {
+        batchesWritten++;
+        messagesWritten += written;
+        messagesCoalesced += coalesced;
+        if (written > maxBatchSize) {
+            maxBatchSize = written;
         }
     }
 
+    /**
+     * Data của HELLO là version giao thức của peer gửi.
+     */
+    private void negotiate(NetworkProtocol.Message hello) {
+        int version = (hello.data instanceof Integer v) ? v : 0;
+        remoteProtocolVersion = Math.min(version, NetworkProtocol.PROTOCOL_VERSION);
+        Log.info("PeerConnection", "Peer " + peerId + " protocol version " + version
+                + (isLegacyPeer() ? " (legacy peer, Java serialization)" : ""));
+    }
+
     public void sendMessage(NetworkProtocol.Message message) throws IOException {
         if (!isConnected) {
             throw new IOException("Connection to " + peerId + " is closed");
         }
-        
-        // Tạo ID duy nhất cho tin nhắn dựa trên senderId, timestamp và nội dung
-        String messageId = message.senderId + "_" + message.timestamp + "_" + 
-                         (message.data != null ? message.data.hashCode() : 0);
-        
-        // Nếu đã gửi tin nhắn này rồi thì bỏ qua
-        if (sentMessageIds.contains(messageId)) {
+
+        // Message.id là duy nhất cho mỗi message tạo ra; cùng message gửi lại thì bỏ qua
+        if (!sentMessageIds.markSent(message.id, System.currentTimeMillis())) {
             return;
         }
-        
-        // Đánh dấu là đã gửi
-        sentMessageIds.add(messageId);
-        
-        // Thêm vào hàng đợi để gửi
-        messageQueue.offer(message);
-        
-        // Dọn dẹp các message ID cũ nếu cần
-        if (System.currentTimeMillis() - lastCleanup > 60000) { // 1 phút
-            cleanupOldMessageIds();
+
+        // Message được trace thì mỗi kết nối giữ mốc thời gian riêng
+        if (message.trace != null) {
+            message = LatencyTracer.enqueued(peerId, message);
+        }
+
+        // Thêm vào hàng đợi để gửi; peer tụt quá xa thì nhờ handler đồng bộ lại, peer không còn
+        // đọc (hàng đợi đầy message không được bỏ) thì đóng kết nối
+        boolean resync;
+        try {
+            resync = outbound.offer(message);
+        } catch (IOException e) {
+            Log.warning("PeerConnection", "Peer " + peerId + " stopped reading: " + e.getMessage() + ", disconnecting");
+            // Không đóng ngay trên thread gửi (có thể đang giữ lock của MessageHandler)
+            IoExecutor.get().submit("Disconnect-" + peerId, this::disconnect);
+            throw e;
         }
-    }
-    
-    /**
-     * Force flush output stream để đảm bảo message được gửi ngay lập tức.
-     * Dùng cho các message quan trọng như DISCONNECT.
-     */
-    public void flush() {
-        synchronized (objectOutputStream) {
-            try {
-                if (objectOutputStream != null && isConnected) {
-                    objectOutputStream.flush();
-                }
-            } catch (IOException e) {
-                System.err.println("[PeerConnection] Error flushing stream: " + e.getMessage());
+        if (resync) {
+            Log.info("PeerConnection", "Peer " + peerId + " fell behind (" + outbound.size()
+                    + " queued), discarded pending board updates, requesting resync");
+            if (resyncHandler != null) {
+                resyncHandler.accept(peerId);
             }
         }
+        wakeWriter();
     }
 
     public void setMessageHandler(Consumer<NetworkProtocol.Message> handler) {
@@ -184,21 +217,33 @@ public class PeerConnection {
         this.disconnectHandler = handler;
     }
 
+    /**
+     * Gọi (trên thread gửi) khi hàng đợi ghi bỏ các thay đổi trạng thái đang chờ của peer này.
+     */
+    public void setResyncHandler(Consumer<String> handler) {
+        this.resyncHandler = handler;
+    }
+
     public synchronized void disconnect() {
         if (!isConnected)
             return;
 
         isConnected = false;
-        try {
-            if (objectInputStream != null)
-                objectInputStream.close();
-            if (objectOutputStream != null)
-                objectOutputStream.close();
-            if (socket != null && !socket.isClosed())
-                socket.close();
-        } catch (IOException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+        if (batchesWritten > 0) {
+            Log.info("PeerConnection", "Batch stats for peer " + peerId + ": batches=" + batchesWritten
+                    + ", messages=" + messagesWritten
+                    + ", coalesced=" + messagesCoalesced
+                    + String.format(", avgBatch=%.2f", getAverageBatchSize())
+                    + ", maxBatch=" + maxBatchSize);
+        }
+        if (outbound.getDroppedPreviews() > 0 || outbound.getResyncs() > 0) {
+            Log.info("PeerConnection", "Queue stats for peer " + peerId + ": maxDepth=" + outbound.getMaxDepth()
+                    + ", droppedPreviews=" + outbound.getDroppedPreviews()
+                    + ", discardedState=" + outbound.getDiscardedState()
+                    + ", resyncs=" + outbound.getResyncs());
         }
+        closeTransport();
+        metrics.detach(this);
 
         if (disconnectHandler != null) {
             disconnectHandler.accept(peerId);
@@ -209,6 +254,55 @@ public class PeerConnection {
         return peerId;
     }
 
+    public int getRemoteProtocolVersion() {
+        return remoteProtocolVersion;
+    }
+
+    /**
+     * Peer cũ (HELLO không mang version): chỉ hiểu SHAPES/CLEAR/UNDO/CHAT qua Java serialization.
+     * Trước khi nhận HELLO mọi peer đều được coi là peer cũ.
+     */
+    public boolean isLegacyPeer() {
+        return remoteProtocolVersion < NetworkProtocol.PROTOCOL_VERSION;
+    }
+
+    public long getBatchesWritten() {
+        return batchesWritten;
+    }
+
+    public long getMessagesWritten() {
+        return messagesWritten;
+    }
+
+    public long getMessagesCoalesced() {
+        return messagesCoalesced;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public int getMaxQueueDepth() {
+        return outbound.getMaxDepth();
+    }
+
+    public long getDroppedPreviews() {
+        return outbound.getDroppedPreviews();
+    }
+
+    public long getDiscardedStateUpdates() {
+        return outbound.getDiscardedState();
+    }
+
+    public long getResyncCount() {
+        return outbound.getResyncs();
+    }
+
+    public double getAverageBatchSize() {
+        long batches = batchesWritten;
+        return batches == 0 ? 0 : (double) messagesWritten / batches;
+    }
+
     public boolean isConnected() {
         return isConnected && !socket.isClosed();
     }
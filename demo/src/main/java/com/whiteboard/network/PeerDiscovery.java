@@ -1,5 +1,7 @@
 package com.whiteboard.network;
 
+import com.whiteboard.Log;
+
 import java.io.*;
 import java.net.*;
 import java.util.*;
@@ -15,6 +17,10 @@ public class PeerDiscovery {
     private final int listenPort;
     private final String roomId;
     private final String roomPassword;
+    // Topology phòng quảng bá trong beacon; peer join đổi theo topology của phòng
+    private volatile NetworkProtocol.Topology topology;
+    // Peer này đang là host (sequencer) của phòng STAR; đổi khi failover
+    private volatile boolean host;
     private DatagramSocket broadcastSocket;
     private Thread discoveryThread;
     private Thread listeningThread;
@@ -24,11 +30,17 @@ public class PeerDiscovery {
     private Consumer<NetworkProtocol.PeerInfo> onPeerLost;
 
     public PeerDiscovery(String peerId, String peerName, int listenPort, String roomId, String roomPassword) {
+        this(peerId, peerName, listenPort, roomId, roomPassword, NetworkProtocol.Topology.MESH);
+    }
+
+    public PeerDiscovery(String peerId, String peerName, int listenPort, String roomId, String roomPassword,
+            NetworkProtocol.Topology topology) {
         this.peerId = peerId;
         this.peerName = peerName;
         this.listenPort = listenPort;
         this.roomId = roomId;
         this.roomPassword = roomPassword;
+        this.topology = topology;
         this.discoveredPeers = new ConcurrentHashMap<>();
         this.isDiscovering = false;
     }
@@ -54,28 +66,31 @@ public class PeerDiscovery {
 
     private void broadcastPresence() {
         try {
+            // peer cũ chỉ đọc 5 trường đầu; trường 6 là topology, trường 7 là "H" nếu đang là host
             String messageStr = peerId + "|" + peerName + "|" + listenPort + "|" +
-                    (roomId == null ? "" : roomId) + "|" + (roomPassword == null ? "" : roomPassword);
-            byte[] message = messageStr.getBytes();
+                    (roomId == null ? "" : roomId) + "|" + (roomPassword == null ? "" : roomPassword) + "|";
 
             while (isDiscovering) {
                 try {
+                    byte[] message = (messageStr + topology.name() + (host ? "|H" : "")).getBytes();
                     DatagramPacket packet = new DatagramPacket(
                             message, message.length,
                             InetAddress.getByName(BROADCAST_ADDRESS), BROADCAST_PORT);
-                    System.out.println("[PeerDiscovery] Broadcasting presence: peerId=" + peerId
-                            + ", name=" + peerName
-                            + ", listenPort=" + listenPort
-                            + ", roomId=" + (roomId == null ? "" : roomId)
-                            + ", roomPassword=" + (roomPassword == null || roomPassword.isEmpty() ? "(empty)" : "***"));
+                    if (Log.isEnabled(Log.Level.FINE)) {
+                        Log.fine("PeerDiscovery", "Broadcasting presence: peerId=" + peerId
+                                + ", name=" + peerName
+                                + ", listenPort=" + listenPort
+                                + ", roomId=" + (roomId == null ? "" : roomId)
+                                + ", roomPassword=" + (roomPassword == null || roomPassword.isEmpty() ? "(empty)" : "***"));
+                    }
                     broadcastSocket.send(packet);
                     Thread.sleep(3000); // Broadcast every 3 seconds
                 } catch (IOException e) {
-                    System.err.println("Error broadcasting presence: " + e.getMessage());
+                    Log.warning("PeerDiscovery", "Error broadcasting presence: " + e.getMessage());
                 }
             }
         } catch (Exception e) {
-            System.err.println("Broadcast error: " + e.getMessage());
+            Log.warning("PeerDiscovery", "Broadcast error: " + e.getMessage());
         }
     }
 
@@ -85,12 +100,12 @@ public class PeerDiscovery {
             try {
                 socket = new DatagramSocket(BROADCAST_PORT);
                 socket.setBroadcast(true);
-                System.out.println("[PeerDiscovery] Started listening on UDP port " + BROADCAST_PORT
+                Log.info("PeerDiscovery", "Started listening on UDP port " + BROADCAST_PORT
                         + " for room=" + (roomId == null ? "" : roomId));
             } catch (BindException be) {
                 // Trên một máy chỉ cần một tiến trình listen UDP; các tiến trình khác vẫn có
                 // thể broadcast.
-                System.err.println("[PeerDiscovery] Listen socket already in use on port " + BROADCAST_PORT
+                Log.warning("PeerDiscovery", "Listen socket already in use on port " + BROADCAST_PORT
                         + ", skip listening in this instance.");
                 return;
             }
@@ -101,9 +116,10 @@ public class PeerDiscovery {
                 try {
                     DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
                     socket.receive(packet);
-                    System.out
-                            .println("[PeerDiscovery] Received UDP packet from " + packet.getAddress().getHostAddress()
-                                    + ":" + packet.getPort() + ", length=" + packet.getLength());
+                    if (Log.isEnabled(Log.Level.FINE)) {
+                        Log.fine("PeerDiscovery", "Received UDP packet from " + packet.getAddress().getHostAddress()
+                                        + ":" + packet.getPort() + ", length=" + packet.getLength());
+                    }
 
                     String data = new String(packet.getData(), 0, packet.getLength());
                     String[] parts = data.split("\\|");
@@ -114,32 +130,41 @@ public class PeerDiscovery {
                         int discoveredPort = Integer.parseInt(parts[2]);
                         String discoveredRoom = parts.length >= 4 ? parts[3] : "";
                         String discoveredPass = parts.length >= 5 ? parts[4] : "";
+                        NetworkProtocol.Topology discoveredTopology = parts.length >= 6
+                                ? NetworkProtocol.Topology.parse(parts[5]) : null;
+                        boolean discoveredHost = parts.length >= 7 && "H".equals(parts[6]);
                         String ipAddress = packet.getAddress().getHostAddress();
 
                         if (!discoveredPeerId.equals(peerId)) {
                             // chỉ quan tâm peers cùng phòng (roomId) và cùng mật khẩu nếu có đặt
                             if (roomId != null && !roomId.isEmpty() && !roomId.equals(discoveredRoom)) {
-                                System.out.println("[PeerDiscovery] Ignored peer " + discoveredPeerId
-                                        + " from IP " + ipAddress
-                                        + " vì room khác. LocalRoom=" + roomId
-                                        + ", RemoteRoom=" + discoveredRoom);
+                                if (Log.isEnabled(Log.Level.FINE)) {
+                                    Log.fine("PeerDiscovery", "Ignored peer " + discoveredPeerId
+                                            + " from IP " + ipAddress
+                                            + " vì room khác. LocalRoom=" + roomId
+                                            + ", RemoteRoom=" + discoveredRoom);
+                                }
                                 continue;
                             }
                             if (roomPassword != null && !roomPassword.isEmpty()
                                     && !roomPassword.equals(discoveredPass)) {
-                                System.out.println("[PeerDiscovery] Ignored peer " + discoveredPeerId
-                                        + " from IP " + ipAddress
-                                        + " vì sai mật khẩu phòng.");
+                                if (Log.isEnabled(Log.Level.FINE)) {
+                                    Log.fine("PeerDiscovery", "Ignored peer " + discoveredPeerId
+                                            + " from IP " + ipAddress
+                                            + " vì sai mật khẩu phòng.");
+                                }
                                 continue;
                             }
 
                             NetworkProtocol.PeerInfo peerInfo = new NetworkProtocol.PeerInfo(discoveredPeerId,
                                     discoveredName, ipAddress, discoveredRoom, discoveredPort);
+                            peerInfo.topology = discoveredTopology;
+                            peerInfo.isHost = discoveredHost;
 
                             NetworkProtocol.PeerInfo existing = discoveredPeers.get(discoveredPeerId);
                             if (existing == null) {
                                 discoveredPeers.put(discoveredPeerId, peerInfo);
-                                System.out.println("[PeerDiscovery] Found peer: " + peerInfo
+                                Log.info("PeerDiscovery", "Found peer: " + peerInfo
                                         + " (ip=" + ipAddress + ", port=" + discoveredPort + ")");
                                 if (onPeerFound != null) {
                                     onPeerFound.accept(peerInfo);
@@ -149,18 +174,27 @@ public class PeerDiscovery {
                                 existing.name = discoveredName;
                                 existing.roomId = discoveredRoom;
                                 existing.port = discoveredPort;
-                                System.out.println("[PeerDiscovery] Updated peer: " + existing);
+                                existing.topology = discoveredTopology;
+                                boolean promoted = discoveredHost && !existing.isHost;
+                                existing.isHost = discoveredHost;
+                                if (Log.isEnabled(Log.Level.FINE)) {
+                                    Log.fine("PeerDiscovery", "Updated peer: " + existing);
+                                }
+                                // Peer vừa được promote làm host STAR: báo lại để các peer nối tới host mới
+                                if (promoted && onPeerFound != null) {
+                                    onPeerFound.accept(existing);
+                                }
                             }
                         }
                     }
                 } catch (IOException e) {
                     if (isDiscovering) {
-                        System.err.println("Error listening for peers: " + e.getMessage());
+                        Log.warning("PeerDiscovery", "Error listening for peers: " + e.getMessage());
                     }
                 }
             }
         } catch (Exception e) {
-            System.err.println("Listen error: " + e.getMessage());
+            Log.warning("PeerDiscovery", "Listen error: " + e.getMessage());
         } finally {
             if (socket != null && !socket.isClosed()) {
                 socket.close();
@@ -174,6 +208,14 @@ public class PeerDiscovery {
             broadcastSocket.close();
     }
 
+    public void setTopology(NetworkProtocol.Topology topology) {
+        this.topology = topology;
+    }
+
+    public void setHost(boolean host) {
+        this.host = host;
+    }
+
     public Collection<NetworkProtocol.PeerInfo> getDiscoveredPeers() {
         return new ArrayList<>(discoveredPeers.values());
     }
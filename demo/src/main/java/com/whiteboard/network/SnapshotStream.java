@@ -0,0 +1,162 @@
+package com.whiteboard.network;
+
+import com.whiteboard.Log;
+import com.whiteboard.sync.StateManager;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Gửi trạng thái bảng (danh sách op từ StateManager.deltaSince/snapshot) cho một peer
+ * thành nhiều phần giới hạn số op và kích thước ước tính. Shape chỉ được clone khi dựng
+ * từng phần nên không bao giờ giữ cả bảng trong bộ nhớ.
+ *
+ * Phần kế tiếp chỉ được đưa vào hàng đợi ghi khi hàng đợi đã gần rỗng, nên message realtime
+ * (nét vẽ, chat) không phải chờ sau cả snapshot. Với peer mới (gửi ACK), số phần
+ * chưa được ACK không vượt quá window: bên nhận áp dụng chậm thì bên gửi cũng chậm lại.
+ */
+final class SnapshotStream implements Runnable {
+    // Chờ ACK / hàng đợi ghi quá lâu thì coi như peer không còn nhận
+    private static final long STALL_TIMEOUT_MS = 30_000;
+    private static final long POLL_MS = 5;
+
+    /**
+     * Dựng message cho một phần. done/total tính theo số op trong danh sách ban đầu.
+     * Trả về null nếu phần này không có gì để gửi với peer đó.
+     */
+    interface ChunkFactory {
+        NetworkProtocol.Message create(List<NetworkProtocol.BoardOp> ops, int index, boolean last,
+                int done, int total);
+    }
+
+    private final PeerConnection connection;
+    private final StateManager stateManager;
+    private final List<NetworkProtocol.BoardOp> plan;
+    private final ChunkFactory factory;
+    private final int window;
+    private final int maxOps;
+    private final int maxBytes;
+    private final Object lock = new Object();
+    private int acked = -1;
+    private volatile boolean cancelled;
+
+    /**
+     * @param window số phần tối đa chưa được ACK; 0 = peer không gửi ACK
+     */
+    SnapshotStream(PeerConnection connection, StateManager stateManager, List<NetworkProtocol.BoardOp> plan,
+            ChunkFactory factory, int window, int maxOps, int maxBytes) {
+        this.connection = connection;
+        this.stateManager = stateManager;
+        this.plan = plan;
+        this.factory = factory;
+        this.window = window;
+        this.maxOps = Math.max(1, maxOps);
+        this.maxBytes = Math.max(1024, maxBytes);
+    }
+
+    void acknowledge(int index) {
+        synchronized (lock) {
+            if (index > acked) {
+                acked = index;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    void cancel() {
+        cancelled = true;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void run() {
+        int index = 0;
+        int position = 0;
+        int sent = 0;
+        try {
+            do {
+                if (!awaitWindow(index) || !awaitQueueDrained()) {
+                    Log.info("SnapshotStream", "Stopped sending to " + connection.getPeerId()
+                            + " at " + position + "/" + plan.size() + " op(s)");
+                    return;
+                }
+                List<NetworkProtocol.BoardOp> ops = new ArrayList<>();
+                int bytes = 0;
+                while (position < plan.size() && ops.size() < maxOps && (ops.isEmpty() || bytes < maxBytes)) {
+                    NetworkProtocol.BoardOp op = stateManager.materialize(plan.get(position++));
+                    if (op != null) {
+                        ops.add(op);
+                        bytes += estimateSize(op);
+                    }
+                }
+                boolean last = position >= plan.size();
+                NetworkProtocol.Message message = factory.create(ops, index, last, position, plan.size());
+                if (message != null) {
+                    connection.sendMessage(message);
+                    sent += ops.size();
+                    index++;
+                }
+            } while (position < plan.size());
+            Log.info("SnapshotStream", "Sent " + sent + " op(s) to " + connection.getPeerId()
+                    + " in " + index + " chunk(s)");
+        } catch (Exception e) {
+            Log.warning("SnapshotStream", "Failed to send state to " + connection.getPeerId()
+                    + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Chờ tới khi phần index nằm trong window (các phần trước đó đủ ACK).
+     */
+    private boolean awaitWindow(int index) throws InterruptedException {
+        if (window <= 0) {
+            return !cancelled;
+        }
+        long deadline = System.currentTimeMillis() + STALL_TIMEOUT_MS;
+        synchronized (lock) {
+            while (!cancelled && index - acked > window) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                lock.wait(remaining);
+            }
+        }
+        return !cancelled;
+    }
+
+    /**
+     * Chờ writer lấy hết message đang chờ, để phần tiếp theo không chặn trước message realtime.
+     */
+    private boolean awaitQueueDrained() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + STALL_TIMEOUT_MS;
+        while (!cancelled && connection.isConnected() && connection.getQueuedMessageCount() > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(POLL_MS);
+        }
+        return !cancelled && connection.isConnected();
+    }
+
+    /**
+     * Kích thước gần đúng của op sau khi encode (đủ để chia phần, không cần chính xác).
+     */
+    static int estimateSize(NetworkProtocol.BoardOp op) {
+        int size = 32;
+        if (op.shape != null) {
+            size += 64;
+            if (op.shape.freeDrawPoints != null) {
+                size += op.shape.freeDrawPoints.size() * 4;
+            }
+            if (op.shape.polyX != null) {
+                size += op.shape.polyX.length * 6;
+            }
+            if (op.shape.text != null) {
+                size += op.shape.text.length() * 2;
+            }
+        }
+        return size;
+    }
+}
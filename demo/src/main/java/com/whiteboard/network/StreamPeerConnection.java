@@ -0,0 +1,246 @@
+package com.whiteboard.network;
+
+import com.whiteboard.Config;
+import com.whiteboard.Log;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transport mặc định: socket blocking với một thread đọc và một thread ghi cho mỗi peer.
+ *
+ * Mở đầu kết nối mỗi bên ghi header ObjectStream kèm hai TC_RESET (FrameCodec.FRAMED_PREAMBLE). Peer cũ
+ * đọc như ObjectStream bình thường (TC_RESET bị bỏ qua); peer mới thấy preamble của bên kia
+ * thì cả hai chuyển sang frame [length][type][payload] của {@link FrameCodec}, không còn bảng
+ * handle của ObjectStream và frame type lạ được bỏ qua. Với peer cũ vẫn dùng ObjectStream
+ * nhưng reset() sau mỗi lô để bảng handle không lớn mãi theo thời gian kết nối.
+ */
+public class StreamPeerConnection extends PeerConnection {
+    private final Object writeLock = new Object();
+    // Mở khi thread đọc đã biết định dạng của peer; writer chờ trước khi ghi message đầu tiên
+    private final CountDownLatch negotiated = new CountDownLatch(1);
+    private volatile boolean framed;
+    private BufferedInputStream input;
+    private ObjectInputStream objectInputStream;
+    private ObjectOutputStream objectOutputStream;
+    private DataInputStream frameInput;
+    private DataOutputStream frameOutput;
+    private Future<?> readTask;
+    private Future<?> writeTask;
+
+    public StreamPeerConnection(Socket socket, String peerId) throws IOException {
+        super(socket, peerId);
+
+        initializeStreams();
+        startThreads();
+    }
+
+    private void initializeStreams() throws IOException {
+        // Buffer để cả lô message được ghi ra socket trong một lần flush
+        BufferedOutputStream output = new BufferedOutputStream(socket.getOutputStream(), Config.getOutputBufferSize());
+        objectOutputStream = new ObjectOutputStream(output);
+        objectOutputStream.reset();
+        objectOutputStream.reset();
+        objectOutputStream.flush();
+        frameOutput = new DataOutputStream(output);
+        input = new BufferedInputStream(socket.getInputStream(), Config.getInputBufferSize());
+    }
+
+    private void startThreads() {
+        IoExecutor executor = IoExecutor.get();
+        readTask = executor.submit("Read-" + peerId, this::readMessages);
+        writeTask = executor.submit("Write-" + peerId, this::writeMessages);
+    }
+
+    private void readMessages() {
+        try {
+            detectFraming();
+            if (framed) {
+                readFrames();
+            } else {
+                readObjects();
+            }
+        } catch (EOFException e) {
+            // End of stream - connection đóng bình thường
+        } catch (SocketException e) {
+            // Connection closed bình thường
+            Log.info("PeerConnection", "Socket closed for peer " + peerId);
+        } catch (IOException e) {
+            if (isConnected) {
+                Log.warning("PeerConnection", "IOException reading from peer " + peerId + ": " + e.getMessage());
+            }
+        } finally {
+            negotiated.countDown();
+            disconnect();
+        }
+    }
+
+    /**
+     * Đọc 6 byte đầu: preamble của peer mới thì dùng frame, ngược lại trả lại các byte đó cho
+     * ObjectInputStream. Peer cũ gửi HELLO ngay sau khi kết nối nên không phải chờ lâu.
+     */
+    private void detectFraming() throws IOException {
+        input.mark(FrameCodec.FRAMED_PREAMBLE.length);
+        byte[] head = input.readNBytes(FrameCodec.FRAMED_PREAMBLE.length);
+        if (Arrays.equals(head, FrameCodec.FRAMED_PREAMBLE)) {
+            frameInput = new DataInputStream(input);
+            framed = true;
+        } else {
+            input.reset();
+            objectInputStream = new ObjectInputStream(input);
+        }
+        Log.info("PeerConnection", "Peer " + peerId + " uses "
+                + (framed ? "length-prefixed frames" : "legacy object stream"));
+        negotiated.countDown();
+    }
+
+    private void readFrames() throws IOException {
+        while (isConnected) {
+            FrameCodec.Frame frame = FrameCodec.read(frameInput);
+            NetworkProtocol.Message message;
+            long start = System.nanoTime();
+            try {
+                message = FrameCodec.decode(frame.type, frame.payload);
+            } catch (IOException e) {
+                Log.warning("PeerConnection", "Malformed frame from peer " + peerId
+                        + ": " + e.getMessage() + " - skipping message");
+                continue;
+            }
+            if (message != null) {
+                recordReceived(message, frame.size(), System.nanoTime() - start);
+                dispatch(message);
+            }
+        }
+    }
+
+    private void readObjects() throws IOException {
+        while (isConnected) {
+            try {
+                Object obj = objectInputStream.readObject();
+                if (obj instanceof NetworkProtocol.Message message) {
+                    // Java serialization: không biết kích thước, thời gian đọc lẫn thời gian chờ socket
+                    recordReceived(message, 0, -1);
+                    dispatch(message);
+                }
+            } catch (java.io.InvalidClassException e) {
+                // Lỗi serialVersionUID không khớp - không disconnect, chỉ log và skip message này
+                Log.warning("PeerConnection", "InvalidClassException from peer " + peerId
+                        + ": " + e.getMessage() + " - skipping message. "
+                        + "Có thể do version code khác nhau giữa 2 máy.");
+            } catch (ClassNotFoundException e) {
+                Log.warning("PeerConnection", "ClassNotFoundException from peer " + peerId
+                        + ": " + e.getMessage() + " - skipping message");
+            }
+        }
+    }
+
+    private void writeMessages() {
+        int maxBatch = Math.max(1, Config.getMessageBatchSize());
+        long latencyCapNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, Config.getBatchLatencyMs()));
+        List<NetworkProtocol.Message> batch = new ArrayList<>(maxBatch);
+        try {
+            negotiated.await();
+            while (isConnected) {
+                try {
+                    batch.add(outbound.take());
+                    // Gom thêm message trong tối đa latencyCap để ghi chung một lần
+                    long deadline = System.nanoTime() + latencyCapNanos;
+                    while (batch.size() < maxBatch) {
+                        outbound.drainTo(batch, maxBatch - batch.size());
+                        long remaining = deadline - System.nanoTime();
+                        if (batch.size() >= maxBatch || remaining <= 0) {
+                            break;
+                        }
+                        NetworkProtocol.Message next = outbound.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+
+                    int coalesced = MessageBatcher.coalesce(batch);
+                    synchronized (writeLock) {
+                        if (framed) {
+                            writeFrames(batch);
+                        } else {
+                            // Peer cũ chỉ đọc được Java serialization
+                            for (NetworkProtocol.Message message : batch) {
+                                beginEncode(message);
+                                objectOutputStream.writeObject(message);
+                                recordSent(message, 0, -1);
+                            }
+                            // Bỏ các handle đã ghi để bảng handle không lớn theo thời gian kết nối
+                            objectOutputStream.reset();
+                            objectOutputStream.flush();
+                        }
+                    }
+                    recordBatch(batch.size(), coalesced);
+                    batch.clear();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            Log.warning("PeerConnection", "Error writing to peer " + peerId + ": " + e.getMessage());
+        } finally {
+            disconnect();
+        }
+    }
+
+    private void writeFrames(List<NetworkProtocol.Message> batch) throws IOException {
+        int threshold = Config.getCompressThreshold();
+        for (NetworkProtocol.Message message : batch) {
+            long start = beginEncode(message);
+            FrameCodec.Frame frame = FrameCodec.encode(message, threshold);
+            recordSent(message, frame.size(), System.nanoTime() - start);
+            FrameCodec.write(frameOutput, frame);
+        }
+        frameOutput.flush();
+    }
+
+    @Override
+    public void flush() {
+        synchronized (writeLock) {
+            try {
+                if (isConnected) {
+                    if (framed) {
+                        frameOutput.flush();
+                    } else {
+                        objectOutputStream.flush();
+                    }
+                }
+            } catch (IOException e) {
+                Log.warning("PeerConnection", "Error flushing stream: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    protected void closeTransport() {
+        try {
+            if (objectInputStream != null)
+                objectInputStream.close();
+            if (objectOutputStream != null)
+                objectOutputStream.close();
+            if (socket != null && !socket.isClosed())
+                socket.close();
+        } catch (IOException e) {
+            Log.warning("PeerConnection", "Error closing connection: " + e.getMessage());
+        }
+        // Writer có thể đang chờ trong take(): huỷ để trả thread về executor
+        if (writeTask != null)
+            writeTask.cancel(true);
+        if (readTask != null)
+            readTask.cancel(true);
+    }
+}
@@ -0,0 +1,644 @@
+package com.whiteboard.network;
+
+import com.whiteboard.drawing.PointBuffer;
+import com.whiteboard.drawing.Shape;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Codec nhị phân gọn cho NetworkProtocol, thay cho Java serialization.
+ * Số nguyên dùng varint (zigzag cho số có dấu), điểm vẽ được ghi thành
+ * mảng int packed dạng delta so với điểm trước.
+ *
+ * Layout message: [version][type][senderId][timestamp][id][ttl][trace][dataTag][data...]
+ *
+ * Shape, nét vẽ và BoardOp mang id 64 bit (HybridLogicalClock); BoardOp mang thêm prev (varlong
+ * stamp - prev, 0 nếu không có), SYNC_RESPONSE cuối mang version vector của bên gửi, trace là
+ * 1 byte 0 nếu message không được lấy mẫu. Chỉ có một định dạng: peer cũ (protocol 0) không
+ * dùng codec này mà nhận Java serialization, byte version khác {@link #VERSION} bị từ chối.
+ */
+public final class WireCodec {
+    public static final int VERSION = 1;
+
+    // Tag cho Message.data
+    private static final int DATA_NULL = 0;
+    private static final int DATA_SHAPES = 1;
+    private static final int DATA_CHAT = 2;
+    private static final int DATA_PEER_LIST = 3;
+    private static final int DATA_STRING = 4;
+    private static final int DATA_INT = 5;
+    private static final int DATA_STROKE = 6;
+    private static final int DATA_BOARD_OPS = 7;
+    private static final int DATA_SYNC_REQUEST = 8;
+    private static final int DATA_SYNC_CHUNK = 9;
+
+    // Bit flags cho các field có thể null của Shape
+    private static final int F_COLOR = 1;
+    private static final int F_TEXT = 1 << 1;
+    private static final int F_POINTS = 1 << 2;
+    private static final int F_POLY = 1 << 3;
+    private static final int F_FILL = 1 << 4;
+    private static final int F_GRADIENT = 1 << 5;
+    private static final int F_GRADIENT_TO = 1 << 6;
+    private static final int F_PEER = 1 << 7;
+    private static final int F_FONT = 1 << 8;
+
+    private static final NetworkProtocol.MessageType[] MESSAGE_TYPES = NetworkProtocol.MessageType.values();
+    private static final Shape.ShapeType[] SHAPE_TYPES = Shape.ShapeType.values();
+    private static final NetworkProtocol.BoardOp.Kind[] OP_KINDS = NetworkProtocol.BoardOp.Kind.values();
+    private static final NetworkProtocol.Topology[] TOPOLOGIES = NetworkProtocol.Topology.values();
+
+    private WireCodec() {
+    }
+
+    /**
+     * Trả về null nếu data có kiểu codec không hỗ trợ (caller không gửi được message đó).
+     */
+    public static byte[] encode(NetworkProtocol.Message message) {
+        Out out = new Out(128);
+        out.u8(VERSION);
+        out.varint(message.type.ordinal());
+        out.str(message.senderId);
+        out.varlong(message.timestamp);
+        out.i64(message.id);
+        out.u8(message.ttl);
+        writeTrace(out, message.trace);
+        if (!writeData(out, message.data)) {
+            return null;
+        }
+        return out.toByteArray();
+    }
+
+    public static NetworkProtocol.Message decode(byte[] bytes) throws IOException {
+        In in = new In(bytes);
+        int version = in.u8();
+        if (version != VERSION) {
+            throw new IOException("Unsupported wire codec version " + version);
+        }
+        int typeOrdinal = in.varint();
+        if (typeOrdinal < 0 || typeOrdinal >= MESSAGE_TYPES.length) {
+            throw new IOException("Unknown message type " + typeOrdinal);
+        }
+        String senderId = in.str();
+        long timestamp = in.varlong();
+        long id = in.i64();
+        int ttl = in.u8();
+        NetworkProtocol.Trace trace = readTrace(in);
+        Object data = readData(in);
+        NetworkProtocol.Message message = new NetworkProtocol.Message(MESSAGE_TYPES[typeOrdinal], senderId,
+                timestamp, id, data);
+        message.ttl = ttl;
+        message.trace = trace;
+        return message;
+    }
+
+    private static void writeTrace(Out out, NetworkProtocol.Trace trace) {
+        if (trace == null) {
+            out.u8(0);
+            return;
+        }
+        out.u8(1);
+        out.i64(trace.traceId);
+        out.varlong(trace.originMillis);
+        out.varint(trace.enqueueMicros);
+        out.varint(trace.writeMicros);
+    }
+
+    private static NetworkProtocol.Trace readTrace(In in) throws IOException {
+        if (in.u8() == 0) {
+            return null;
+        }
+        NetworkProtocol.Trace trace = new NetworkProtocol.Trace(in.i64(), in.varlong(), 0);
+        trace.enqueueMicros = in.varint();
+        trace.writeMicros = in.varint();
+        return trace;
+    }
+
+    private static boolean writeData(Out out, Object data) {
+        if (data == null) {
+            out.u8(DATA_NULL);
+        } else if (data instanceof NetworkProtocol.ShapeData shapeData) {
+            out.u8(DATA_SHAPES);
+            out.varlong(shapeData.version);
+            List<Shape> shapes = shapeData.shapes;
+            out.varint(shapes == null ? 0 : shapes.size());
+            if (shapes != null) {
+                for (Shape shape : shapes) {
+                    writeShape(out, shape);
+                }
+            }
+        } else if (data instanceof NetworkProtocol.ChatMessage chat) {
+            out.u8(DATA_CHAT);
+            out.str(chat.senderId);
+            out.str(chat.senderName);
+            out.str(chat.text);
+            out.varlong(chat.timestamp);
+        } else if (data instanceof List<?> list && isPeerList(list)) {
+            out.u8(DATA_PEER_LIST);
+            out.varint(list.size());
+            for (Object o : list) {
+                writePeerInfo(out, (NetworkProtocol.PeerInfo) o);
+            }
+        } else if (data instanceof NetworkProtocol.StrokeData stroke) {
+            out.u8(DATA_STROKE);
+            out.str(stroke.peerId);
+            out.i64(stroke.strokeId);
+            out.varint(stroke.baseIndex);
+            out.packedInts(stroke.deltas == null ? new int[0] : stroke.deltas);
+            out.u8(stroke.shape != null ? 1 : 0);
+            if (stroke.shape != null) {
+                writeShape(out, stroke.shape);
+            }
+        } else if (data instanceof NetworkProtocol.BoardOpData opData) {
+            out.u8(DATA_BOARD_OPS);
+            List<NetworkProtocol.BoardOp> ops = opData.ops;
+            out.varint(ops == null ? 0 : ops.size());
+            if (ops != null) {
+                for (NetworkProtocol.BoardOp op : ops) {
+                    writeBoardOp(out, op);
+                }
+            }
+        } else if (data instanceof NetworkProtocol.SyncRequest request) {
+            out.u8(DATA_SYNC_REQUEST);
+            writeVector(out, request.versionVector);
+        } else if (data instanceof NetworkProtocol.SyncChunk chunk) {
+            out.u8(DATA_SYNC_CHUNK);
+            out.varint(chunk.index);
+            out.u8(chunk.last ? 1 : 0);
+            out.varint(chunk.done);
+            out.varint(chunk.total);
+            out.varint(chunk.ops == null ? 0 : chunk.ops.size());
+            if (chunk.ops != null) {
+                for (NetworkProtocol.BoardOp op : chunk.ops) {
+                    writeBoardOp(out, op);
+                }
+            }
+            if (chunk.last) {
+                out.u8(chunk.versionVector != null ? 1 : 0);
+                if (chunk.versionVector != null) {
+                    writeVector(out, chunk.versionVector);
+                }
+            }
+        } else if (data instanceof String s) {
+            out.u8(DATA_STRING);
+            out.str(s);
+        } else if (data instanceof Integer i) {
+            out.u8(DATA_INT);
+            out.zigzag(i);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static Object readData(In in) throws IOException {
+        int tag = in.u8();
+        switch (tag) {
+            case DATA_NULL:
+                return null;
+            case DATA_SHAPES: {
+                long shapesVersion = in.varlong();
+                int count = in.count(1);
+                List<Shape> shapes = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    shapes.add(readShape(in));
+                }
+                return new NetworkProtocol.ShapeData(shapes, shapesVersion);
+            }
+            case DATA_CHAT: {
+                NetworkProtocol.ChatMessage chat = new NetworkProtocol.ChatMessage(in.str(), in.str(), in.str());
+                chat.timestamp = in.varlong();
+                return chat;
+            }
+            case DATA_PEER_LIST: {
+                int count = in.count(1);
+                List<NetworkProtocol.PeerInfo> peers = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    peers.add(readPeerInfo(in));
+                }
+                return peers;
+            }
+            case DATA_STROKE: {
+                String peerId = in.str();
+                long strokeId = in.i64();
+                int baseIndex = in.varint();
+                int[] deltas = in.packedInts();
+                Shape shape = in.u8() != 0 ? readShape(in) : null;
+                return new NetworkProtocol.StrokeData(peerId, strokeId, baseIndex, deltas, shape);
+            }
+            case DATA_BOARD_OPS: {
+                int count = in.count(1);
+                List<NetworkProtocol.BoardOp> ops = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    ops.add(readBoardOp(in));
+                }
+                return new NetworkProtocol.BoardOpData(ops);
+            }
+            case DATA_SYNC_REQUEST: {
+                return new NetworkProtocol.SyncRequest(readVector(in));
+            }
+            case DATA_SYNC_CHUNK: {
+                int index = in.varint();
+                boolean last = in.u8() != 0;
+                int done = in.varint();
+                int total = in.varint();
+                int count = in.count(1);
+                List<NetworkProtocol.BoardOp> ops = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    ops.add(readBoardOp(in));
+                }
+                NetworkProtocol.SyncChunk chunk = new NetworkProtocol.SyncChunk(ops, index, last, done, total);
+                if (last && in.u8() != 0) {
+                    chunk.versionVector = readVector(in);
+                }
+                return chunk;
+            }
+            case DATA_STRING:
+                return in.str();
+            case DATA_INT:
+                return (int) in.zigzag();
+            default:
+                throw new IOException("Unknown data tag " + tag);
+        }
+    }
+
+    private static boolean isPeerList(List<?> list) {
+        for (Object o : list) {
+            if (!(o instanceof NetworkProtocol.PeerInfo)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeVector(Out out, Map<String, Long> vector) {
+        if (vector == null) {
+            vector = Map.of();
+        }
+        out.varint(vector.size());
+        for (Map.Entry<String, Long> entry : vector.entrySet()) {
+            out.str(entry.getKey());
+            out.varlong(entry.getValue());
+        }
+    }
+
+    private static Map<String, Long> readVector(In in) throws IOException {
+        int count = in.count(2);
+        Map<String, Long> vector = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            vector.put(in.str(), in.varlong());
+        }
+        return vector;
+    }
+
+    private static void writeBoardOp(Out out, NetworkProtocol.BoardOp op) {
+        out.u8(op.kind.ordinal());
+        // peerId của shape đã nằm trong shape (ADD/UPDATE), CLEAR không có shape
+        if (op.kind != NetworkProtocol.BoardOp.Kind.CLEAR) {
+            out.i64(op.shapeId);
+        }
+        out.varint(op.properties);
+        out.i64(op.stamp);
+        out.str(op.origin);
+        // prev < stamp nên khoảng cách luôn > 0; 0 = op không nằm trong chuỗi của origin
+        out.varlong(op.prev < 0 ? 0 : op.stamp - op.prev);
+        out.u8(op.shape != null ? 1 : 0);
+        if (op.shape != null) {
+            writeShape(out, op.shape);
+        }
+    }
+
+    private static NetworkProtocol.BoardOp readBoardOp(In in) throws IOException {
+        int kind = in.u8();
+        if (kind >= OP_KINDS.length) {
+            throw new IOException("Unknown board op " + kind);
+        }
+        NetworkProtocol.BoardOp.Kind opKind = OP_KINDS[kind];
+        long shapeId = opKind == NetworkProtocol.BoardOp.Kind.CLEAR ? 0 : in.i64();
+        int properties = in.varint();
+        long stamp = in.i64();
+        String origin = in.str();
+        long gap = in.varlong();
+        long prev = gap == 0 ? -1 : stamp - gap;
+        Shape shape = in.u8() != 0 ? readShape(in) : null;
+        String shapePeerId = shape != null ? shape.peerId : null;
+        return new NetworkProtocol.BoardOp(opKind, shapePeerId, shapeId, properties, shape, stamp, origin, prev);
+    }
+
+    static void writeShape(Out out, Shape s) {
+        boolean hasPoly = s.polyX != null && s.polyY != null;
+        int flags = 0;
+        if (s.color != null) flags |= F_COLOR;
+        if (s.text != null) flags |= F_TEXT;
+        if (s.freeDrawPoints != null) flags |= F_POINTS;
+        if (hasPoly) flags |= F_POLY;
+        if (s.fillColor != null) flags |= F_FILL;
+        if (s.useGradient) flags |= F_GRADIENT;
+        if (s.gradientTo != null) flags |= F_GRADIENT_TO;
+        if (s.peerId != null) flags |= F_PEER;
+        if (s.fontName != null) flags |= F_FONT;
+
+        out.varint(flags);
+        out.varint(s.type.ordinal());
+        out.zigzag(s.x1);
+        out.zigzag(s.y1);
+        out.zigzag(s.x2);
+        out.zigzag(s.y2);
+        out.zigzag(s.strokeWidth);
+        out.varlong(s.timestamp);
+        if (s.color != null) out.i32(s.color.getRGB());
+        if (s.text != null) out.str(s.text);
+        if (s.freeDrawPoints != null) {
+            PointBuffer points = s.freeDrawPoints;
+            int n = points.size();
+            out.varint(n);
+            int px = 0, py = 0;
+            for (int i = 0; i < n; i++) {
+                int x = points.getX(i);
+                int y = points.getY(i);
+                out.zigzag(x - px);
+                out.zigzag(y - py);
+                px = x;
+                py = y;
+            }
+        }
+        if (hasPoly) {
+            out.packedInts(s.polyX);
+            out.packedInts(s.polyY);
+        }
+        out.zigzag(s.polySides);
+        out.i32(Float.floatToIntBits(s.rotation));
+        if (s.fillColor != null) out.i32(s.fillColor.getRGB());
+        if (s.gradientTo != null) out.i32(s.gradientTo.getRGB());
+        if (s.peerId != null) out.str(s.peerId);
+        if (s.fontName != null) out.str(s.fontName);
+        out.zigzag(s.fontSize);
+        out.zigzag(s.fontStyle);
+        out.zigzag(s.textAlign);
+        out.i64(s.id);
+    }
+
+    static Shape readShape(In in) throws IOException {
+        int flags = in.varint();
+        int typeOrdinal = in.varint();
+        if (typeOrdinal < 0 || typeOrdinal >= SHAPE_TYPES.length) {
+            throw new IOException("Unknown shape type " + typeOrdinal);
+        }
+        Shape s = new Shape();
+        s.type = SHAPE_TYPES[typeOrdinal];
+        s.x1 = (int) in.zigzag();
+        s.y1 = (int) in.zigzag();
+        s.x2 = (int) in.zigzag();
+        s.y2 = (int) in.zigzag();
+        s.strokeWidth = (int) in.zigzag();
+        s.timestamp = in.varlong();
+        s.color = (flags & F_COLOR) != 0 ? new Color(in.i32(), true) : null;
+        s.text = (flags & F_TEXT) != 0 ? in.str() : null;
+        if ((flags & F_POINTS) != 0) {
+            int n = in.count(2);
+            PointBuffer points = new PointBuffer(n);
+            int px = 0, py = 0;
+            for (int i = 0; i < n; i++) {
+                px += (int) in.zigzag();
+                py += (int) in.zigzag();
+                points.add(px, py);
+            }
+            s.freeDrawPoints = points;
+        } else {
+            s.freeDrawPoints = null;
+        }
+        if ((flags & F_POLY) != 0) {
+            s.polyX = in.packedInts();
+            s.polyY = in.packedInts();
+        }
+        s.polySides = (int) in.zigzag();
+        s.rotation = Float.intBitsToFloat(in.i32());
+        s.fillColor = (flags & F_FILL) != 0 ? new Color(in.i32(), true) : null;
+        s.useGradient = (flags & F_GRADIENT) != 0;
+        s.gradientTo = (flags & F_GRADIENT_TO) != 0 ? new Color(in.i32(), true) : null;
+        s.peerId = (flags & F_PEER) != 0 ? in.str() : null;
+        s.fontName = (flags & F_FONT) != 0 ? in.str() : null;
+        s.fontSize = (int) in.zigzag();
+        s.fontStyle = (int) in.zigzag();
+        s.textAlign = (int) in.zigzag();
+        s.id = in.i64();
+        return s;
+    }
+
+    private static void writePeerInfo(Out out, NetworkProtocol.PeerInfo info) {
+        out.str(info.peerId);
+        out.str(info.name);
+        out.str(info.ipAddress);
+        out.str(info.roomId);
+        out.str(info.roomPassword);
+        out.varlong(info.lastSeen);
+        out.u8(info.isActive ? 1 : 0);
+        out.varint(info.port);
+        // 0 = không có topology (peer cũ)
+        out.u8(info.topology == null ? 0 : info.topology.ordinal() + 1);
+        out.u8(info.isHost ? 1 : 0);
+    }
+
+    private static NetworkProtocol.PeerInfo readPeerInfo(In in) throws IOException {
+        String peerId = in.str();
+        String name = in.str();
+        String ipAddress = in.str();
+        String roomId = in.str();
+        NetworkProtocol.PeerInfo info = new NetworkProtocol.PeerInfo(peerId, name, ipAddress, roomId, 0);
+        info.roomPassword = in.str();
+        info.lastSeen = in.varlong();
+        info.isActive = in.u8() != 0;
+        info.port = in.varint();
+        int topology = in.u8();
+        if (topology > TOPOLOGIES.length) {
+            throw new IOException("Unknown topology " + topology);
+        }
+        info.topology = topology == 0 ? null : TOPOLOGIES[topology - 1];
+        info.isHost = in.u8() != 0;
+        return info;
+    }
+
+    /**
+     * Buffer ghi có thể tự mở rộng.
+     */
+    static final class Out {
+        private byte[] buf;
+        private int pos;
+
+        Out(int initialCapacity) {
+            buf = new byte[Math.max(16, initialCapacity)];
+        }
+
+        private void ensure(int extra) {
+            if (pos + extra > buf.length) {
+                byte[] grown = new byte[Math.max(buf.length * 2, pos + extra)];
+                System.arraycopy(buf, 0, grown, 0, pos);
+                buf = grown;
+            }
+        }
+
+        void u8(int v) {
+            ensure(1);
+            buf[pos++] = (byte) v;
+        }
+
+        void i32(int v) {
+            ensure(4);
+            buf[pos++] = (byte) (v >>> 24);
+            buf[pos++] = (byte) (v >>> 16);
+            buf[pos++] = (byte) (v >>> 8);
+            buf[pos++] = (byte) v;
+        }
+
+        void i64(long v) {
+            i32((int) (v >>> 32));
+            i32((int) v);
+        }
+
+        void varint(int v) {
+            varlong(v & 0xFFFFFFFFL);
+        }
+
+        void varlong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        void zigzag(long v) {
+            varlong((v << 1) ^ (v >> 63));
+        }
+
+        void str(String s) {
+            if (s == null) {
+                varint(0);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            // length + 1 để phân biệt null (0) với chuỗi rỗng (1)
+            varint(bytes.length + 1);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        void packedInts(int[] values) {
+            varint(values.length);
+            int prev = 0;
+            for (int v : values) {
+                zigzag(v - prev);
+                prev = v;
+            }
+        }
+
+        byte[] toByteArray() {
+            byte[] result = new byte[pos];
+            System.arraycopy(buf, 0, result, 0, pos);
+            return result;
+        }
+    }
+
+    /**
+     * Buffer đọc trên mảng byte, ném IOException nếu dữ liệu bị cắt cụt.
+     */
+    static final class In {
+        private final byte[] buf;
+        private int pos;
+
+        In(byte[] buf) {
+            this.buf = buf;
+        }
+
+        private void require(int n) throws IOException {
+            if (pos + n > buf.length) {
+                throw new IOException("Truncated wire message");
+            }
+        }
+
+        int u8() throws IOException {
+            require(1);
+            return buf[pos++] & 0xFF;
+        }
+
+        int i32() throws IOException {
+            require(4);
+            int v = ((buf[pos] & 0xFF) << 24) | ((buf[pos + 1] & 0xFF) << 16)
+                    | ((buf[pos + 2] & 0xFF) << 8) | (buf[pos + 3] & 0xFF);
+            pos += 4;
+            return v;
+        }
+
+        long i64() throws IOException {
+            long high = i32();
+            return (high << 32) | (i32() & 0xFFFFFFFFL);
+        }
+
+        int varint() throws IOException {
+            return (int) varlong();
+        }
+
+        long varlong() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = u8();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        long zigzag() throws IOException {
+            long v = varlong();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        String str() throws IOException {
+            int len = varint();
+            if (len == 0) {
+                return null;
+            }
+            len--;
+            if (len < 0) {
+                throw new IOException("Malformed string length");
+            }
+            require(len);
+            String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+
+        /**
+         * Đọc số phần tử và kiểm tra đủ byte còn lại, tránh cấp phát mảng khổng lồ
+         * khi nhận dữ liệu hỏng.
+         */
+        int count(int minBytesEach) throws IOException {
+            int n = varint();
+            if (n < 0 || (long) n * minBytesEach > buf.length - pos) {
+                throw new IOException("Malformed element count " + n);
+            }
+            return n;
+        }
+
+        int[] packedInts() throws IOException {
+            int n = count(1);
+            int[] values = new int[n];
+            int prev = 0;
+            for (int i = 0; i < n; i++) {
+                prev += (int) zigzag();
+                values[i] = prev;
+            }
+            return values;
+        }
+    }
+}
@@ -1,55 +1,31 @@
 package com.whiteboard.sync;
 
-import com.whiteboard.drawing.Shape;
-import java.util.*;
-
-public class ConflictResolver {
-
-    public enum ResolutionStrategy {
-        TIMESTAMP_BASED,
-        PEER_ID_BASED,
-        MERGE
-    }
-
-    private ResolutionStrategy strategy;
-
-    public ConflictResolver(ResolutionStrategy strategy) {
-        this.strategy = strategy;
+/**
+ * Thứ tự toàn phần cho các stamp last-writer-wins của StateManager: so stamp HLC trước,
+ * bằng nhau thì so peerId. Mọi peer dùng cùng thứ tự nên cùng chọn một bên thắng,
+ * kể cả khi hai peer thao tác trong cùng một mili giây.
+ */
+public final class ConflictResolver {
+
+    private ConflictResolver() {
     }
 
-    public List<Shape> resolveConflict(List<Shape> localShapes, List<Shape> remoteShapes) {
-        Map<Long, Shape> resolved = new HashMap<>();
-
-        // Add all local shapes
-        for (Shape shape : localShapes) {
-            resolved.put(shape.getTimestamp(), shape);
+    public static int compare(long stamp, String origin, long otherStamp, String otherOrigin) {
+        int result = Long.compare(stamp, otherStamp);
+        if (result != 0) {
+            return result;
         }
-
-        // Resolve conflicts with remote shapes
-        for (Shape remoteShape : remoteShapes) {
-            Long timestamp = remoteShape.getTimestamp();
-
-            if (!resolved.containsKey(timestamp)) {
-                resolved.put(timestamp, remoteShape);
-            } else {
-                Shape localShape = resolved.get(timestamp);
-                Shape winner = resolveShapeConflict(localShape, remoteShape);
-                resolved.put(timestamp, winner);
-            }
-        }
-
-        return new ArrayList<>(resolved.values());
+        return nullToEmpty(origin).compareTo(nullToEmpty(otherOrigin));
     }
 
-    private Shape resolveShapeConflict(Shape local, Shape remote) {
-        return switch (strategy) {
-            case TIMESTAMP_BASED -> local.getTimestamp() <= remote.getTimestamp() ? local : remote;
-            case PEER_ID_BASED -> local.getPeerId().compareTo(remote.getPeerId()) <= 0 ? local : remote;
-            case MERGE -> local; // Default: keep local
-        };
+    /**
+     * (stamp, origin) có mới hơn (otherStamp, otherOrigin) không.
+     */
+    public static boolean wins(long stamp, String origin, long otherStamp, String otherOrigin) {
+        return compare(stamp, origin, otherStamp, otherOrigin) > 0;
     }
 
-    public void setStrategy(ResolutionStrategy strategy) {
-        this.strategy = strategy;
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
     }
 }
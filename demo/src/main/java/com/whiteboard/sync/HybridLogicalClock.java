@@ -0,0 +1,86 @@
+package com.whiteboard.sync;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hybrid logical clock (HLC): stamp = [48 bit thời gian ms][16 bit logical]. Stamp cấp ra
+ * luôn tăng và lớn hơn mọi stamp đã observe (dùng được như Lamport stamp), nhưng bám theo
+ * đồng hồ thật nên thứ tự giữa các peer gần đúng thứ tự thời gian, kể cả khi đồng hồ máy
+ * lệch nhau hoặc bị chỉnh lùi.
+ *
+ * Clock cũng cấp id gọn 64 bit cho message và shape: [32 bit tag của peerId][32 bit counter].
+ * Counter dùng chung cho mọi id cấp trong process (peerId sinh mới mỗi lần chạy) nên hai id
+ * cùng peer không bao giờ trùng; tag là hash của peerId, hai peer trùng tag là cực hiếm.
+ */
+public class HybridLogicalClock {
+    private static final int LOGICAL_BITS = 16;
+    private static final long COUNTER_MASK = 0xFFFFFFFFL;
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final int peerTag;
+    private long last;
+
+    public HybridLogicalClock(String peerId) {
+        this.peerTag = peerTag(peerId);
+    }
+
+    /**
+     * Stamp mới cho một thao tác local.
+     */
+    public synchronized long now() {
+        long physical = System.currentTimeMillis() << LOGICAL_BITS;
+        last = physical > last ? physical : last + 1;
+        return last;
+    }
+
+    /**
+     * Stamp nhận từ peer khác: stamp local kế tiếp sẽ lớn hơn nó.
+     */
+    public synchronized void observe(long stamp) {
+        if (stamp > last) {
+            last = stamp;
+        }
+    }
+
+    public synchronized long current() {
+        return last;
+    }
+
+    /**
+     * Id mới của peer sở hữu clock này.
+     */
+    public long nextId() {
+        return id(peerTag, SEQUENCE.incrementAndGet());
+    }
+
+    public static long nextId(String peerId) {
+        return id(peerTag(peerId), SEQUENCE.incrementAndGet());
+    }
+
+    /**
+     * Id của (peerId, counter). Chỉ 32 bit thấp của counter được giữ; shape từ peer cũ (không
+     * có id) đổi được sang id theo cách này với counter là timestamp ms của shape.
+     */
+    public static long id(String peerId, long counter) {
+        return id(peerTag(peerId), counter);
+    }
+
+    public static long id(int peerTag, long counter) {
+        return ((long) peerTag << 32) | (counter & COUNTER_MASK);
+    }
+
+    /**
+     * FNV-1a 32 bit của peerId; null và "" có tag 0.
+     */
+    public static int peerTag(String peerId) {
+        if (peerId == null || peerId.isEmpty()) {
+            return 0;
+        }
+        int hash = 0x811C9DC5;
+        for (int i = 0; i < peerId.length(); i++) {
+            hash ^= peerId.charAt(i);
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+}
@@ -1,52 +1,527 @@
 package com.whiteboard.sync;
 
 import com.whiteboard.drawing.Shape;
+import com.whiteboard.network.NetworkProtocol.BoardOp;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Trạng thái bảng dạng CRDT dựa trên thao tác (op-based): LWW-element map theo Shape.id
+ * (id 64 bit (peer, counter) của {@link HybridLogicalClock}), mỗi nhóm thuộc tính là một thanh ghi last-writer-wins
+ * riêng, xoá để lại tombstone vĩnh viễn (remove-wins, shape đã xoá không sống lại).
+ *
+ * Mọi op được stamp bằng (HLC, peerId) và so thứ tự bằng {@link ConflictResolver},
+ * nên hai replica nhận cùng tập op theo bất kỳ thứ tự nào (kể cả trùng lặp) đều hội tụ
+ * về cùng trạng thái. UPDATE/DELETE tới trước ADD vẫn được giữ lại và áp dụng khi ADD tới.
+ *
+ * Version vector dùng cho anti-entropy khi kết nối: {@link #deltaSince(Map)} dựng lại từ các
+ * thanh ghi hiện tại những op mà bên kia chưa thấy, nên không cần giữ log op. Vector chỉ tính phần
+ * liên tục của từng origin (mỗi op mang stamp của op trước nó, {@link BoardOp#prev}): op tới lệch
+ * thứ tự không đẩy vector qua chỗ còn thiếu, nên lần sync sau vẫn nhận được op bị thiếu.
+ */
 public class StateManager {
-    private final Map<Long, Shape> shapeStates;
-    private long versionNumber;
-    private final Object lock = new Object();
 
-    public StateManager() {
-        this.shapeStates = new ConcurrentHashMap<>();
-        this.versionNumber = 0;
+    /**
+     * Các nhóm thuộc tính sửa độc lập: hai peer sửa hai nhóm khác nhau thì cả hai thay đổi đều giữ.
+     */
+    public enum Property {
+        GEOMETRY, // type, toạ độ, điểm, polygon, góc xoay
+        STYLE, // màu, độ dày nét, fill, gradient
+        TEXT; // nội dung và font
+
+        public int mask() {
+            return 1 << ordinal();
+        }
+    }
+
+    public static final int ALL_PROPERTIES = (1 << Property.values().length) - 1;
+
+    private static final Property[] PROPERTIES = Property.values();
+
+    /**
+     * Thay đổi cần áp dụng lên canvas sau một hoặc nhiều op. Các shape là bản clone.
+     * updated mang shape hoàn chỉnh (mọi thuộc tính) sau khi gộp.
+     */
+    public static class Effect {
+        public final List<Shape> added = new ArrayList<>();
+        public final List<Shape> updated = new ArrayList<>();
+        public final List<Shape> removed = new ArrayList<>();
+
+        public boolean isEmpty() {
+            return added.isEmpty() && updated.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    private static final class Element {
+        // peerId của shape; null nếu chỉ mới nhận DELETE (codec mới không gửi kèm peerId)
+        String peerId;
+        // null khi chưa nhận ADD hoặc đã xoá
+        Shape shape;
+        boolean added;
+        long addStamp;
+        String addOrigin;
+        final long[] propStamps = new long[PROPERTIES.length];
+        final String[] propOrigins = new String[PROPERTIES.length];
+        // Giá trị thắng của từng nhóm (giữ lại khi UPDATE tới trước ADD)
+        final Shape[] propValues = new Shape[PROPERTIES.length];
+        boolean deleted;
+        long deleteStamp;
+        String deleteOrigin;
+    }
+
+    private final String localPeerId;
+    private final HybridLogicalClock clock;
+    // LinkedHashMap để getAllShapes giữ thứ tự nhận (gần đúng thứ tự vẽ)
+    private final Map<Long, Element> elements = new LinkedHashMap<>();
+    private long clearStamp;
+    private String clearOrigin;
+    // Version vector theo từng origin
+    private final Map<String, OriginProgress> seen = new HashMap<>();
+    // Op chuyển từ message của peer cũ được stamp bằng đồng hồ local nên mang origin riêng của
+    // peer này, không mượn senderId (stamp đó không thuộc chuỗi op của peer gửi)
+    private final String legacyOrigin;
+    private long lastLocalStamp;
+    private long lastLegacyStamp;
+
+    /**
+     * Tiến độ nhận op của một origin: mọi op có stamp <= contiguous đã được áp dụng.
+     * Op tới trước op đứng ngay trước nó được giữ trong ahead (prev -> stamp) tới khi chỗ trống được lấp.
+     */
+    private static final class OriginProgress {
+        long contiguous;
+        final TreeMap<Long, Long> ahead = new TreeMap<>();
+
+        void advance() {
+            while (!ahead.isEmpty() && ahead.firstKey() <= contiguous) {
+                contiguous = Math.max(contiguous, ahead.pollFirstEntry().getValue());
+            }
+        }
+    }
+
+    public StateManager(String localPeerId) {
+        this.localPeerId = localPeerId;
+        this.clock = new HybridLogicalClock(localPeerId);
+        this.legacyOrigin = localPeerId + "/legacy";
+    }
+
+    /**
+     * Id mới cho shape vừa tạo local (dùng làm Shape.id).
+     */
+    public long nextShapeId() {
+        return clock.nextId();
+    }
+
+    // ===== Thao tác local: cập nhật trạng thái và trả về op để broadcast =====
+
+    /**
+     * Shape chưa có id (vừa vẽ, hoặc đọc từ file) được gán id mới tại đây.
+     */
+    public synchronized BoardOp localAdd(Shape shape) {
+        long stamp = clock.now();
+        if (shape.id == 0) {
+            shape.id = clock.nextId();
+        }
+        return applyLocal(BoardOp.Kind.ADD, shape.peerId, shape.id, ALL_PROPERTIES, shape.clone(), stamp);
+    }
+
+    public synchronized BoardOp localUpdate(Shape shape, int properties) {
+        return applyLocal(BoardOp.Kind.UPDATE, shape.peerId, shape.id, properties, shape.clone(), clock.now());
+    }
+
+    public synchronized BoardOp localDelete(Shape shape) {
+        return applyLocal(BoardOp.Kind.DELETE, shape.peerId, shape.id, 0, null, clock.now());
+    }
+
+    public synchronized BoardOp localClear() {
+        return applyLocal(BoardOp.Kind.CLEAR, null, 0, 0, null, clock.now());
+    }
+
+    private BoardOp applyLocal(BoardOp.Kind kind, String shapePeerId, long shapeId, int properties,
+            Shape shape, long stamp) {
+        BoardOp op = new BoardOp(kind, shapePeerId, shapeId, properties, shape, stamp, localPeerId, lastLocalStamp);
+        lastLocalStamp = stamp;
+        apply(op, new Effect());
+        return op;
+    }
+
+    // ===== Op nhận từ peer =====
+
+    public synchronized Effect apply(List<BoardOp> ops) {
+        Effect effect = new Effect();
+        for (BoardOp op : ops) {
+            if (op != null && op.kind != null) {
+                apply(op, effect);
+            }
+        }
+        return effect;
+    }
+
+    /**
+     * Shape từ peer cũ (SHAPES, không có op): chưa có thì coi như ADD, đã có thì
+     * coi như UPDATE mọi thuộc tính. Stamp lấy từ đồng hồ local vì peer cũ không gửi stamp,
+     * nên op mang origin legacy của peer này.
+     */
+    public synchronized Effect applyLegacyShapes(List<Shape> shapes, String senderId) {
+        Effect effect = new Effect();
+        for (Shape shape : shapes) {
+            if (shape == null) {
+                continue;
+            }
+            if (shape.id == 0) {
+                // peer cũ không có id: (peerId, timestamp) là id ổn định duy nhất của shape
+                shape.id = HybridLogicalClock.id(shape.peerId, shape.timestamp);
+            }
+            Element element = elements.get(shape.id);
+            BoardOp.Kind kind = element != null && element.added ? BoardOp.Kind.UPDATE : BoardOp.Kind.ADD;
+            applyLegacy(kind, shape.peerId, shape.id, ALL_PROPERTIES, shape, effect);
+        }
+        return effect;
+    }
+
+    /**
+     * UNDO từ peer cũ: xoá shape còn sống mới nhất của peer đó.
+     */
+    public synchronized Effect applyLegacyUndo(String senderId) {
+        Effect effect = new Effect();
+        Shape latest = null;
+        for (Element element : elements.values()) {
+            if (element.shape != null && Objects.equals(element.shape.peerId, senderId)) {
+                latest = element.shape;
+            }
+        }
+        if (latest != null) {
+            applyLegacy(BoardOp.Kind.DELETE, latest.peerId, latest.id, 0, null, effect);
+        }
+        return effect;
+    }
+
+    public synchronized Effect applyLegacyClear(String senderId) {
+        Effect effect = new Effect();
+        applyLegacy(BoardOp.Kind.CLEAR, null, 0, 0, null, effect);
+        return effect;
+    }
+
+    private void applyLegacy(BoardOp.Kind kind, String shapePeerId, long shapeId, int properties,
+            Shape shape, Effect effect) {
+        long stamp = clock.now();
+        apply(new BoardOp(kind, shapePeerId, shapeId, properties, shape, stamp, legacyOrigin, lastLegacyStamp),
+                effect);
+        lastLegacyStamp = stamp;
+    }
+
+    private void apply(BoardOp op, Effect effect) {
+        clock.observe(op.stamp);
+        record(op);
+        switch (op.kind) {
+            case ADD -> applyAdd(op, effect);
+            case UPDATE -> applyUpdate(op, effect);
+            case DELETE -> applyDelete(op, effect);
+            case CLEAR -> applyClear(op, effect);
+        }
+    }
+
+    /**
+     * Đẩy phần liên tục của origin nếu op nối tiếp được; op không nằm trong chuỗi (prev < 0)
+     * không làm thay đổi version vector.
+     */
+    private void record(BoardOp op) {
+        if (op.origin == null) {
+            return;
+        }
+        OriginProgress progress = seen.computeIfAbsent(op.origin, origin -> new OriginProgress());
+        if (op.prev < 0 || op.stamp <= progress.contiguous) {
+            return;
+        }
+        if (op.prev <= progress.contiguous) {
+            progress.contiguous = op.stamp;
+            progress.advance();
+        } else {
+            progress.ahead.put(op.prev, op.stamp);
+        }
     }
 
-    public synchronized void addOrUpdateShape(Shape shape) {
-        shapeStates.put(shape.getTimestamp(), shape);
-        versionNumber++;
+    /**
+     * Đã nhận và áp dụng đủ delta mà một peer lập lúc version vector của peer đó là versionVector:
+     * trạng thái local giờ bao phủ mọi op mà vector đó bao phủ.
+     */
+    public synchronized void markSynced(Map<String, Long> versionVector) {
+        for (Map.Entry<String, Long> entry : versionVector.entrySet()) {
+            OriginProgress progress = seen.computeIfAbsent(entry.getKey(), origin -> new OriginProgress());
+            if (entry.getValue() > progress.contiguous) {
+                progress.contiguous = entry.getValue();
+                progress.advance();
+            }
+        }
+    }
+
+    private void applyAdd(BoardOp op, Effect effect) {
+        if (op.shape == null) {
+            return;
+        }
+        Element element = element(op);
+        if (element.added || element.deleted) {
+            return; // ADD trùng lặp, hoặc shape đã bị xoá
+        }
+        element.added = true;
+        element.addStamp = op.stamp;
+        element.addOrigin = op.origin;
+        if (clearCovers(op.stamp, op.origin)) {
+            markDeleted(element, clearStamp, clearOrigin);
+            return;
+        }
+        Shape shape = op.shape.clone();
+        if (op.shapePeerId != null) {
+            shape.peerId = op.shapePeerId;
+        }
+        shape.id = op.shapeId;
+        if (element.peerId == null) {
+            element.peerId = shape.peerId;
+        }
+        for (Property property : PROPERTIES) {
+            int i = property.ordinal();
+            if (element.propValues[i] != null
+                    && ConflictResolver.wins(element.propStamps[i], element.propOrigins[i], op.stamp, op.origin)) {
+                copyProperty(element.propValues[i], shape, property);
+            } else {
+                element.propStamps[i] = op.stamp;
+                element.propOrigins[i] = op.origin;
+            }
+            element.propValues[i] = null; // giá trị đã nằm trong shape
+        }
+        element.shape = shape;
+        effect.added.add(shape.clone());
+    }
+
+    private void applyUpdate(BoardOp op, Effect effect) {
+        if (op.shape == null) {
+            return;
+        }
+        Element element = element(op);
+        if (element.deleted) {
+            return;
+        }
+        boolean changed = false;
+        for (Property property : PROPERTIES) {
+            int i = property.ordinal();
+            if ((op.properties & property.mask()) == 0) {
+                continue;
+            }
+            boolean hasRegister = element.added || element.propValues[i] != null;
+            if (hasRegister && !ConflictResolver.wins(op.stamp, op.origin,
+                    element.propStamps[i], element.propOrigins[i])) {
+                continue;
+            }
+            element.propStamps[i] = op.stamp;
+            element.propOrigins[i] = op.origin;
+            if (element.shape != null) {
+                copyProperty(op.shape, element.shape, property);
+                changed = true;
+            } else {
+                element.propValues[i] = op.shape.clone();
+            }
+        }
+        if (changed) {
+            element.shape.invalidateBounds();
+            effect.updated.add(element.shape.clone());
+        }
     }
 
-    public synchronized void removeShape(long timestamp) {
-        shapeStates.remove(timestamp);
-        versionNumber++;
+    private void applyDelete(BoardOp op, Effect effect) {
+        Element element = element(op);
+        if (element.deleted) {
+            return;
+        }
+        if (element.shape != null) {
+            effect.removed.add(element.shape);
+        }
+        markDeleted(element, op.stamp, op.origin);
     }
 
-    public synchronized List<Shape> getShapesSince(long version) {
-        return new ArrayList<>(shapeStates.values());
+    private void applyClear(BoardOp op, Effect effect) {
+        if (!ConflictResolver.wins(op.stamp, op.origin, clearStamp, clearOrigin)) {
+            return; // đã có CLEAR mới hơn, CLEAR này không xoá thêm được gì
+        }
+        clearStamp = op.stamp;
+        clearOrigin = op.origin;
+        for (Element element : elements.values()) {
+            if (!element.deleted && element.added && clearCovers(element.addStamp, element.addOrigin)) {
+                if (element.shape != null) {
+                    effect.removed.add(element.shape);
+                }
+                markDeleted(element, op.stamp, op.origin);
+            }
+        }
+    }
+
+    /**
+     * ADD có stamp không mới hơn CLEAR mới nhất thì thuộc về phần đã bị clear.
+     */
+    private boolean clearCovers(long stamp, String origin) {
+        return clearOrigin != null && !ConflictResolver.wins(stamp, origin, clearStamp, clearOrigin);
+    }
+
+    private Element element(BoardOp op) {
+        Element element = elements.computeIfAbsent(op.shapeId, id -> new Element());
+        if (element.peerId == null) {
+            element.peerId = op.shapePeerId;
+        }
+        return element;
     }
 
+    private static void markDeleted(Element element, long stamp, String origin) {
+        element.deleted = true;
+        element.deleteStamp = stamp;
+        element.deleteOrigin = origin;
+        element.shape = null;
+        Arrays.fill(element.propValues, null);
+    }
+
+    private static void copyProperty(Shape from, Shape to, Property property) {
+        switch (property) {
+            case GEOMETRY -> {
+                to.type = from.type;
+                to.x1 = from.x1;
+                to.y1 = from.y1;
+                to.x2 = from.x2;
+                to.y2 = from.y2;
+                to.freeDrawPoints = from.freeDrawPoints == null ? null : from.freeDrawPoints.copy();
+                to.polyX = from.polyX == null ? null : from.polyX.clone();
+                to.polyY = from.polyY == null ? null : from.polyY.clone();
+                to.polySides = from.polySides;
+                to.rotation = from.rotation;
+            }
+            case STYLE -> {
+                to.color = from.color;
+                to.strokeWidth = from.strokeWidth;
+                to.fillColor = from.fillColor;
+                to.useGradient = from.useGradient;
+                to.gradientTo = from.gradientTo;
+            }
+            case TEXT -> {
+                to.text = from.text;
+                to.fontName = from.fontName;
+                to.fontSize = from.fontSize;
+                to.fontStyle = from.fontStyle;
+                to.textAlign = from.textAlign;
+            }
+        }
+    }
+
+    // ===== Đọc trạng thái =====
+
+    /**
+     * Các shape còn sống (bản clone), theo thứ tự nhận.
+     */
     public synchronized List<Shape> getAllShapes() {
-        return new ArrayList<>(shapeStates.values());
+        List<Shape> shapes = new ArrayList<>();
+        for (Element element : elements.values()) {
+            if (element.shape != null) {
+                shapes.add(element.shape.clone());
+            }
+        }
+        return shapes;
     }
 
-    public synchronized long getCurrentVersion() {
-        return versionNumber;
+    /**
+     * Toàn bộ trạng thái dưới dạng op (CLEAR, ADD + UPDATE theo từng thanh ghi, DELETE cho
+     * tombstone); áp dụng lên replica bất kỳ cho kết quả như replica này.
+     * Như {@link #deltaSince(Map)}, ADD/UPDATE chưa mang shape.
+     */
+    public List<BoardOp> snapshot() {
+        return deltaSince(Collections.emptyMap());
     }
 
-    public synchronized void clear() {
-        shapeStates.clear();
-        versionNumber = 0;
+    /**
+     * Các op (dựng từ thanh ghi hiện tại) có stamp mới hơn versionVector của bên kia, sắp theo
+     * stamp tăng dần. Op dựng lại không nằm trong chuỗi của origin nên không đẩy version vector
+     * của bên nhận: bên nhận chỉ cập nhật vector bằng {@link #markSynced(Map)} khi đã nhận đủ,
+     * nhận được một phần (kết nối đứt giữa chừng) thì lần sync sau gửi lại phần còn thiếu.
+     *
+     * ADD/UPDATE trả về chưa có shape để không phải clone cả bảng một lúc; gọi
+     * {@link #materialize(BoardOp)} ngay trước khi gửi từng phần. ADD mang giá trị đã gộp,
+     * thanh ghi nào mới hơn ADD được gửi thêm bằng UPDATE riêng.
+     */
+    public synchronized List<BoardOp> deltaSince(Map<String, Long> versionVector) {
+        List<BoardOp> ops = new ArrayList<>();
+        if (clearOrigin != null && isNewer(versionVector, clearStamp, clearOrigin)) {
+            ops.add(new BoardOp(BoardOp.Kind.CLEAR, null, 0, 0, null, clearStamp, clearOrigin));
+        }
+        for (Map.Entry<Long, Element> entry : elements.entrySet()) {
+            long id = entry.getKey();
+            Element element = entry.getValue();
+            if (element.deleted) {
+                if (isNewer(versionVector, element.deleteStamp, element.deleteOrigin)) {
+                    ops.add(new BoardOp(BoardOp.Kind.DELETE, element.peerId, id, 0, null,
+                            element.deleteStamp, element.deleteOrigin));
+                }
+                continue;
+            }
+            if (element.shape == null) {
+                continue; // chỉ có UPDATE chờ ADD: bên có ADD sẽ gửi
+            }
+            if (isNewer(versionVector, element.addStamp, element.addOrigin)) {
+                ops.add(new BoardOp(BoardOp.Kind.ADD, element.peerId, id, ALL_PROPERTIES,
+                        null, element.addStamp, element.addOrigin));
+            }
+            for (Property property : PROPERTIES) {
+                int i = property.ordinal();
+                boolean sameAsAdd = element.propStamps[i] == element.addStamp
+                        && Objects.equals(element.propOrigins[i], element.addOrigin);
+                if (!sameAsAdd && isNewer(versionVector, element.propStamps[i], element.propOrigins[i])) {
+                    ops.add(new BoardOp(BoardOp.Kind.UPDATE, element.peerId, id, property.mask(),
+                            null, element.propStamps[i], element.propOrigins[i]));
+                }
+            }
+        }
+        // CLEAR có thể trùng stamp với op khác: sort ổn định giữ CLEAR trước
+        ops.sort((a, b) -> ConflictResolver.compare(a.stamp, a.origin, b.stamp, b.origin));
+        return ops;
+    }
+
+    /**
+     * Gắn bản clone shape hiện tại vào op ADD/UPDATE lấy từ {@link #deltaSince(Map)}.
+     * Trả về null nếu shape đã bị xoá từ lúc lập danh sách (DELETE đã được broadcast riêng).
+     */
+    public synchronized BoardOp materialize(BoardOp op) {
+        if (op.kind != BoardOp.Kind.ADD && op.kind != BoardOp.Kind.UPDATE) {
+            return op;
+        }
+        Element element = elements.get(op.shapeId);
+        if (element == null || element.shape == null) {
+            return null;
+        }
+        return new BoardOp(op.kind, op.shapePeerId, op.shapeId, op.properties,
+                element.shape.clone(), op.stamp, op.origin);
+    }
+
+    private static boolean isNewer(Map<String, Long> versionVector, long stamp, String origin) {
+        Long known = versionVector.get(origin);
+        return known == null || stamp > known;
     }
 
-    public synchronized void sync(List<Shape> remoteShapes) {
-        for (Shape shape : remoteShapes) {
-            if (!shapeStates.containsKey(shape.getTimestamp())) {
-                shapeStates.put(shape.getTimestamp(), shape);
-                versionNumber++;
+    /**
+     * Version vector hiện tại (bản sao): origin -> stamp mà mọi op cũ hơn của origin đó đã được áp dụng.
+     */
+    public synchronized Map<String, Long> getVersionVector() {
+        Map<String, Long> vector = new HashMap<>();
+        for (Map.Entry<String, OriginProgress> entry : seen.entrySet()) {
+            if (entry.getValue().contiguous > 0) {
+                vector.put(entry.getKey(), entry.getValue().contiguous);
             }
         }
+        return vector;
+    }
+
+    public synchronized int getShapeCount() {
+        int count = 0;
+        for (Element element : elements.values()) {
+            if (element.shape != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public long getCurrentVersion() {
+        return clock.current();
     }
 }
@@ -0,0 +1,144 @@
+package com.whiteboard.ui;
+
+import com.whiteboard.drawing.DrawingCanvas;
+import com.whiteboard.network.LatencyHistogram;
+import com.whiteboard.network.LatencyTracer;
+import com.whiteboard.network.NetworkMetrics;
+
+import javax.swing.*;
+import javax.swing.plaf.LayerUI;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lớp phủ góc trên bên phải vùng canvas, hiện p50/p99 (ms) từng chặng trace độ trễ nét vẽ
+ * theo peer (xem {@link LatencyTracer}), số shape đã vẽ/bị cull ở frame gần nhất của canvas và
+ * tỉ lệ mẫu chuột mà bộ lọc nét bút chì đã bỏ.
+ * Bọc canvas bằng JLayer nên không nhận sự kiện chuột; khi bật thì cập nhật mỗi REFRESH_MS.
+ */
+public class LatencyOverlay extends LayerUI<JComponent> {
+    private static final int REFRESH_MS = 500;
+    private static final int PADDING = 8;
+    private static final LatencyTracer.Stage[] STAGES = LatencyTracer.Stage.values();
+
+    private final Timer refreshTimer;
+    private JLayer<?> layer;
+    private DrawingCanvas canvas;
+    private boolean visible;
+
+    public LatencyOverlay() {
+        refreshTimer = new Timer(REFRESH_MS, e -> {
+            if (layer != null) {
+                layer.repaint();
+            }
+        });
+    }
+
+    @Override
+    public void installUI(JComponent c) {
+        super.installUI(c);
+        layer = (JLayer<?>) c;
+    }
+
+    @Override
+    public void uninstallUI(JComponent c) {
+        refreshTimer.stop();
+        layer = null;
+        super.uninstallUI(c);
+    }
+
+    /**
+     * Canvas để lấy số liệu render của frame gần nhất; null thì không hiện dòng render.
+     */
+    public void setCanvas(DrawingCanvas canvas) {
+        this.canvas = canvas;
+    }
+
+    public boolean isVisible() {
+        return visible;
+    }
+
+    public void setVisible(boolean visible) {
+        this.visible = visible;
+        if (visible) {
+            refreshTimer.start();
+        } else {
+            refreshTimer.stop();
+        }
+        if (layer != null) {
+            layer.repaint();
+        }
+    }
+
+    @Override
+    public void paint(Graphics g, JComponent c) {
+        super.paint(g, c);
+        if (!visible) {
+            return;
+        }
+        List<String> lines = buildLines();
+        Graphics2D g2 = (Graphics2D) g.create();
+        try {
+            g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g2.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+            FontMetrics fm = g2.getFontMetrics();
+            int width = 0;
+            for (String line : lines) {
+                width = Math.max(width, fm.stringWidth(line));
+            }
+            int boxWidth = width + PADDING * 2;
+            int boxHeight = lines.size() * fm.getHeight() + PADDING * 2;
+            int x = c.getWidth() - boxWidth - PADDING;
+            int y = PADDING;
+
+            g2.setColor(new Color(0, 0, 0, 170));
+            g2.fillRoundRect(x, y, boxWidth, boxHeight, 8, 8);
+            g2.setColor(Color.WHITE);
+            int baseline = y + PADDING + fm.getAscent();
+            for (String line : lines) {
+                g2.drawString(line, x + PADDING, baseline);
+                baseline += fm.getHeight();
+            }
+        } finally {
+            g2.dispose();
+        }
+    }
+
+    private List<String> buildLines() {
+        List<String> lines = new ArrayList<>();
+        StringBuilder header = new StringBuilder(String.format("%-14s", "p50/p99 ms"));
+        for (LatencyTracer.Stage stage : STAGES) {
+            header.append(String.format(" %11s", stage.label));
+        }
+        lines.add(header.toString());
+        for (NetworkMetrics.PeerStats stats : NetworkMetrics.get().getPeers()) {
+            if (!stats.hasTraces()) {
+                continue;
+            }
+            String id = stats.getPeerId();
+            StringBuilder line = new StringBuilder(String.format("%-14s",
+                    "Peer-" + (id.length() > 8 ? id.substring(0, 8) : id)));
+            for (LatencyTracer.Stage stage : STAGES) {
+                LatencyHistogram histogram = stats.getStage(stage);
+                line.append(String.format(" %11s", histogram.getCount() == 0 ? "-"
+                        : format(histogram.percentile(50)) + "/" + format(histogram.percentile(99))));
+            }
+            lines.add(line.toString());
+        }
+        if (lines.size() == 1) {
+            lines.add("No traced strokes yet");
+        }
+        if (canvas != null) {
+            lines.add(String.format("%-14s drawn %d, culled %d", "Last frame",
+                    canvas.getLastFrameDrawnShapes(), canvas.getLastFrameCulledShapes()));
+            lines.add(String.format("%-14s %.0f%% samples dropped", "Pencil filter",
+                    canvas.getStrokeReductionRatio() * 100));
+        }
+        return lines;
+    }
+
+    private static String format(long micros) {
+        return micros < 10_000 ? String.format("%.1f", micros / 1000.0) : String.valueOf(micros / 1000);
+    }
+}
@@ -1,7 +1,10 @@
 package com.whiteboard.ui;
 
+import com.whiteboard.Config;
+import com.whiteboard.Log;
 import com.whiteboard.drawing.*;
 import com.whiteboard.network.*;
+import com.whiteboard.sync.StateManager;
 
 import com.formdev.flatlaf.FlatDarkLaf;
 import javax.swing.*;
@@ -26,11 +29,15 @@ import java.util.UUID;
  */
 public class MainFrame extends JFrame {
     private DrawingCanvas canvas;
+    // Gộp shape thêm/sửa/xoá từ peer ngoài EDT, áp dụng lên canvas theo frame
+    private RemoteScene remoteScene;
     private ToolPanel toolPanel;
     private ColorPanel colorPanel;
     private LayerPanel layerPanel;
     private FilePanel filePanel;
     private ZoomPanel zoomPanel;
+    // Bảng p50/p99 độ trễ nét vẽ theo peer và số shape vẽ/cull, phủ lên canvas (View > Latency Overlay)
+    private final LatencyOverlay latencyOverlay = new LatencyOverlay();
     private GridPanel gridPanel;
     private AdvancedToolsPanel advancedToolsPanel;
     private ChatPanel chatPanel;
@@ -39,6 +46,9 @@ public class MainFrame extends JFrame {
     private JLabel peerCountLabel;
     private JLabel roomInfoLabel;
     private JLabel zoomStatusLabel;
+    // Tiến độ nhận trạng thái bảng khi vào phòng; ẩn khi không đồng bộ
+    private JProgressBar syncProgressBar;
+    private final Map<String, int[]> syncProgress = new LinkedHashMap<>();
 
     // Peer management
     private final Map<String, Color> peerColors = new HashMap<>();
@@ -47,6 +57,13 @@ public class MainFrame extends JFrame {
     private final Set<String> connectedPeers = new HashSet<>();
     private String hostPeerId; // ID of the room host (null if no host)
     private boolean isHost = false;
+    // Topology của phòng: người tạo phòng chọn, peer join dùng topology phòng quảng bá
+    private volatile NetworkProtocol.Topology topology = NetworkProtocol.Topology.MESH;
+    // STAR: lý do DISCONNECT khi host rời phòng (client chuyển sang host mới thay vì đóng phòng)
+    private static final String HOST_LEFT = "HOST_LEFT";
+    // STAR: peer không beacon quá lâu thì không được chọn làm host mới
+    private static final long HOST_BEACON_TIMEOUT_MS = 10_000;
+    private static final long FAILOVER_DELAY_MS = 1_000;
 
     private String peerId;
     private String peerName;
@@ -82,6 +99,7 @@ public class MainFrame extends JFrame {
         // xác định chủ phòng: ai chọn Create room là host
         isHost = !joinMode;
         hostPeerId = isHost ? peerId : null;
+        topology = joinMode ? NetworkProtocol.Topology.parse(Config.getOverlayMode()) : startup.getTopology();
         listenPort = 0; // sẽ được gán sau khi tạo ServerSocket
 
         // register local peer with a default color
@@ -141,8 +159,12 @@ public class MainFrame extends JFrame {
         gridItem.addActionListener(e -> canvas.getGridManager().setGridVisible(gridItem.isSelected()));
         JCheckBoxMenuItem snapItem = new JCheckBoxMenuItem("Snap to Grid", false);
         snapItem.addActionListener(e -> canvas.getGridManager().setSnapToGrid(snapItem.isSelected()));
+        JCheckBoxMenuItem latencyItem = new JCheckBoxMenuItem("Latency Overlay", false);
+        latencyItem.addActionListener(e -> latencyOverlay.setVisible(latencyItem.isSelected()));
         viewMenu.add(gridItem);
         viewMenu.add(snapItem);
+        viewMenu.addSeparator();
+        viewMenu.add(latencyItem);
 
         // Network Menu
         JMenu networkMenu = new JMenu("Network");
@@ -245,7 +267,8 @@ public class MainFrame extends JFrame {
         JPanel statusPanel = createStatusPanel();
 
         add(leftTabs, BorderLayout.WEST);
-        add(canvasScroll, BorderLayout.CENTER);
+        latencyOverlay.setCanvas(canvas);
+        add(new JLayer<JComponent>(canvasScroll, latencyOverlay), BorderLayout.CENTER);
         add(rightTabs, BorderLayout.EAST);
         add(statusPanel, BorderLayout.SOUTH);
     }
@@ -259,16 +282,16 @@ public class MainFrame extends JFrame {
 
             @Override
             public void onSaveProject(String filePath) {
-                System.out.println("[MainFrame] Save project requested: " + filePath);
+                Log.info("MainFrame", "Save project requested: " + filePath);
                 List<com.whiteboard.drawing.Shape> allShapes = canvas.getAllShapes();
-                System.out.println("[MainFrame] Total shapes to save: " + allShapes.size());
+                Log.info("MainFrame", "Total shapes to save: " + allShapes.size());
 
                 FileManager.ProjectData data = new FileManager.ProjectData("Drawing",
                         canvas.getPreferredSize().width, canvas.getPreferredSize().height);
                 data.shapes = allShapes;
                 data.layers = canvas.getLayerManager().getAllLayers();
 
-                System.out.println("[MainFrame] ProjectData created - shapes: " +
+                Log.info("MainFrame", "ProjectData created - shapes: " +
                         (data.shapes != null ? data.shapes.size() : 0) +
                         ", layers: " + (data.layers != null ? data.layers.size() : 0));
 
@@ -290,11 +313,11 @@ public class MainFrame extends JFrame {
 
             @Override
             public void onLoadProject(String filePath) {
-                System.out.println("[MainFrame] Load project requested: " + filePath);
+                Log.info("MainFrame", "Load project requested: " + filePath);
                 FileManager.ProjectData data = FileManager.loadProjectFromJSON(filePath);
 
                 if (data == null) {
-                    System.err.println("[MainFrame] Failed to load project - data is null");
+                    Log.warning("MainFrame", "Failed to load project - data is null");
                     JOptionPane.showMessageDialog(MainFrame.this,
                             "Failed to load project!\n\nFile may be corrupted or in unsupported format.\n" +
                                     "Check console for details.",
@@ -302,13 +325,24 @@ public class MainFrame extends JFrame {
                     return;
                 }
 
-                System.out.println("[MainFrame] ProjectData loaded - shapes: " +
+                Log.info("MainFrame", "ProjectData loaded - shapes: " +
                         (data.shapes != null ? data.shapes.size() : 0));
 
                 if (data.shapes != null && !data.shapes.isEmpty()) {
-                    System.out.println("[MainFrame] Loading " + data.shapes.size() + " shapes into canvas...");
+                    Log.info("MainFrame", "Loading " + data.shapes.size() + " shapes into canvas...");
+                    // Chỉ ADD từng shape tới peer, không CLEAR: CLEAR sẽ xoá cả nét vẽ đồng thời của
+                    // peer khác. Shape thuộc về peer local (id mới) để không trùng id với shape đã bị xoá.
+                    for (com.whiteboard.drawing.Shape shape : data.shapes) {
+                        shape.peerId = peerId;
+                        shape.id = 0;
+                    }
                     canvas.loadShapes(data.shapes);
-                    System.out.println("[MainFrame] Shapes loaded. Canvas now has: " +
+                    try {
+                        messageHandler.broadcastShapes(canvas.getAllShapes(), peerId);
+                    } catch (Exception ex) {
+                        Log.warning("MainFrame", "Failed to broadcast loaded project: " + ex.getMessage());
+                    }
+                    Log.info("MainFrame", "Shapes loaded. Canvas now has: " +
                             canvas.getAllShapes().size() + " shapes");
 
                     JOptionPane.showMessageDialog(MainFrame.this,
@@ -317,7 +351,7 @@ public class MainFrame extends JFrame {
                                     "Canvas: " + data.canvasWidth + "x" + data.canvasHeight,
                             "Load Success", JOptionPane.INFORMATION_MESSAGE);
                 } else {
-                    System.err.println("[MainFrame] No shapes in loaded project");
+                    Log.warning("MainFrame", "No shapes in loaded project");
                     JOptionPane.showMessageDialog(MainFrame.this,
                             "Project loaded but contains no shapes!\n\n" +
                                     "The file may be empty or corrupted.",
@@ -327,10 +361,10 @@ public class MainFrame extends JFrame {
 
             @Override
             public void onExportPNG(String filePath) {
-                System.out.println("[MainFrame] Export PNG requested: " + filePath);
+                Log.info("MainFrame", "Export PNG requested: " + filePath);
                 BufferedImage image = canvas.getCanvasImage();
                 if (image == null) {
-                    System.err.println("[MainFrame] Canvas image is null!");
+                    Log.warning("MainFrame", "Canvas image is null!");
                     JOptionPane.showMessageDialog(MainFrame.this,
                             "Failed to export PNG!\n\nCanvas image is null.",
                             "Error", JOptionPane.ERROR_MESSAGE);
@@ -355,9 +389,9 @@ public class MainFrame extends JFrame {
 
             @Override
             public void onExportSVG(String filePath) {
-                System.out.println("[MainFrame] Export SVG requested: " + filePath);
+                Log.info("MainFrame", "Export SVG requested: " + filePath);
                 List<com.whiteboard.drawing.Shape> shapes = canvas.getAllShapes();
-                System.out.println("[MainFrame] Exporting " + shapes.size() + " shapes to SVG");
+                Log.info("MainFrame", "Exporting " + shapes.size() + " shapes to SVG");
 
                 if (FileManager.exportAsSVG(filePath, shapes,
                         canvas.getPreferredSize().width, canvas.getPreferredSize().height)) {
@@ -475,11 +509,12 @@ public class MainFrame extends JFrame {
         if (peerDiscovery != null) {
             peerDiscovery.stop();
         }
-        peerDiscovery = new PeerDiscovery(peerId, peerName, listenPort, roomId, roomPassword);
+        peerDiscovery = new PeerDiscovery(peerId, peerName, listenPort, roomId, roomPassword, topology);
+        peerDiscovery.setHost(isHost);
         try {
             peerDiscovery.start();
         } catch (IOException e) {
-            System.err.println("Failed to restart discovery: " + e.getMessage());
+            Log.warning("MainFrame", "Failed to restart discovery: " + e.getMessage());
         }
     }
 
@@ -610,38 +645,50 @@ public class MainFrame extends JFrame {
 
             @Override
             public void onAlignLeft() {
-                GridManager.alignLeft(canvas.getSelectionManager().getSelectedShapes());
-                canvas.repaint();
+                java.util.Set<com.whiteboard.drawing.Shape> selected = canvas.getSelectionManager().getSelectedShapes();
+                GridManager.alignLeft(selected);
+                canvas.shapesChanged(selected);
+                broadcastGeometry(selected);
             }
 
             @Override
             public void onAlignRight() {
-                GridManager.alignRight(canvas.getSelectionManager().getSelectedShapes());
-                canvas.repaint();
+                java.util.Set<com.whiteboard.drawing.Shape> selected = canvas.getSelectionManager().getSelectedShapes();
+                GridManager.alignRight(selected);
+                canvas.shapesChanged(selected);
+                broadcastGeometry(selected);
             }
 
             @Override
             public void onAlignTop() {
-                GridManager.alignTop(canvas.getSelectionManager().getSelectedShapes());
-                canvas.repaint();
+                java.util.Set<com.whiteboard.drawing.Shape> selected = canvas.getSelectionManager().getSelectedShapes();
+                GridManager.alignTop(selected);
+                canvas.shapesChanged(selected);
+                broadcastGeometry(selected);
             }
 
             @Override
             public void onAlignBottom() {
-                GridManager.alignBottom(canvas.getSelectionManager().getSelectedShapes());
-                canvas.repaint();
+                java.util.Set<com.whiteboard.drawing.Shape> selected = canvas.getSelectionManager().getSelectedShapes();
+                GridManager.alignBottom(selected);
+                canvas.shapesChanged(selected);
+                broadcastGeometry(selected);
             }
 
             @Override
             public void onDistributeHorizontally() {
-                GridManager.distributeHorizontally(canvas.getSelectionManager().getSelectedShapes());
-                canvas.repaint();
+                java.util.Set<com.whiteboard.drawing.Shape> selected = canvas.getSelectionManager().getSelectedShapes();
+                GridManager.distributeHorizontally(selected);
+                canvas.shapesChanged(selected);
+                broadcastGeometry(selected);
             }
 
             @Override
             public void onDistributeVertically() {
-                GridManager.distributeVertically(canvas.getSelectionManager().getSelectedShapes());
-                canvas.repaint();
+                java.util.Set<com.whiteboard.drawing.Shape> selected = canvas.getSelectionManager().getSelectedShapes();
+                GridManager.distributeVertically(selected);
+                canvas.shapesChanged(selected);
+                broadcastGeometry(selected);
             }
         });
     }
@@ -676,6 +723,11 @@ public class MainFrame extends JFrame {
         // Zoom status
         zoomStatusLabel = new JLabel("Zoom: 100%");
 
+        syncProgressBar = new JProgressBar();
+        syncProgressBar.setStringPainted(true);
+        syncProgressBar.setPreferredSize(new Dimension(160, 16));
+        syncProgressBar.setVisible(false);
+
         panel.add(connectionStatusLabel);
         panel.add(new JSeparator(SwingConstants.VERTICAL));
         panel.add(roomInfoLabel);
@@ -683,15 +735,41 @@ public class MainFrame extends JFrame {
         panel.add(peerCountLabel);
         panel.add(new JSeparator(SwingConstants.VERTICAL));
         panel.add(zoomStatusLabel);
+        panel.add(syncProgressBar);
 
         return panel;
     }
 
+    /**
+     * Cộng dồn tiến độ đồng bộ của các peer đang gửi trạng thái; ẩn thanh khi tất cả xong.
+     */
+    private void updateSyncProgress(String fromPeer, int done, int total) {
+        if (done >= total) {
+            syncProgress.remove(fromPeer);
+        } else {
+            syncProgress.put(fromPeer, new int[] { done, total });
+        }
+        if (syncProgress.isEmpty()) {
+            syncProgressBar.setVisible(false);
+            return;
+        }
+        int sumDone = 0;
+        int sumTotal = 0;
+        for (int[] progress : syncProgress.values()) {
+            sumDone += progress[0];
+            sumTotal += progress[1];
+        }
+        syncProgressBar.setMaximum(sumTotal);
+        syncProgressBar.setValue(sumDone);
+        syncProgressBar.setString("Syncing " + sumDone + "/" + sumTotal);
+        syncProgressBar.setVisible(true);
+    }
+
     private void updateRoomInfo() {
         String passwordDisplay = roomPassword != null && !roomPassword.isEmpty() ? "***" : "none";
         String mode = isHost ? "Host" : "Join";
-        roomInfoLabel.setText(String.format("Room: %s (pass: %s) | Mode: %s",
-                roomId, passwordDisplay, mode));
+        roomInfoLabel.setText(String.format("Room: %s (pass: %s) | Mode: %s | %s",
+                roomId, passwordDisplay, mode, topology));
     }
 
     private void updatePeerCountTooltip() {
@@ -709,50 +787,94 @@ public class MainFrame extends JFrame {
         peerCountLabel.setToolTipText(tooltip.toString());
     }
 
+    /**
+     * Một frame thay đổi remote đã gộp (trên EDT): áp dụng lên canvas, đăng ký peer đang vẽ.
+     */
+    private void applyRemoteFrame(RemoteScene.Frame frame) {
+        canvas.applyRemoteFrame(frame);
+        for (String id : frame.peerIds) {
+            // chỉ đăng ký peer để hiển thị trong danh sách, không đổi màu shape nữa
+            registerPeer(id, "Peer-" + (id.length() > 8 ? id.substring(0, 8) : id));
+        }
+        // Hiển thị peer đang vẽ trên status bar
+        if (frame.lastPeerId != null && connectionStatusLabel != null && !frame.added.isEmpty()) {
+            String id = frame.lastPeerId;
+            connectionStatusLabel.setText("✏ Peer-" + (id.length() > 8 ? id.substring(0, 8) : id)
+                    + " is drawing...");
+        }
+    }
+
     private void updateZoomStatus() {
         zoomStatusLabel.setText("Zoom: " + canvas.getZoomManager().getZoomPercentage());
     }
 
     private void initNetwork() {
-        messageHandler = new MessageHandler();
+        NetworkMetrics.get().start();
+        messageHandler = new MessageHandler(peerId);
+        messageHandler.setTopology(topology);
+        messageHandler.setRelayHost(isHost);
+        canvas.setIdSource(messageHandler::nextShapeId);
+        remoteScene = new RemoteScene(this::applyRemoteFrame);
+        // ACK của SYNC_RESPONSE chạy trên EDT sau khi canvas đã áp dụng xong phần vừa nhận
+        messageHandler.setUiExecutor(remoteScene::runAfterApplied);
+        messageHandler.setOnSyncProgress((fromPeer, done, total) ->
+                SwingUtilities.invokeLater(() -> updateSyncProgress(fromPeer, done, total)));
 
         // tạo server socket một lần, để OS tự chọn cổng rảnh (port 0)
         try {
-            serverSocket = new ServerSocket(0);
+            serverSocket = PeerConnection.openServerSocket();
             listenPort = serverSocket.getLocalPort();
-            System.out.println("[MainFrame] Server socket created at port " + listenPort);
+            Log.info("MainFrame", "Server socket created at port " + listenPort);
         } catch (IOException e) {
-            System.err.println("Failed to open server socket: " + e.getMessage());
+            Log.warning("MainFrame", "Failed to open server socket: " + e.getMessage());
         }
 
+        // Lô shape (kể cả bản dump lúc vào phòng) được gộp trên thread RemoteScene, EDT chỉ
+        // nhận frame đã gộp (xem applyRemoteFrame)
         messageHandler.setOnShapesReceived(shapeData -> {
             if (shapeData.shapes != null && !shapeData.shapes.isEmpty()) {
-                SwingUtilities.invokeLater(() -> {
-                    // Batch process tất cả shapes trong một lần để giảm số lần repaint
-                    String drawingPeerId = null;
-                    for (com.whiteboard.drawing.Shape shape : shapeData.shapes) {
-                        if (shape.peerId != null) {
-                            drawingPeerId = shape.peerId;
-                            String id = shape.peerId;
-                            String name = "Peer-" + (id.length() > 8 ? id.substring(0, 8) : id);
-                            // chỉ đăng ký peer để hiển thị trong danh sách, không đổi màu shape nữa
-                            registerPeer(id, name);
-                        }
-                        canvas.drawRemoteShape(shape);
-                    }
-                    // Hiển thị peer đang vẽ trên status bar
-                    if (drawingPeerId != null && connectionStatusLabel != null) {
-                        String shortId = drawingPeerId.length() > 8 ? drawingPeerId.substring(0, 8) : drawingPeerId;
-                        String label = "Peer-" + shortId;
-                        connectionStatusLabel.setText("✏ " + label + " is drawing...");
-                    }
-                    // drawRemoteShape đã có debounce timer, không cần repaint thủ công ở đây
-                });
+                remoteScene.shapesAdded(shapeData.shapes);
             }
         });
 
-        messageHandler.setOnClearReceived(senderId -> SwingUtilities.invokeLater(canvas::clearCanvas));
-        messageHandler.setOnUndoReceived(senderId -> SwingUtilities.invokeLater(() -> canvas.undoForPeer(senderId)));
+        messageHandler.setOnStrokeReceived((type, stroke) -> SwingUtilities.invokeLater(() -> {
+            NetworkProtocol.Trace trace = stroke.trace;
+            long dispatchedAt = trace != null ? LatencyTracer.dispatched(stroke.peerId, trace) : 0;
+            switch (type) {
+                case STROKE_BEGIN:
+                    if (stroke.shape != null) {
+                        canvas.drawRemoteShape(stroke.shape);
+                    }
+                    break;
+                case STROKE_APPEND:
+                    canvas.appendRemoteStroke(stroke.strokeId, stroke.baseIndex, stroke.deltas);
+                    break;
+                default:
+                    break;
+            }
+            // Độ trễ từ lúc peer gửi tới lúc nét hiện trên canvas (vẽ qua repaint timer)
+            long sentAt = stroke.sentAt;
+            String strokePeerId = stroke.peerId;
+            canvas.runAfterNextPaint(() -> {
+                NetworkMetrics.get().recordStrokeLatency(strokePeerId, System.currentTimeMillis() - sentAt);
+                if (trace != null) {
+                    LatencyTracer.painted(strokePeerId, trace, dispatchedAt);
+                }
+            });
+            if (type == NetworkProtocol.MessageType.STROKE_BEGIN && stroke.peerId != null) {
+                String id = stroke.peerId;
+                String label = "Peer-" + (id.length() > 8 ? id.substring(0, 8) : id);
+                registerPeer(id, label);
+                if (connectionStatusLabel != null) {
+                    connectionStatusLabel.setText("✏ " + label + " is drawing...");
+                }
+            }
+        }));
+
+        // Sửa / xoá / clear / undo từ peer đều tới dưới dạng thay đổi đã gộp của StateManager
+        // (đi cùng hàng đợi với shape mới để giữ thứ tự thêm -> sửa -> xoá)
+        messageHandler.setOnShapesUpdated(shapes -> remoteScene.shapesUpdated(shapes));
+        messageHandler.setOnShapesRemoved(shapes -> remoteScene.shapesRemoved(shapes));
         messageHandler.setOnDisconnectReceived(
                 reason -> SwingUtilities.invokeLater(() -> handleRemoteRoomDisconnect(reason)));
 
@@ -776,7 +898,9 @@ public class MainFrame extends JFrame {
             try {
                 if (shape != null) {
                     int count = messageHandler.getConnectionCount();
-                    System.out.println("[MainFrame] Broadcasting shape to " + count + " peer(s)");
+                    if (Log.isEnabled(Log.Level.FINE)) {
+                        Log.fine("MainFrame", "Broadcasting shape to " + count + " peer(s)");
+                    }
                     messageHandler.broadcastShapes(java.util.Collections.singletonList(shape), peerId);
                     // Cập nhật status bar hiển thị peer local đang vẽ
                     if (connectionStatusLabel != null) {
@@ -784,29 +908,81 @@ public class MainFrame extends JFrame {
                     }
                 }
             } catch (Exception e) {
-                System.err.println("[MainFrame] Error broadcasting shape: " + e.getMessage());
-                e.printStackTrace();
+                Log.severe("MainFrame", "Error broadcasting shape: " + e.getMessage(), e);
             }
         });
 
-        System.out.println("[MainFrame] Starting PeerDiscovery with config: peerId=" + peerId
+        canvas.setOnShapesDeleted(shapes -> messageHandler.broadcastDelete(shapes, peerId));
+
+        // Nét PENCIL được stream tăng dần: BEGIN -> APPEND (chỉ điểm mới) -> END
+        canvas.setStrokeListener(new DrawingCanvas.StrokeListener() {
+            @Override
+            public void strokeBegan(com.whiteboard.drawing.Shape stroke) {
+                messageHandler.broadcastStrokeBegin(stroke, peerId, canvas.getLastInputNanos());
+                if (connectionStatusLabel != null) {
+                    connectionStatusLabel.setText("✏ You are drawing...");
+                }
+            }
+
+            @Override
+            public void strokeExtended(com.whiteboard.drawing.Shape stroke, int fromIndex) {
+                messageHandler.broadcastStrokeAppend(stroke, fromIndex, peerId, canvas.getLastInputNanos());
+            }
+
+            @Override
+            public void strokeEnded(com.whiteboard.drawing.Shape stroke) {
+                messageHandler.broadcastStrokeEnd(stroke, peerId);
+            }
+        });
+
+        Log.info("MainFrame", "Starting PeerDiscovery with config: peerId=" + peerId
                 + ", name=" + peerName
                 + ", roomId=" + roomId
                 + ", roomPassword=" + (roomPassword == null || roomPassword.isEmpty() ? "(empty)" : "***")
                 + ", listenPort=" + listenPort
-                + ", joinMode=" + joinMode);
+                + ", joinMode=" + joinMode
+                + ", topology=" + topology);
 
-        peerDiscovery = new PeerDiscovery(peerId, peerName, listenPort, roomId, roomPassword);
+        peerDiscovery = new PeerDiscovery(peerId, peerName, listenPort, roomId, roomPassword, topology);
+        peerDiscovery.setHost(isHost);
         // callback từ discovery: log và auto-join (mọi mode) nếu chưa có kết nối tới
         // peer đó
         peerDiscovery.setPeerFoundCallback(info -> {
-            System.out.println("[MainFrame] Peer found in same room: " + info);
+            Log.info("MainFrame", "Peer found in same room: " + info);
             // tránh tạo trùng nhiều kết nối 2 chiều
             if (messageHandler.getConnection(info.peerId) != null) {
-                System.out.println("[MainFrame] Already connected to peer " + info.peerId + ", skip auto-connect.");
+                Log.info("MainFrame", "Already connected to peer " + info.peerId + ", skip auto-connect.");
                 return;
             }
-            System.out.println("[MainFrame] Auto-connecting to peer " + info.peerId
+            // Peer join dùng topology mà phòng quảng bá (peer cũ không quảng bá thì giữ mặc định)
+            if (!isHost && info.topology != null && info.topology != topology) {
+                Log.info("MainFrame", "Room " + roomId + " uses topology " + info.topology);
+                topology = info.topology;
+                messageHandler.setTopology(topology);
+                peerDiscovery.setTopology(topology);
+                SwingUtilities.invokeLater(this::updateRoomInfo);
+            }
+            // STAR: client chỉ giữ một kết nối tới host; host chờ client nối tới
+            if (topology == NetworkProtocol.Topology.STAR) {
+                if (isHost || !info.isHost) {
+                    Log.info("MainFrame", "Star room: skip auto-connect to " + info.peerId);
+                    return;
+                }
+                if (hostPeerId != null && !hostPeerId.equals(info.peerId)
+                        && messageHandler.getConnection(hostPeerId) != null) {
+                    Log.info("MainFrame", "Star room: already connected to host " + hostPeerId);
+                    return;
+                }
+                hostPeerId = info.peerId;
+            }
+            // Overlay GOSSIP: chỉ giữ gossip.fanout hàng xóm, message tới các peer khác qua relay
+            if (topology == NetworkProtocol.Topology.GOSSIP
+                    && messageHandler.getConnectionCount() >= Config.getGossipFanout()) {
+                Log.info("MainFrame", "Gossip overlay has " + messageHandler.getConnectionCount()
+                        + " neighbour(s), skip auto-connect to " + info.peerId);
+                return;
+            }
+            Log.info("MainFrame", "Auto-connecting to peer " + info.peerId
                     + " at " + info.ipAddress + ":" + info.port
                     + " (joinMode=" + joinMode + ")");
             SwingUtilities.invokeLater(() -> connectToPeer(info));
@@ -814,7 +990,7 @@ public class MainFrame extends JFrame {
         try {
             peerDiscovery.start();
         } catch (IOException e) {
-            System.err.println("Failed to start discovery: " + e.getMessage());
+            Log.warning("MainFrame", "Failed to start discovery: " + e.getMessage());
         }
 
         // Hook chat send action to broadcast via MessageHandler
@@ -828,7 +1004,7 @@ public class MainFrame extends JFrame {
                     NetworkProtocol.ChatMessage local = new NetworkProtocol.ChatMessage(peerId, peerName, text);
                     chatPanel.addMessage(local);
                 } catch (Exception ex) {
-                    System.err.println("Failed to send chat: " + ex.getMessage());
+                    Log.warning("MainFrame", "Failed to send chat: " + ex.getMessage());
                 }
             });
         }
@@ -837,7 +1013,7 @@ public class MainFrame extends JFrame {
         // trong một khoảng thời gian ngắn (không phụ thuộc vào UDP listen được hay
         // không).
         if (joinMode) {
-            new Thread(() -> {
+            IoExecutor.get().submit("JoinRoomValidator", () -> {
                 try {
                     // chờ một chút cho discovery kịp nhận broadcast từ các peer khác
                     Thread.sleep(3500);
@@ -847,15 +1023,15 @@ public class MainFrame extends JFrame {
                 if (peerDiscovery != null) {
                     int discoveredCount = peerDiscovery.getDiscoveredPeers().size();
                     int connectionCount = messageHandler.getConnectionCount();
-                    System.out.println("[MainFrame] Join mode check: discoveredPeers=" + discoveredCount
+                    Log.info("MainFrame", "Join mode check: discoveredPeers=" + discoveredCount
                             + ", connectionCount=" + connectionCount);
 
                     if (connectionCount == 0) {
                         if (discoveredCount == 0) {
-                            System.out.println("[MainFrame] Join mode: no peers discovered via UDP for room=" + roomId
+                            Log.info("MainFrame", "Join mode: no peers discovered via UDP for room=" + roomId
                                     + ". Possible issues: firewall blocking UDP broadcast, host not running, or room/password mismatch.");
                         } else {
-                            System.out.println("[MainFrame] Join mode: found " + discoveredCount
+                            Log.info("MainFrame", "Join mode: found " + discoveredCount
                                     + " peer(s) via UDP but TCP connection failed. Check firewall for TCP ports.");
                         }
                         SwingUtilities.invokeLater(() -> {
@@ -876,15 +1052,15 @@ public class MainFrame extends JFrame {
                         });
                     }
                 }
-            }, "JoinRoomValidator").start();
+            });
         }
 
-        new Thread(this::acceptConnections).start();
+        IoExecutor.get().submit("AcceptConnections", this::acceptConnections);
     }
 
     private void acceptConnections() {
         if (serverSocket == null) {
-            System.err.println("Server socket not initialized; cannot accept connections.");
+            Log.warning("MainFrame", "Server socket not initialized; cannot accept connections.");
             return;
         }
 
@@ -892,22 +1068,30 @@ public class MainFrame extends JFrame {
             while (true) {
                 Socket socket = serverSocket.accept();
                 String remotePeerId = socket.getInetAddress().getHostAddress();
-                System.out.println("[MainFrame] Incoming TCP connection from " + remotePeerId
+                Log.info("MainFrame", "Incoming TCP connection from " + remotePeerId
                         + ":" + socket.getPort());
 
+                if (topology == NetworkProtocol.Topology.GOSSIP
+                        && messageHandler.getConnectionCount() >= 2 * Config.getGossipFanout()) {
+                    // Quá nhiều hàng xóm: peer kia sẽ chọn peer khác (maintainOverlay khi mất kết nối)
+                    Log.info("MainFrame", "Gossip overlay full, rejecting connection from " + remotePeerId);
+                    socket.close();
+                    continue;
+                }
+
                 try {
                     // Tìm peerId thật từ UDP discovery dựa trên IP
                     String realPeerId = remotePeerId;
                     for (NetworkProtocol.PeerInfo info : peerDiscovery.getDiscoveredPeers()) {
                         if (info.ipAddress.equals(remotePeerId)) {
                             realPeerId = info.peerId;
-                            System.out.println("[MainFrame] Matched incoming connection IP " + remotePeerId
+                            Log.info("MainFrame", "Matched incoming connection IP " + remotePeerId
                                     + " to peerId " + realPeerId + " from UDP discovery");
                             break;
                         }
                     }
 
-                    PeerConnection connection = new PeerConnection(socket, realPeerId);
+                    PeerConnection connection = PeerConnection.open(socket, realPeerId);
                     messageHandler.addConnection(connection);
                     registerPeer(realPeerId, "Peer-" + realPeerId.substring(0, Math.min(8, realPeerId.length())));
                     updatePeerCount();
@@ -915,33 +1099,27 @@ public class MainFrame extends JFrame {
                     connection.setDisconnectHandler(disconnected -> {
                         messageHandler.removeConnection(disconnected);
                         updatePeerCount();
+                        maintainOverlay(disconnected);
                         // Không tự động coi là ROOM_CLOSED khi socket ngắt; chỉ khi nhận DISCONNECT
                         // message
                     });
 
                     // Gửi HELLO để peer kia biết peerId của mình
                     connection.sendMessage(new NetworkProtocol.Message(
-                            NetworkProtocol.MessageType.HELLO, peerId, null));
-
-                    if (!canvas.getAllShapes().isEmpty()) {
-                        connection.sendMessage(new NetworkProtocol.Message(
-                                NetworkProtocol.MessageType.SHAPES, peerId,
-                                new NetworkProtocol.ShapeData(canvas.getAllShapes(),
-                                        System.currentTimeMillis())));
-                        System.out.println("[MainFrame] Sent initial SHAPES sync to " + realPeerId);
-                    }
+                            NetworkProtocol.MessageType.HELLO, peerId, NetworkProtocol.PROTOCOL_VERSION));
+                    // Trạng thái bảng được gửi khi nhận HELLO của peer (MessageHandler.sendState)
                 } catch (IOException e) {
-                    System.err.println("Connection error: " + e.getMessage());
+                    Log.warning("MainFrame", "Connection error: " + e.getMessage());
                 }
             }
         } catch (java.net.SocketException e) {
             if (serverSocket != null && serverSocket.isClosed()) {
-                System.out.println("[MainFrame] Server socket closed normally");
+                Log.info("MainFrame", "Server socket closed normally");
             } else {
-                System.err.println("[MainFrame] Server socket error: " + e.getMessage());
+                Log.warning("MainFrame", "Server socket error: " + e.getMessage());
             }
         } catch (IOException e) {
-            System.err.println("[MainFrame] Server error: " + e.getMessage());
+            Log.warning("MainFrame", "Server error: " + e.getMessage());
         }
     }
 
@@ -992,14 +1170,14 @@ public class MainFrame extends JFrame {
     }
 
     private void connectToPeer(NetworkProtocol.PeerInfo peerInfo) {
-        new Thread(() -> {
+        IoExecutor.get().submit("Connect-" + peerInfo.peerId, () -> {
             try {
                 int targetPort = peerInfo.port > 0 ? peerInfo.port : listenPort;
-                System.out.println("[MainFrame] Connecting to peer " + peerInfo.peerId
+                Log.info("MainFrame", "Connecting to peer " + peerInfo.peerId
                         + " at " + peerInfo.ipAddress + ":" + targetPort
                         + " (local listenPort=" + listenPort + ")");
-                Socket socket = new Socket(peerInfo.ipAddress, targetPort);
-                PeerConnection connection = new PeerConnection(socket, peerInfo.peerId);
+                Socket socket = PeerConnection.connect(peerInfo.ipAddress, targetPort);
+                PeerConnection connection = PeerConnection.open(socket, peerInfo.peerId);
                 messageHandler.addConnection(connection);
                 // đăng ký peer để hiển thị và gán màu cố định
                 registerPeer(peerInfo.peerId, peerInfo.name);
@@ -1011,7 +1189,7 @@ public class MainFrame extends JFrame {
                 updatePeerCount();
 
                 connection.sendMessage(new NetworkProtocol.Message(
-                        NetworkProtocol.MessageType.HELLO, peerId, null));
+                        NetworkProtocol.MessageType.HELLO, peerId, NetworkProtocol.PROTOCOL_VERSION));
 
                 connectionStatusLabel.setText("🟢 Connected: " + peerInfo.name);
 
@@ -1019,16 +1197,98 @@ public class MainFrame extends JFrame {
                     messageHandler.removeConnection(disconnected);
                     updatePeerCount();
                     connectionStatusLabel.setText("🔴 Disconnected");
+                    maintainOverlay(disconnected);
                     // Không tự động coi là ROOM_CLOSED khi socket ngắt; chỉ khi nhận DISCONNECT
                     // message
                 });
             } catch (IOException e) {
-                System.err.println("[MainFrame] Failed to connect to peer " + peerInfo + ": " + e.getMessage());
+                Log.warning("MainFrame", "Failed to connect to peer " + peerInfo + ": " + e.getMessage());
                 JOptionPane.showMessageDialog(this,
                         "Connection failed: " + e.getMessage(),
                         "Error", JOptionPane.ERROR_MESSAGE);
             }
-        }).start();
+        });
+    }
+
+    /**
+     * Overlay GOSSIP: mất hàng xóm (hoặc bị peer đầy từ chối) thì nối thêm tới các peer
+     * ngẫu nhiên cùng phòng cho đủ gossip.fanout. Ngẫu nhiên để overlay không dồn vào vài peer.
+     * STAR: mất kết nối tới host thì chuyển sang host mới (failover).
+     */
+    private void maintainOverlay(String lostPeerId) {
+        if (topology == NetworkProtocol.Topology.STAR) {
+            failover(lostPeerId);
+            return;
+        }
+        if (topology != NetworkProtocol.Topology.GOSSIP || peerDiscovery == null) {
+            return;
+        }
+        int missing = Config.getGossipFanout() - messageHandler.getConnectionCount();
+        if (missing <= 0) {
+            return;
+        }
+        java.util.List<NetworkProtocol.PeerInfo> candidates = new java.util.ArrayList<>();
+        for (NetworkProtocol.PeerInfo info : peerDiscovery.getDiscoveredPeers()) {
+            if (messageHandler.getConnection(info.peerId) == null
+                    && (roomId == null || roomId.isEmpty() || roomId.equals(info.roomId))) {
+                candidates.add(info);
+            }
+        }
+        java.util.Collections.shuffle(candidates);
+        for (NetworkProtocol.PeerInfo info : candidates.subList(0, Math.min(missing, candidates.size()))) {
+            Log.info("MainFrame", "Gossip overlay: connecting to " + info.peerId);
+            SwingUtilities.invokeLater(() -> connectToPeer(info));
+        }
+    }
+
+    /**
+     * STAR: host rời phòng (DISCONNECT HOST_LEFT) hoặc mất kết nối tới host thì peer có peerId nhỏ
+     * nhất trong các peer STAR cùng phòng còn beacon gần đây (kể cả chính mình) được promote làm host,
+     * các client còn lại nối tới peer đó. Mọi client tính từ cùng dữ liệu discovery nên ra cùng một
+     * host mà không cần bầu chọn; host mới bắt đầu beacon "H" nên peer tính khác cũng tìm được.
+     */
+    private synchronized void failover(String lostHostId) {
+        if (topology != NetworkProtocol.Topology.STAR || isHost || peerDiscovery == null
+                || lostHostId == null || !lostHostId.equals(hostPeerId)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        NetworkProtocol.PeerInfo successor = null;
+        for (NetworkProtocol.PeerInfo info : peerDiscovery.getDiscoveredPeers()) {
+            if (info.peerId.equals(lostHostId) || info.topology != NetworkProtocol.Topology.STAR
+                    || now - info.lastSeen > HOST_BEACON_TIMEOUT_MS
+                    || (roomId != null && !roomId.isEmpty() && !roomId.equals(info.roomId))) {
+                continue;
+            }
+            if (info.peerId.compareTo(successor == null ? peerId : successor.peerId) < 0) {
+                successor = info;
+            }
+        }
+
+        if (successor == null) {
+            Log.info("MainFrame", "Host " + lostHostId + " left, promoting self to host of room " + roomId);
+            isHost = true;
+            hostPeerId = peerId;
+            messageHandler.setRelayHost(true);
+            peerDiscovery.setHost(true);
+        } else {
+            NetworkProtocol.PeerInfo next = successor;
+            hostPeerId = next.peerId;
+            Log.info("MainFrame", "Host " + lostHostId + " left, reconnecting to new host " + next.peerId);
+            // Cho host mới kịp nhận ra host cũ đã rời trước khi client nối tới
+            IoExecutor.get().submit("StarFailover", () -> {
+                try {
+                    Thread.sleep(FAILOVER_DELAY_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (messageHandler.getConnection(next.peerId) == null) {
+                    SwingUtilities.invokeLater(() -> connectToPeer(next));
+                }
+            });
+        }
+        SwingUtilities.invokeLater(this::updateRoomInfo);
     }
 
     private void leaveRoom() {
@@ -1042,25 +1302,27 @@ public class MainFrame extends JFrame {
         }
 
         // nếu là host, thông báo cho tất cả peers còn lại rằng phòng đã đóng
+        // (phòng STAR vẫn tiếp tục với host mới)
         if (isHost && messageHandler != null) {
             int peerCount = messageHandler.getConnectionCount();
-            System.out.println("[MainFrame] Host leaving room, sending ROOM_CLOSED to "
+            String reason = hostLeaveReason();
+            Log.info("MainFrame", "Host leaving room, sending " + reason + " to "
                     + peerCount + " peer(s)");
             for (PeerConnection conn : messageHandler.getConnections()) {
                 try {
                     conn.sendMessage(new NetworkProtocol.Message(
-                            NetworkProtocol.MessageType.DISCONNECT, peerId, "ROOM_CLOSED"));
+                            NetworkProtocol.MessageType.DISCONNECT, peerId, reason));
                     conn.flush(); // Force flush để đảm bảo message được gửi ngay
-                    System.out.println("[MainFrame] Sent ROOM_CLOSED to peer " + conn.getPeerId());
+                    Log.info("MainFrame", "Sent " + reason + " to peer " + conn.getPeerId());
                 } catch (IOException e) {
-                    System.err.println(
-                            "[MainFrame] Failed to send ROOM_CLOSED to " + conn.getPeerId() + ": " + e.getMessage());
+                    Log.warning("MainFrame", 
+                            "Failed to send " + reason + " to " + conn.getPeerId() + ": " + e.getMessage());
                 }
             }
             // Đợi một chút để message được flush và gửi qua network
             try {
                 Thread.sleep(500); // 500ms để đảm bảo message được gửi
-                System.out.println("[MainFrame] Waited for messages to be sent");
+                Log.info("MainFrame", "Waited for messages to be sent");
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
@@ -1090,6 +1352,12 @@ public class MainFrame extends JFrame {
         roomId = startup.getRoomCode();
         roomPassword = startup.getRoomPassword();
         joinMode = startup.isJoinMode();
+        isHost = !joinMode;
+        hostPeerId = isHost ? peerId : null;
+        topology = joinMode ? NetworkProtocol.Topology.parse(Config.getOverlayMode()) : startup.getTopology();
+        messageHandler.setTopology(topology);
+        messageHandler.setRelayHost(isHost);
+        updateRoomInfo();
 
         // cập nhật status bar với tên mới (peerId giữ nguyên để không thay đổi màu)
         if (connectionStatusLabel != null) {
@@ -1097,17 +1365,18 @@ public class MainFrame extends JFrame {
         }
 
         // khởi động lại discovery với room/password mới
-        peerDiscovery = new PeerDiscovery(peerId, peerName, listenPort, roomId, roomPassword);
+        peerDiscovery = new PeerDiscovery(peerId, peerName, listenPort, roomId, roomPassword, topology);
+        peerDiscovery.setHost(isHost);
         try {
             peerDiscovery.start();
         } catch (IOException e) {
-            System.err.println("Failed to restart discovery: " + e.getMessage());
+            Log.warning("MainFrame", "Failed to restart discovery: " + e.getMessage());
         }
 
         // nếu đang ở chế độ JOIN thì áp dụng lại logic kiểm tra bắt buộc phải có kết
         // nối
         if (joinMode) {
-            new Thread(() -> {
+            IoExecutor.get().submit("JoinRoomValidator-Leave", () -> {
                 try {
                     Thread.sleep(3500);
                 } catch (InterruptedException ignored) {
@@ -1124,7 +1393,7 @@ public class MainFrame extends JFrame {
                         new MainFrame();
                     });
                 }
-            }, "JoinRoomValidator-Leave").start();
+            });
         }
     }
 
@@ -1161,7 +1430,12 @@ public class MainFrame extends JFrame {
      * Xử lý khi host gửi tín hiệu đóng phòng hoặc kick.
      */
     private void handleRemoteRoomDisconnect(String reason) {
-        System.out.println("[MainFrame] Received DISCONNECT message with reason: " + reason);
+        Log.info("MainFrame", "Received DISCONNECT message with reason: " + reason);
+        if (HOST_LEFT.equals(reason)) {
+            // Phòng STAR không đóng khi host rời: host đóng kết nối ngay sau đó và
+            // disconnect handler chuyển sang host mới (failover)
+            return;
+        }
         String message;
         if ("ROOM_CLOSED".equals(reason)) {
             message = "Chủ phòng đã đóng phòng. Bạn sẽ được đưa về màn hình chọn phòng.";
@@ -1170,7 +1444,7 @@ public class MainFrame extends JFrame {
         } else {
             message = "Bạn đã bị ngắt kết nối khỏi phòng.";
         }
-        System.out.println("[MainFrame] Showing disconnect dialog: " + message);
+        Log.info("MainFrame", "Showing disconnect dialog: " + message);
         JOptionPane.showMessageDialog(this, message, "Room Closed",
                 JOptionPane.INFORMATION_MESSAGE);
 
@@ -1197,14 +1471,21 @@ public class MainFrame extends JFrame {
      * Thực hiện Undo local và thông báo cho tất cả peers khác.
      */
     private void performUndoWithBroadcast() {
-        canvas.undoForPeer(peerId);
+        com.whiteboard.drawing.Shape removed = canvas.undoForPeer(peerId);
         try {
-            messageHandler.broadcastUndo(peerId);
+            messageHandler.broadcastUndo(peerId, removed);
         } catch (Exception ex) {
-            System.err.println("Failed to broadcast undo: " + ex.getMessage());
+            Log.warning("MainFrame", "Failed to broadcast undo: " + ex.getMessage());
         }
     }
 
+    /**
+     * Gửi toạ độ mới của các shape vừa align/distribute cho peers.
+     */
+    private void broadcastGeometry(java.util.Collection<com.whiteboard.drawing.Shape> shapes) {
+        messageHandler.broadcastUpdate(shapes, StateManager.Property.GEOMETRY.mask(), peerId);
+    }
+
     /**
      * Thực hiện Clear Canvas local và thông báo cho tất cả peers khác.
      */
@@ -1213,36 +1494,41 @@ public class MainFrame extends JFrame {
         try {
             messageHandler.broadcastClear(peerId);
         } catch (Exception ex) {
-            System.err.println("Failed to broadcast clear: " + ex.getMessage());
+            Log.warning("MainFrame", "Failed to broadcast clear: " + ex.getMessage());
         }
     }
 
+    private String hostLeaveReason() {
+        return topology == NetworkProtocol.Topology.STAR ? HOST_LEFT : "ROOM_CLOSED";
+    }
+
     private void updatePeerCount() {
         SwingUtilities.invokeLater(() -> peerCountLabel.setText("Peers: " + messageHandler.getConnectionCount()));
     }
 
     private void shutdown() {
-        // nếu là host, thông báo đóng phòng cho các peers
+        // nếu là host, thông báo đóng phòng cho các peers (phòng STAR vẫn tiếp tục với host mới)
         if (isHost && messageHandler != null) {
             int peerCount = messageHandler.getConnectionCount();
-            System.out.println("[MainFrame] Host shutting down, sending ROOM_CLOSED to "
+            String reason = hostLeaveReason();
+            Log.info("MainFrame", "Host shutting down, sending " + reason + " to "
                     + peerCount + " peer(s)");
             for (PeerConnection conn : messageHandler.getConnections()) {
                 try {
                     conn.sendMessage(new NetworkProtocol.Message(
-                            NetworkProtocol.MessageType.DISCONNECT, peerId, "ROOM_CLOSED"));
+                            NetworkProtocol.MessageType.DISCONNECT, peerId, reason));
                     conn.flush(); // Force flush để đảm bảo message được gửi ngay
-                    System.out.println("[MainFrame] Sent ROOM_CLOSED to peer " + conn.getPeerId());
+                    Log.info("MainFrame", "Sent " + reason + " to peer " + conn.getPeerId());
                 } catch (IOException e) {
-                    System.err.println(
-                            "[MainFrame] Failed to send ROOM_CLOSED to " + conn.getPeerId() + ": " + e.getMessage());
+                    Log.warning("MainFrame", 
+                            "Failed to send " + reason + " to " + conn.getPeerId() + ": " + e.getMessage());
                 }
             }
             // Đợi một chút để message được flush và gửi qua network trước khi đóng
             // connection
             try {
                 Thread.sleep(500); // 500ms để đảm bảo message được gửi
-                System.out.println("[MainFrame] Waited for messages to be sent, closing connections...");
+                Log.info("MainFrame", "Waited for messages to be sent, closing connections...");
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
@@ -1252,13 +1538,16 @@ public class MainFrame extends JFrame {
             peerDiscovery.stop();
         if (messageHandler != null)
             messageHandler.closeAll();
+        if (remoteScene != null)
+            remoteScene.stop();
         if (serverSocket != null) {
             try {
                 serverSocket.close();
             } catch (IOException e) {
-                System.err.println("Error: " + e.getMessage());
+                Log.warning("MainFrame", "Error: " + e.getMessage());
             }
         }
+        NetworkMetrics.get().dump();
         System.exit(0);
     }
 
@@ -1266,11 +1555,11 @@ public class MainFrame extends JFrame {
         try {
             FlatDarkLaf.setup();
         } catch (Exception e) {
-            System.err.println("Failed to initialize FlatLaf, falling back to system LAF: " + e.getMessage());
+            Log.warning("MainFrame", "Failed to initialize FlatLaf, falling back to system LAF: " + e.getMessage());
             try {
                 UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
             } catch (Exception ex) {
-                System.err.println("Theme error: " + ex.getMessage());
+                Log.warning("MainFrame", "Theme error: " + ex.getMessage());
             }
         }
 
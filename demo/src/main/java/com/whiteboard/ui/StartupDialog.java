@@ -1,5 +1,8 @@
 package com.whiteboard.ui;
 
+import com.whiteboard.Config;
+import com.whiteboard.network.NetworkProtocol;
+
 import javax.swing.*;
 import java.awt.*;
 
@@ -9,6 +12,7 @@ public class StartupDialog extends JDialog {
     private final JPasswordField roomPasswordField;
     private final JRadioButton joinRadio;
     private final JRadioButton createRadio;
+    private final JComboBox<NetworkProtocol.Topology> topologyBox;
     private boolean confirmed = false;
 
     public StartupDialog(Frame owner, String defaultName, String defaultRoom) {
@@ -67,6 +71,18 @@ public class StartupDialog extends JDialog {
         roomPasswordField = new JPasswordField(18);
         form.add(roomPasswordField, gbc);
 
+        // Topology chỉ chọn khi tạo phòng; peer join dùng topology phòng quảng bá
+        gbc.gridx = 0; gbc.gridy = 4;
+        form.add(new JLabel("Topology:"), gbc);
+        gbc.gridx = 1;
+        topologyBox = new JComboBox<>(NetworkProtocol.Topology.values());
+        topologyBox.setSelectedItem(NetworkProtocol.Topology.parse(Config.getOverlayMode()));
+        topologyBox.setToolTipText("MESH: connect to every peer | GOSSIP: bounded neighbours | "
+                + "STAR: the room creator relays for everyone");
+        form.add(topologyBox, gbc);
+        joinRadio.addActionListener(e -> topologyBox.setEnabled(false));
+        createRadio.addActionListener(e -> topologyBox.setEnabled(true));
+
         main.add(form, BorderLayout.CENTER);
 
         JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
@@ -115,4 +131,8 @@ public class StartupDialog extends JDialog {
     public boolean isJoinMode() {
         return joinRadio.isSelected();
     }
+
+    public NetworkProtocol.Topology getTopology() {
+        return (NetworkProtocol.Topology) topologyBox.getSelectedItem();
+    }
 }
@@ -0,0 +1,87 @@
+package com.whiteboard.drawing;
+
+import java.awt.Point;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Heap cho 1M điểm nét vẽ: List&lt;java.awt.Point&gt; (cách lưu cũ của Shape.freeDrawPoints) so với
+ * {@link PointBuffer}, chia thành 10k nét x 100 điểm. Đo heap đã dùng sau GC trước và sau khi
+ * dựng dữ liệu (giữ tham chiếu tới lúc đo xong).
+ *   mvn -Pbench test-compile exec:exec -Dbench.main=com.whiteboard.drawing.PointMemoryBenchmark
+ */
+public class PointMemoryBenchmark {
+    private static final int STROKES = 10_000;
+    private static final int POINTS_PER_STROKE = 100;
+
+    public static void main(String[] args) {
+        // lần đầu để nạp class, không tính
+        measure("warm-up", PointMemoryBenchmark::pointLists);
+        measure("warm-up", PointMemoryBenchmark::pointBuffers);
+
+        long lists = measure("List<Point>", PointMemoryBenchmark::pointLists);
+        long buffers = measure("PointBuffer", PointMemoryBenchmark::pointBuffers);
+        System.out.printf("PointBuffer uses %.1f%% of List<Point> heap%n", 100.0 * buffers / lists);
+    }
+
+    private static List<List<Point>> pointLists() {
+        Random random = new Random(1);
+        List<List<Point>> strokes = new ArrayList<>(STROKES);
+        for (int s = 0; s < STROKES; s++) {
+            // ArrayList lớn dần như khi vẽ (không biết trước số điểm)
+            List<Point> points = new ArrayList<>();
+            int x = random.nextInt(4000);
+            int y = random.nextInt(4000);
+            for (int i = 0; i < POINTS_PER_STROKE; i++) {
+                x += random.nextInt(7) - 3;
+                y += random.nextInt(7) - 3;
+                points.add(new Point(x, y));
+            }
+            strokes.add(points);
+        }
+        return strokes;
+    }
+
+    private static List<PointBuffer> pointBuffers() {
+        Random random = new Random(1);
+        List<PointBuffer> strokes = new ArrayList<>(STROKES);
+        for (int s = 0; s < STROKES; s++) {
+            PointBuffer points = new PointBuffer();
+            int x = random.nextInt(4000);
+            int y = random.nextInt(4000);
+            for (int i = 0; i < POINTS_PER_STROKE; i++) {
+                x += random.nextInt(7) - 3;
+                y += random.nextInt(7) - 3;
+                points.add(x, y);
+            }
+            strokes.add(points);
+        }
+        return strokes;
+    }
+
+    private static long measure(String label, Supplier<?> factory) {
+        long before = usedHeapAfterGc();
+        Object data = factory.get();
+        long after = usedHeapAfterGc();
+        long bytes = after - before;
+        if (!label.equals("warm-up")) {
+            System.out.printf("%-12s %,d points: %,d bytes (%.1f MB, %.1f bytes/point)%n", label,
+                    STROKES * POINTS_PER_STROKE, bytes, bytes / (1024.0 * 1024.0),
+                    bytes / (double) (STROKES * POINTS_PER_STROKE));
+        }
+        if (data.hashCode() == 42) {
+            System.out.print(""); // giữ data sống tới sau lần đo
+        }
+        return bytes;
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
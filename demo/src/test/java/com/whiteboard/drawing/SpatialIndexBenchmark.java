@@ -0,0 +1,120 @@
+package com.whiteboard.drawing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Độ trễ hit-test (findShapeAt) và culling theo viewport qua {@link SpatialIndex} so với quét
+ * tuyến tính mọi shape như trước, trên board 8000x8000 có 1k/10k/100k shape (1/3 là nét bút chì).
+ *   mvn -Pbench test-compile exec:exec -Dbench.args="SpatialIndexBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpatialIndexBenchmark {
+    private static final int BOARD_SIZE = 8000;
+    private static final int QUERIES = 1024;
+
+    @Param({"1000", "10000", "100000"})
+    public int shapes;
+
+    private LayerManager layerManager;
+    private List<Shape> allShapes;
+    private int[] queryX;
+    private int[] queryY;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(1);
+        layerManager = new LayerManager();
+        List<Shape> created = new ArrayList<>(shapes);
+        for (int i = 0; i < shapes; i++) {
+            created.add(createShape(random, i));
+        }
+        layerManager.addShapesToActiveLayer(created);
+        allShapes = layerManager.getActiveLayer().shapes;
+        layerManager.findShapeAt(0, 0); // dựng index trước khi đo
+        queryX = new int[QUERIES];
+        queryY = new int[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queryX[i] = random.nextInt(BOARD_SIZE);
+            queryY[i] = random.nextInt(BOARD_SIZE);
+        }
+    }
+
+    @Benchmark
+    public Shape findShapeAtIndexed() {
+        int i = next++ & (QUERIES - 1);
+        return layerManager.findShapeAt(queryX[i], queryY[i]);
+    }
+
+    @Benchmark
+    public Shape findShapeAtLinear() {
+        int i = next++ & (QUERIES - 1);
+        for (int j = allShapes.size() - 1; j >= 0; j--) {
+            Shape shape = allShapes.get(j);
+            if (shape.contains(queryX[i], queryY[i])) {
+                return shape;
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public List<Shape> viewportIndexed() {
+        int i = next++ & (QUERIES - 1);
+        return layerManager.queryShapes(new Rectangle(queryX[i], queryY[i], 1200, 800));
+    }
+
+    @Benchmark
+    public List<Shape> viewportLinear() {
+        int i = next++ & (QUERIES - 1);
+        Rectangle viewport = new Rectangle(queryX[i], queryY[i], 1200, 800);
+        List<Shape> visible = new ArrayList<>();
+        for (Shape shape : allShapes) {
+            if (shape.getBounds().intersects(viewport)) {
+                visible.add(shape);
+            }
+        }
+        return visible;
+    }
+
+    private static Shape createShape(Random random, int i) {
+        int x = random.nextInt(BOARD_SIZE);
+        int y = random.nextInt(BOARD_SIZE);
+        if (i % 3 == 0) {
+            Shape shape = new Shape(Shape.ShapeType.FREE_DRAW, x, y, x, y, Color.BLACK, 1 + random.nextInt(5), "p");
+            for (int k = 0; k < 50; k++) {
+                x += random.nextInt(11) - 5;
+                y += random.nextInt(11) - 5;
+                shape.freeDrawPoints.add(x, y);
+            }
+            shape.x2 = x;
+            shape.y2 = y;
+            return shape;
+        }
+        Shape.ShapeType type = i % 3 == 1 ? Shape.ShapeType.RECTANGLE : Shape.ShapeType.LINE;
+        return new Shape(type, x, y, x + random.nextInt(200), y + random.nextInt(200), Color.BLACK, 2, "p");
+    }
+}
@@ -0,0 +1,100 @@
+package com.whiteboard.drawing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vẽ 10k nét bút chì lên ảnh offscreen 2000x2000: {@link Shape#draw(Graphics2D)} (một lệnh
+ * draw(Path2D) đã cache cho mỗi nét) so với cách cũ một drawLine mỗi đoạn và một BasicStroke
+ * mới mỗi lần vẽ. Chạy cả khi bật và tắt antialiasing.
+ *   mvn -Pbench test-compile exec:exec -Dbench.args="StrokeRenderBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Djava.awt.headless=true")
+public class StrokeRenderBenchmark {
+    private static final int STROKES = 10_000;
+    private static final int POINTS_PER_STROKE = 60;
+    private static final int SIZE = 2000;
+
+    @Param({"true", "false"})
+    public boolean antialiasing;
+
+    private List<Shape> strokes;
+    private BufferedImage image;
+    private Graphics2D graphics;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(7);
+        strokes = new ArrayList<>(STROKES);
+        for (int s = 0; s < STROKES; s++) {
+            int x = random.nextInt(SIZE);
+            int y = random.nextInt(SIZE);
+            Shape shape = new Shape(Shape.ShapeType.FREE_DRAW, x, y, x, y,
+                    new Color(random.nextInt(0xFFFFFF)), 1 + random.nextInt(4), "p");
+            for (int i = 0; i < POINTS_PER_STROKE; i++) {
+                x += random.nextInt(9) - 4;
+                y += random.nextInt(9) - 4;
+                shape.freeDrawPoints.add(x, y);
+            }
+            shape.x2 = x;
+            shape.y2 = y;
+            strokes.add(shape);
+        }
+        image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+        graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, antialiasing
+                ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage cachedPath() {
+        for (Shape shape : strokes) {
+            shape.draw(graphics);
+        }
+        return image;
+    }
+
+    @Benchmark
+    public BufferedImage lineSegments() {
+        for (Shape shape : strokes) {
+            graphics.setColor(shape.color);
+            graphics.setStroke(new BasicStroke(shape.strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            PointBuffer points = shape.freeDrawPoints;
+            for (int i = 1; i < points.size(); i++) {
+                graphics.drawLine(points.getX(i - 1), points.getY(i - 1), points.getX(i), points.getY(i));
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,90 @@
+package com.whiteboard.drawing;
+
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Cache tile: viewport nhiều layer không tự loại tile của chính nó, tile trống không chiếm
+ * chỗ trong LRU, và zoom về mức cũ dùng lại tile đã raster hoá.
+ */
+public class TileCacheTest {
+    private static final int VIEW = 1024;
+
+    @Test
+    public void manyLayersDoNotThrashTheirOwnTiles() {
+        TileCache cache = new TileCache((g, shape, alpha) -> shape.draw(g), 16);
+        List<LayerManager.Layer> layers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            layers.add(filledLayer("L" + i));
+        }
+        ZoomManager zoom = new ZoomManager();
+
+        int first = paintFrame(cache, layers, zoom);
+        // 4 layer x 16 tile vượt maxTiles=16 nhưng frame sau không phải raster hoá lại
+        assertEquals(4 * 16, cache.getTileCount());
+        assertEquals(0, paintFrame(cache, layers, zoom));
+        assertTrue(first > 0);
+    }
+
+    @Test
+    public void emptyTilesAreTrackedSeparately() {
+        TileCache cache = new TileCache((g, shape, alpha) -> shape.draw(g), 16);
+        LayerManager.Layer layer = new LayerManager.Layer("L");
+        layer.addShape(new Shape(Shape.ShapeType.LINE, 10, 10, 20, 20, Color.BLACK, 2, "p1"));
+        ZoomManager zoom = new ZoomManager();
+
+        paintFrame(cache, List.of(layer), zoom);
+        assertEquals(1, cache.getTileCount());
+        assertEquals(15, cache.getEmptyTileCount());
+    }
+
+    @Test
+    public void zoomingBackReusesTiles() {
+        TileCache cache = new TileCache((g, shape, alpha) -> shape.draw(g), 64);
+        List<LayerManager.Layer> layers = List.of(filledLayer("L"));
+        ZoomManager zoom = new ZoomManager();
+
+        paintFrame(cache, layers, zoom);
+        zoom.zoomIn();
+        paintFrame(cache, layers, zoom);
+        zoom.zoomOut();
+        assertEquals(0, paintFrame(cache, layers, zoom));
+    }
+
+    private static int paintFrame(TileCache cache, List<LayerManager.Layer> layers, ZoomManager zoom) {
+        BufferedImage target = new BufferedImage(VIEW, VIEW, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = target.createGraphics();
+        try {
+            cache.beginFrame();
+            int rendered = 0;
+            for (LayerManager.Layer layer : layers) {
+                rendered += cache.paintLayer(g, layer, new Rectangle(0, 0, VIEW, VIEW), zoom);
+            }
+            return rendered;
+        } finally {
+            g.dispose();
+        }
+    }
+
+    /**
+     * Layer có một đường chéo trong mỗi tile 256x256 của viewport (ở zoom 1).
+     */
+    private static LayerManager.Layer filledLayer(String name) {
+        LayerManager.Layer layer = new LayerManager.Layer(name);
+        for (int y = 0; y < VIEW; y += TileCache.TILE_SIZE) {
+            for (int x = 0; x < VIEW; x += TileCache.TILE_SIZE) {
+                layer.addShape(new Shape(Shape.ShapeType.LINE, x + 64, y + 64, x + 192, y + 192, Color.BLACK, 2, "p1"));
+            }
+        }
+        return layer;
+    }
+}
@@ -0,0 +1,212 @@
+package com.whiteboard.network;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Frame [length][type][payload]: ngưỡng nén, frame type lạ, frame cụt / length rác, và preamble
+ * giữa hai đầu STREAM, hai đầu NIO và một đầu mỗi loại qua loopback.
+ */
+public class FrameCodecTest {
+
+    @After
+    public void resetTransport() {
+        System.clearProperty("network.transport");
+    }
+
+    @Test
+    public void deflatesOnlyFromThreshold() throws IOException {
+        NetworkProtocol.Message message = chat("x".repeat(2000));
+        FrameCodec.Frame plain = FrameCodec.encode(message, 0);
+        assertEquals(FrameCodec.TYPE_WIRE, plain.type);
+        int size = plain.payload.length;
+
+        FrameCodec.Frame below = FrameCodec.encode(message, size + 1);
+        assertEquals(FrameCodec.TYPE_WIRE, below.type);
+        assertArrayEquals(plain.payload, below.payload);
+
+        FrameCodec.Frame at = FrameCodec.encode(message, size);
+        assertEquals(FrameCodec.TYPE_WIRE | FrameCodec.FLAG_DEFLATE, at.type);
+        assertTrue(at.payload.length < size);
+        assertEquals(message.toString(), FrameCodec.decode(at.type, at.payload).toString());
+        assertEquals("x".repeat(2000), ((NetworkProtocol.ChatMessage) FrameCodec.decode(at.type, at.payload).data).text);
+    }
+
+    @Test
+    public void keepsPlainFrameWhenDeflateDoesNotShrink() throws IOException {
+        // Ngưỡng 1: payload ngắn nén ra dài hơn nên giữ nguyên
+        NetworkProtocol.Message message = chat("a");
+        FrameCodec.Frame frame = FrameCodec.encode(message, 1);
+        assertEquals(FrameCodec.TYPE_WIRE, frame.type);
+        assertEquals("a", ((NetworkProtocol.ChatMessage) FrameCodec.decode(frame.type, frame.payload).data).text);
+    }
+
+    @Test
+    public void skipsUnknownFrameType() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        FrameCodec.write(out, new FrameCodec.Frame((byte) 0x17, new byte[] {1, 2, 3}));
+        FrameCodec.write(out, FrameCodec.encode(chat("after")));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        FrameCodec.Frame unknown = FrameCodec.read(in);
+        assertNull(FrameCodec.decode(unknown.type, unknown.payload));
+        FrameCodec.Frame next = FrameCodec.read(in);
+        assertEquals("after", ((NetworkProtocol.ChatMessage) FrameCodec.decode(next.type, next.payload).data).text);
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedFrameFailsRead() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        FrameCodec.write(new DataOutputStream(bytes), FrameCodec.encode(chat("truncated")));
+        byte[] whole = bytes.toByteArray();
+        byte[] cut = new byte[whole.length - 3];
+        System.arraycopy(whole, 0, cut, 0, cut.length);
+        FrameCodec.read(new DataInputStream(new ByteArrayInputStream(cut)));
+    }
+
+    @Test
+    public void truncatedCompressedPayloadIsRejected() throws IOException {
+        FrameCodec.Frame frame = FrameCodec.encode(chat("y".repeat(2000)), 1);
+        assertEquals(FrameCodec.TYPE_WIRE | FrameCodec.FLAG_DEFLATE, frame.type);
+        expectIOException(() -> FrameCodec.decode(frame.type, new byte[] {0, 0}));
+        byte[] cut = new byte[frame.payload.length / 2];
+        System.arraycopy(frame.payload, 0, cut, 0, cut.length);
+        expectIOException(() -> FrameCodec.decode(frame.type, cut));
+    }
+
+    @Test
+    public void oversizeLengthPrefixIsRejected() {
+        for (int length : new int[] {FrameCodec.MAX_FRAME_SIZE + 1, Integer.MAX_VALUE, 0, -1}) {
+            byte[] bytes = ByteBuffer.allocate(FrameCodec.HEADER_SIZE).putInt(length).put(FrameCodec.TYPE_WIRE).array();
+            expectIOException(() -> FrameCodec.read(new DataInputStream(new ByteArrayInputStream(bytes))));
+        }
+        // Độ dài gốc khai trong payload nén cũng bị chặn trước khi cấp phát
+        byte[] payload = ByteBuffer.allocate(FrameCodec.LENGTH_SIZE + 1).putInt(FrameCodec.MAX_FRAME_SIZE + 1).array();
+        expectIOException(() -> FrameCodec.decode((byte) (FrameCodec.TYPE_WIRE | FrameCodec.FLAG_DEFLATE), payload));
+    }
+
+    @Test
+    public void preambleExchangeBetweenStreamPeers() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            Socket client = new Socket("127.0.0.1", server.getLocalPort());
+            exchange(client, server.accept());
+        }
+    }
+
+    @Test
+    public void preambleExchangeBetweenNioPeers() throws Exception {
+        System.setProperty("network.transport", "NIO");
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0))) {
+            SocketChannel client = SocketChannel.open(server.getLocalAddress());
+            exchange(client.socket(), server.accept().socket());
+        }
+    }
+
+    @Test
+    public void preambleExchangeBetweenNioAndStreamPeers() throws Exception {
+        // Socket thường luôn dùng stream transport, socket có channel dùng NIO
+        System.setProperty("network.transport", "NIO");
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0))) {
+            InetSocketAddress address = (InetSocketAddress) server.getLocalAddress();
+            Socket client = new Socket("127.0.0.1", address.getPort());
+            exchange(client, server.accept().socket());
+        }
+    }
+
+    /**
+     * Mở hai đầu song song (stream transport chờ preamble của bên kia), trao HELLO rồi gửi một CHAT
+     * lớn (qua ngưỡng nén) và một CHAT nhỏ theo mỗi chiều.
+     */
+    private static void exchange(Socket clientSocket, Socket serverSocket) throws Exception {
+        CompletableFuture<PeerConnection> serverSide = CompletableFuture.supplyAsync(() -> {
+            try {
+                return PeerConnection.open(serverSocket, "client");
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        PeerConnection client = PeerConnection.open(clientSocket, "server");
+        PeerConnection server = serverSide.get(5, TimeUnit.SECONDS);
+        try {
+            BlockingQueue<NetworkProtocol.Message> atClient = receive(client);
+            BlockingQueue<NetworkProtocol.Message> atServer = receive(server);
+            client.sendMessage(hello("client"));
+            server.sendMessage(hello("server"));
+            assertEquals(NetworkProtocol.MessageType.HELLO, poll(atClient).type);
+            assertEquals(NetworkProtocol.MessageType.HELLO, poll(atServer).type);
+            assertEquals(NetworkProtocol.PROTOCOL_VERSION, client.getRemoteProtocolVersion());
+            assertEquals(NetworkProtocol.PROTOCOL_VERSION, server.getRemoteProtocolVersion());
+
+            String large = "z".repeat(20000);
+            client.sendMessage(chat(large));
+            client.sendMessage(chat("small"));
+            server.sendMessage(chat(large));
+            assertEquals(large, ((NetworkProtocol.ChatMessage) poll(atServer).data).text);
+            assertEquals("small", ((NetworkProtocol.ChatMessage) poll(atServer).data).text);
+            assertEquals(large, ((NetworkProtocol.ChatMessage) poll(atClient).data).text);
+            assertTrue(client.isConnected() && server.isConnected());
+        } finally {
+            client.disconnect();
+            server.disconnect();
+        }
+    }
+
+    private static BlockingQueue<NetworkProtocol.Message> receive(PeerConnection connection) {
+        BlockingQueue<NetworkProtocol.Message> received = new LinkedBlockingQueue<>();
+        connection.setMessageHandler(received::add);
+        return received;
+    }
+
+    private static NetworkProtocol.Message poll(BlockingQueue<NetworkProtocol.Message> queue) throws InterruptedException {
+        NetworkProtocol.Message message = queue.poll(5, TimeUnit.SECONDS);
+        assertNotNull("message not delivered", message);
+        return message;
+    }
+
+    private static NetworkProtocol.Message hello(String senderId) {
+        return new NetworkProtocol.Message(NetworkProtocol.MessageType.HELLO, senderId, NetworkProtocol.PROTOCOL_VERSION);
+    }
+
+    private static NetworkProtocol.Message chat(String text) {
+        return new NetworkProtocol.Message(NetworkProtocol.MessageType.CHAT, "p1",
+                new NetworkProtocol.ChatMessage("p1", "Peer", text));
+    }
+
+    private interface IoAction {
+        void run() throws IOException;
+    }
+
+    private static void expectIOException(IoAction action) {
+        try {
+            action.run();
+            fail("expected IOException");
+        } catch (IOException expected) {
+            // ok
+        }
+    }
+}
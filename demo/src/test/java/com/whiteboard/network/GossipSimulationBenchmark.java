@@ -0,0 +1,122 @@
+package com.whiteboard.network;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mô phỏng overlay GOSSIP qua loopback: N MessageHandler trong cùng JVM, nối thành đồ thị ngẫu
+ * nhiên liên thông (mỗi peer một cạnh tới peer trước đó, cộng thêm vài cạnh ngẫu nhiên), rồi
+ * các peer ngẫu nhiên lần lượt gửi M tin CHAT.
+ *
+ * In ra số tin tới được mỗi peer, độ trễ p50/p99 từ lúc gửi tới lúc peer nhận lần đầu, và tỉ lệ
+ * trùng lặp: phần bản CHAT nhận qua socket bị MessageHandler lọc vì đã nhận từ hàng xóm khác.
+ * Callback trùng (cùng tin báo lên UI hai lần) phải là 0.
+ *   mvn -Pbench test-compile exec:exec -Dbench.main=com.whiteboard.network.GossipSimulationBenchmark -Dbench.args="20 3 50"
+ */
+public class GossipSimulationBenchmark {
+    public static void main(String[] args) throws Exception {
+        int peers = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int links = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int messages = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        if (System.getProperty("log.level") == null) {
+            System.setProperty("log.level", "WARNING");
+        }
+        Random random = new Random(1);
+
+        MessageHandler[] handlers = new MessageHandler[peers];
+        ServerSocket[] servers = new ServerSocket[peers];
+        Set<String> delivered = ConcurrentHashMap.newKeySet();
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicInteger duplicateCallbacks = new AtomicInteger();
+        for (int i = 0; i < peers; i++) {
+            handlers[i] = new MessageHandler("p" + i);
+            handlers[i].setTopology(NetworkProtocol.Topology.GOSSIP);
+            servers[i] = PeerConnection.openServerSocket();
+            int peer = i;
+            handlers[i].setOnChatReceived(chat -> {
+                long now = System.nanoTime();
+                if (!delivered.add(peer + "/" + chat.text)) {
+                    duplicateCallbacks.incrementAndGet();
+                    return;
+                }
+                // text = "m<index>:<nanoTime lúc gửi>", cùng JVM nên so được với nanoTime
+                long sentAt = Long.parseLong(chat.text.substring(chat.text.indexOf(':') + 1));
+                latency.record((now - sentAt) / 1000);
+            });
+        }
+
+        Set<String> edges = new HashSet<>();
+        for (int i = 1; i < peers; i++) {
+            connect(handlers, servers, i, random.nextInt(i), edges);
+            for (int k = 1; k < links; k++) {
+                int j = random.nextInt(peers);
+                if (j != i) {
+                    connect(handlers, servers, i, j, edges);
+                }
+            }
+        }
+        Thread.sleep(1500); // HELLO + SYNC giữa các cặp
+
+        long chatBefore = chatReceived();
+        for (int m = 0; m < messages; m++) {
+            int source = random.nextInt(peers);
+            handlers[source].broadcastChat("m" + m + ":" + System.nanoTime(), "p" + source, "Sim");
+            Thread.sleep(20);
+        }
+        Thread.sleep(2000);
+
+        long copies = chatReceived() - chatBefore;
+        long expected = (long) messages * (peers - 1);
+        System.out.printf("GOSSIP: peers=%d edges=%d messages=%d delivered=%d/%d%n",
+                peers, edges.size(), messages, latency.getCount(), expected);
+        System.out.printf("  latency: p50=%.2fms p99=%.2fms max=%.2fms%n", latency.percentile(50) / 1000.0,
+                latency.percentile(99) / 1000.0, latency.getMax() / 1000.0);
+        System.out.printf("  duplicates: %.1f%% of %d received copies (%.2f copies per delivery), "
+                + "duplicate callbacks=%d%n",
+                copies == 0 ? 0 : 100.0 * (copies - latency.getCount()) / copies, copies,
+                latency.getCount() == 0 ? 0 : copies / (double) latency.getCount(), duplicateCallbacks.get());
+        System.exit(0);
+    }
+
+    private static void connect(MessageHandler[] handlers, ServerSocket[] servers, int i, int j, Set<String> edges)
+            throws Exception {
+        if (!edges.add(Math.min(i, j) + "-" + Math.max(i, j))) {
+            return;
+        }
+        Socket socket = PeerConnection.connect("127.0.0.1", servers[j].getLocalPort());
+        Socket accepted = servers[j].accept();
+        // open() có thể chờ preamble của bên kia: mở hai đầu song song
+        CompletableFuture<PeerConnection> remote = CompletableFuture.supplyAsync(() -> {
+            try {
+                return PeerConnection.open(accepted, "p" + i);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        PeerConnection local = PeerConnection.open(socket, "p" + j);
+        PeerConnection other = remote.get();
+        handlers[i].addConnection(local);
+        handlers[j].addConnection(other);
+        local.sendMessage(new NetworkProtocol.Message(NetworkProtocol.MessageType.HELLO, "p" + i,
+                NetworkProtocol.PROTOCOL_VERSION));
+        other.sendMessage(new NetworkProtocol.Message(NetworkProtocol.MessageType.HELLO, "p" + j,
+                NetworkProtocol.PROTOCOL_VERSION));
+    }
+
+    /**
+     * Tổng số tin CHAT mọi kết nối trong JVM đã nhận (kể cả bản trùng bị lọc).
+     */
+    private static long chatReceived() {
+        long total = 0;
+        for (NetworkMetrics.PeerStats stats : NetworkMetrics.get().getPeers()) {
+            total += stats.getMessagesReceived(NetworkProtocol.MessageType.CHAT);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,151 @@
+package com.whiteboard.network;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test loopback cho IoExecutor: mở N kết nối peer tới một server (2N PeerConnection trong
+ * cùng JVM), mỗi client gửi M tin CHAT, đo độ trễ một chiều client -> server, số thread và RSS.
+ *
+ * Không có tham số thread.mode thì chạy lần lượt PLATFORM và VIRTUAL, mỗi chế độ một JVM con
+ * (IoExecutor là singleton). VIRTUAL cần Java 21+, JVM cũ hơn lùi về PLATFORM và in ra như vậy.
+ *   mvn -Pbench test-compile exec:exec -Dbench.main=com.whiteboard.network.LoopbackLoadBenchmark -Dbench.args="300 20"
+ */
+public class LoopbackLoadBenchmark {
+    private static final String[] MODES = {"PLATFORM", "VIRTUAL"};
+
+    public static void main(String[] args) throws Exception {
+        int peers = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        if (System.getProperty("thread.mode") == null) {
+            for (String mode : MODES) {
+                runChild(mode, peers, messages);
+            }
+            return;
+        }
+        run(peers, messages);
+        System.exit(0);
+    }
+
+    private static void runChild(String mode, int peers, int messages) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "-Dthread.mode=" + mode, "-Dlog.level=WARNING", LoopbackLoadBenchmark.class.getName(),
+                String.valueOf(peers), String.valueOf(messages))
+                .inheritIO()
+                .start();
+        process.waitFor();
+    }
+
+    private static void run(int peers, int messages) throws Exception {
+        int baseThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        long baseRss = rssKb();
+        List<Long> latency = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch received = new CountDownLatch(peers * messages);
+
+        ServerSocket server = PeerConnection.openServerSocket();
+        List<PeerConnection> serverSide = new ArrayList<>();
+        List<PeerConnection> clients = new ArrayList<>();
+        long setupStart = System.nanoTime();
+        for (int i = 0; i < peers; i++) {
+            String clientId = "client-" + i;
+            Socket socket = PeerConnection.connect("127.0.0.1", server.getLocalPort());
+            Socket acceptedSocket = server.accept();
+            // open() có thể chờ preamble của bên kia: mở hai đầu song song
+            CompletableFuture<PeerConnection> pendingClient = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return PeerConnection.open(socket, "server");
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            PeerConnection accepted = PeerConnection.open(acceptedSocket, clientId);
+            accepted.setMessageHandler(message -> {
+                if (message.type == NetworkProtocol.MessageType.CHAT) {
+                    latency.add((System.nanoTime() - message.timestamp) / 1000);
+                    received.countDown();
+                }
+            });
+            serverSide.add(accepted);
+            PeerConnection client = pendingClient.get();
+            client.sendMessage(new NetworkProtocol.Message(NetworkProtocol.MessageType.HELLO, clientId,
+                    NetworkProtocol.PROTOCOL_VERSION));
+            clients.add(client);
+        }
+        long setupMillis = (System.nanoTime() - setupStart) / 1_000_000;
+        Thread.sleep(500);
+        int connectedThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        long connectedRss = rssKb();
+
+        // Mỗi vòng mọi client gửi một tin, cách nhau 20 ms như nhịp bút vẽ
+        for (int m = 0; m < messages; m++) {
+            for (int i = 0; i < clients.size(); i++) {
+                NetworkProtocol.Message message = new NetworkProtocol.Message(NetworkProtocol.MessageType.CHAT,
+                        "client-" + i, new NetworkProtocol.ChatMessage("client-" + i, "Load", "m" + m));
+                message.timestamp = System.nanoTime(); // cùng JVM nên dùng nanoTime làm mốc gửi
+                clients.get(i).sendMessage(message);
+            }
+            Thread.sleep(20);
+        }
+        boolean complete = received.await(30, TimeUnit.SECONDS);
+        int peakThreads = ManagementFactory.getThreadMXBean().getPeakThreadCount();
+
+        System.out.printf("%s threads: peers=%d messages=%d/%d%s setup=%dms%n",
+                IoExecutor.get().isVirtual() ? "VIRTUAL" : "PLATFORM", peers,
+                peers * messages - received.getCount(), peers * messages, complete ? "" : " (timeout)", setupMillis);
+        System.out.printf("  threads: idle=%d connected=%d peak=%d%n", baseThreads, connectedThreads, peakThreads);
+        System.out.printf("  rss: idle=%s connected=%s%n", formatKb(baseRss), formatKb(connectedRss));
+        long[] sorted;
+        synchronized (latency) {
+            sorted = latency.stream().mapToLong(Long::longValue).sorted().toArray();
+        }
+        System.out.printf("  latency: p50=%.2fms p99=%.2fms max=%.2fms%n", percentile(sorted, 50) / 1000.0,
+                percentile(sorted, 99) / 1000.0, percentile(sorted, 100) / 1000.0);
+
+        for (PeerConnection connection : clients) {
+            connection.disconnect();
+        }
+        for (PeerConnection connection : serverSide) {
+            connection.disconnect();
+        }
+        server.close();
+    }
+
+    private static long percentile(long[] sorted, int p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.max(0, (int) Math.ceil(sorted.length * p / 100.0) - 1)];
+    }
+
+    /**
+     * VmRSS của process (Linux); -1 nếu không đọc được.
+     */
+    private static long rssKb() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", ""));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // không phải Linux
+        }
+        return -1;
+    }
+
+    private static String formatKb(long kb) {
+        return kb < 0 ? "n/a" : String.format("%.1fMB", kb / 1024.0);
+    }
+}
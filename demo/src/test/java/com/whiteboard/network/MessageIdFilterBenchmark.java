@@ -0,0 +1,54 @@
+package com.whiteboard.network;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chi phí ghi nhận Message.id đã gửi của PeerConnection: MessageIdFilter so với
+ * ConcurrentHashMap<Long, Long> (cách làm trước đó). Mỗi lần gọi là một id mới, thời gian giả lập
+ * tăng 5 ms mỗi message (200 message/giây) nên vòng bucket của filter quay như khi chạy thật.
+ *
+ * gc.alloc.rate.norm của -prof gc phải xấp xỉ 0 B/op với markSent:
+ *   mvn -Pbench test-compile exec:exec -Dbench.args="MessageIdFilterBenchmark -prof gc"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageIdFilterBenchmark {
+    private static final long PEER_TAG = 0xABCDL << 32;
+    // Map không có hạn dùng: xoá hết khi quá cỡ này để bộ nhớ không tăng mãi
+    private static final int MAP_LIMIT = 100_000;
+
+    private final MessageIdFilter filter = new MessageIdFilter();
+    private final Map<Long, Long> map = new ConcurrentHashMap<>();
+    private long counter;
+
+    @Benchmark
+    public boolean markSent() {
+        long n = ++counter;
+        return filter.markSent(PEER_TAG | n, n * 5);
+    }
+
+    @Benchmark
+    public boolean concurrentMap() {
+        long n = ++counter;
+        if (map.size() >= MAP_LIMIT) {
+            map.clear();
+        }
+        return map.putIfAbsent(PEER_TAG | n, n * 5) == null;
+    }
+}
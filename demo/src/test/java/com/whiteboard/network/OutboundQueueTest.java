@@ -0,0 +1,84 @@
+package com.whiteboard.network;
+
+import com.whiteboard.network.NetworkProtocol.BoardOp;
+import com.whiteboard.network.NetworkProtocol.MessageType;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Chính sách bỏ message của hàng đợi ghi: preview bỏ trước, ADD/UPDATE bỏ khi cần resync,
+ * DELETE/CLEAR và message ESSENTIAL giữ lại tới giới hạn cứng.
+ */
+public class OutboundQueueTest {
+
+    @Test
+    public void classifiesBoardOpsByKind() {
+        assertEquals(OutboundQueue.Policy.STATE, OutboundQueue.policyOf(ops(BoardOp.Kind.ADD, BoardOp.Kind.UPDATE)));
+        assertEquals(OutboundQueue.Policy.ESSENTIAL, OutboundQueue.policyOf(ops(BoardOp.Kind.ADD, BoardOp.Kind.DELETE)));
+        assertEquals(OutboundQueue.Policy.ESSENTIAL, OutboundQueue.policyOf(ops(BoardOp.Kind.CLEAR)));
+        assertEquals(OutboundQueue.Policy.PREVIEW, OutboundQueue.policyOf(message(MessageType.STROKE_APPEND)));
+        assertEquals(OutboundQueue.Policy.ESSENTIAL, OutboundQueue.policyOf(message(MessageType.CHAT)));
+    }
+
+    @Test
+    public void resyncDiscardsUpdatesButKeepsDeletes() throws IOException {
+        OutboundQueue queue = new OutboundQueue(2, 4, 100);
+        assertFalse(queue.offer(message(MessageType.STROKE_APPEND)));
+        assertFalse(queue.offer(ops(BoardOp.Kind.ADD)));
+        assertFalse(queue.offer(ops(BoardOp.Kind.DELETE)));
+        assertFalse(queue.offer(ops(BoardOp.Kind.UPDATE)));
+        // Quá previewLimit: preview đang chờ bị bỏ, preview mới không được nhận
+        assertFalse(queue.offer(message(MessageType.STROKE_BEGIN)));
+        assertFalse(queue.offer(ops(BoardOp.Kind.CLEAR)));
+        assertEquals(4, queue.size());
+        // Tới resyncLimit: ADD/UPDATE bị bỏ và bên gửi được báo resync, DELETE/CLEAR vẫn còn
+        assertTrue(queue.offer(ops(BoardOp.Kind.ADD)));
+        assertEquals(1, queue.getResyncs());
+
+        List<NetworkProtocol.Message> pending = new ArrayList<>();
+        queue.drainTo(pending, 10);
+        assertEquals(2, pending.size());
+        assertEquals(BoardOp.Kind.DELETE, ((NetworkProtocol.BoardOpData) pending.get(0).data).ops.get(0).kind);
+        assertEquals(BoardOp.Kind.CLEAR, ((NetworkProtocol.BoardOpData) pending.get(1).data).ops.get(0).kind);
+    }
+
+    @Test
+    public void essentialLimitRejectsInsteadOfGrowing() throws IOException {
+        OutboundQueue queue = new OutboundQueue(2, 4, 8);
+        for (int i = 0; i < 8; i++) {
+            queue.offer(message(MessageType.CHAT));
+        }
+        try {
+            queue.offer(ops(BoardOp.Kind.DELETE));
+            fail("expected IOException at the essential limit");
+        } catch (IOException expected) {
+            // ok
+        }
+        assertEquals(8, queue.size());
+        // Writer lấy bớt thì nhận tiếp được
+        queue.poll();
+        queue.offer(message(MessageType.CHAT));
+        assertEquals(8, queue.size());
+    }
+
+    private static NetworkProtocol.Message ops(BoardOp.Kind... kinds) {
+        List<BoardOp> ops = new ArrayList<>();
+        long stamp = 1;
+        for (BoardOp.Kind kind : kinds) {
+            ops.add(new BoardOp(kind, kind == BoardOp.Kind.CLEAR ? null : "p1", 7, 0, null, stamp++, "p1"));
+        }
+        return new NetworkProtocol.Message(MessageType.BOARD_OPS, "p1", new NetworkProtocol.BoardOpData(ops));
+    }
+
+    private static NetworkProtocol.Message message(MessageType type) {
+        return new NetworkProtocol.Message(type, "p1", null);
+    }
+}
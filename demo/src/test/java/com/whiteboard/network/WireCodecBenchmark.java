@@ -0,0 +1,139 @@
+package com.whiteboard.network;
+
+import com.whiteboard.drawing.PointBuffer;
+import com.whiteboard.drawing.Shape;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * So sánh WireCodec với Java serialization (đường cũ của PeerConnection) cho các message điển
+ * hình: một nét bút chì 200 điểm, một lô SHAPES 50 hình, một tin CHAT.
+ *
+ * ns/op là điểm của benchmark; bytes/op gồm cỡ message đã encode (in ra lúc setup) và bộ nhớ
+ * cấp phát mỗi lần gọi (gc.alloc.rate.norm của -prof gc):
+ *   mvn -Pbench test-compile exec:exec -Dbench.args="WireCodecBenchmark -prof gc"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireCodecBenchmark {
+    @Param({"STROKE", "SHAPES", "CHAT"})
+    public String kind;
+
+    private NetworkProtocol.Message message;
+    private byte[] wireBytes;
+    private byte[] serializedBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        message = createMessage(kind);
+        wireBytes = WireCodec.encode(message);
+        serializedBytes = serialize(message);
+        System.out.println();
+        System.out.println("[WireCodecBenchmark] " + kind + ": wire=" + wireBytes.length
+                + " bytes, serialized=" + serializedBytes.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] encodeWire() {
+        return WireCodec.encode(message);
+    }
+
+    @Benchmark
+    public byte[] encodeSerialized() throws IOException {
+        return serialize(message);
+    }
+
+    @Benchmark
+    public NetworkProtocol.Message decodeWire() throws IOException {
+        return WireCodec.decode(wireBytes);
+    }
+
+    @Benchmark
+    public Object decodeSerialized() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serializedBytes))) {
+            return in.readObject();
+        }
+    }
+
+    static NetworkProtocol.Message createMessage(String kind) {
+        Random random = new Random(42);
+        switch (kind) {
+            case "STROKE": {
+                List<Shape> shapes = new ArrayList<>();
+                shapes.add(freeDraw(random, 200));
+                return new NetworkProtocol.Message(NetworkProtocol.MessageType.SHAPES, "peer-bench",
+                        new NetworkProtocol.ShapeData(shapes, 1));
+            }
+            case "SHAPES": {
+                Shape.ShapeType[] types = {Shape.ShapeType.LINE, Shape.ShapeType.RECTANGLE,
+                        Shape.ShapeType.CIRCLE, Shape.ShapeType.ELLIPSE};
+                List<Shape> shapes = new ArrayList<>();
+                for (int i = 0; i < 50; i++) {
+                    if (i % 5 == 0) {
+                        shapes.add(freeDraw(random, 40));
+                    } else {
+                        int x = random.nextInt(1200);
+                        int y = random.nextInt(800);
+                        shapes.add(new Shape(types[i % types.length], x, y, x + random.nextInt(200),
+                                y + random.nextInt(200), new Color(random.nextInt(0xFFFFFF)), 3, "peer-bench"));
+                    }
+                }
+                return new NetworkProtocol.Message(NetworkProtocol.MessageType.SHAPES, "peer-bench",
+                        new NetworkProtocol.ShapeData(shapes, 1));
+            }
+            case "CHAT":
+                return new NetworkProtocol.Message(NetworkProtocol.MessageType.CHAT, "peer-bench",
+                        new NetworkProtocol.ChatMessage("peer-bench", "Alice", "Mọi người xem lại sơ đồ này nhé"));
+            default:
+                throw new IllegalArgumentException(kind);
+        }
+    }
+
+    private static Shape freeDraw(Random random, int points) {
+        int x = random.nextInt(1000);
+        int y = random.nextInt(700);
+        Shape shape = new Shape(Shape.ShapeType.FREE_DRAW, x, y, x, y, Color.BLUE, 2, "peer-bench");
+        shape.freeDrawPoints = new PointBuffer(points);
+        for (int i = 0; i < points; i++) {
+            x += random.nextInt(7) - 3;
+            y += random.nextInt(7) - 3;
+            shape.freeDrawPoints.add(x, y);
+        }
+        shape.x2 = x;
+        shape.y2 = y;
+        return shape;
+    }
+
+    private static byte[] serialize(NetworkProtocol.Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        return bytes.toByteArray();
+    }
+}
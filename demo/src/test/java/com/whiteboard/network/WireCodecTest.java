@@ -0,0 +1,299 @@
+package com.whiteboard.network;
+
+import com.whiteboard.drawing.PointBuffer;
+import com.whiteboard.drawing.Shape;
+import com.whiteboard.network.NetworkProtocol.BoardOp;
+import com.whiteboard.network.NetworkProtocol.MessageType;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Mọi MessageType encode rồi decode ra đúng message ban đầu; dữ liệu cụt, số phần tử âm hoặc
+ * quá lớn, version / type lạ đều bị từ chối bằng IOException.
+ */
+public class WireCodecTest {
+
+    @Test
+    public void everyMessageTypeRoundTrips() throws IOException {
+        Map<MessageType, NetworkProtocol.Message> samples = samples();
+        assertEquals(MessageType.values().length, samples.size());
+        for (NetworkProtocol.Message message : samples.values()) {
+            byte[] bytes = WireCodec.encode(message);
+            assertNotNull(message.type + " not encodable", bytes);
+            NetworkProtocol.Message decoded = WireCodec.decode(bytes);
+            assertEquals(message.type, decoded.type);
+            assertEquals(message.senderId, decoded.senderId);
+            assertEquals(message.timestamp, decoded.timestamp);
+            assertEquals(message.id, decoded.id);
+            assertEquals(message.ttl, decoded.ttl);
+            // Mọi field đều nằm trong bytes: encode lại phải ra đúng bytes cũ
+            assertArrayEquals(message.type + " changed on round trip", bytes, WireCodec.encode(decoded));
+        }
+    }
+
+    @Test
+    public void shapeKeepsEveryField() throws IOException {
+        Shape shape = polygon();
+        NetworkProtocol.Message decoded = roundTrip(new NetworkProtocol.Message(MessageType.SHAPES, "p1",
+                new NetworkProtocol.ShapeData(List.of(shape, freeDraw()), 42)));
+        NetworkProtocol.ShapeData data = (NetworkProtocol.ShapeData) decoded.data;
+        assertEquals(42, data.version);
+        assertEquals(2, data.shapes.size());
+
+        Shape s = data.shapes.get(0);
+        assertEquals(Shape.ShapeType.POLYGON, s.type);
+        assertEquals(-5, s.x1);
+        assertEquals(-7, s.y1);
+        assertEquals(300, s.x2);
+        assertEquals(200, s.y2);
+        assertEquals(shape.color, s.color);
+        assertEquals(shape.fillColor, s.fillColor);
+        assertTrue(s.useGradient);
+        assertEquals(shape.gradientTo, s.gradientTo);
+        assertArrayEquals(shape.polyX, s.polyX);
+        assertArrayEquals(shape.polyY, s.polyY);
+        assertEquals(6, s.polySides);
+        assertEquals(1.5f, s.rotation, 0f);
+        assertEquals("chữ", s.text);
+        assertEquals("Serif", s.fontName);
+        assertEquals(18, s.fontSize);
+        assertEquals(2, s.fontStyle);
+        assertEquals(1, s.textAlign);
+        assertEquals(shape.timestamp, s.timestamp);
+        assertEquals("p1", s.peerId);
+        assertEquals(shape.id, s.id);
+        assertNull(s.freeDrawPoints);
+
+        PointBuffer points = data.shapes.get(1).freeDrawPoints;
+        assertEquals(3, points.size());
+        assertEquals(-4, points.getX(2));
+        assertEquals(9, points.getY(2));
+    }
+
+    @Test
+    public void strokeAndTraceRoundTrip() throws IOException {
+        NetworkProtocol.Message message = new NetworkProtocol.Message(MessageType.STROKE_APPEND, "p1",
+                new NetworkProtocol.StrokeData("p1", 0x1234_5678_9ABC_DEF0L, 7, new int[]{3, -2, -40, 0}, null));
+        message.ttl = 3;
+        message.trace = new NetworkProtocol.Trace(99, 1_700_000_000_000L, 0);
+        message.trace.enqueueMicros = 150;
+        message.trace.writeMicros = 420;
+
+        NetworkProtocol.Message decoded = roundTrip(message);
+        NetworkProtocol.StrokeData stroke = (NetworkProtocol.StrokeData) decoded.data;
+        assertEquals(0x1234_5678_9ABC_DEF0L, stroke.strokeId);
+        assertEquals(7, stroke.baseIndex);
+        assertArrayEquals(new int[]{3, -2, -40, 0}, stroke.deltas);
+        assertNull(stroke.shape);
+        assertEquals(3, decoded.ttl);
+        assertEquals(99, decoded.trace.traceId);
+        assertEquals(1_700_000_000_000L, decoded.trace.originMillis);
+        assertEquals(150, decoded.trace.enqueueMicros);
+        assertEquals(420, decoded.trace.writeMicros);
+    }
+
+    @Test
+    public void boardOpsAndSyncChunkRoundTrip() throws IOException {
+        NetworkProtocol.SyncChunk chunk = new NetworkProtocol.SyncChunk(boardOps(), 2, true, 4, 4);
+        chunk.versionVector = Map.of("p1", 500L, "p2", 17L);
+        NetworkProtocol.SyncChunk decoded = (NetworkProtocol.SyncChunk) roundTrip(
+                new NetworkProtocol.Message(MessageType.SYNC_RESPONSE, "p1", chunk)).data;
+        assertEquals(2, decoded.index);
+        assertTrue(decoded.last);
+        assertEquals(4, decoded.done);
+        assertEquals(4, decoded.total);
+        assertEquals(chunk.versionVector, decoded.versionVector);
+
+        List<BoardOp> ops = decoded.ops;
+        assertEquals(4, ops.size());
+        for (int i = 0; i < ops.size(); i++) {
+            BoardOp expected = chunk.ops.get(i);
+            BoardOp actual = ops.get(i);
+            assertEquals(expected.kind, actual.kind);
+            assertEquals(expected.shapeId, actual.shapeId);
+            assertEquals(expected.properties, actual.properties);
+            assertEquals(expected.stamp, actual.stamp);
+            assertEquals(expected.origin, actual.origin);
+            assertEquals(expected.prev, actual.prev);
+            assertEquals(expected.shape != null, actual.shape != null);
+        }
+        // peerId của shape lấy lại từ shape; op không mang shape thì không có
+        assertEquals("p1", ops.get(0).shapePeerId);
+        assertNull(ops.get(2).shapePeerId);
+
+        // Phần giữa chừng không mang vector
+        NetworkProtocol.SyncChunk middle = (NetworkProtocol.SyncChunk) roundTrip(new NetworkProtocol.Message(
+                MessageType.SYNC_RESPONSE, "p1", new NetworkProtocol.SyncChunk(List.of(), 0, false, 0, 4))).data;
+        assertFalse(middle.last);
+        assertNull(middle.versionVector);
+    }
+
+    @Test
+    public void peerListKeepsTopologyAndHost() throws IOException {
+        @SuppressWarnings("unchecked")
+        List<NetworkProtocol.PeerInfo> peers = (List<NetworkProtocol.PeerInfo>) roundTrip(
+                samples().get(MessageType.PEER_LIST)).data;
+        assertEquals(2, peers.size());
+        assertEquals(NetworkProtocol.Topology.STAR, peers.get(0).topology);
+        assertTrue(peers.get(0).isHost);
+        assertEquals("secret", peers.get(0).roomPassword);
+        assertEquals(5000, peers.get(0).port);
+        assertNull(peers.get(1).topology);
+        assertFalse(peers.get(1).isHost);
+        assertNull(peers.get(1).roomId);
+    }
+
+    @Test
+    public void unsupportedDataIsNotEncoded() {
+        assertNull(WireCodec.encode(new NetworkProtocol.Message(MessageType.CHAT, "p1", new Object())));
+        assertNull(WireCodec.encode(new NetworkProtocol.Message(MessageType.CHAT, "p1", List.of("not a peer"))));
+    }
+
+    @Test
+    public void truncatedInputIsRejected() {
+        for (NetworkProtocol.Message message : samples().values()) {
+            byte[] bytes = WireCodec.encode(message);
+            for (int length = 0; length < bytes.length; length++) {
+                assertRejected(message.type + " cut at " + length, Arrays.copyOf(bytes, length));
+            }
+        }
+    }
+
+    @Test
+    public void negativeAndOversizedCountsAreRejected() {
+        // Các message dưới đây kết thúc bằng số phần tử (0): thay bằng số âm / số quá lớn
+        List<NetworkProtocol.Message> emptyLists = List.of(
+                new NetworkProtocol.Message(MessageType.SHAPES, "p1", new NetworkProtocol.ShapeData(List.of(), 1)),
+                new NetworkProtocol.Message(MessageType.PEER_LIST, "p1", new ArrayList<NetworkProtocol.PeerInfo>()),
+                new NetworkProtocol.Message(MessageType.BOARD_OPS, "p1", new NetworkProtocol.BoardOpData(List.of())),
+                new NetworkProtocol.Message(MessageType.SYNC_REQUEST, "p1", new NetworkProtocol.SyncRequest(Map.of())));
+        for (NetworkProtocol.Message message : emptyLists) {
+            byte[] bytes = WireCodec.encode(message);
+            assertEquals(0, bytes[bytes.length - 1]);
+            for (int count : new int[]{-1, Integer.MIN_VALUE, Integer.MAX_VALUE, 1 << 20}) {
+                assertRejected(message.type + " count " + count, withCount(bytes, count));
+            }
+        }
+    }
+
+    @Test
+    public void unknownVersionAndTypeAreRejected() {
+        byte[] bytes = WireCodec.encode(samples().get(MessageType.CHAT));
+        byte[] version = bytes.clone();
+        version[0] = (byte) (WireCodec.VERSION + 1);
+        assertRejected("version", version);
+        version[0] = 0;
+        assertRejected("version 0", version);
+
+        byte[] type = bytes.clone();
+        type[1] = (byte) MessageType.values().length;
+        assertRejected("type", type);
+    }
+
+    private static void assertRejected(String what, byte[] bytes) {
+        try {
+            WireCodec.decode(bytes);
+            fail(what + ": expected IOException");
+        } catch (IOException expected) {
+            // ok
+        }
+    }
+
+    private static byte[] withCount(byte[] bytes, int count) {
+        WireCodec.Out out = new WireCodec.Out(8);
+        out.varint(count);
+        byte[] varint = out.toByteArray();
+        byte[] patched = Arrays.copyOf(bytes, bytes.length - 1 + varint.length);
+        System.arraycopy(varint, 0, patched, bytes.length - 1, varint.length);
+        return patched;
+    }
+
+    private static NetworkProtocol.Message roundTrip(NetworkProtocol.Message message) throws IOException {
+        return WireCodec.decode(WireCodec.encode(message));
+    }
+
+    private static Map<MessageType, NetworkProtocol.Message> samples() {
+        Map<MessageType, NetworkProtocol.Message> samples = new EnumMap<>(MessageType.class);
+        add(samples, MessageType.HELLO, NetworkProtocol.PROTOCOL_VERSION);
+        add(samples, MessageType.SHAPES, new NetworkProtocol.ShapeData(List.of(polygon(), freeDraw()), 42));
+        add(samples, MessageType.CHAT, new NetworkProtocol.ChatMessage("p1", "Peer", "xin chào"));
+        add(samples, MessageType.ACK, 3);
+        // Vector một phần tử: thứ tự duyệt map không cố định nên so bytes chỉ đúng với một phần tử
+        // (vector nhiều phần tử được so bằng equals trong boardOpsAndSyncChunkRoundTrip)
+        add(samples, MessageType.SYNC_REQUEST, new NetworkProtocol.SyncRequest(Map.of("p1", 10L)));
+        NetworkProtocol.SyncChunk chunk = new NetworkProtocol.SyncChunk(boardOps(), 0, true, 4, 4);
+        chunk.versionVector = Map.of("p1", 30L);
+        add(samples, MessageType.SYNC_RESPONSE, chunk);
+        add(samples, MessageType.CLEAR, null);
+        add(samples, MessageType.UNDO, null);
+        NetworkProtocol.PeerInfo host = new NetworkProtocol.PeerInfo("p1", "Host", "10.0.0.1", "room", 5000);
+        host.roomPassword = "secret";
+        host.topology = NetworkProtocol.Topology.STAR;
+        host.isHost = true;
+        add(samples, MessageType.PEER_LIST, new ArrayList<>(List.of(host,
+                new NetworkProtocol.PeerInfo("p2", "Guest", "10.0.0.2"))));
+        add(samples, MessageType.DISCONNECT, "bye");
+        add(samples, MessageType.STROKE_BEGIN, new NetworkProtocol.StrokeData("p1", 77, 0, null, freeDraw()));
+        add(samples, MessageType.STROKE_APPEND, new NetworkProtocol.StrokeData("p1", 77, 3, new int[]{1, -1, 5, 8}, null));
+        add(samples, MessageType.BOARD_OPS, new NetworkProtocol.BoardOpData(boardOps()));
+        samples.get(MessageType.STROKE_APPEND).trace = new NetworkProtocol.Trace(5, 1000, 0);
+        samples.get(MessageType.BOARD_OPS).ttl = 4;
+        return samples;
+    }
+
+    private static void add(Map<MessageType, NetworkProtocol.Message> samples, MessageType type, Object data) {
+        samples.put(type, new NetworkProtocol.Message(type, "p1", data));
+    }
+
+    private static List<BoardOp> boardOps() {
+        Shape shape = polygon();
+        return List.of(
+                new BoardOp(BoardOp.Kind.ADD, "p1", shape.id, 0, shape, 1000, "p1", 0),
+                new BoardOp(BoardOp.Kind.UPDATE, "p1", shape.id, 0b101, shape.clone(), 1005, "p1", 1000),
+                new BoardOp(BoardOp.Kind.DELETE, "p1", shape.id, 0, null, 1010, "p2"),
+                new BoardOp(BoardOp.Kind.CLEAR, null, 0, 0, null, 1020, "p2", 1010));
+    }
+
+    private static Shape polygon() {
+        Shape shape = new Shape(Shape.ShapeType.POLYGON, -5, -7, 300, 200, new Color(10, 20, 30, 128), 4, "p1");
+        shape.id = 0x0A0B_0C0D_0000_0042L;
+        shape.freeDrawPoints = null;
+        shape.polyX = new int[]{0, 50, -25};
+        shape.polyY = new int[]{0, 10, 90};
+        shape.polySides = 6;
+        shape.rotation = 1.5f;
+        shape.fillColor = Color.ORANGE;
+        shape.useGradient = true;
+        shape.gradientTo = Color.BLUE;
+        shape.text = "chữ";
+        shape.fontName = "Serif";
+        shape.fontSize = 18;
+        shape.fontStyle = 2;
+        shape.textAlign = 1;
+        return shape;
+    }
+
+    private static Shape freeDraw() {
+        Shape shape = new Shape(Shape.ShapeType.FREE_DRAW, 1, 1, Color.BLACK, 2, "p1");
+        shape.id = 77;
+        shape.freeDrawPoints.add(1, 1);
+        shape.freeDrawPoints.add(6, -3);
+        shape.freeDrawPoints.add(-4, 9);
+        return shape;
+    }
+}
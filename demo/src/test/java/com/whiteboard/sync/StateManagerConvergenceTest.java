@@ -0,0 +1,203 @@
+package com.whiteboard.sync;
+
+import com.whiteboard.drawing.Shape;
+import com.whiteboard.network.NetworkProtocol.BoardOp;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Fuzz có seed cố định: nhiều replica thao tác đồng thời, op tới nơi lệch thứ tự, trùng lặp, và
+ * một replica vào sau dựng lại từ snapshot; mọi replica phải hội tụ về cùng một trạng thái.
+ */
+public class StateManagerConvergenceTest {
+    private static final int SEEDS = 300;
+    private static final int REPLICAS = 3;
+    private static final int STEPS = 200;
+
+    @Test
+    public void replicasConvergeUnderShuffledAndDuplicatedDelivery() {
+        for (long seed = 0; seed < SEEDS; seed++) {
+            Random random = new Random(seed);
+            StateManager[] replicas = new StateManager[REPLICAS];
+            List<List<BoardOp>> inboxes = new ArrayList<>();
+            for (int i = 0; i < REPLICAS; i++) {
+                replicas[i] = new StateManager("p" + i);
+                inboxes.add(new ArrayList<>());
+            }
+            for (int step = 0; step < STEPS; step++) {
+                int i = random.nextInt(REPLICAS);
+                deliverSome(replicas[i], inboxes.get(i), random);
+                BoardOp op = randomLocalOp(replicas[i], "p" + i, random);
+                for (int j = 0; j < REPLICAS; j++) {
+                    if (j != i) {
+                        inboxes.get(j).add(op);
+                    }
+                }
+            }
+            for (int i = 0; i < REPLICAS; i++) {
+                replicas[i].apply(inboxes.get(i));
+            }
+
+            StateManager joiner = new StateManager("joiner");
+            joiner.apply(materialize(replicas[1], replicas[1].snapshot()));
+
+            String expected = dump(replicas[0]);
+            for (int i = 1; i < REPLICAS; i++) {
+                assertEquals("replica p" + i + " diverged, seed " + seed, expected, dump(replicas[i]));
+            }
+            assertEquals("snapshot joiner diverged, seed " + seed, expected, dump(joiner));
+        }
+    }
+
+    /**
+     * Op live bị mất hoặc tới lệch thứ tự; anti-entropy bằng deltaSince theo version vector
+     * (có lúc đứt giữa chừng) phải lấp đủ chỗ thiếu.
+     */
+    @Test
+    public void deltaSyncRepairsLostAndReorderedOps() {
+        for (long seed = 0; seed < SEEDS; seed++) {
+            Random random = new Random(seed);
+            StateManager[] replicas = new StateManager[REPLICAS];
+            List<List<BoardOp>> inboxes = new ArrayList<>();
+            for (int i = 0; i < REPLICAS; i++) {
+                replicas[i] = new StateManager("p" + i);
+                inboxes.add(new ArrayList<>());
+            }
+            for (int step = 0; step < STEPS; step++) {
+                int i = random.nextInt(REPLICAS);
+                deliverSome(replicas[i], inboxes.get(i), random);
+                BoardOp op = randomLocalOp(replicas[i], "p" + i, random);
+                for (int j = 0; j < REPLICAS; j++) {
+                    if (j != i && random.nextInt(4) != 0) { // 1/4 op live bị mất
+                        inboxes.get(j).add(op);
+                    }
+                }
+                if (random.nextInt(10) == 0) {
+                    int from = random.nextInt(REPLICAS);
+                    if (from != i) {
+                        sync(replicas[i], replicas[from], random.nextInt(3) != 0, random);
+                    }
+                }
+            }
+            for (int i = 0; i < REPLICAS; i++) {
+                deliverSome(replicas[i], inboxes.get(i), random);
+            }
+            for (int round = 0; round < 2; round++) {
+                for (int i = 0; i < REPLICAS; i++) {
+                    for (int j = 0; j < REPLICAS; j++) {
+                        if (i != j) {
+                            sync(replicas[i], replicas[j], true, random);
+                        }
+                    }
+                }
+            }
+
+            String expected = dump(replicas[0]);
+            for (int i = 1; i < REPLICAS; i++) {
+                assertEquals("replica p" + i + " diverged after delta sync, seed " + seed,
+                        expected, dump(replicas[i]));
+            }
+        }
+    }
+
+    /**
+     * Op của p0 tới p1 sau op kế tiếp của nó: version vector của p1 không được vượt qua op còn thiếu.
+     */
+    @Test
+    public void versionVectorStopsAtGap() {
+        StateManager p0 = new StateManager("p0");
+        StateManager p1 = new StateManager("p1");
+        Shape first = new Shape(Shape.ShapeType.LINE, 1, 1, 5, 5, Color.BLACK, 1, "p0");
+        Shape second = new Shape(Shape.ShapeType.LINE, 2, 2, 5, 5, Color.BLACK, 1, "p0");
+        BoardOp firstOp = p0.localAdd(first);
+        BoardOp secondOp = p0.localAdd(second);
+
+        p1.apply(List.of(secondOp));
+        assertEquals(null, p1.getVersionVector().get("p0"));
+        assertEquals(1, p0.deltaSince(p1.getVersionVector()).stream()
+                .filter(op -> op.shapeId == first.id).count());
+
+        p1.apply(List.of(firstOp));
+        assertEquals(Long.valueOf(secondOp.stamp), p1.getVersionVector().get("p0"));
+        assertEquals(dump(p0), dump(p1));
+    }
+
+    /**
+     * target hỏi source như SYNC_REQUEST / SYNC_RESPONSE; complete = false là kết nối đứt giữa chừng.
+     */
+    private static void sync(StateManager target, StateManager source, boolean complete, Random random) {
+        List<BoardOp> plan = source.deltaSince(target.getVersionVector());
+        Map<String, Long> vector = source.getVersionVector();
+        if (complete) {
+            target.apply(materialize(source, plan));
+            target.markSynced(vector);
+        } else {
+            target.apply(materialize(source, plan.subList(0, random.nextInt(plan.size() + 1))));
+        }
+    }
+
+    /**
+     * Giao một phần ngẫu nhiên của hộp thư theo thứ tự xáo trộn, đôi khi lặp lại một op.
+     */
+    private static void deliverSome(StateManager replica, List<BoardOp> inbox, Random random) {
+        Collections.shuffle(inbox, random);
+        int count = random.nextInt(inbox.size() + 1);
+        List<BoardOp> batch = new ArrayList<>(inbox.subList(0, count));
+        inbox.subList(0, count).clear();
+        if (!batch.isEmpty() && random.nextInt(5) == 0) {
+            batch.add(batch.get(random.nextInt(batch.size())));
+        }
+        replica.apply(batch);
+    }
+
+    private static BoardOp randomLocalOp(StateManager replica, String peerId, Random random) {
+        int kind = random.nextInt(20);
+        List<Shape> live = replica.getAllShapes();
+        if (kind < 9 || live.isEmpty()) {
+            Shape shape = new Shape(Shape.ShapeType.LINE, random.nextInt(100), random.nextInt(100), 5, 5,
+                    Color.BLACK, 1, peerId);
+            shape.id = replica.nextShapeId();
+            return replica.localAdd(shape);
+        }
+        Shape target = live.get(random.nextInt(live.size()));
+        if (kind < 16) {
+            target.x1 = random.nextInt(1000);
+            target.color = new Color(random.nextInt());
+            target.text = "t" + random.nextInt(9);
+            return replica.localUpdate(target, 1 + random.nextInt(StateManager.ALL_PROPERTIES));
+        }
+        if (kind < 19) {
+            return replica.localDelete(target);
+        }
+        return replica.localClear();
+    }
+
+    static List<BoardOp> materialize(StateManager source, List<BoardOp> ops) {
+        List<BoardOp> result = new ArrayList<>();
+        for (BoardOp op : ops) {
+            BoardOp materialized = source.materialize(op);
+            if (materialized != null) {
+                result.add(materialized);
+            }
+        }
+        return result;
+    }
+
+    static String dump(StateManager replica) {
+        List<String> lines = new ArrayList<>();
+        for (Shape shape : replica.getAllShapes()) {
+            lines.add(shape.peerId + "@" + shape.id + ":" + shape.x1 + "," + shape.y1 + ","
+                    + shape.color.getRGB() + "," + shape.text);
+        }
+        Collections.sort(lines);
+        return lines.toString();
+    }
+}